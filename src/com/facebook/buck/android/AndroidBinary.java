@@ -224,6 +224,8 @@ public class AndroidBinary
   private final ManifestEntries manifestEntries;
   @AddToRuleKey
   private final JavaRuntimeLauncher javaRuntimeLauncher;
+  @AddToRuleKey
+  private final ApkWriterMode apkWriterMode;
 
   AndroidBinary(
       BuildRuleParams params,
@@ -254,7 +256,8 @@ public class AndroidBinary
       Optional<Boolean> packageAssetLibraries,
       Optional<Boolean> compressAssetLibraries,
       ManifestEntries manifestEntries,
-      JavaRuntimeLauncher javaRuntimeLauncher) {
+      JavaRuntimeLauncher javaRuntimeLauncher,
+      ApkWriterMode apkWriterMode) {
     super(params, resolver);
     this.proguardJarOverride = proguardJarOverride;
     this.proguardMaxHeapSize = proguardMaxHeapSize;
@@ -284,6 +287,7 @@ public class AndroidBinary
     this.packageAssetLibraries = packageAssetLibraries;
     this.compressAssetLibraries = compressAssetLibraries;
     this.manifestEntries = manifestEntries;
+    this.apkWriterMode = apkWriterMode;
 
     if (ExopackageMode.enabledForSecondaryDexes(exopackageModes)) {
       Preconditions.checkArgument(enhancementResult.getPreDexMerge().isPresent(),
@@ -359,6 +363,19 @@ public class AndroidBinary
     return javaRuntimeLauncher;
   }
 
+  ApkWriterMode getApkWriterMode() {
+    return apkWriterMode;
+  }
+
+  /**
+   * APKs updated in place depend on whatever APK was built before, not just on the rule key, so
+   * they must not be shared through the cache.
+   */
+  @Override
+  public boolean isCacheable() {
+    return apkWriterMode != ApkWriterMode.INCREMENTAL;
+  }
+
   @VisibleForTesting
   AndroidGraphEnhancementResult getEnhancementResult() {
     return enhancementResult;
@@ -567,6 +584,36 @@ public class AndroidBinary
         .addAll(dexFilesInfo.secondaryDexDirs)
         .build();
 
+    ImmutableSet<Path> jarFilesThatMayContainResources =
+        FluentIterable.from(packageableCollection.getPathsToThirdPartyJars())
+            .transform(getResolver().deprecatedPathFunction())
+            .toSet();
+    Path pathToKeystore = getResolver().getAbsolutePath(keystore.getPathToStore());
+    Path pathToKeystorePropertiesFile =
+        getResolver().getAbsolutePath(keystore.getPathToPropertiesFile());
+
+    if (apkWriterMode != ApkWriterMode.APKBUILDER) {
+      // Assemble, sign and align the APK in one step, compressing the resources file as we go.
+      steps.add(
+          new ApkWriterStep(
+              getProjectFilesystem(),
+              enhancementResult.getAaptPackageResources().getResourceApkPath(),
+              getApkPath(),
+              dexFilesInfo.primaryDexPath,
+              allAssetDirectories,
+              nativeLibraryDirectories,
+              zipFiles.build(),
+              jarFilesThatMayContainResources,
+              pathToKeystore,
+              pathToKeystorePropertiesFile,
+              isCompressResources() ?
+                  ImmutableSet.of("resources.arsc") :
+                  ImmutableSet.<String>of(),
+              /* updateInPlace */ apkWriterMode == ApkWriterMode.INCREMENTAL));
+      buildableContext.recordArtifact(getApkPath());
+      return steps.build();
+    }
+
     ApkBuilderStep apkBuilderCommand = new ApkBuilderStep(
         getProjectFilesystem(),
         enhancementResult.getAaptPackageResources().getResourceApkPath(),
@@ -575,11 +622,9 @@ public class AndroidBinary
         allAssetDirectories,
         nativeLibraryDirectories,
         zipFiles.build(),
-        FluentIterable.from(packageableCollection.getPathsToThirdPartyJars())
-            .transform(getResolver().deprecatedPathFunction())
-            .toSet(),
-        getResolver().getAbsolutePath(keystore.getPathToStore()),
-        getResolver().getAbsolutePath(keystore.getPathToPropertiesFile()),
+        jarFilesThatMayContainResources,
+        pathToKeystore,
+        pathToKeystorePropertiesFile,
         /* debugMode */ false,
         javaRuntimeLauncher);
     steps.add(apkBuilderCommand);
@@ -101,6 +101,7 @@ public class AndroidBinaryDescription
   private final CxxBuckConfig cxxBuckConfig;
   private final ImmutableMap<TargetCpuType, NdkCxxPlatform> nativePlatforms;
   private final ListeningExecutorService dxExecutorService;
+  private final ApkWriterMode apkWriterMode;
 
   public AndroidBinaryDescription(
       JavaOptions javaOptions,
@@ -108,13 +109,15 @@ public class AndroidBinaryDescription
       ProGuardConfig proGuardConfig,
       ImmutableMap<TargetCpuType, NdkCxxPlatform> nativePlatforms,
       ListeningExecutorService dxExecutorService,
-      CxxBuckConfig cxxBuckConfig) {
+      CxxBuckConfig cxxBuckConfig,
+      ApkWriterMode apkWriterMode) {
     this.javaOptions = javaOptions;
     this.javacOptions = javacOptions;
     this.proGuardConfig = proGuardConfig;
     this.cxxBuckConfig = cxxBuckConfig;
     this.nativePlatforms = nativePlatforms;
     this.dxExecutorService = dxExecutorService;
+    this.apkWriterMode = apkWriterMode;
   }
 
   @Override
@@ -290,7 +293,8 @@ public class AndroidBinaryDescription
         args.packageAssetLibraries,
         args.compressAssetLibraries,
         args.manifestEntries.or(ManifestEntries.empty()),
-        javaOptions.getJavaRuntimeLauncher());
+        javaOptions.getJavaRuntimeLauncher(),
+        apkWriterMode);
   }
 
   private DexSplitMode createDexSplitMode(Arg args, EnumSet<ExopackageMode> exopackageModes) {
@@ -80,6 +80,15 @@ public class AndroidBuckConfig {
     return delegate.getEnum("ndk", "cxx_runtime", NdkCxxPlatforms.CxxRuntime.class);
   }
 
+  /**
+   * Returns how {@code android_binary} rules assemble their APKs. Unless set, the Android SDK's
+   * apkbuilder and zipalign tools are used.
+   */
+  public ApkWriterMode getApkWriterMode() {
+    return delegate.getEnum("android", "apk_writer", ApkWriterMode.class)
+        .or(ApkWriterMode.APKBUILDER);
+  }
+
   /**
    * Returns the path to the platform specific aapt executable that is overridden by the current
    * project. If not specified, the Android platform aapt will be used.
@@ -86,7 +86,8 @@ public class AndroidInstrumentationApk extends AndroidBinary {
         Optional.<Boolean>absent(),
         Optional.<Boolean>absent(),
         apkUnderTest.getManifestEntries(),
-        apkUnderTest.getJavaRuntimeLauncher());
+        apkUnderTest.getJavaRuntimeLauncher(),
+        apkUnderTest.getApkWriterMode());
     this.apkUnderTest = apkUnderTest;
   }
 
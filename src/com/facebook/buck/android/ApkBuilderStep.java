@@ -123,7 +123,10 @@ public class ApkBuilderStep implements Step {
     }
 
     try {
-      PrivateKeyAndCertificate privateKeyAndCertificate = createKeystoreProperties();
+      PrivateKeyAndCertificate privateKeyAndCertificate = loadPrivateKeyAndCertificate(
+          filesystem,
+          pathToKeystore,
+          pathToKeystorePropertiesFile);
       ApkBuilder builder = new ApkBuilder(
           filesystem.getPathForRelativePath(pathToOutputApkFile).toFile(),
           filesystem.getPathForRelativePath(resourceApk).toFile(),
@@ -170,7 +173,10 @@ public class ApkBuilderStep implements Step {
     return StepExecutionResult.SUCCESS;
   }
 
-  private PrivateKeyAndCertificate createKeystoreProperties()
+  static PrivateKeyAndCertificate loadPrivateKeyAndCertificate(
+      ProjectFilesystem filesystem,
+      Path pathToKeystore,
+      Path pathToKeystorePropertiesFile)
       throws CertificateException,
           IOException,
           KeyStoreException,
@@ -251,9 +257,9 @@ public class ApkBuilderStep implements Step {
     return Joiner.on(' ').join(args.build());
   }
 
-  private static class PrivateKeyAndCertificate {
-    private final PrivateKey privateKey;
-    private final X509Certificate certificate;
+  static class PrivateKeyAndCertificate {
+    final PrivateKey privateKey;
+    final X509Certificate certificate;
 
     PrivateKeyAndCertificate(PrivateKey privateKey, X509Certificate certificate) {
       this.privateKey = privateKey;
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+
+/**
+ * Creates the files that sign an APK the way {@code jarsigner} does: a manifest with the SHA-1
+ * digest of every entry, a signature file with the digests of the manifest and of each of its
+ * sections, and a PKCS #7 block holding the signature of the signature file and the certificate.
+ * These are the files that {@code SignedJarBuilder} in the Android SDK tools writes.
+ */
+class ApkSigner {
+
+  static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+  static final String DIGEST_ATTRIBUTE = "SHA1-Digest";
+
+  private static final String SIGNATURE_FILE_NAME = "META-INF/CERT.SF";
+  private static final String SIGNATURE_BLOCK_NAME_PREFIX = "META-INF/CERT.";
+  private static final String CREATED_BY = "Created-By: 1.0 (Android)";
+
+  // DER encodings of the ASN.1 values the signature block is made of.
+  private static final int DER_INTEGER = 0x02;
+  private static final int DER_OCTET_STRING = 0x04;
+  private static final int DER_SEQUENCE = 0x30;
+  private static final int DER_SET = 0x31;
+  private static final int DER_CONTEXT_SPECIFIC_0 = 0xa0;
+  private static final byte[] DER_NULL = {0x05, 0x00};
+  private static final byte[] DER_VERSION_1 = {DER_INTEGER, 0x01, 0x01};
+  // 1.3.14.3.2.26
+  private static final byte[] OID_SHA1 = {0x06, 0x05, 0x2b, 0x0e, 0x03, 0x02, 0x1a};
+  // 1.2.840.113549.1.7.1
+  private static final byte[] OID_DATA =
+      {0x06, 0x09, 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01, 0x07, 0x01};
+  // 1.2.840.113549.1.7.2
+  private static final byte[] OID_SIGNED_DATA =
+      {0x06, 0x09, 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01, 0x07, 0x02};
+  private static final ImmutableMap<String, byte[]> KEY_ALGORITHM_OIDS = ImmutableMap.of(
+      // 1.2.840.113549.1.1.1
+      "RSA",
+      new byte[] {
+          0x06, 0x09, 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01, 0x01, 0x01},
+      // 1.2.840.10040.4.1
+      "DSA",
+      new byte[] {0x06, 0x07, 0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x38, 0x04, 0x01});
+
+  private final PrivateKey privateKey;
+  private final X509Certificate certificate;
+
+  ApkSigner(PrivateKey privateKey, X509Certificate certificate) {
+    this.privateKey = privateKey;
+    this.certificate = certificate;
+  }
+
+  /**
+   * @return the SHA-1 digest of the contents of an entry, in the form the manifest records it.
+   */
+  static String encodeDigest(byte[] digest) {
+    return BaseEncoding.base64().encode(digest);
+  }
+
+  /**
+   * @param entryDigests the encoded SHA-1 digest of every entry of the APK, by entry name.
+   * @return the contents of the signature files to add to the APK, by entry name, in the order
+   *     they should be added.
+   */
+  ImmutableMap<String, byte[]> createSignatureFiles(Map<String, String> entryDigests)
+      throws GeneralSecurityException, IOException {
+    String keyAlgorithm = privateKey.getAlgorithm();
+    byte[] keyAlgorithmOid = KEY_ALGORITHM_OIDS.get(keyAlgorithm);
+    if (keyAlgorithmOid == null) {
+      throw new NoSuchAlgorithmException(
+          String.format("Cannot sign APKs with %s keys.", keyAlgorithm));
+    }
+
+    ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+    writeLine(manifest, "Manifest-Version: 1.0");
+    writeLine(manifest, CREATED_BY);
+    writeLine(manifest, "");
+
+    ByteArrayOutputStream signatureFileSections = new ByteArrayOutputStream();
+    for (Map.Entry<String, String> entry : entryDigests.entrySet()) {
+      ByteArrayOutputStream section = new ByteArrayOutputStream();
+      writeLine(section, "Name: " + entry.getKey());
+      writeLine(section, DIGEST_ATTRIBUTE + ": " + entry.getValue());
+      writeLine(section, "");
+      section.writeTo(manifest);
+
+      writeLine(signatureFileSections, "Name: " + entry.getKey());
+      writeLine(
+          signatureFileSections,
+          DIGEST_ATTRIBUTE + ": " + encodeDigest(sha1(section.toByteArray())));
+      writeLine(signatureFileSections, "");
+    }
+
+    ByteArrayOutputStream signatureFile = new ByteArrayOutputStream();
+    writeLine(signatureFile, "Signature-Version: 1.0");
+    writeLine(signatureFile, CREATED_BY);
+    writeLine(
+        signatureFile,
+        "SHA1-Digest-Manifest: " + encodeDigest(sha1(manifest.toByteArray())));
+    writeLine(signatureFile, "");
+    signatureFileSections.writeTo(signatureFile);
+
+    Signature signature = Signature.getInstance("SHA1with" + keyAlgorithm);
+    signature.initSign(privateKey);
+    signature.update(signatureFile.toByteArray());
+
+    return ImmutableMap.of(
+        MANIFEST_NAME,
+        manifest.toByteArray(),
+        SIGNATURE_FILE_NAME,
+        signatureFile.toByteArray(),
+        SIGNATURE_BLOCK_NAME_PREFIX + keyAlgorithm,
+        createSignatureBlock(keyAlgorithmOid, signature.sign()));
+  }
+
+  /**
+   * @return a PKCS #7 {@code ContentInfo} with {@code SignedData} that has no content of its own,
+   *     the signing certificate and a single {@code SignerInfo}.
+   */
+  private byte[] createSignatureBlock(byte[] keyAlgorithmOid, byte[] signature)
+      throws GeneralSecurityException {
+    byte[] digestAlgorithm = der(DER_SEQUENCE, OID_SHA1, DER_NULL);
+    byte[] signerInfo = der(
+        DER_SEQUENCE,
+        DER_VERSION_1,
+        der(
+            DER_SEQUENCE,
+            certificate.getIssuerX500Principal().getEncoded(),
+            der(DER_INTEGER, certificate.getSerialNumber().toByteArray())),
+        digestAlgorithm,
+        der(DER_SEQUENCE, keyAlgorithmOid, DER_NULL),
+        der(DER_OCTET_STRING, signature));
+    byte[] signedData = der(
+        DER_SEQUENCE,
+        DER_VERSION_1,
+        der(DER_SET, digestAlgorithm),
+        der(DER_SEQUENCE, OID_DATA),
+        der(DER_CONTEXT_SPECIFIC_0, certificate.getEncoded()),
+        der(DER_SET, signerInfo));
+    return der(DER_SEQUENCE, OID_SIGNED_DATA, der(DER_CONTEXT_SPECIFIC_0, signedData));
+  }
+
+  private static byte[] der(int tag, byte[]... contents) {
+    int length = 0;
+    for (byte[] content : contents) {
+      length += content.length;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+    out.write(tag);
+    if (length < 0x80) {
+      out.write(length);
+    } else {
+      int lengthBytes = (Integer.SIZE - Integer.numberOfLeadingZeros(length) + 7) / 8;
+      out.write(0x80 | lengthBytes);
+      for (int i = lengthBytes - 1; i >= 0; i--) {
+        out.write(length >>> (i * 8));
+      }
+    }
+    for (byte[] content : contents) {
+      out.write(content, 0, content.length);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Writes a manifest line, continuing it on the next lines if it is longer than the 72 bytes
+   * manifests allow, as {@link java.util.jar.Manifest} does.
+   */
+  private static void writeLine(ByteArrayOutputStream out, String line) {
+    StringBuilder builder = new StringBuilder(line).append("\r\n");
+    int length = builder.length();
+    if (length > 72) {
+      int index = 70;
+      while (index < length - 2) {
+        builder.insert(index, "\r\n ");
+        index += 72;
+        length += 3;
+      }
+    }
+    byte[] bytes = builder.toString().getBytes(Charsets.UTF_8);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  private static byte[] sha1(byte[] bytes) {
+    return Hashing.sha1().hashBytes(bytes).asBytes();
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+/**
+ * How the final APK of an {@code android_binary} is assembled from its resources, dex files,
+ * assets and native libraries.
+ */
+public enum ApkWriterMode {
+  /** With the Android SDK's apkbuilder, followed by a separate {@code zipalign} pass. */
+  APKBUILDER,
+  /** In-process, aligning uncompressed entries as they are written. */
+  SINGLE_PASS,
+  /**
+   * Like {@link #SINGLE_PASS}, but patching the APK of the previous build in place, so that only
+   * the entries that changed are written again.
+   */
+  INCREMENTAL,
+  ;
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.facebook.buck.io.MorePaths;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.zip.AlignedZipWriter;
+import com.facebook.buck.zip.RawZipEntry;
+import com.facebook.buck.zip.ZipCompressionLevel;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * Assembles, signs and aligns an APK in a single in-process pass. It packages the same entries as
+ * {@link ApkBuilderStep} and lays them out like {@link ZipalignStep} would, so neither of them, nor
+ * the {@link com.facebook.buck.zip.ZipScrubberStep} between them, is needed.
+ * <p>
+ * When updating in place, entries whose digest matches the one in the manifest of the APK already
+ * at the output path keep their bytes, so a build that only changed the dex file writes little
+ * more than the dex file and the signature files.
+ */
+public class ApkWriterStep implements Step {
+
+  /** The alignment of uncompressed entries, matching {@code zipalign 4}. */
+  private static final int ZIP_ALIGNMENT = 4;
+
+  private static final String META_INF_PREFIX = "META-INF/";
+
+  private static final ImmutableSet<String> IGNORED_FOLDERS =
+      ImmutableSet.of("cvs", ".svn", "sccs", "meta-inf");
+  private static final ImmutableSet<String> IGNORED_EXTENSIONS = ImmutableSet.of(
+      "aidl", "rs", "fs", "rsh", "d", "java", "scala", "class", "scc", "swp");
+  private static final ImmutableSet<String> IGNORED_FILES =
+      ImmutableSet.of("thumbs.db", "picasa.ini", "package.html", "overview.html");
+
+  private final ProjectFilesystem filesystem;
+  private final Path resourceApk;
+  private final Path dexFile;
+  private final Path pathToOutputApkFile;
+  private final ImmutableSet<Path> assetDirectories;
+  private final ImmutableSet<Path> nativeLibraryDirectories;
+  private final ImmutableSet<Path> zipFiles;
+  private final ImmutableSet<Path> jarFilesThatMayContainResources;
+  private final Path pathToKeystore;
+  private final Path pathToKeystorePropertiesFile;
+  private final ImmutableSet<String> entriesToCompress;
+  private final boolean updateInPlace;
+
+  /**
+   * @param resourceApk Path to the Apk which only contains resources, no dex files.
+   * @param pathToOutputApkFile Path to output our APK to.
+   * @param dexFile Path to the classes.dex file.
+   * @param assetDirectories List of paths to assets to be included in the apk.
+   * @param nativeLibraryDirectories List of paths to native directories.
+   * @param zipFiles List of paths to zipfiles to be included into the apk.
+   * @param pathToKeystore Path to the keystore used to sign the APK.
+   * @param pathToKeystorePropertiesFile Path to a {@code .properties} file that contains
+   *     information about the keystore used to sign the APK.
+   * @param entriesToCompress Names of entries of {@code resourceApk} to compress if they are
+   *     stored uncompressed.
+   * @param updateInPlace Whether to reuse the unchanged entries of the APK already at
+   *     {@code pathToOutputApkFile}.
+   */
+  public ApkWriterStep(
+      ProjectFilesystem filesystem,
+      Path resourceApk,
+      Path pathToOutputApkFile,
+      Path dexFile,
+      ImmutableSet<Path> assetDirectories,
+      ImmutableSet<Path> nativeLibraryDirectories,
+      ImmutableSet<Path> zipFiles,
+      ImmutableSet<Path> jarFilesThatMayContainResources,
+      Path pathToKeystore,
+      Path pathToKeystorePropertiesFile,
+      ImmutableSet<String> entriesToCompress,
+      boolean updateInPlace) {
+    this.filesystem = filesystem;
+    this.resourceApk = resourceApk;
+    this.pathToOutputApkFile = pathToOutputApkFile;
+    this.dexFile = dexFile;
+    this.assetDirectories = assetDirectories;
+    this.nativeLibraryDirectories = nativeLibraryDirectories;
+    this.zipFiles = zipFiles;
+    this.jarFilesThatMayContainResources = jarFilesThatMayContainResources;
+    this.pathToKeystore = pathToKeystore;
+    this.pathToKeystorePropertiesFile = pathToKeystorePropertiesFile;
+    this.entriesToCompress = entriesToCompress;
+    this.updateInPlace = updateInPlace;
+  }
+
+  @Override
+  public StepExecutionResult execute(ExecutionContext context) throws IOException {
+    try {
+      ApkBuilderStep.PrivateKeyAndCertificate privateKeyAndCertificate =
+          ApkBuilderStep.loadPrivateKeyAndCertificate(
+              filesystem,
+              pathToKeystore,
+              pathToKeystorePropertiesFile);
+      ApkContents contents = new ApkContents(
+          new AlignedZipWriter(
+              filesystem.resolve(pathToOutputApkFile),
+              ZIP_ALIGNMENT,
+              ZipCompressionLevel.MAX_COMPRESSION_LEVEL,
+              updateInPlace));
+
+      contents.addZip(filesystem.resolve(resourceApk), entriesToCompress, false);
+      contents.addFile("classes.dex", filesystem.resolve(dexFile));
+      for (Path assetDirectory : assetDirectories) {
+        contents.addFolder(filesystem.resolve(assetDirectory), "");
+      }
+      for (Path nativeLibraryDirectory : nativeLibraryDirectories) {
+        contents.addNativeLibraries(filesystem.resolve(nativeLibraryDirectory));
+      }
+      for (Path zipFile : zipFiles) {
+        // Like ApkBuilderStep, skip zip files that were not created.
+        if (filesystem.exists(zipFile) && filesystem.isFile(zipFile)) {
+          contents.addZip(filesystem.resolve(zipFile), ImmutableSet.<String>of(), false);
+        }
+      }
+      for (Path jarFileThatMayContainResources : jarFilesThatMayContainResources) {
+        contents.addZip(
+            filesystem.resolve(jarFileThatMayContainResources),
+            ImmutableSet.<String>of(),
+            true);
+      }
+
+      contents.sign(
+          new ApkSigner(privateKeyAndCertificate.privateKey, privateKeyAndCertificate.certificate));
+      contents.writer.write();
+    } catch (GeneralSecurityException | IOException e) {
+      context.logError(e, "Error when creating APK at: %s.", pathToOutputApkFile);
+      return StepExecutionResult.ERROR;
+    }
+    return StepExecutionResult.SUCCESS;
+  }
+
+  /**
+   * @return whether a file or folder of this name would be packaged by the Android SDK's
+   *     apkbuilder.
+   */
+  private static boolean isPackaged(String name, boolean isFolder) {
+    String lowerCaseName = name.toLowerCase(Locale.US);
+    if (isFolder) {
+      return !IGNORED_FOLDERS.contains(lowerCaseName) && !name.startsWith("_");
+    }
+    if (name.startsWith(".") || name.endsWith("~") || IGNORED_FILES.contains(lowerCaseName)) {
+      return false;
+    }
+    int dot = lowerCaseName.lastIndexOf('.');
+    return dot <= 0 || !IGNORED_EXTENSIONS.contains(lowerCaseName.substring(dot + 1));
+  }
+
+  private static boolean isJavaResource(String entryName) {
+    ImmutableList<String> segments = ImmutableList.copyOf(entryName.split("/"));
+    for (String folder : segments.subList(0, segments.size() - 1)) {
+      if (!isPackaged(folder, true)) {
+        return false;
+      }
+    }
+    return isPackaged(segments.get(segments.size() - 1), false);
+  }
+
+  private static ImmutableList<Path> listSorted(Path folder) throws IOException {
+    if (!Files.exists(folder)) {
+      throw new NoSuchFileException(folder.toString());
+    }
+    if (!Files.isDirectory(folder)) {
+      throw new NotDirectoryException(folder.toString());
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+      return Ordering.natural().immutableSortedCopy(stream);
+    }
+  }
+
+  @Override
+  public String getShortName() {
+    return "apk_writer";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format(
+        "apk_writer %s%s",
+        updateInPlace ? "--update " : "",
+        pathToOutputApkFile);
+  }
+
+  /** The entries of the APK being written, and where each of them comes from. */
+  private static class ApkContents {
+    private final AlignedZipWriter writer;
+    private final Map<String, ByteSource> entries = new LinkedHashMap<>();
+    private final Map<String, Path> origins = new HashMap<>();
+
+    private ApkContents(AlignedZipWriter writer) {
+      this.writer = writer;
+    }
+
+    private void checkForDuplicate(String name, Path origin) {
+      Path existing = origins.put(name, origin);
+      if (existing != null) {
+        throw new HumanReadableException(
+            String.format("Found duplicate file for APK: %1$s\nOrigin 1: %2$s\nOrigin 2: %3$s",
+                name, existing, origin));
+      }
+    }
+
+    void addFile(String name, Path file) throws IOException {
+      checkForDuplicate(name, file);
+      writer.putFile(name, file, /* compress */ true);
+      entries.put(name, MorePaths.asByteSource(file));
+    }
+
+    /**
+     * Adds the entries of {@code zip} except for directories and signature files.
+     *
+     * @param resourcesOnly whether to skip entries that are not Java resources, as for jars.
+     */
+    void addZip(Path zip, ImmutableSet<String> toCompress, boolean resourcesOnly)
+        throws IOException {
+      for (final RawZipEntry entry : RawZipEntry.readAll(zip)) {
+        String name = entry.getName();
+        if (entry.isDirectory() ||
+            name.startsWith(META_INF_PREFIX) ||
+            (resourcesOnly && !isJavaResource(name))) {
+          continue;
+        }
+        checkForDuplicate(name, zip);
+        writer.putEntry(entry, toCompress.contains(name));
+        entries.put(
+            name,
+            new ByteSource() {
+              @Override
+              public InputStream openStream() throws IOException {
+                return entry.openStream();
+              }
+            });
+      }
+    }
+
+    void addFolder(Path folder, String prefix) throws IOException {
+      for (Path child : listSorted(folder)) {
+        String name = child.getFileName().toString();
+        if (Files.isDirectory(child)) {
+          if (isPackaged(name, true)) {
+            addFolder(child, prefix + name + "/");
+          }
+        } else if (isPackaged(name, false)) {
+          addFile(prefix + name, child);
+        }
+      }
+    }
+
+    void addNativeLibraries(Path folder) throws IOException {
+      for (Path abiFolder : listSorted(folder)) {
+        if (!Files.isDirectory(abiFolder)) {
+          continue;
+        }
+        for (Path library : listSorted(abiFolder)) {
+          String name = library.getFileName().toString();
+          if (Files.isRegularFile(library) && (name.endsWith(".so") || name.endsWith(".bc"))) {
+            addFile("lib/" + abiFolder.getFileName() + "/" + name, library);
+          }
+        }
+      }
+    }
+
+    /**
+     * Adds the signature files. The entries whose digest is the one recorded in the previous APK's
+     * manifest are left where they are in it.
+     */
+    void sign(ApkSigner signer) throws GeneralSecurityException, IOException {
+      ImmutableMap<String, String> previousDigests = readPreviousDigests();
+      Map<String, String> digests = new LinkedHashMap<>();
+      for (Map.Entry<String, ByteSource> entry : entries.entrySet()) {
+        String name = entry.getKey();
+        String digest = ApkSigner.encodeDigest(entry.getValue().hash(Hashing.sha1()).asBytes());
+        if (digest.equals(previousDigests.get(name))) {
+          writer.keepPreviousEntry(name);
+        }
+        digests.put(name, digest);
+      }
+      for (Map.Entry<String, byte[]> file : signer.createSignatureFiles(digests).entrySet()) {
+        writer.putBytes(file.getKey(), file.getValue(), /* compress */ true);
+      }
+    }
+
+    private ImmutableMap<String, String> readPreviousDigests() throws IOException {
+      Optional<RawZipEntry> previousManifest = writer.getPreviousEntry(ApkSigner.MANIFEST_NAME);
+      if (!previousManifest.isPresent()) {
+        return ImmutableMap.of();
+      }
+      Manifest manifest;
+      try (InputStream in = previousManifest.get().openStream()) {
+        manifest = new Manifest(in);
+      }
+      ImmutableMap.Builder<String, String> digests = ImmutableMap.builder();
+      for (Map.Entry<String, Attributes> entry : manifest.getEntries().entrySet()) {
+        String digest = entry.getValue().getValue(ApkSigner.DIGEST_ATTRIBUTE);
+        if (digest != null) {
+          digests.put(entry.getKey(), digest);
+        }
+      }
+      return digests.build();
+    }
+  }
+}
@@ -28,6 +28,12 @@ import org.immutables.value.Value;
 @Value.Immutable
 @BuckStyleImmutable
 interface AbstractArtifactInfo {
+  /**
+   * Metadata key for how long the artifact took to build locally, which a cache may use to tell
+   * whether fetching it is still worth it.
+   */
+  String BUILD_DURATION_MILLIS_METADATA_KEY = "BUILD_DURATION_MILLIS";
+
   ImmutableSet<RuleKey> getRuleKeys();
   ImmutableMap<String, String> getMetadata();
   Optional<BuildTarget> getBuildTarget();
@@ -39,4 +39,8 @@ interface AbstractNetworkCacheArgs {
   String getErrorTextTemplate();
   Optional<Long> getMaxStoreSizeBytes();
   Optional<String> getThriftEndpointPath();
+  boolean getAbandonSlowFetches();
+  int getFetchResumeAttempts();
+  Optional<Long> getParallelFetchMinimumSize();
+  int getParallelFetchConnections();
 }
@@ -90,6 +90,15 @@ public class ArtifactCacheBuckConfig {
   private static final String LOAD_BALANCING_TYPE = "load_balancing_type";
   private static final LoadBalancingType DEFAULT_LOAD_BALANCING_TYPE =
       LoadBalancingType.SINGLE_SERVER;
+  private static final String SHARD_REPLICAS = "http_shard_replicas";
+  private static final int DEFAULT_SHARD_REPLICAS = 2;
+  private static final String HEDGED_FETCHES = "http_hedged_fetches";
+  private static final String ABANDON_SLOW_FETCHES = "http_abandon_slow_fetches";
+  private static final String FETCH_RESUME_ATTEMPTS = "http_fetch_resume_attempts";
+  private static final int DEFAULT_FETCH_RESUME_ATTEMPTS = 3;
+  private static final String PARALLEL_FETCH_MINIMUM_SIZE = "http_parallel_fetch_minimum_size";
+  private static final String PARALLEL_FETCH_CONNECTIONS = "http_parallel_fetch_connections";
+  private static final int DEFAULT_PARALLEL_FETCH_CONNECTIONS = 4;
   private static final long DEFAULT_HTTP_THREAD_POOL_SIZE = 200;
   private static final long DEFAULT_HTTP_THREAD_POOL_KEEP_ALIVE_DURATION_MILLIS =
       TimeUnit.MINUTES.toMillis(1);
@@ -102,6 +111,12 @@ public class ArtifactCacheBuckConfig {
   private static final String TWO_LEVEL_CACHING_MAX_SIZE_FIELD_NAME =
       "two_level_cache_maximum_size";
   private static final long TWO_LEVEL_CACHING_MIN_SIZE_DEFAULT = 20 * 1024L;
+  private static final String CHUNKED_CACHING_ENABLED_FIELD_NAME = "chunked_cache_enabled";
+  private static final String CHUNKED_CACHING_MIN_SIZE_FIELD_NAME = "chunked_cache_minimum_size";
+  private static final long CHUNKED_CACHING_MIN_SIZE_DEFAULT = 4 * 1024 * 1024L;
+  private static final String CHUNKED_CACHING_LOCAL_MAX_SIZE_FIELD_NAME =
+      "chunked_cache_local_maximum_size";
+  private static final long CHUNKED_CACHING_LOCAL_MAX_SIZE_DEFAULT = 2 * 1024 * 1024 * 1024L;
 
   private static final String HYBRID_THRIFT_ENDPOINT = "hybrid_thrift_endpoint";
   private static final String REPOSITORY = "repository";
@@ -110,6 +125,8 @@ public class ArtifactCacheBuckConfig {
   public enum LoadBalancingType {
     SINGLE_SERVER,
     CLIENT_SLB,
+    // Like CLIENT_SLB, but each rule key is routed to the servers owning it.
+    SHARDED_CLIENT_SLB,
   }
 
   private final BuckConfig buckConfig;
@@ -138,6 +155,59 @@ public class ArtifactCacheBuckConfig {
         .or(DEFAULT_LOAD_BALANCING_TYPE);
   }
 
+  /**
+   * @return the number of servers each artifact is stored on when sharding the cache across the
+   *     SLB server pool.
+   */
+  public int getShardReplicas() {
+    return buckConfig.getInteger(CACHE_SECTION_NAME, SHARD_REPLICAS).or(DEFAULT_SHARD_REPLICAS);
+  }
+
+  /**
+   * @return whether a fetch from a load balanced cache that is slow to respond should be
+   *     duplicated to another server.
+   */
+  public boolean getHedgedFetches() {
+    return buckConfig.getBooleanValue(CACHE_SECTION_NAME, HEDGED_FETCHES, false);
+  }
+
+  /**
+   * @return whether to give up on a fetch, and build the rule locally instead, once the download
+   *     is projected to take longer than the build the artifact records.
+   */
+  public boolean getAbandonSlowFetches() {
+    return buckConfig.getBooleanValue(CACHE_SECTION_NAME, ABANDON_SLOW_FETCHES, false);
+  }
+
+  /**
+   * @return how many times a download that broke off is resumed, using a range request for the
+   *     part that is still missing, before the fetch is treated as failed.
+   */
+  public int getFetchResumeAttempts() {
+    return buckConfig.getInteger(CACHE_SECTION_NAME, FETCH_RESUME_ATTEMPTS)
+        .or(DEFAULT_FETCH_RESUME_ATTEMPTS);
+  }
+
+  /**
+   * @return the size from which artifacts are downloaded over several connections at once, each
+   *     fetching a range of the payload. Absent unless the cache server supports range requests.
+   */
+  public Optional<Long> getParallelFetchMinimumSize() {
+    return buckConfig.getValue(CACHE_SECTION_NAME, PARALLEL_FETCH_MINIMUM_SIZE)
+        .transform(
+            new Function<String, Long>() {
+              @Override
+              public Long apply(String input) {
+                return SizeUnit.parseBytes(input);
+              }
+            });
+  }
+
+  public int getParallelFetchConnections() {
+    return buckConfig.getInteger(CACHE_SECTION_NAME, PARALLEL_FETCH_CONNECTIONS)
+        .or(DEFAULT_PARALLEL_FETCH_CONNECTIONS);
+  }
+
   public int getHttpMaxConcurrentWrites() {
     return Integer.valueOf(
         buckConfig.getValue(CACHE_SECTION_NAME, "http_max_concurrent_writes")
@@ -201,7 +271,14 @@ public class ArtifactCacheBuckConfig {
     if (!getServingLocalCacheEnabled()) {
       return Optional.absent();
     }
-    return Optional.of(getDirCache().withCacheReadMode(getServedLocalCacheReadMode()));
+    return Optional.of(getServedDirCache());
+  }
+
+  /**
+   * @return the dir cache, in the mode it is served to other machines in.
+   */
+  public DirCacheEntry getServedDirCache() {
+    return getDirCache().withCacheReadMode(getServedLocalCacheReadMode());
   }
 
   public DirCacheEntry getDirCache() {
@@ -275,6 +352,37 @@ public class ArtifactCacheBuckConfig {
             });
   }
 
+  public boolean getChunkedCachingEnabled() {
+    return buckConfig.getBooleanValue(
+        CACHE_SECTION_NAME,
+        CHUNKED_CACHING_ENABLED_FIELD_NAME,
+        false);
+  }
+
+  public long getChunkedCachingMinimumSize() {
+    return buckConfig.getValue(CACHE_SECTION_NAME, CHUNKED_CACHING_MIN_SIZE_FIELD_NAME)
+        .transform(
+            new Function<String, Long>() {
+              @Override
+              public Long apply(String input) {
+                return SizeUnit.parseBytes(input);
+              }
+            })
+        .or(CHUNKED_CACHING_MIN_SIZE_DEFAULT);
+  }
+
+  public long getChunkedCachingLocalMaximumSize() {
+    return buckConfig.getValue(CACHE_SECTION_NAME, CHUNKED_CACHING_LOCAL_MAX_SIZE_FIELD_NAME)
+        .transform(
+            new Function<String, Long>() {
+              @Override
+              public Long apply(String input) {
+                return SizeUnit.parseBytes(input);
+              }
+            })
+        .or(CHUNKED_CACHING_LOCAL_MAX_SIZE_DEFAULT);
+  }
+
   private CacheReadMode getDirCacheReadMode() {
     return getCacheReadMode(CACHE_SECTION_NAME, "dir_mode", DEFAULT_DIR_CACHE_MODE);
   }
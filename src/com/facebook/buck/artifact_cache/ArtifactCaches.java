@@ -15,6 +15,7 @@
  */
 package com.facebook.buck.artifact_cache;
 
+import com.facebook.buck.counters.CounterRegistry;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.NetworkEvent.BytesReceivedEvent;
 import com.facebook.buck.io.ProjectFilesystem;
@@ -23,16 +24,21 @@ import com.facebook.buck.slb.HttpLoadBalancer;
 import com.facebook.buck.slb.HttpService;
 import com.facebook.buck.slb.LoadBalancedService;
 import com.facebook.buck.slb.RetryingHttpService;
+import com.facebook.buck.slb.ShardedService;
 import com.facebook.buck.slb.SingleUriService;
 import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.util.HumanReadableException;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Predicates;
+import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.Interceptor;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
@@ -44,6 +50,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Path;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import okio.Buffer;
@@ -139,6 +146,30 @@ public class ArtifactCaches {
         });
   }
 
+  /**
+   * Creates the cache to be served by a standalone cache server.
+   *
+   * @param buckConfig describes how to configure the cache
+   * @param buckEventBus event bus to register the cache's counters on
+   * @param projectFilesystem filesystem to store files on
+   * @return the dir cache, in the served mode
+   */
+  public static DirArtifactCache newCacheServerCache(
+      ArtifactCacheBuckConfig buckConfig,
+      BuckEventBus buckEventBus,
+      ProjectFilesystem projectFilesystem) throws IOException {
+    DirCacheEntry dirCacheConfig = buckConfig.getServedDirCache();
+    DirArtifactCache dirArtifactCache = new DirArtifactCache(
+        "dir",
+        projectFilesystem,
+        dirCacheConfig.getCacheDir(),
+        dirCacheConfig.getCacheReadMode().isDoStore(),
+        dirCacheConfig.getMaxSizeBytes());
+    buckEventBus.post(
+        new CounterRegistry.AsyncCounterRegistrationEvent(dirArtifactCache.getCounters()));
+    return dirArtifactCache;
+  }
+
   private static ArtifactCache newInstanceInternal(
       ArtifactCacheBuckConfig buckConfig,
       BuckEventBus buckEventBus,
@@ -151,14 +182,16 @@ public class ArtifactCaches {
       return new NoopArtifactCache();
     }
     ImmutableList.Builder<ArtifactCache> builder = ImmutableList.builder();
+    Set<ArtifactCache> localArtifactCaches = Sets.newIdentityHashSet();
     for (ArtifactCacheBuckConfig.ArtifactCacheMode mode : modes) {
       switch (mode) {
         case dir:
-          builder.add(
-              createDirArtifactCache(
-                  Optional.of(buckEventBus),
-                  buckConfig.getDirCache(),
-                  projectFilesystem));
+          ArtifactCache dirArtifactCache = createDirArtifactCache(
+              Optional.of(buckEventBus),
+              buckConfig.getDirCache(),
+              projectFilesystem);
+          builder.add(dirArtifactCache);
+          localArtifactCaches.add(dirArtifactCache);
           break;
         case http:
           initializeDistributedCaches(
@@ -184,14 +217,22 @@ public class ArtifactCaches {
       }
     }
     ImmutableList<ArtifactCache> artifactCaches = builder.build();
-    ArtifactCache result;
+    ArtifactCache result = combineArtifactCaches(artifactCaches);
 
-    if (artifactCaches.size() == 1) {
-      // Don't bother wrapping a single artifact cache in MultiArtifactCache.
-      result = artifactCaches.get(0);
-    } else {
-      result = new MultiArtifactCache(artifactCaches);
-    }
+    // Always support reading chunked stores too. The two-level cache below stores the contents of
+    // artifacts through this one, so those get chunked as well.
+    // Chunks are only kept in the remote caches, the local chunk store is where they live locally.
+    result = new ChunkedArtifactCacheDecorator(
+        result,
+        combineArtifactCaches(
+            FluentIterable.from(artifactCaches)
+                .filter(Predicates.not(Predicates.in(localArtifactCaches)))
+                .toList()),
+        projectFilesystem,
+        buckEventBus,
+        buckConfig.getChunkedCachingEnabled(),
+        buckConfig.getChunkedCachingMinimumSize(),
+        buckConfig.getChunkedCachingLocalMaximumSize());
 
     // Always support reading two-level cache stores (in case we performed any in the past).
     result = new TwoLevelArtifactCacheDecorator(
@@ -205,6 +246,17 @@ public class ArtifactCaches {
     return result;
   }
 
+  private static ArtifactCache combineArtifactCaches(ImmutableList<ArtifactCache> artifactCaches) {
+    if (artifactCaches.isEmpty()) {
+      return new NoopArtifactCache();
+    }
+    if (artifactCaches.size() == 1) {
+      // Don't bother wrapping a single artifact cache in MultiArtifactCache.
+      return artifactCaches.get(0);
+    }
+    return new MultiArtifactCache(artifactCaches);
+  }
+
   private static void initializeDistributedCaches(
       ArtifactCacheBuckConfig buckConfig,
       BuckEventBus buckEventBus,
@@ -247,6 +299,9 @@ public class ArtifactCaches {
         return dirArtifactCache;
       }
 
+      buckEventBus.get().post(
+          new CounterRegistry.AsyncCounterRegistrationEvent(dirArtifactCache.getCounters()));
+
       return new LoggingArtifactCacheDecorator(buckEventBus.get(),
           dirArtifactCache,
           new DirArtifactCacheEvent.DirArtifactCacheEventFactory());
@@ -333,6 +388,14 @@ public class ArtifactCaches {
             .build();
       }
     }));
+    if (config.getHedgedFetches()) {
+      // Hedged fetches go through OkHttp's asynchronous dispatcher, which by default only runs a
+      // handful of requests per host at once.
+      Dispatcher dispatcher = new Dispatcher();
+      dispatcher.setMaxRequests((int) config.getThreadPoolSize());
+      dispatcher.setMaxRequestsPerHost((int) config.getThreadPoolSize());
+      fetchClientBuilder.dispatcher(dispatcher);
+    }
     OkHttpClient fetchClient = fetchClientBuilder.build();
 
     HttpService fetchService;
@@ -345,11 +408,36 @@ public class ArtifactCaches {
         fetchService =
             new RetryingHttpService(
                 buckEventBus,
-                new LoadBalancedService(clientSideSlb, fetchClient, buckEventBus),
+                new LoadBalancedService(
+                    clientSideSlb,
+                    fetchClient,
+                    buckEventBus,
+                    config.getHedgedFetches()),
                 config.getMaxFetchRetries());
         storeService = new LoadBalancedService(clientSideSlb, storeClient, buckEventBus);
         break;
 
+      case SHARDED_CLIENT_SLB:
+        HttpLoadBalancer shardedSlb = config.getSlbConfig().createHttpClientSideSlb(
+            new DefaultClock(),
+            buckEventBus);
+        fetchService =
+            new RetryingHttpService(
+                buckEventBus,
+                new ShardedService(
+                    shardedSlb,
+                    fetchClient,
+                    buckEventBus,
+                    config.getShardReplicas(),
+                    config.getHedgedFetches()),
+                config.getMaxFetchRetries());
+        storeService = new ShardedService(
+            shardedSlb,
+            storeClient,
+            buckEventBus,
+            config.getShardReplicas());
+        break;
+
       case SINGLE_SERVER:
         URI url = cacheDescription.getUrl();
         fetchService = new SingleUriService(url, fetchClient);
@@ -382,6 +470,10 @@ public class ArtifactCaches {
             .setBuckEventBus(buckEventBus)
             .setHttpWriteExecutorService(httpWriteExecutorService)
             .setErrorTextTemplate(cacheDescription.getErrorMessageFormat())
+            .setAbandonSlowFetches(config.getAbandonSlowFetches())
+            .setFetchResumeAttempts(config.getFetchResumeAttempts())
+            .setParallelFetchMinimumSize(config.getParallelFetchMinimumSize())
+            .setParallelFetchConnections(config.getParallelFetchConnections())
             .build());
   }
 
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.counters.CounterRegistry;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.counters.SamplingCounter;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.BorrowablePath;
+import com.facebook.buck.io.LazyPath;
+import com.facebook.buck.io.PathListing;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stores large artifacts as a manifest of content-defined chunks:
+ *   rulekey -> (metadata, manifest)
+ *   chunk hash -> chunk
+ * Every chunk stored or fetched is kept in a local chunk store, and only the chunks missing from
+ * it are fetched, so fetching a new version of a large artifact which only differs from a version
+ * fetched earlier in a few places transfers little more than those places. Missing chunks are
+ * fetched in parallel.
+ * <p>
+ * Chunks are stored in and fetched from a separate chunk delegate, holding only the remote caches:
+ * a local dir cache would keep a second copy of the local chunk store. Chunks are always stored
+ * though, since the local chunk store can't tell whether the remote caches still have them, and
+ * the manifest is only stored once all its chunks are, so that no other machine can find a
+ * manifest whose chunks are still being uploaded.
+ * <p>
+ * The local chunk store is trimmed to its maximum size on {@link #close()}, dropping the chunks
+ * which were least recently stored or used first.
+ */
+public class ChunkedArtifactCacheDecorator implements ArtifactCache {
+
+  @VisibleForTesting
+  static final String METADATA_KEY = "CHUNKED_CACHE_MANIFEST_VERSION";
+  private static final String MANIFEST_VERSION = "1";
+  private static final String COUNTER_CATEGORY = "buck_chunked_cache_stats";
+
+  private static final int MINIMUM_CHUNK_SIZE = 16 * 1024;
+  private static final int AVERAGE_CHUNK_SIZE = 64 * 1024;
+  private static final int MAXIMUM_CHUNK_SIZE = 256 * 1024;
+  // Chunks are named after their hash, unlike the temporary files next to them.
+  private static final String CHUNK_GLOB = "[0-9a-f]*[0-9a-f]";
+  private static final int CHUNK_FETCH_THREADS = 8;
+
+  private static final Logger LOG = Logger.get(ChunkedArtifactCacheDecorator.class);
+
+  private final ArtifactCache delegate;
+  private final ArtifactCache chunkDelegate;
+  private final ListeningExecutorService chunkFetchExecutor;
+  private final ProjectFilesystem projectFilesystem;
+  private final Path chunkStoreDir;
+  private final boolean performChunkedStores;
+  private final long minimumChunkedStoredArtifactSize;
+  private final long maximumLocalChunkStoreSize;
+  private final ContentDefinedChunker chunker;
+  private final AtomicBoolean chunkStoreChanged = new AtomicBoolean(false);
+
+  private final IntegerCounter localChunkHits;
+  private final IntegerCounter chunkFetches;
+  private final IntegerCounter chunkFetchMisses;
+  private final SamplingCounter chunkFetchBytes;
+
+  /**
+   * @param chunkDelegate the cache chunks are stored in and fetched from. It is expected to share
+   *     its caches with {@code delegate}, which is the one closed by {@link #close()}.
+   */
+  public ChunkedArtifactCacheDecorator(
+      ArtifactCache delegate,
+      ArtifactCache chunkDelegate,
+      ProjectFilesystem projectFilesystem,
+      BuckEventBus buckEventBus,
+      boolean performChunkedStores,
+      long minimumChunkedStoredArtifactSize,
+      long maximumLocalChunkStoreSize) {
+    this.delegate = delegate;
+    this.chunkDelegate = chunkDelegate;
+    this.chunkFetchExecutor = MoreExecutors.listeningDecorator(
+        MostExecutors.newMultiThreadExecutor("ChunkFetch", CHUNK_FETCH_THREADS));
+    this.projectFilesystem = projectFilesystem;
+    this.chunkStoreDir = projectFilesystem.getBuckPaths().getChunkCacheDir();
+    // Chunks only kept locally could be trimmed from the local chunk store at any time.
+    this.performChunkedStores = performChunkedStores && chunkDelegate.isStoreSupported();
+    this.minimumChunkedStoredArtifactSize = minimumChunkedStoredArtifactSize;
+    this.maximumLocalChunkStoreSize = maximumLocalChunkStoreSize;
+    this.chunker =
+        new ContentDefinedChunker(MINIMUM_CHUNK_SIZE, AVERAGE_CHUNK_SIZE, MAXIMUM_CHUNK_SIZE);
+
+    localChunkHits = new IntegerCounter(
+        COUNTER_CATEGORY,
+        "local_chunk_hits",
+        ImmutableMap.<String, String>of());
+    chunkFetches = new IntegerCounter(
+        COUNTER_CATEGORY,
+        "chunk_fetches",
+        ImmutableMap.<String, String>of());
+    chunkFetchMisses = new IntegerCounter(
+        COUNTER_CATEGORY,
+        "chunk_fetch_misses",
+        ImmutableMap.<String, String>of());
+    chunkFetchBytes = new SamplingCounter(
+        COUNTER_CATEGORY,
+        "chunk_fetch_bytes",
+        ImmutableMap.<String, String>of());
+    buckEventBus.post(new CounterRegistry.AsyncCounterRegistrationEvent(
+        ImmutableSet.of(
+            localChunkHits,
+            chunkFetches,
+            chunkFetchMisses,
+            chunkFetchBytes)));
+  }
+
+  @Override
+  public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+    CacheResult fetchResult = delegate.fetch(ruleKey, output);
+    if (!fetchResult.getType().isSuccess() ||
+        !fetchResult.getMetadata().containsKey(METADATA_KEY)) {
+      return fetchResult;
+    }
+    if (!MANIFEST_VERSION.equals(fetchResult.getMetadata().get(METADATA_KEY))) {
+      LOG.warn("Ignoring chunk manifest of unknown version for %s.", ruleKey);
+      return CacheResult.miss();
+    }
+
+    try {
+      Path outputPath = output.get();
+      ImmutableList<String> chunkHashes = readManifest(outputPath);
+      if (!fetchChunks(ImmutableSet.copyOf(chunkHashes))) {
+        chunkFetchMisses.inc();
+        return CacheResult.miss();
+      }
+      assemble(chunkHashes, outputPath);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to assemble chunked artifact for %s.", ruleKey);
+      return CacheResult.miss();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return CacheResult.miss();
+    }
+    return fetchResult;
+  }
+
+  @Override
+  public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
+    try {
+      if (performChunkedStores &&
+          projectFilesystem.getFileSize(output.getPath()) >= minimumChunkedStoredArtifactSize) {
+        return storeChunked(info, output.getPath());
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to split %s into chunks, storing it whole.", output.getPath());
+    }
+    return delegate.store(info, output);
+  }
+
+  private ListenableFuture<Void> storeChunked(ArtifactInfo info, Path output)
+      throws IOException {
+    projectFilesystem.mkdirs(chunkStoreDir);
+    final ImmutableList.Builder<ListenableFuture<Void>> chunkStores = ImmutableList.builder();
+    final StringBuilder manifest = new StringBuilder();
+    final Set<String> storedChunkHashes = new HashSet<>();
+    try (InputStream input = projectFilesystem.newFileInputStream(output)) {
+      chunker.split(
+          input,
+          new ContentDefinedChunker.ChunkConsumer() {
+            @Override
+            public void accept(byte[] buffer, int length) throws IOException {
+              String chunkHash = Hashing.sha1().hashBytes(buffer, 0, length).toString();
+              manifest.append(chunkHash).append('\n');
+              if (!storedChunkHashes.add(chunkHash)) {
+                return;
+              }
+              Path chunkPath = getChunkPath(chunkHash);
+              if (projectFilesystem.exists(chunkPath)) {
+                markUsed(chunkPath);
+              } else {
+                Path tmp = projectFilesystem.createTempFile(chunkStoreDir, chunkHash, ".tmp");
+                try (OutputStream out = projectFilesystem.newFileOutputStream(tmp)) {
+                  out.write(buffer, 0, length);
+                }
+                projectFilesystem.move(tmp, chunkPath, StandardCopyOption.REPLACE_EXISTING);
+                chunkStoreChanged.set(true);
+              }
+              // Store the chunk even if we have it, it may have never made it to the delegate or
+              // have been evicted from it since.
+              chunkStores.add(
+                  chunkDelegate.store(
+                      ArtifactInfo.builder().addRuleKeys(getChunkRuleKey(chunkHash)).build(),
+                      BorrowablePath.notBorrowablePath(projectFilesystem.resolve(chunkPath))));
+            }
+          });
+    }
+
+    final Path manifestPath = projectFilesystem.resolve(
+        projectFilesystem.createTempFile(chunkStoreDir, "manifest", ".tmp"));
+    Files.write(manifestPath, manifest.toString().getBytes(StandardCharsets.UTF_8));
+    final ArtifactInfo manifestInfo = ArtifactInfo.builder()
+        .setRuleKeys(info.getRuleKeys())
+        .setMetadata(
+            ImmutableMap.<String, String>builder()
+                .putAll(info.getMetadata())
+                .put(METADATA_KEY, MANIFEST_VERSION)
+                .build())
+        .build();
+
+    ListenableFuture<Void> stored = Futures.transformAsync(
+        Futures.allAsList(chunkStores.build()),
+        new AsyncFunction<List<Void>, Void>() {
+          @Override
+          public ListenableFuture<Void> apply(List<Void> input) {
+            return delegate.store(manifestInfo, BorrowablePath.notBorrowablePath(manifestPath));
+          }
+        });
+    stored.addListener(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              Files.deleteIfExists(manifestPath);
+            } catch (IOException e) {
+              LOG.debug(e, "Failed to delete %s.", manifestPath);
+            }
+          }
+        },
+        MoreExecutors.directExecutor());
+    return stored;
+  }
+
+  /**
+   * @return whether all the chunks are in the local chunk store, fetching the missing ones.
+   */
+  private boolean fetchChunks(ImmutableSet<String> chunkHashes)
+      throws IOException, InterruptedException {
+    projectFilesystem.mkdirs(chunkStoreDir);
+    List<ListenableFuture<Boolean>> fetches = new ArrayList<>();
+    for (final String chunkHash : chunkHashes) {
+      Path chunkPath = getChunkPath(chunkHash);
+      if (projectFilesystem.exists(chunkPath)) {
+        localChunkHits.inc();
+        markUsed(chunkPath);
+        continue;
+      }
+      fetches.add(
+          chunkFetchExecutor.submit(
+              new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                  return fetchChunk(chunkHash);
+                }
+              }));
+    }
+    if (fetches.isEmpty()) {
+      return true;
+    }
+    ListenableFuture<List<Boolean>> fetched = Futures.allAsList(fetches);
+    try {
+      return !fetched.get().contains(false);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      fetched.cancel(true);
+    }
+  }
+
+  /**
+   * @return whether the chunk could be fetched into the local chunk store.
+   */
+  private boolean fetchChunk(String chunkHash) throws IOException {
+    Path chunkPath = getChunkPath(chunkHash);
+    Path tmp = projectFilesystem.createTempFile(chunkStoreDir, chunkHash, ".tmp");
+    try {
+      chunkFetches.inc();
+      CacheResult result = chunkDelegate.fetch(
+          getChunkRuleKey(chunkHash),
+          LazyPath.ofInstance(projectFilesystem.resolve(tmp)));
+      if (!result.getType().isSuccess()) {
+        return false;
+      }
+      String actualHash = projectFilesystem.computeSha1(tmp);
+      if (!actualHash.equals(chunkHash)) {
+        LOG.warn("Fetched chunk %s has hash %s, ignoring it.", chunkHash, actualHash);
+        return false;
+      }
+      chunkFetchBytes.addSample(projectFilesystem.getFileSize(tmp));
+      projectFilesystem.move(tmp, chunkPath, StandardCopyOption.REPLACE_EXISTING);
+      chunkStoreChanged.set(true);
+      return true;
+    } finally {
+      projectFilesystem.deleteFileAtPathIfExists(tmp);
+    }
+  }
+
+  private void markUsed(Path chunkPath) throws IOException {
+    projectFilesystem.setLastModifiedTime(
+        chunkPath,
+        FileTime.fromMillis(System.currentTimeMillis()));
+  }
+
+  /**
+   * Deletes the least recently used chunks until the local chunk store fits its maximum size.
+   */
+  @VisibleForTesting
+  void trimChunkStore() throws IOException {
+    Path chunkStorePath = projectFilesystem.resolve(chunkStoreDir);
+    if (!Files.isDirectory(chunkStorePath)) {
+      return;
+    }
+    for (Path path : PathListing.listMatchingPathsWithFilters(
+             chunkStorePath,
+             CHUNK_GLOB,
+             PathListing.GET_PATH_MODIFIED_TIME,
+             PathListing.FilterMode.EXCLUDE,
+             Optional.<Integer>absent(),
+             Optional.of(maximumLocalChunkStoreSize))) {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  private void assemble(ImmutableList<String> chunkHashes, Path outputPath) throws IOException {
+    try (OutputStream out = Files.newOutputStream(outputPath)) {
+      for (String chunkHash : chunkHashes) {
+        Files.copy(projectFilesystem.resolve(getChunkPath(chunkHash)), out);
+      }
+    }
+  }
+
+  private static ImmutableList<String> readManifest(Path manifestPath) throws IOException {
+    return ImmutableList.copyOf(
+        Splitter.on('\n').omitEmptyStrings().split(
+            new String(Files.readAllBytes(manifestPath), StandardCharsets.UTF_8)));
+  }
+
+  private Path getChunkPath(String chunkHash) {
+    return chunkStoreDir.resolve(chunkHash);
+  }
+
+  private static RuleKey getChunkRuleKey(String chunkHash) {
+    // Keep chunk keys apart from artifact content hashes used by the two level cache.
+    return new RuleKey(chunkHash + "cdc0");
+  }
+
+  @VisibleForTesting
+  ArtifactCache getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public boolean isStoreSupported() {
+    return delegate.isStoreSupported();
+  }
+
+  @Override
+  public void close() {
+    // Closing the delegate waits for pending stores, which read chunks from the chunk store.
+    delegate.close();
+    chunkFetchExecutor.shutdownNow();
+    if (chunkStoreChanged.get()) {
+      try {
+        trimChunkStore();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to trim the local chunk store %s.", chunkStoreDir);
+      }
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.artifact_cache;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Splits a stream into chunks whose boundaries depend on the content around them, using a gear
+ * rolling hash. Unlike fixed-size chunks, inserting or removing bytes only changes the chunks
+ * around the edit, so two versions of a large file mostly share their chunks.
+ */
+class ContentDefinedChunker {
+
+  /**
+   * Receives the chunks of a stream, in order.
+   */
+  interface ChunkConsumer {
+    /**
+     * @param buffer holds the chunk in its first {@code length} bytes. It is reused for the next
+     *     chunk once this method returns.
+     */
+    void accept(byte[] buffer, int length) throws IOException;
+  }
+
+  // The gear table must never change, or stores would stop sharing chunks with earlier ones.
+  private static final long[] GEAR = new long[256];
+  static {
+    Random random = new Random(0x6275636b6364634cL);
+    for (int i = 0; i < GEAR.length; i++) {
+      GEAR[i] = random.nextLong();
+    }
+  }
+
+  private final int minimumChunkSize;
+  private final int maximumChunkSize;
+  private final long boundaryMask;
+
+  /**
+   * @param averageChunkSize must be a power of two.
+   */
+  ContentDefinedChunker(int minimumChunkSize, int averageChunkSize, int maximumChunkSize) {
+    Preconditions.checkArgument(Integer.bitCount(averageChunkSize) == 1);
+    Preconditions.checkArgument(0 < minimumChunkSize && minimumChunkSize <= maximumChunkSize);
+    this.minimumChunkSize = minimumChunkSize;
+    this.maximumChunkSize = maximumChunkSize;
+    // Use the high bits of the hash, which depend on the most recent 64 bytes.
+    this.boundaryMask = (averageChunkSize - 1L) << (64 - Integer.numberOfTrailingZeros(
+        averageChunkSize));
+  }
+
+  void split(InputStream input, ChunkConsumer consumer) throws IOException {
+    byte[] block = new byte[64 * 1024];
+    byte[] chunk = new byte[maximumChunkSize];
+    int chunkLength = 0;
+    long hash = 0;
+    int read;
+    while ((read = input.read(block)) != -1) {
+      for (int i = 0; i < read; i++) {
+        byte b = block[i];
+        chunk[chunkLength++] = b;
+        hash = (hash << 1) + GEAR[b & 0xff];
+        if ((chunkLength >= minimumChunkSize && (hash & boundaryMask) == 0) ||
+            chunkLength == maximumChunkSize) {
+          consumer.accept(chunk, chunkLength);
+          chunkLength = 0;
+          hash = 0;
+        }
+      }
+    }
+    if (chunkLength > 0) {
+      consumer.accept(chunk, chunkLength);
+    }
+  }
+}
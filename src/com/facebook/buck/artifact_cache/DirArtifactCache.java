@@ -16,23 +16,28 @@
 
 package com.facebook.buck.artifact_cache;
 
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.HistogramCounter;
+import com.facebook.buck.counters.IntegerCounter;
 import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.io.MoreFiles;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
-import com.facebook.buck.util.collect.ArrayIterable;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
-import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -49,23 +54,55 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stores artifacts in a local directory, two levels of subdirectories deep by rule key.
+ * <p>
+ * When a maximum size is configured, the size and use of every artifact is recorded in a
+ * {@link DirArtifactCacheJournal} shared by all processes using the directory, including ones
+ * which only read from it. Once the journaled size exceeds the maximum, the least recently used
+ * artifacts are evicted in small batches on a background thread, so neither stores nor
+ * {@link #close()} wait for a scan of the directory. The same thread keeps the journal compact.
+ * Only a directory whose journal has not been seeded yet is ever listed, once, to seed it by file
+ * access time.
+ */
 public class DirArtifactCache implements ArtifactCache {
 
   private static final Logger LOG = Logger.get(DirArtifactCache.class);
-  // Ratio of bytes stored to max size that expresses how many bytes need to be stored after we
-  // attempt to delete old files.
-  private static final float STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER = 0.5f;
   // How much of the max size to leave if we decide to delete old files.
   private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
   private static final String TMP_EXTENSION = ".tmp";
+  private static final String METADATA_EXTENSION = ".metadata";
+  private static final String JOURNAL_FILE_NAME = "journal";
+  // Number of artifacts evicted between checks for other processes' accesses and for close().
+  private static final int EVICTION_BATCH_SIZE = 100;
+  private static final long EVICTION_SHUTDOWN_TIMEOUT_SECONDS = 10;
+  // Number of records appended by this process between replays of the journal, which may compact.
+  private static final int RECORDS_BETWEEN_JOURNAL_MAINTENANCE = 1000;
+
+  private static final String COUNTER_CATEGORY = "buck_dir_cache";
 
   private final String name;
   private final ProjectFilesystem filesystem;
   private final Path cacheDir;
   private final Optional<Long> maxCacheSizeBytes;
   private final boolean doStore;
-  private long bytesSinceLastDeleteOldFiles;
+  private final Optional<DirArtifactCacheJournal> journal;
+  private final ExecutorService evictionExecutorService;
+  private final AtomicBoolean evictionScheduled;
+  private final AtomicBoolean closed;
+  // Only accessed from the eviction thread.
+  private boolean journalLoaded;
+
+  private final IntegerCounter evictedBytesCounter;
+  private final IntegerCounter evictedArtifactsCounter;
+  private final HistogramCounter evictionLatencyCounter;
 
   public DirArtifactCache(
       String name,
@@ -74,13 +111,66 @@ public class DirArtifactCache implements ArtifactCache {
       boolean doStore,
       Optional<Long> maxCacheSizeBytes)
       throws IOException {
+    this(
+        name,
+        filesystem,
+        cacheDir,
+        doStore,
+        maxCacheSizeBytes,
+        MostExecutors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("dir-cache-eviction-%d")
+                .setDaemon(true)
+                .build()));
+  }
+
+  @VisibleForTesting
+  DirArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      boolean doStore,
+      Optional<Long> maxCacheSizeBytes,
+      ExecutorService evictionExecutorService)
+      throws IOException {
     this.name = name;
     this.filesystem = filesystem;
     this.cacheDir = cacheDir;
     this.maxCacheSizeBytes = maxCacheSizeBytes;
     this.doStore = doStore;
-    this.bytesSinceLastDeleteOldFiles = 0L;
+    this.evictionExecutorService = evictionExecutorService;
+    this.evictionScheduled = new AtomicBoolean(false);
+    this.closed = new AtomicBoolean(false);
     filesystem.mkdirs(cacheDir);
+
+    if (maxCacheSizeBytes.isPresent()) {
+      this.journal = Optional.of(
+          new DirArtifactCacheJournal(
+              filesystem.resolve(cacheDir.resolve(JOURNAL_FILE_NAME)),
+              filesystem.resolve(getPathToTempFolder())));
+    } else {
+      this.journal = Optional.absent();
+    }
+
+    this.evictedBytesCounter = new IntegerCounter(
+        COUNTER_CATEGORY,
+        "evicted_bytes",
+        ImmutableMap.<String, String>of());
+    this.evictedArtifactsCounter = new IntegerCounter(
+        COUNTER_CATEGORY,
+        "evicted_artifacts",
+        ImmutableMap.<String, String>of());
+    this.evictionLatencyCounter = new HistogramCounter(
+        COUNTER_CATEGORY,
+        "eviction_latency_ms",
+        ImmutableMap.<String, String>of());
+  }
+
+  public ImmutableList<Counter> getCounters() {
+    return ImmutableList.<Counter>of(
+        evictedBytesCounter,
+        evictedArtifactsCounter,
+        evictionLatencyCounter);
   }
 
   @Override
@@ -88,25 +178,13 @@ public class DirArtifactCache implements ArtifactCache {
     CacheResult result;
     try {
       // First, build up the metadata from the metadata file.
-      ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
-      try (DataInputStream in =
-               new DataInputStream(
-                   filesystem.newFileInputStream(
-                       getPathForRuleKey(ruleKey, Optional.of(".metadata"))))) {
-        int sz = in.readInt();
-        for (int i = 0; i < sz; i++) {
-          String key = in.readUTF();
-          int valSize = in.readInt();
-          byte[] val = new byte[valSize];
-          ByteStreams.readFully(in, val);
-          metadata.put(key, new String(val, Charsets.UTF_8));
-        }
-      }
+      ImmutableMap<String, String> metadata = readMetadata(ruleKey);
 
       // Now copy the artifact out.
       filesystem.copyFile(getPathForRuleKey(ruleKey, Optional.<String>absent()), output.get());
 
-      result = CacheResult.hit(name, metadata.build(), filesystem.getFileSize(output.get()));
+      result = CacheResult.hit(name, metadata, filesystem.getFileSize(output.get()));
+      recordAccess(getPathForRuleKey(ruleKey, Optional.<String>absent()));
     } catch (NoSuchFileException e) {
       result = CacheResult.miss();
     } catch (IOException e) {
@@ -126,6 +204,62 @@ public class DirArtifactCache implements ArtifactCache {
     return result;
   }
 
+  /**
+   * Reads the metadata of the artifact stored under {@code ruleKey} and counts it as used, for
+   * callers that read the artifact straight from {@link #getArtifactPath(RuleKey)} rather than
+   * having it copied. The artifact may be evicted at any time, so it should be opened right away
+   * and its absence treated as a miss.
+   *
+   * @return the metadata, or absent if there is no such artifact.
+   */
+  public Optional<ImmutableMap<String, String>> fetchMetadata(RuleKey ruleKey)
+      throws IOException {
+    ImmutableMap<String, String> metadata;
+    try {
+      metadata = readMetadata(ruleKey);
+    } catch (NoSuchFileException e) {
+      return Optional.absent();
+    }
+    recordAccess(getPathForRuleKey(ruleKey, Optional.<String>absent()));
+    return Optional.of(metadata);
+  }
+
+  /**
+   * @return the absolute path the artifact stored under {@code ruleKey} would have.
+   */
+  public Path getArtifactPath(RuleKey ruleKey) {
+    return filesystem.resolve(getPathForRuleKey(ruleKey, Optional.<String>absent()));
+  }
+
+  /**
+   * Creates a temporary file next to the cache, so that an artifact written to it can be stored
+   * as a borrowable path and moved into the cache rather than copied.
+   *
+   * @return the absolute path of the new file.
+   */
+  public Path createTempFile(String prefix) throws IOException {
+    return filesystem.resolve(
+        filesystem.createTempFile(getPreparedTempFolder(), prefix, TMP_EXTENSION));
+  }
+
+  private ImmutableMap<String, String> readMetadata(RuleKey ruleKey) throws IOException {
+    ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
+    try (DataInputStream in =
+             new DataInputStream(
+                 filesystem.newFileInputStream(
+                     getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION))))) {
+      int sz = in.readInt();
+      for (int i = 0; i < sz; i++) {
+        String key = in.readUTF();
+        int valSize = in.readInt();
+        byte[] val = new byte[valSize];
+        ByteStreams.readFully(in, val);
+        metadata.put(key, new String(val, Charsets.UTF_8));
+      }
+    }
+    return metadata.build();
+  }
+
   @Override
   public ListenableFuture<Void> store(
       ArtifactInfo info,
@@ -139,9 +273,10 @@ public class DirArtifactCache implements ArtifactCache {
       Optional<Path> borrowedAndStoredArtifactPath = Optional.absent();
       for (RuleKey ruleKey : info.getRuleKeys()) {
         Path artifactPath = getPathForRuleKey(ruleKey, Optional.<String>absent());
-        Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
+        Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION));
 
         if (filesystem.exists(artifactPath) && filesystem.exists(metadataPath)) {
+          recordAccess(artifactPath);
           continue;
         }
 
@@ -160,7 +295,6 @@ public class DirArtifactCache implements ArtifactCache {
             storeArtifactOutput(borrowedAndStoredArtifactPath.get(), artifactPath);
           }
         }
-        bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
 
         // Now, write the meta data artifact.
         Path tmp = filesystem.createTempFile(getPreparedTempFolder(), "metadata", TMP_EXTENSION);
@@ -175,10 +309,16 @@ public class DirArtifactCache implements ArtifactCache {
             }
           }
           filesystem.move(tmp, metadataPath, StandardCopyOption.REPLACE_EXISTING);
-          bytesSinceLastDeleteOldFiles += filesystem.getFileSize(metadataPath);
         } finally {
           filesystem.deleteFileAtPathIfExists(tmp);
         }
+
+        if (journal.isPresent()) {
+          journal.get().recordStore(
+              getJournalKey(artifactPath),
+              filesystem.getFileSize(artifactPath) + filesystem.getFileSize(metadataPath));
+          scheduleEviction();
+        }
       }
 
     } catch (IOException e) {
@@ -189,13 +329,6 @@ public class DirArtifactCache implements ArtifactCache {
           output);
     }
 
-    if (maxCacheSizeBytes.isPresent() &&
-        bytesSinceLastDeleteOldFiles >
-            (maxCacheSizeBytes.get() * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER)) {
-      bytesSinceLastDeleteOldFiles = 0L;
-      deleteOldFiles();
-    }
-
     return Futures.immediateFuture(null);
   }
 
@@ -243,7 +376,6 @@ public class DirArtifactCache implements ArtifactCache {
     try {
       filesystem.copyFile(output, tmp);
       filesystem.move(tmp, artifactPath);
-      bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
     } finally {
       filesystem.deleteFileAtPathIfExists(tmp);
     }
@@ -259,37 +391,175 @@ public class DirArtifactCache implements ArtifactCache {
 
   @Override
   public void close() {
-    // Do a cache clean up on exit only if cache was written to.
-    if (bytesSinceLastDeleteOldFiles > 0) {
-      deleteOldFiles();
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+    // Whatever is left to evict is picked up by the next store, possibly from another process.
+    try {
+      if (!MostExecutors.shutdown(
+          evictionExecutorService,
+          EVICTION_SHUTDOWN_TIMEOUT_SECONDS,
+          TimeUnit.SECONDS)) {
+        LOG.warn("Timed out waiting for cache eviction in %s to stop.", cacheDir);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (journal.isPresent()) {
+      try {
+        journal.get().close();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to close the journal of %s.", cacheDir);
+      }
+    }
+  }
+
+  private String getJournalKey(Path artifactPath) {
+    return cacheDir.relativize(artifactPath).toString();
+  }
+
+  private void recordAccess(Path artifactPath) {
+    if (journal.isPresent()) {
+      journal.get().recordAccess(getJournalKey(artifactPath));
+      // Caches which are only read from never evict, so this is how they keep the journal compact.
+      if (journal.get().getAppendsSinceCatchUp() >= RECORDS_BETWEEN_JOURNAL_MAINTENANCE) {
+        scheduleEviction();
+      }
+    }
+  }
+
+  private void scheduleEviction() {
+    if (!evictionScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      evictionExecutorService.submit(
+          new Runnable() {
+            @Override
+            public void run() {
+              evictionScheduled.set(false);
+              evictOldEntries();
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      // The cache is being closed.
+      evictionScheduled.set(false);
     }
   }
 
   /**
-   * Deletes files that haven't been accessed recently from the directory cache.
+   * Deletes files that haven't been accessed recently from the directory cache, and waits for it.
    */
   @VisibleForTesting
   void deleteOldFiles() {
-    if (!maxCacheSizeBytes.isPresent()) {
+    if (!journal.isPresent() || closed.get()) {
       return;
     }
+    Future<?> eviction = evictionExecutorService.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            evictOldEntries();
+          }
+        });
     try {
-      for (File fileAccessedEntry : findFilesToDelete()) {
-        try {
-          Files.deleteIfExists(fileAccessedEntry.toPath());
-        } catch (IOException e) {
-          // Eat any IOExceptions while attempting to clean up the cache directory.  If the file is
-          // now in use, we no longer want to delete it.
-          continue;
-        }
+      eviction.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  /**
+   * Once the cache is over its maximum size, evicts the least recently used artifacts until it is
+   * back to {@link #MAX_BYTES_TRIM_RATIO} of it, and compacts the journal if it grew too long,
+   * whatever the size of the cache. Must only run on the eviction executor.
+   */
+  private void evictOldEntries() {
+    DirArtifactCacheJournal journal = this.journal.get();
+    try {
+      loadJournal();
+      journal.catchUp();
+      if (doStore && journal.getTotalBytes() > maxCacheSizeBytes.get()) {
+        evictUntilUnder((long) (maxCacheSizeBytes.get() * MAX_BYTES_TRIM_RATIO));
       }
+      journal.compactIfNeeded();
     } catch (IOException e) {
       LOG.error(e, "Failed to delete old files from cache");
     }
   }
 
+  private void evictUntilUnder(long targetSizeBytes) throws IOException {
+    DirArtifactCacheJournal journal = this.journal.get();
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    long evictedBytes = 0;
+    while (journal.getTotalBytes() > targetSizeBytes && !closed.get()) {
+      for (int i = 0; i < EVICTION_BATCH_SIZE && journal.getTotalBytes() > targetSizeBytes; i++) {
+        Map.Entry<String, Long> entry = journal.getLeastRecentlyUsed().get();
+        evict(entry.getKey());
+        journal.recordEviction(entry.getKey());
+        evictedBytes += entry.getValue();
+        evictedArtifactsCounter.inc();
+      }
+      // Pick up what other processes used or evicted in the meantime.
+      journal.catchUp();
+    }
+    evictedBytesCounter.inc(evictedBytes);
+    evictionLatencyCounter.addSample(stopwatch.elapsed(TimeUnit.MILLISECONDS));
+    LOG.debug(
+        "Evicted %d bytes from %s in %s.",
+        evictedBytes,
+        cacheDir,
+        stopwatch);
+  }
+
+  private void evict(String journalKey) {
+    Path artifactPath = filesystem.resolve(cacheDir.resolve(journalKey));
+    try {
+      Files.deleteIfExists(artifactPath);
+      Files.deleteIfExists(
+          artifactPath.resolveSibling(artifactPath.getFileName() + METADATA_EXTENSION));
+    } catch (IOException e) {
+      // Eat any IOExceptions while attempting to clean up the cache directory.  If the file is
+      // now in use, we no longer want to delete it.
+      LOG.debug(e, "Failed to evict %s.", artifactPath);
+    }
+  }
+
+  /**
+   * Seeds the journal from the contents of the cache directory, ordered by access time, unless it
+   * was seeded before. A journal is only created empty, so one that was just appended to, e.g. by
+   * processes that only fetched, still needs seeding.
+   */
+  private void loadJournal() throws IOException {
+    if (journalLoaded) {
+      return;
+    }
+    journalLoaded = true;
+    if (journal.get().isSeeded()) {
+      return;
+    }
+    LOG.info("Seeding the journal of %s from its contents.", cacheDir);
+    Path root = filesystem.resolve(cacheDir);
+    File[] files = getAllFilesInCache();
+    MoreFiles.sortFilesByAccessTime(files);
+    // Files are sorted most recently accessed first.
+    for (int i = files.length - 1; i >= 0; i--) {
+      String path = root.relativize(files[i].toPath()).toString();
+      if (path.endsWith(METADATA_EXTENSION)) {
+        path = path.substring(0, path.length() - METADATA_EXTENSION.length());
+      }
+      journal.get().seed(path, files[i].length());
+    }
+    journal.get().catchUp();
+    journal.get().compact();
+  }
+
   @VisibleForTesting
   File[] getAllFilesInCache() throws IOException {
+    final Path tmpDir = filesystem.resolve(getPathToTempFolder());
+    final Path journalPath = filesystem.resolve(cacheDir.resolve(JOURNAL_FILE_NAME));
     final List<File> allFiles = new ArrayList<>();
     Files.walkFileTree(
         filesystem.resolve(cacheDir),
@@ -301,7 +571,7 @@ public class DirArtifactCache implements ArtifactCache {
           public FileVisitResult preVisitDirectory(
               Path dir, BasicFileAttributes attrs) throws IOException {
             // do not work with files in temp folder as they will be moved later
-            if (dir.equals(getPathToTempFolder())) {
+            if (dir.equals(tmpDir)) {
               return FileVisitResult.SKIP_SUBTREE;
             }
             return super.preVisitDirectory(dir, attrs);
@@ -310,34 +580,12 @@ public class DirArtifactCache implements ArtifactCache {
           @Override
           public FileVisitResult visitFile(Path file,
               BasicFileAttributes attrs) throws IOException {
-            allFiles.add(file.toFile());
+            if (!file.equals(journalPath)) {
+              allFiles.add(file.toFile());
+            }
             return super.visitFile(file, attrs);
           }
         });
     return allFiles.toArray(new File[0]);
   }
-
-  private Iterable<File> findFilesToDelete() throws IOException {
-    Preconditions.checkState(maxCacheSizeBytes.isPresent());
-    long maxSizeBytes = maxCacheSizeBytes.get();
-
-    File[] files = getAllFilesInCache();
-    MoreFiles.sortFilesByAccessTime(files);
-
-    // Finds the first N from the list ordered by last access time who's combined size is less than
-    // maxCacheSizeBytes.
-    long currentSizeBytes = 0;
-    Optional<Integer> maxTrimMark = Optional.absent();
-    for (int i = 0; i < files.length; ++i) {
-      File file = files[i];
-      currentSizeBytes += file.length();
-      if (!maxTrimMark.isPresent() && currentSizeBytes > maxSizeBytes * MAX_BYTES_TRIM_RATIO) {
-        maxTrimMark = Optional.of(i);
-      }
-      if (currentSizeBytes > maxSizeBytes) {
-        return ArrayIterable.of(files, maxTrimMark.get(), files.length);
-      }
-    }
-    return ImmutableList.of();
-  }
 }
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Append-only log of the stores, accesses and evictions of a {@link DirArtifactCache}, along with
+ * the in-memory least-recently-used index it is replayed into.
+ * <p>
+ * Every process sharing a cache directory appends to the same journal, one short line per record,
+ * so replaying the journal yields the access order across all of them without relying on file
+ * access times. Appending is thread-safe; everything that reads or modifies the index must be
+ * called from a single thread.
+ * <p>
+ * When the journal grows much larger than the index it describes, it is replaced by a snapshot of
+ * the index. Processes that still hold the old journal notice on their next {@link #catchUp()}
+ * and reload the new one. Snapshots start with a marker record, so a journal that has only ever
+ * been appended to, and may be missing artifacts that predate it, can be told apart.
+ */
+class DirArtifactCacheJournal implements Closeable {
+
+  private static final Logger LOG = Logger.get(DirArtifactCacheJournal.class);
+
+  private static final char STORE = 'S';
+  private static final char ACCESS = 'A';
+  private static final char EVICT = 'E';
+  private static final char SEEDED = 'H';
+  private static final char SEPARATOR = '\t';
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  // The journal is compacted once it holds this many times more records than there are entries.
+  private static final int COMPACTION_RATIO = 4;
+  private static final int MIN_RECORDS_BEFORE_COMPACTION = 10000;
+  // Other processes may keep appending while a snapshot is written, then compaction is retried.
+  private static final int MAX_COMPACTION_ATTEMPTS = 3;
+
+  private final Path journalPath;
+  private final Path tmpDir;
+
+  private final Object writerLock = new Object();
+  // Opened on the first append, so that caches which only miss don't create the journal.
+  private Optional<FileChannel> writer = Optional.absent();
+  private final AtomicInteger appendsSinceCatchUp = new AtomicInteger();
+
+  // Keys are artifact paths relative to the cache directory, values their size with metadata.
+  private final LinkedHashMap<String, Long> index;
+  private long totalBytes;
+  private long readOffset;
+  private long recordsSinceCompaction;
+  private Optional<Object> journalFileKey;
+
+  DirArtifactCacheJournal(Path journalPath, Path tmpDir) throws IOException {
+    this.journalPath = journalPath;
+    this.tmpDir = tmpDir;
+    this.index = new LinkedHashMap<>(16, 0.75f, /* accessOrder */ true);
+    this.journalFileKey = Optional.absent();
+  }
+
+  void recordStore(String path, long sizeBytes) {
+    append(STORE, path, String.valueOf(sizeBytes));
+  }
+
+  void recordAccess(String path) {
+    append(ACCESS, path);
+  }
+
+  private static String formatRecord(char type, String... fields) {
+    StringBuilder record = new StringBuilder().append(type);
+    for (String field : fields) {
+      record.append(SEPARATOR).append(field);
+    }
+    return record.append('\n').toString();
+  }
+
+  private void append(char type, String... fields) {
+    ByteBuffer buffer = ByteBuffer.wrap(formatRecord(type, fields).getBytes(Charsets.UTF_8));
+    synchronized (writerLock) {
+      try {
+        FileChannel channel = getWriter();
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to append to %s.", journalPath);
+      }
+    }
+    appendsSinceCatchUp.incrementAndGet();
+  }
+
+  /**
+   * @return the number of records this process appended since the last {@link #catchUp()}.
+   */
+  int getAppendsSinceCatchUp() {
+    return appendsSinceCatchUp.get();
+  }
+
+  /**
+   * Adds an entry found on disk to the index without journaling it. Used to seed the index of a
+   * cache directory that predates the journal, in least-recently-used first order.
+   */
+  void seed(String path, long sizeBytes) {
+    // An artifact and its metadata are found separately and share an entry.
+    Long previousSizeBytes = index.get(path);
+    index.put(path, sizeBytes + (previousSizeBytes == null ? 0 : previousSizeBytes));
+    totalBytes += sizeBytes;
+  }
+
+  /**
+   * @return whether the journal starts with a snapshot of the index, rather than only holding
+   *     records appended since it was created.
+   */
+  boolean isSeeded() throws IOException {
+    try (InputStream in = Files.newInputStream(journalPath)) {
+      return in.read() == SEEDED && in.read() == '\n';
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Replays the records appended to the journal since the last call, by this or any other process.
+   */
+  void catchUp() throws IOException {
+    appendsSinceCatchUp.set(0);
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(journalPath, BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      if (journalFileKey.isPresent() || readOffset > 0) {
+        LOG.debug("%s was deleted, starting over.", journalPath);
+        reset();
+      }
+      // Otherwise, nothing was journaled yet.
+      return;
+    }
+    Optional<Object> fileKey = Optional.fromNullable(attributes.fileKey());
+    if (attributes.size() < readOffset ||
+        (journalFileKey.isPresent() && !Objects.equal(fileKey, journalFileKey))) {
+      LOG.debug("%s was replaced, reloading it.", journalPath);
+      reset();
+    }
+    journalFileKey = fileKey;
+
+    try (FileChannel reader = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+      reader.position(readOffset);
+      ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+      while (reader.read(buffer) > 0) {
+        buffer.flip();
+        int lineStart = 0;
+        for (int i = 0; i < buffer.limit(); i++) {
+          if (buffer.get(i) == '\n') {
+            replay(new String(buffer.array(), lineStart, i - lineStart, Charsets.UTF_8));
+            lineStart = i + 1;
+          }
+        }
+        readOffset += lineStart;
+        if (lineStart == 0 && buffer.limit() == buffer.capacity()) {
+          // A single record larger than the buffer can only be garbage.
+          LOG.warn("Skipping oversized record in %s.", journalPath);
+          readOffset += buffer.limit();
+          buffer.clear();
+          continue;
+        }
+        // Keep the incomplete last record, which may still be being written, for the next read.
+        buffer.position(lineStart);
+        buffer.compact();
+      }
+    }
+  }
+
+  private void replay(String record) {
+    recordsSinceCompaction++;
+    if (record.length() == 1 && record.charAt(0) == SEEDED) {
+      return;
+    }
+    int separator = record.indexOf(SEPARATOR);
+    if (separator != 1) {
+      LOG.debug("Ignoring malformed record %s.", record);
+      return;
+    }
+    switch (record.charAt(0)) {
+      case STORE:
+        int sizeSeparator = record.lastIndexOf(SEPARATOR);
+        if (sizeSeparator == separator) {
+          LOG.debug("Ignoring malformed record %s.", record);
+          return;
+        }
+        long sizeBytes;
+        try {
+          sizeBytes = Long.parseLong(record.substring(sizeSeparator + 1));
+        } catch (NumberFormatException e) {
+          LOG.debug("Ignoring malformed record %s.", record);
+          return;
+        }
+        remove(record.substring(2, sizeSeparator));
+        index.put(record.substring(2, sizeSeparator), sizeBytes);
+        totalBytes += sizeBytes;
+        break;
+      case ACCESS:
+        index.get(record.substring(2));
+        break;
+      case EVICT:
+        remove(record.substring(2));
+        break;
+      default:
+        LOG.debug("Ignoring malformed record %s.", record);
+    }
+  }
+
+  /**
+   * @return the least recently used entry in the index, if any.
+   */
+  Optional<Map.Entry<String, Long>> getLeastRecentlyUsed() {
+    Iterator<Map.Entry<String, Long>> iterator = index.entrySet().iterator();
+    if (!iterator.hasNext()) {
+      return Optional.absent();
+    }
+    Map.Entry<String, Long> eldest = iterator.next();
+    return Optional.of(Maps.immutableEntry(eldest.getKey(), eldest.getValue()));
+  }
+
+  /**
+   * Removes {@code path} from the index and journals its eviction.
+   */
+  void recordEviction(String path) {
+    remove(path);
+    append(EVICT, path);
+  }
+
+  private void remove(String path) {
+    Long sizeBytes = index.remove(path);
+    if (sizeBytes != null) {
+      totalBytes -= sizeBytes;
+    }
+  }
+
+  long getTotalBytes() {
+    return totalBytes;
+  }
+
+  @VisibleForTesting
+  int size() {
+    return index.size();
+  }
+
+  void compactIfNeeded() throws IOException {
+    if (recordsSinceCompaction >
+        Math.max(MIN_RECORDS_BEFORE_COMPACTION, (long) COMPACTION_RATIO * index.size())) {
+      compact();
+    }
+  }
+
+  /**
+   * Replaces the journal with a marker record followed by one store record per entry of the index,
+   * in access order, after catching up with everything journaled so far. If other processes append
+   * while the snapshot is written, it is discarded and compaction tried again.
+   */
+  void compact() throws IOException {
+    Files.createDirectories(tmpDir);
+    Path snapshot = Files.createTempFile(tmpDir, "journal", ".tmp");
+    try {
+      // Holding the lock keeps this process from appending records the snapshot would miss.
+      synchronized (writerLock) {
+        getWriter();
+        for (int attempt = 1; ; attempt++) {
+          catchUp();
+          try (Writer out = Files.newBufferedWriter(snapshot, Charsets.UTF_8)) {
+            out.write(formatRecord(SEEDED));
+            for (Map.Entry<String, Long> entry : index.entrySet()) {
+              out.write(formatRecord(STORE, entry.getKey(), String.valueOf(entry.getValue())));
+            }
+          }
+          BasicFileAttributes attributes =
+              Files.readAttributes(journalPath, BasicFileAttributes.class);
+          if (attributes.size() == readOffset &&
+              Objects.equal(Optional.fromNullable(attributes.fileKey()), journalFileKey)) {
+            break;
+          }
+          if (attempt == MAX_COMPACTION_ATTEMPTS) {
+            LOG.debug("%s keeps changing, not compacting it.", journalPath);
+            return;
+          }
+        }
+        Files.move(snapshot, journalPath, StandardCopyOption.ATOMIC_MOVE);
+        closeWriter();
+      }
+    } finally {
+      Files.deleteIfExists(snapshot);
+    }
+    BasicFileAttributes attributes = Files.readAttributes(journalPath, BasicFileAttributes.class);
+    readOffset = attributes.size();
+    journalFileKey = Optional.fromNullable(attributes.fileKey());
+    recordsSinceCompaction = index.size();
+    LOG.debug("Compacted %s to %d entries.", journalPath, index.size());
+  }
+
+  private void reset() throws IOException {
+    index.clear();
+    totalBytes = 0;
+    readOffset = 0;
+    recordsSinceCompaction = 0;
+    journalFileKey = Optional.absent();
+    synchronized (writerLock) {
+      closeWriter();
+    }
+  }
+
+  private FileChannel getWriter() throws IOException {
+    if (!writer.isPresent()) {
+      writer = Optional.of(
+          FileChannel.open(
+              journalPath,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.APPEND));
+    }
+    return writer.get();
+  }
+
+  private void closeWriter() throws IOException {
+    if (writer.isPresent()) {
+      writer.get().close();
+      writer = Optional.absent();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (writerLock) {
+      closeWriter();
+    }
+  }
+}
@@ -21,16 +21,44 @@ import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.slb.HttpResponse;
+import com.facebook.buck.slb.ShardedService;
+import com.facebook.buck.timing.Clock;
+import com.facebook.buck.timing.DefaultClock;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Functions;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import okhttp3.MediaType;
 import okhttp3.Request;
@@ -49,33 +77,136 @@ public class HttpArtifactCache extends AbstractNetworkCache {
    */
   private static final Logger LOG = Logger.get(HttpArtifactCache.class);
 
+  /**
+   * The first request of a parallel fetch asks for at least this many bytes, so that the response
+   * metadata preceding the payload normally fits in it.
+   */
+  private static final long MINIMUM_INITIAL_RANGE_SIZE = 64 * 1024;
+
+  private static final Pattern CONTENT_RANGE_TOTAL_PATTERN =
+      Pattern.compile("bytes \\d+-\\d+/(\\d+)");
+
+  private final boolean abandonSlowFetches;
+  private final int fetchResumeAttempts;
+  private final Optional<Long> parallelFetchMinimumSize;
+  private final int parallelFetchConnections;
+  private final Clock clock;
+  private final Optional<ListeningExecutorService> parallelFetchExecutor;
+
   public HttpArtifactCache(NetworkCacheArgs args) {
+    this(args, new DefaultClock());
+  }
+
+  @VisibleForTesting
+  HttpArtifactCache(NetworkCacheArgs args, Clock clock) {
     super(args);
+    this.abandonSlowFetches = args.getAbandonSlowFetches();
+    this.fetchResumeAttempts = args.getFetchResumeAttempts();
+    this.parallelFetchMinimumSize = args.getParallelFetchMinimumSize();
+    this.parallelFetchConnections = args.getParallelFetchConnections();
+    this.clock = clock;
+    if (parallelFetchMinimumSize.isPresent() && parallelFetchConnections > 1) {
+      // Shared by all fetches, so concurrent fetches can't open more than this many extra
+      // connections between them.
+      this.parallelFetchExecutor = Optional.of(
+          MoreExecutors.listeningDecorator(
+              MostExecutors.newMultiThreadExecutor(
+                  "HttpArtifactCache parallel fetch",
+                  parallelFetchConnections - 1)));
+    } else {
+      this.parallelFetchExecutor = Optional.absent();
+    }
+  }
+
+  @Override
+  public void close() {
+    super.close();
+    if (parallelFetchExecutor.isPresent()) {
+      parallelFetchExecutor.get().shutdownNow();
+    }
   }
 
   @Override
   protected CacheResult fetchImpl(
       RuleKey ruleKey,
       LazyPath output,
-      final Finished.Builder eventBuilder) throws IOException {
+      Finished.Builder eventBuilder) throws IOException {
+    return fetch(ruleKey, output, eventBuilder, parallelFetchExecutor.isPresent());
+  }
+
+  /**
+   * @param requestInitialRange whether to only request the start of the response, leaving the
+   *     rest of large artifacts to be fetched in parallel.
+   */
+  private CacheResult fetch(
+      RuleKey ruleKey,
+      LazyPath output,
+      final Finished.Builder eventBuilder,
+      boolean requestInitialRange) throws IOException {
 
     Request.Builder requestBuilder =
         new Request.Builder()
             .get();
-    try (HttpResponse response = fetchCall(
-        "/artifacts/key/" + ruleKey.toString(),
-        requestBuilder)) {
-      eventBuilder.setResponseSizeBytes(response.contentLength());
+    long initialRangeSize = 0;
+    if (requestInitialRange) {
+      // Only ask for the start of the response, the rest of a large artifact is fetched in
+      // parallel once its size is known.
+      initialRangeSize = Math.max(parallelFetchMinimumSize.get(), MINIMUM_INITIAL_RANGE_SIZE);
+      requestBuilder.header("Range", String.format("bytes=0-%d", initialRangeSize - 1));
+    }
+    ShardedService.setRoutingKeys(requestBuilder, ImmutableList.of(ruleKey.toString()));
+    try (HttpResponse response = fetchCall(getFetchPath(ruleKey), requestBuilder)) {
+      long bodyLength = response.contentLength();
+      long contentLength = bodyLength;
+      if (response.code() == HttpURLConnection.HTTP_PARTIAL) {
+        contentLength = getContentRangeTotal(response);
+      }
+      eventBuilder.setResponseSizeBytes(contentLength);
+      boolean fetchInParallel =
+          parallelFetchExecutor.isPresent() &&
+          contentLength >= parallelFetchMinimumSize.get() &&
+          contentLength > initialRangeSize &&
+          (response.code() == HttpURLConnection.HTTP_OK || contentLength > bodyLength);
+
+      InputStream body = response.getBody();
+      Optional<HttpArtifactCacheBinaryProtocol.MetadataListener> metadataListener =
+          Optional.absent();
+      if (abandonSlowFetches) {
+        final SlowFetchAbandoningInputStream abandoningBody =
+            new SlowFetchAbandoningInputStream(body, clock, contentLength);
+        body = abandoningBody;
+        metadataListener = Optional.<HttpArtifactCacheBinaryProtocol.MetadataListener>of(
+            new HttpArtifactCacheBinaryProtocol.MetadataListener() {
+              @Override
+              public void onMetadata(ImmutableMap<String, String> metadata) {
+                Optional<Long> buildDurationMillis =
+                    Optional.fromNullable(
+                        metadata.get(ArtifactInfo.BUILD_DURATION_MILLIS_METADATA_KEY))
+                        .transform(Longs.stringConverter());
+                if (buildDurationMillis.isPresent()) {
+                  abandoningBody.setLocalBuildMillis(buildDurationMillis.get());
+                }
+              }
+            });
+      }
+
+      // When fetching in parallel, this response only carries the first range of the payload, so
+      // draining it on close would download the rest of the artifact a second time.
+      if (!fetchInParallel) {
+        body = new FullyReadOnCloseInputStream(body);
+      }
 
-      try (DataInputStream input =
-               new DataInputStream(new FullyReadOnCloseInputStream(response.getBody()))) {
+      try (DataInputStream input = new DataInputStream(body)) {
 
         if (response.code() == HttpURLConnection.HTTP_NOT_FOUND) {
           LOG.info("fetch(%s, %s): cache miss", response.requestUrl(), ruleKey);
           return CacheResult.miss();
         }
 
-        if (response.code() != HttpURLConnection.HTTP_OK) {
+        boolean validResponse =
+            response.code() == HttpURLConnection.HTTP_OK ||
+            (response.code() == HttpURLConnection.HTTP_PARTIAL && contentLength >= 0);
+        if (!validResponse) {
           String msg = String.format("unexpected response: %d", response.code());
           reportFailure("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
           eventBuilder.setErrorMessage(msg);
@@ -92,10 +223,34 @@ public class HttpArtifactCache extends AbstractNetworkCache {
             ".tmp");
 
         FetchResponseReadResult fetchedData;
-        try (OutputStream tempFileOutputStream = projectFilesystem.newFileOutputStream(temp)) {
-          fetchedData = HttpArtifactCacheBinaryProtocol.readFetchResponse(
-              input,
-              tempFileOutputStream);
+        try {
+          HttpArtifactCacheBinaryProtocol.PayloadReader reader;
+          try {
+            reader =
+                HttpArtifactCacheBinaryProtocol.readFetchResponseMetadata(input, metadataListener);
+          } catch (EOFException e) {
+            if (contentLength <= bodyLength) {
+              throw e;
+            }
+            // The metadata is larger than the initial range, so fetch the whole response instead.
+            LOG.info(
+                "fetch(%s, %s): metadata exceeds initial range",
+                response.requestUrl(),
+                ruleKey);
+            projectFilesystem.deleteFileAtPath(temp);
+            return fetch(ruleKey, output, eventBuilder, false);
+          }
+          if (fetchInParallel) {
+            fetchPayloadInParallel(ruleKey, input, bodyLength, reader, contentLength, temp);
+          } else {
+            fetchPayload(ruleKey, input, reader, contentLength, temp);
+          }
+          fetchedData = reader.getFetchResponseReadResult();
+        } catch (SlowFetchAbandoningInputStream.FetchAbandonedException e) {
+          // Building the rule locally is expected to be quicker, so treat this as a miss.
+          LOG.info("fetch(%s, %s): abandoned: %s", response.requestUrl(), ruleKey, e.getMessage());
+          projectFilesystem.deleteFileAtPath(temp);
+          return CacheResult.miss();
         }
 
         eventBuilder.setResponseSizeBytes(fetchedData.getResponseSizeBytes());
@@ -137,6 +292,9 @@ public class HttpArtifactCache extends AbstractNetworkCache {
 
     // Build the request, hitting the multi-key endpoint.
     Request.Builder builder = new Request.Builder();
+    ShardedService.setRoutingKeys(
+        builder,
+        FluentIterable.from(info.getRuleKeys()).transform(Functions.toStringFunction()));
     final HttpArtifactCacheBinaryProtocol.StoreRequest storeRequest =
         new HttpArtifactCacheBinaryProtocol.StoreRequest(
             info,
@@ -186,6 +344,236 @@ public class HttpArtifactCache extends AbstractNetworkCache {
     }
   }
 
+  /**
+   * Writes the rest of the payload from {@code input} to {@code temp}, resuming the download with
+   * range requests if it breaks off before the whole response was received.
+   */
+  private void fetchPayload(
+      RuleKey ruleKey,
+      InputStream input,
+      final HttpArtifactCacheBinaryProtocol.PayloadReader reader,
+      long contentLength,
+      Path temp) throws IOException {
+    try (final OutputStream tempFileOutputStream = projectFilesystem.newFileOutputStream(temp)) {
+      if (contentLength < 0) {
+        // Without the length of the response, there's no telling which range is missing.
+        reader.readPayload(input, tempFileOutputStream);
+        return;
+      }
+      fetchRange(
+          ruleKey,
+          Optional.of(input),
+          contentLength,
+          new RangeSink() {
+            @Override
+            public long getPosition() {
+              return reader.getPayloadOffset() + reader.getPayloadBytesRead();
+            }
+
+            @Override
+            public void write(InputStream body) throws IOException {
+              reader.readPayload(body, tempFileOutputStream);
+            }
+          });
+    }
+  }
+
+  /**
+   * Splits the payload into one range per connection. The first range is read from
+   * {@code input}, the others are fetched concurrently with range requests and written to their
+   * place in {@code temp}. When {@code input} only holds the first {@code inputLength} bytes of
+   * the response, the first range is what it holds and the rest is split between the other
+   * connections. The reassembled payload is then verified against the checksum in the metadata.
+   */
+  private void fetchPayloadInParallel(
+      final RuleKey ruleKey,
+      InputStream input,
+      long inputLength,
+      HttpArtifactCacheBinaryProtocol.PayloadReader reader,
+      long contentLength,
+      final Path temp) throws IOException {
+    final long payloadOffset = reader.getPayloadOffset();
+    long payloadSize = contentLength - payloadOffset;
+    long firstRangeEnd;
+    if (inputLength >= 0 && inputLength < contentLength) {
+      firstRangeEnd = inputLength - payloadOffset;
+    } else {
+      firstRangeEnd = (payloadSize + parallelFetchConnections - 1) / parallelFetchConnections;
+    }
+    long rangeSize = Math.max(
+        1,
+        (payloadSize - firstRangeEnd + parallelFetchConnections - 2) /
+            (parallelFetchConnections - 1));
+
+    // Size the file up front, so that each range can be written to its place independently.
+    try (FileChannel channel =
+             FileChannel.open(projectFilesystem.resolve(temp), StandardOpenOption.WRITE)) {
+      channel.truncate(0);
+      if (payloadSize > 0) {
+        channel.write(ByteBuffer.allocate(1), payloadSize - 1);
+      }
+    }
+
+    List<ListenableFuture<Void>> ranges = Lists.newArrayList();
+    try {
+      for (long start = firstRangeEnd; start < payloadSize; start += rangeSize) {
+        final long rangeStart = start;
+        final long rangeEnd = Math.min(payloadSize, start + rangeSize);
+        ranges.add(
+            parallelFetchExecutor.get().submit(
+                new Callable<Void>() {
+                  @Override
+                  public Void call() throws IOException {
+                    fetchPayloadRange(
+                        ruleKey,
+                        Optional.<InputStream>absent(),
+                        temp,
+                        payloadOffset,
+                        rangeStart,
+                        rangeEnd);
+                    return null;
+                  }
+                }));
+      }
+      fetchPayloadRange(
+          ruleKey,
+          Optional.of(input),
+          temp,
+          payloadOffset,
+          0,
+          firstRangeEnd);
+      Futures.allAsList(ranges).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while fetching " + ruleKey);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      // Don't leave ranges of a failed fetch queued up on the shared executor.
+      for (ListenableFuture<Void> range : ranges) {
+        range.cancel(true);
+      }
+    }
+
+    try (InputStream payload = projectFilesystem.newFileInputStream(temp)) {
+      reader.readPayload(payload, ByteStreams.nullOutputStream());
+    }
+  }
+
+  private void fetchPayloadRange(
+      RuleKey ruleKey,
+      Optional<InputStream> input,
+      Path temp,
+      final long payloadOffset,
+      long start,
+      long end) throws IOException {
+    try (final FileChannel channel =
+             FileChannel.open(projectFilesystem.resolve(temp), StandardOpenOption.WRITE)) {
+      channel.position(start);
+      fetchRange(
+          ruleKey,
+          input,
+          payloadOffset + end,
+          new RangeSink() {
+            @Override
+            public long getPosition() throws IOException {
+              return payloadOffset + channel.position();
+            }
+
+            @Override
+            public void write(InputStream body) throws IOException {
+              ByteStreams.copy(body, Channels.newOutputStream(channel));
+            }
+          });
+    }
+  }
+
+  /**
+   * Feeds {@code sink} the response from its position up to {@code end}, starting with
+   * {@code input} if present. Whenever a response ends early, the missing part is fetched with a
+   * range request, up to the configured number of attempts.
+   */
+  private void fetchRange(
+      RuleKey ruleKey,
+      Optional<InputStream> input,
+      long end,
+      RangeSink sink) throws IOException {
+    int attempts = 0;
+    while (true) {
+      try {
+        if (input.isPresent()) {
+          sink.write(ByteStreams.limit(input.get(), end - sink.getPosition()));
+        } else {
+          try (HttpResponse response = rangeFetchCall(ruleKey, sink.getPosition(), end)) {
+            sink.write(ByteStreams.limit(response.getBody(), end - sink.getPosition()));
+          }
+        }
+        if (sink.getPosition() < end) {
+          throw new EOFException(
+              String.format("Response ended at byte %d of %d.", sink.getPosition(), end));
+        }
+        return;
+      } catch (SlowFetchAbandoningInputStream.FetchAbandonedException e) {
+        throw e;
+      } catch (IOException e) {
+        if (attempts >= fetchResumeAttempts) {
+          throw e;
+        }
+        attempts++;
+        LOG.info(e, "fetch(%s): resuming at byte %d of %d", ruleKey, sink.getPosition(), end);
+        input = Optional.absent();
+      }
+    }
+  }
+
+  private HttpResponse rangeFetchCall(RuleKey ruleKey, long start, long end) throws IOException {
+    Request.Builder requestBuilder =
+        new Request.Builder()
+            .get()
+            .header("Range", String.format("bytes=%d-%d", start, end - 1));
+    ShardedService.setRoutingKeys(requestBuilder, ImmutableList.of(ruleKey.toString()));
+    HttpResponse response = fetchCall(getFetchPath(ruleKey), requestBuilder);
+    if (response.code() != HttpURLConnection.HTTP_PARTIAL) {
+      response.close();
+      throw new IOException(
+          String.format(
+              "unexpected response to range request for bytes %d-%d: %d",
+              start,
+              end - 1,
+              response.code()));
+    }
+    return response;
+  }
+
+  /**
+   * @return the length of the complete response, as given by the Content-Range header of a
+   *     partial response, or -1 if it is unknown.
+   */
+  private static long getContentRangeTotal(HttpResponse response) {
+    Optional<String> contentRange = response.getHeader("Content-Range");
+    if (!contentRange.isPresent()) {
+      return -1;
+    }
+    Matcher matcher = CONTENT_RANGE_TOTAL_PATTERN.matcher(contentRange.get());
+    if (!matcher.matches()) {
+      return -1;
+    }
+    return Long.parseLong(matcher.group(1));
+  }
+
+  private static String getFetchPath(RuleKey ruleKey) {
+    return "/artifacts/key/" + ruleKey.toString();
+  }
+
+  /**
+   * Destination for the bytes of a fetch response, which knows how far into the response it got.
+   */
+  private interface RangeSink {
+    long getPosition() throws IOException;
+    void write(InputStream body) throws IOException;
+  }
+
   @VisibleForTesting
   protected HttpResponse fetchCall(String path, Request.Builder requestBuilder) throws IOException {
     return fetchClient.makeRequest(path, requestBuilder);
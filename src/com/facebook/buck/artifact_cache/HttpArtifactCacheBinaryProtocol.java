@@ -22,8 +22,10 @@ import com.facebook.buck.util.hash.HasherOutputStream;
 import com.facebook.buck.util.immutables.BuckStyleImmutable;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hasher;
@@ -58,10 +60,21 @@ public class HttpArtifactCacheBinaryProtocol {
   public static FetchResponseReadResult readFetchResponse(
       DataInputStream input,
       OutputStream payloadSink) throws IOException {
+    return readFetchResponse(input, payloadSink, Optional.<MetadataListener>absent());
+  }
+
+  /**
+   * @param metadataListener notified of the artifact metadata before the payload is read.
+   */
+  public static FetchResponseReadResult readFetchResponse(
+      DataInputStream input,
+      OutputStream payloadSink,
+      Optional<MetadataListener> metadataListener) throws IOException {
 
     MetadataAndPayloadReadResultInternal resultInternal = readMetadataAndPayload(
         input,
-        payloadSink);
+        payloadSink,
+        metadataListener);
 
     FetchResponseReadResult.Builder result = FetchResponseReadResult.builder().from(resultInternal);
     return result.build();
@@ -89,6 +102,32 @@ public class HttpArtifactCacheBinaryProtocol {
   public static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
       DataInputStream input,
       OutputStream payloadSink) throws IOException {
+    return readMetadataAndPayload(input, payloadSink, Optional.<MetadataListener>absent());
+  }
+
+  private static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
+      DataInputStream input,
+      OutputStream payloadSink,
+      Optional<MetadataListener> metadataListener) throws IOException {
+    PayloadReader reader = readMetadata(input, metadataListener);
+    reader.readPayload(input, payloadSink);
+    return reader.getResult();
+  }
+
+  /**
+   * Reads the metadata of a fetch response, leaving the payload to be read through the returned
+   * {@link PayloadReader}. This allows the payload to arrive in several pieces, e.g. when a
+   * download is resumed, or to be verified once it has been reassembled from several downloads.
+   */
+  public static PayloadReader readFetchResponseMetadata(
+      DataInputStream input,
+      Optional<MetadataListener> metadataListener) throws IOException {
+    return readMetadata(input, metadataListener);
+  }
+
+  private static PayloadReader readMetadata(
+      DataInputStream input,
+      Optional<MetadataListener> metadataListener) throws IOException {
     // Read the size of a the metadata, and use that to build a input stream to read and
     // process the rest of it.
     int metadataSize = input.readInt();
@@ -98,6 +137,7 @@ public class HttpArtifactCacheBinaryProtocol {
     }
     MetadataAndPayloadReadResultInternal.Builder result =
         MetadataAndPayloadReadResultInternal.builder();
+    Map<String, String> metadata = Maps.newLinkedHashMap();
     // Create a hasher to be used to generate a hash of the metadata and input.  We'll use
     // this to compare against the embedded checksum.
     Hasher hasher = HASH_FUNCTION.newHasher();
@@ -123,8 +163,9 @@ public class HttpArtifactCacheBinaryProtocol {
           int valSize = metadataIn.readInt();
           byte[] val = new byte[valSize];
           ByteStreams.readFully(metadataIn, val);
-          result.putMetadata(key, new String(val, Charsets.UTF_8));
+          metadata.put(key, new String(val, Charsets.UTF_8));
         }
+        result.putAllMetadata(metadata);
       }
 
       // Next, read in the embedded expected checksum, which should be the last byte in
@@ -134,18 +175,11 @@ public class HttpArtifactCacheBinaryProtocol {
       result.setExpectedHashCode(HashCode.fromBytes(hashCodeBytes));
     }
 
-    // The remaining data is the payload, which we write to the created file, and also include
-    // in our verification checksum.
-    Hasher artifactOnlyHasher = HASH_FUNCTION.newHasher();
-    try (InputStream payload = new HasherInputStream(artifactOnlyHasher,
-        new HasherInputStream(hasher, input))) {
-      result.setResponseSizeBytes(ByteStreams.copy(payload, payloadSink));
-      result.setArtifactOnlyHashCode(artifactOnlyHasher.hash());
+    if (metadataListener.isPresent()) {
+      metadataListener.get().onMetadata(ImmutableMap.copyOf(metadata));
     }
 
-    result.setActualHashCode(hasher.hash());
-
-    return result.build();
+    return new PayloadReader(result, hasher, Integer.SIZE / Byte.SIZE + metadataSize);
   }
 
   @VisibleForTesting
@@ -203,6 +237,76 @@ public class HttpArtifactCacheBinaryProtocol {
     return bytes;
   }
 
+  public interface MetadataListener {
+    void onMetadata(ImmutableMap<String, String> metadata) throws IOException;
+  }
+
+  /**
+   * Reads the payload that follows the metadata, in order, including it in the end-to-end
+   * checksum. The payload may be read in several pieces from different streams.
+   */
+  public static class PayloadReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final MetadataAndPayloadReadResultInternal.Builder result;
+    private final Hasher hasher;
+    private final Hasher artifactOnlyHasher;
+    private final long payloadOffset;
+    private long payloadBytesRead;
+
+    private PayloadReader(
+        MetadataAndPayloadReadResultInternal.Builder result,
+        Hasher hasher,
+        long payloadOffset) {
+      this.result = result;
+      this.hasher = hasher;
+      this.artifactOnlyHasher = HASH_FUNCTION.newHasher();
+      this.payloadOffset = payloadOffset;
+    }
+
+    /**
+     * @return the number of bytes of the response that precede the payload.
+     */
+    public long getPayloadOffset() {
+      return payloadOffset;
+    }
+
+    public long getPayloadBytesRead() {
+      return payloadBytesRead;
+    }
+
+    /**
+     * Copies the next part of the payload from {@code input} to {@code payloadSink}, until the end
+     * of {@code input}. If reading fails, everything copied so far is accounted for, so that the
+     * rest of the payload can be read from another stream.
+     */
+    public void readPayload(InputStream input, OutputStream payloadSink) throws IOException {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        payloadSink.write(buffer, 0, read);
+        hasher.putBytes(buffer, 0, read);
+        artifactOnlyHasher.putBytes(buffer, 0, read);
+        payloadBytesRead += read;
+      }
+    }
+
+    /**
+     * Must only be called once the whole payload has been read.
+     */
+    public FetchResponseReadResult getFetchResponseReadResult() {
+      return FetchResponseReadResult.builder().from(getResult()).build();
+    }
+
+    private MetadataAndPayloadReadResultInternal getResult() {
+      return result
+          .setResponseSizeBytes(payloadBytesRead)
+          .setArtifactOnlyHashCode(artifactOnlyHasher.hash())
+          .setActualHashCode(hasher.hash())
+          .build();
+    }
+  }
+
   public static class StoreRequest {
     private final ByteSource payloadSource;
     private final byte[] rawKeys;
@@ -271,11 +375,20 @@ public class HttpArtifactCacheBinaryProtocol {
 
     public void write(OutputStream responseSink) throws IOException {
       try (DataOutputStream dataOutputStream = new DataOutputStream(responseSink)) {
-        dataOutputStream.writeInt(rawMetadata.length);
-        dataOutputStream.write(rawMetadata);
+        writeMetadata(dataOutputStream);
         ByteStreams.copy(payloadSource.openStream(), responseSink);
       }
     }
+
+    /**
+     * Writes everything that precedes the payload, for callers that send the payload themselves.
+     */
+    public void writeMetadata(OutputStream responseSink) throws IOException {
+      DataOutputStream dataOutputStream = new DataOutputStream(responseSink);
+      dataOutputStream.writeInt(rawMetadata.length);
+      dataOutputStream.write(rawMetadata);
+      dataOutputStream.flush();
+    }
   }
 
   abstract static class MetadataAndPayloadReadResult {
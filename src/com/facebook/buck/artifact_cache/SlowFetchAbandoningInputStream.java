@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.timing.Clock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Wraps the body of a cache fetch and gives up on it once the rest of the download is projected,
+ * from the throughput so far, to take longer than building the rule locally would.
+ */
+class SlowFetchAbandoningInputStream extends FilterInputStream {
+
+  // Throughput measured over less than this is too noisy to act on.
+  @VisibleForTesting
+  static final long MIN_ELAPSED_MILLIS = 500;
+
+  private final Clock clock;
+  private final long contentLength;
+  private final long startMillis;
+  private long bytesRead;
+  private Optional<Long> localBuildMillis;
+  private boolean abandoned;
+
+  SlowFetchAbandoningInputStream(InputStream in, Clock clock, long contentLength) {
+    super(in);
+    this.clock = clock;
+    this.contentLength = contentLength;
+    this.startMillis = clock.currentTimeMillis();
+    this.bytesRead = 0;
+    this.localBuildMillis = Optional.absent();
+    this.abandoned = false;
+  }
+
+  /**
+   * Starts comparing the projected remaining download time to {@code localBuildMillis}.
+   */
+  public void setLocalBuildMillis(long localBuildMillis) {
+    this.localBuildMillis = Optional.of(localBuildMillis);
+  }
+
+  @Override
+  public int read() throws IOException {
+    checkNotAbandoned();
+    int result = super.read();
+    if (result != -1) {
+      onBytesRead(1);
+    }
+    return result;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    checkNotAbandoned();
+    int result = super.read(b, off, len);
+    if (result > 0) {
+      onBytesRead(result);
+    }
+    return result;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    checkNotAbandoned();
+    long result = super.skip(n);
+    onBytesRead(result);
+    return result;
+  }
+
+  private void checkNotAbandoned() throws FetchAbandonedException {
+    // Never resume a download we gave up on, in particular not to drain it on close.
+    if (abandoned) {
+      throw new FetchAbandonedException("The fetch was abandoned.");
+    }
+  }
+
+  private void onBytesRead(long count) throws FetchAbandonedException {
+    bytesRead += count;
+    if (!localBuildMillis.isPresent() || contentLength <= 0 || bytesRead >= contentLength) {
+      return;
+    }
+    long elapsedMillis = clock.currentTimeMillis() - startMillis;
+    if (elapsedMillis < MIN_ELAPSED_MILLIS) {
+      return;
+    }
+    long remainingMillis = (contentLength - bytesRead) * elapsedMillis / bytesRead;
+    if (remainingMillis > localBuildMillis.get()) {
+      abandoned = true;
+      throw new FetchAbandonedException(String.format(
+          "%d of %d bytes fetched in %dms, the remaining %dms exceed the %dms local build",
+          bytesRead,
+          contentLength,
+          elapsedMillis,
+          remainingMillis,
+          localBuildMillis.get()));
+    }
+  }
+
+  static class FetchAbandonedException extends IOException {
+    FetchAbandonedException(String message) {
+      super(message);
+    }
+  }
+}
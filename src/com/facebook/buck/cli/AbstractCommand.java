@@ -24,6 +24,7 @@ import com.facebook.buck.parser.BuildTargetParser;
 import com.facebook.buck.parser.BuildTargetPatternParser;
 import com.facebook.buck.parser.BuildTargetPatternTargetNodeParser;
 import com.facebook.buck.parser.TargetNodeSpec;
+import com.facebook.buck.rules.ArtifactUploadPipeline;
 import com.facebook.buck.rules.CellPathResolver;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.util.HumanReadableException;
@@ -41,6 +42,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
@@ -254,9 +256,41 @@ public abstract class AbstractCommand implements Command {
         .setJavaPackageFinder(params.getJavaPackageFinder())
         .setObjectMapper(params.getObjectMapper())
         .setExecutors(params.getExecutors())
+        .setPersistentWorkerPools(params.getPersistentWorkerPools())
         .build();
   }
 
+  protected Optional<ArtifactUploadPipeline> createArtifactUploadPipeline(BuckConfig buckConfig) {
+    int threads = buckConfig.getBuildArtifactUploadThreads();
+    if (threads <= 0) {
+      return Optional.absent();
+    }
+    return Optional.of(
+        new ArtifactUploadPipeline(
+            threads,
+            buckConfig.getBuildArtifactUploadQueueSize(),
+            buckConfig.getBuildArtifactUploadDiskBudget()));
+  }
+
+  /**
+   * Waits for the artifacts still being stored in the background, warning about the ones that
+   * don't make the deadline.
+   */
+  protected void drainArtifactUploadPipeline(
+      CommandRunnerParams params,
+      Optional<ArtifactUploadPipeline> pipeline) throws InterruptedException {
+    if (!pipeline.isPresent()) {
+      return;
+    }
+    long timeoutMs = params.getBuckConfig().getBuildArtifactUploadDrainTimeoutMs();
+    if (!pipeline.get().drain(timeoutMs, TimeUnit.MILLISECONDS)) {
+      params.getBuckEventBus().post(
+          ConsoleEvent.warning(
+              "Gave up storing some artifacts in the cache after waiting %d ms.",
+              timeoutMs));
+    }
+  }
+
   public ConcurrencyLimit getConcurrencyLimit(BuckConfig buckConfig) {
     Double loadLimit = this.loadLimit;
     if (loadLimit == null) {
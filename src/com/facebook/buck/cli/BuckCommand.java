@@ -38,6 +38,7 @@ public class BuckCommand extends AbstractContainerCommand {
       @SubCommand(name = "autodeps", impl = AutodepsCommand.class),
       @SubCommand(name = "build", impl = BuildCommand.class),
       @SubCommand(name = "cache", impl = CacheCommand.class),
+      @SubCommand(name = "cache-server", impl = CacheServerCommand.class),
       @SubCommand(name = "clean", impl = CleanCommand.class),
       @SubCommand(name = "fetch", impl = FetchCommand.class),
       @SubCommand(name = "install", impl = InstallCommand.class),
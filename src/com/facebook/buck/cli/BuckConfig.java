@@ -71,6 +71,7 @@ import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
@@ -481,6 +482,10 @@ public class BuckConfig {
     return getBooleanValue("log", "compress_traces", false);
   }
 
+  public boolean getBinaryTraces() {
+    return getBooleanValue(LOG_SECTION, "binary_traces", false);
+  }
+
   public ProjectTestsMode xcodeProjectTestsMode() {
     return getEnum("project", "xcode_project_tests_mode", ProjectTestsMode.class)
         .or(ProjectTestsMode.WITH_TESTS);
@@ -741,6 +746,36 @@ public class BuckConfig {
     return getLong("build", "input_rule_key_file_size_limit").or(Long.MAX_VALUE);
   }
 
+  /**
+   * @return the number of threads compressing and storing artifacts in the background, or 0 to
+   *     store them on the build threads.
+   */
+  public int getBuildArtifactUploadThreads() {
+    return getInteger("build", "artifact_upload_threads").or(2);
+  }
+
+  /**
+   * @return the maximum number of artifacts waiting to be stored before rules finishing their
+   *     builds are held up.
+   */
+  public int getBuildArtifactUploadQueueSize() {
+    return getInteger("build", "artifact_upload_queue_size").or(64);
+  }
+
+  /**
+   * @return the total size of the outputs being compressed and stored at any one time.
+   */
+  public long getBuildArtifactUploadDiskBudget() {
+    return getLong("build", "artifact_upload_disk_budget").or(1024L * 1024 * 1024);
+  }
+
+  /**
+   * @return how long to wait for background artifact stores once the build finished.
+   */
+  public long getBuildArtifactUploadDrainTimeoutMs() {
+    return getLong("build", "artifact_upload_drain_timeout_ms").or(TimeUnit.MINUTES.toMillis(5));
+  }
+
   /**
    * @return the local cache directory
    */
@@ -42,6 +42,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
@@ -73,6 +74,10 @@ public class BuckQueryEnvironment implements QueryEnvironment {
 
   private Map<BuildTarget, QueryTarget> buildTargetToQueryTarget = new HashMap<>();
 
+  // Targets and owner-lookup build files consulted so far, used to validate cached results.
+  private final Set<BuildTarget> consultedTargets = new HashSet<>();
+  private final Set<Path> consultedOwnerBuildFiles = new HashSet<>();
+
   private boolean enableProfiling;
 
   public BuckQueryEnvironment(
@@ -96,6 +101,24 @@ public class BuckQueryEnvironment implements QueryEnvironment {
     return graph;
   }
 
+  /**
+   * @return the absolute paths of every build file whose contents were consulted by the queries
+   *     evaluated so far in this environment, keyed by the root of the cell owning them.
+   */
+  public ImmutableSetMultimap<Path, Path> getConsultedBuildFiles() {
+    ImmutableSetMultimap.Builder<Path, Path> builder = ImmutableSetMultimap.builder();
+    Cell rootCell = params.getCell();
+    for (BuildTarget target :
+        Sets.union(consultedTargets, getTargetsFromNodes(graph.getNodes()))) {
+      Cell cell = rootCell.getCell(target);
+      builder.put(
+          cell.getRoot(),
+          cell.getFilesystem().resolve(target.getBasePath()).resolve(cell.getBuildFileName()));
+    }
+    builder.putAll(rootCell.getRoot(), consultedOwnerBuildFiles);
+    return builder.build();
+  }
+
   public void preloadTargetPatterns(Iterable<String> patterns, ListeningExecutorService executor)
       throws QueryException, InterruptedException {
     try {
@@ -108,17 +131,27 @@ public class BuckQueryEnvironment implements QueryEnvironment {
   }
 
   /**
-   * Evaluate the specified query expression in this environment.
+   * Evaluate the specified query expression in this environment. The result is reused from the
+   * {@link QueryResultCache} if none of the build files it was computed from have changed since.
    *
    * @return the resulting set of targets.
    * @throws QueryException if the evaluation failed.
    */
   public Set<QueryTarget> evaluateQuery(QueryExpression expr, ListeningExecutorService executor)
       throws QueryException, InterruptedException {
+    QueryResultCache cache = params.getQueryResultCache();
+    Optional<ImmutableSet<QueryTarget>> cachedResult =
+        cache.lookup(params.getParser(), params.getCell(), expr);
+    if (cachedResult.isPresent()) {
+      LOG.debug("Query result cache hit for %s", expr);
+      return cachedResult.get();
+    }
     Set<String> targetLiterals = new HashSet<>();
     expr.collectTargetPatterns(targetLiterals);
     preloadTargetPatterns(targetLiterals, executor);
-    return expr.eval(this, executor);
+    Set<QueryTarget> result = expr.eval(this, executor);
+    cache.put(params.getParser(), params.getCell(), expr, result, getConsultedBuildFiles());
+    return result;
   }
 
   public Set<QueryTarget> evaluateQuery(String query, ListeningExecutorService executor)
@@ -131,10 +164,16 @@ public class BuckQueryEnvironment implements QueryEnvironment {
       String pattern,
       ListeningExecutorService executor) throws QueryException, InterruptedException {
     try {
-      return ImmutableSet.copyOf(
+      ImmutableSet<QueryTarget> targets = ImmutableSet.copyOf(
           Iterables.concat(
               targetPatternEvaluator.resolveTargetPatterns(ImmutableList.of(pattern), executor)
                   .values()));
+      for (QueryTarget target : targets) {
+        if (target instanceof QueryBuildTarget) {
+          consultedTargets.add(((QueryBuildTarget) target).getBuildTarget());
+        }
+      }
+      return targets;
     } catch (BuildTargetException | BuildFileParseException | IOException e) {
       throw new QueryException("Error in resolving targets matching %s", pattern);
     }
@@ -143,6 +182,7 @@ public class BuckQueryEnvironment implements QueryEnvironment {
   TargetNode<?> getNode(QueryTarget target)
       throws QueryException, InterruptedException {
     Preconditions.checkState(target instanceof QueryBuildTarget);
+    consultedTargets.add(((QueryBuildTarget) target).getBuildTarget());
     ListeningExecutorService executor = null;
     try {
       executor = com.google.common.util.concurrent.MoreExecutors.listeningDecorator(
@@ -324,6 +364,14 @@ public class BuckQueryEnvironment implements QueryEnvironment {
     try {
       BuildFileTree buildFileTree = Preconditions.checkNotNull(
           buildFileTrees.get(params.getCell()));
+      ProjectFilesystem cellFilesystem = params.getCell().getFilesystem();
+      for (Path file : OwnersReport.getArgumentsAsPaths(cellFilesystem.getRootPath(), files)) {
+        Optional<Path> basePath = buildFileTree.getBasePathOfAncestorTarget(file);
+        if (basePath.isPresent()) {
+          consultedOwnerBuildFiles.add(
+              cellFilesystem.resolve(basePath.get()).resolve(params.getCell().getBuildFileName()));
+        }
+      }
       OwnersReport report = OwnersReport.buildOwnersReport(
           params,
           buildFileTree,
@@ -45,6 +45,7 @@ import com.facebook.buck.parser.ParserConfig;
 import com.facebook.buck.parser.ParserTargetNodeFactory;
 import com.facebook.buck.rules.ActionGraph;
 import com.facebook.buck.rules.ActionGraphAndResolver;
+import com.facebook.buck.rules.ArtifactUploadPipeline;
 import com.facebook.buck.rules.BuildEngine;
 import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildRule;
@@ -56,6 +57,7 @@ import com.facebook.buck.rules.TargetGraph;
 import com.facebook.buck.rules.TargetGraphAndBuildTargets;
 import com.facebook.buck.rules.TargetNode;
 import com.facebook.buck.rules.keys.DefaultRuleKeyBuilderFactory;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.slb.ClientSideSlb;
 import com.facebook.buck.slb.HttpService;
 import com.facebook.buck.slb.LoadBalancedService;
@@ -103,6 +105,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nullable;
 
@@ -279,7 +282,8 @@ public class BuildCommand extends AbstractCommand {
       Clock clock,
       Optional<AdbOptions> adbOptions,
       Optional<TargetDeviceOptions> targetDeviceOptions,
-      Map<ExecutionContext.ExecutorPool, ListeningExecutorService> executors) {
+      Map<ExecutionContext.ExecutorPool, ListeningExecutorService> executors,
+      Optional<ConcurrentMap<String, WorkerProcessPool>> persistentWorkerPools) {
     if (console.getVerbosity() == Verbosity.ALL) {
       console.getStdErr().printf("Creating a build with %d threads.\n", buckConfig.getNumThreads());
     }
@@ -304,7 +308,8 @@ public class BuildCommand extends AbstractCommand {
         getConcurrencyLimit(buckConfig),
         adbOptions,
         targetDeviceOptions,
-        executors);
+        executors,
+        persistentWorkerPools);
   }
 
   @Nullable private Build lastBuild;
@@ -601,6 +606,8 @@ public class BuildCommand extends AbstractCommand {
       artifactCache = new NoopArtifactCache();
     }
 
+    Optional<ArtifactUploadPipeline> artifactUploadPipeline =
+        createArtifactUploadPipeline(params.getBuckConfig());
     try (Build build = createBuild(
         params.getBuckConfig(),
         actionGraphAndResolver.getActionGraph(),
@@ -616,7 +623,9 @@ public class BuildCommand extends AbstractCommand {
             params.getBuckConfig().getBuildInputRuleKeyFileSizeLimit(),
             params.getObjectMapper(),
             actionGraphAndResolver.getResolver(),
-            params.getBuckConfig().getKeySeed()),
+            params.getBuckConfig().getKeySeed(),
+            params.getIncrementalRuleKeyCache(),
+            artifactUploadPipeline),
         artifactCache,
         params.getConsole(),
         params.getBuckEventBus(),
@@ -627,7 +636,8 @@ public class BuildCommand extends AbstractCommand {
         params.getClock(),
         Optional.<AdbOptions>absent(),
         Optional.<TargetDeviceOptions>absent(),
-        params.getExecutors())) {
+        params.getExecutors(),
+        params.getPersistentWorkerPools())) {
       lastBuild = build;
       return build.executeAndPrintFailuresToEventBus(
           buildTargets,
@@ -635,6 +645,8 @@ public class BuildCommand extends AbstractCommand {
           params.getBuckEventBus(),
           params.getConsole(),
           getPathToBuildReport(params.getBuckConfig()));
+    } finally {
+      drainArtifactUploadPipeline(params, artifactUploadPipeline);
     }
   }
 
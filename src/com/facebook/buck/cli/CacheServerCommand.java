@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.artifact_cache.ArtifactCacheBuckConfig;
+import com.facebook.buck.artifact_cache.ArtifactCaches;
+import com.facebook.buck.artifact_cache.DirArtifactCache;
+import com.facebook.buck.counters.CounterRegistry;
+import com.facebook.buck.event.ConsoleEvent;
+import com.facebook.buck.httpserver.CacheServer;
+import com.facebook.buck.httpserver.WebServer;
+import com.facebook.buck.util.HumanReadableException;
+
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+
+/**
+ * Serves the dir cache to other machines until interrupted.
+ */
+public class CacheServerCommand extends AbstractCommand {
+
+  private static final int DEFAULT_MAX_THREADS = 200;
+
+  @Option(
+      name = "--port",
+      usage = "Port to listen on. Defaults to an ephemeral port.")
+  private int port = 0;
+
+  @Option(
+      name = "--threads",
+      usage = "Maximum number of requests served at once.")
+  private int maxThreads = DEFAULT_MAX_THREADS;
+
+  @Override
+  public int runWithoutHelp(CommandRunnerParams params) throws IOException, InterruptedException {
+    ArtifactCacheBuckConfig cacheBuckConfig = new ArtifactCacheBuckConfig(params.getBuckConfig());
+    DirArtifactCache artifactCache = ArtifactCaches.newCacheServerCache(
+        cacheBuckConfig,
+        params.getBuckEventBus(),
+        params.getCell().getFilesystem());
+    CacheServer server = new CacheServer(
+        port,
+        maxThreads,
+        params.getCell().getFilesystem(),
+        artifactCache);
+    params.getBuckEventBus().post(
+        new CounterRegistry.AsyncCounterRegistrationEvent(server.getCounters()));
+
+    try {
+      server.start();
+      params.getBuckEventBus().post(
+          ConsoleEvent.info(
+              "Serving %s (%s) on port %d.",
+              cacheBuckConfig.getServedDirCache().getCacheDir(),
+              cacheBuckConfig.getServedDirCache().getCacheReadMode(),
+              server.getPort()));
+      server.join();
+    } catch (WebServer.WebServerException e) {
+      throw new HumanReadableException(e, "Failed to start the cache server: %s", e.getMessage());
+    } finally {
+      try {
+        server.stop();
+      } catch (WebServer.WebServerException e) {
+        params.getBuckEventBus().post(ConsoleEvent.warning(e.getMessage()));
+      }
+      artifactCache.close();
+    }
+    return 0;
+  }
+
+  @Override
+  public String getShortDescription() {
+    return "serves the dir cache to other machines";
+  }
+
+  @Override
+  public boolean isReadOnly() {
+    return false;
+  }
+}
@@ -21,9 +21,12 @@ import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.httpserver.WebServer;
 import com.facebook.buck.jvm.core.JavaPackageFinder;
+import com.facebook.buck.jvm.java.intellij.IjModuleCache;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.rules.ActionGraphCache;
 import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.keys.IncrementalRuleKeyCache;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.Console;
@@ -39,6 +42,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.InputStream;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * {@link CommandRunnerParams} is the collection of parameters needed to run a {@link Command}.
@@ -64,6 +68,10 @@ class CommandRunnerParams {
   private final Map<ExecutionContext.ExecutorPool, ListeningExecutorService> executors;
   private final BuildEnvironmentDescription buildEnvironmentDescription;
   private final ActionGraphCache actionGraphCache;
+  private final QueryResultCache queryResultCache;
+  private final IjModuleCache ijModuleCache;
+  private final Optional<IncrementalRuleKeyCache> incrementalRuleKeyCache;
+  private final Optional<ConcurrentMap<String, WorkerProcessPool>> persistentWorkerPools;
 
   public CommandRunnerParams(
       Console console,
@@ -84,7 +92,11 @@ class CommandRunnerParams {
       FileHashCache fileHashCache,
       Map<ExecutionContext.ExecutorPool, ListeningExecutorService> executors,
       BuildEnvironmentDescription buildEnvironmentDescription,
-      ActionGraphCache actionGraphCache) {
+      ActionGraphCache actionGraphCache,
+      QueryResultCache queryResultCache,
+      IjModuleCache ijModuleCache,
+      Optional<IncrementalRuleKeyCache> incrementalRuleKeyCache,
+      Optional<ConcurrentMap<String, WorkerProcessPool>> persistentWorkerPools) {
     this.console = console;
     this.stdIn = stdIn;
     this.cell = cell;
@@ -104,6 +116,10 @@ class CommandRunnerParams {
     this.executors = executors;
     this.buildEnvironmentDescription = buildEnvironmentDescription;
     this.actionGraphCache = actionGraphCache;
+    this.queryResultCache = queryResultCache;
+    this.ijModuleCache = ijModuleCache;
+    this.incrementalRuleKeyCache = incrementalRuleKeyCache;
+    this.persistentWorkerPools = persistentWorkerPools;
   }
 
   public Console getConsole() {
@@ -182,4 +198,20 @@ class CommandRunnerParams {
     return actionGraphCache;
   }
 
+  public QueryResultCache getQueryResultCache() {
+    return queryResultCache;
+  }
+
+  public IjModuleCache getIjModuleCache() {
+    return ijModuleCache;
+  }
+
+  public Optional<IncrementalRuleKeyCache> getIncrementalRuleKeyCache() {
+    return incrementalRuleKeyCache;
+  }
+
+  public Optional<ConcurrentMap<String, WorkerProcessPool>> getPersistentWorkerPools() {
+    return persistentWorkerPools;
+  }
+
 }
@@ -123,7 +123,8 @@ public class FetchCommand extends BuildCommand {
           params.getClock(),
           Optional.<AdbOptions>absent(),
           Optional.<TargetDeviceOptions>absent(),
-          params.getExecutors())) {
+          params.getExecutors(),
+          params.getPersistentWorkerPools())) {
         exitCode = build.executeAndPrintFailuresToEventBus(
             buildTargets,
             isKeepGoing(),
@@ -30,8 +30,10 @@ import com.facebook.buck.artifact_cache.ArtifactCaches;
 import com.facebook.buck.artifact_cache.HttpArtifactCacheEvent;
 import com.facebook.buck.config.Config;
 import com.facebook.buck.config.Configs;
+import com.facebook.buck.counters.Counter;
 import com.facebook.buck.counters.CounterRegistry;
 import com.facebook.buck.counters.CounterRegistryImpl;
+import com.facebook.buck.counters.EventBusDispatchCounter;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.event.ConsoleEvent;
@@ -56,6 +58,7 @@ import com.facebook.buck.io.TempDirectoryCreator;
 import com.facebook.buck.io.Watchman;
 import com.facebook.buck.jvm.java.JavaBuckConfig;
 import com.facebook.buck.jvm.java.JavacOptions;
+import com.facebook.buck.jvm.java.intellij.IjModuleCache;
 import com.facebook.buck.log.CommandThreadFactory;
 import com.facebook.buck.log.GlobalStateManager;
 import com.facebook.buck.log.InvocationInfo;
@@ -72,6 +75,8 @@ import com.facebook.buck.rules.KnownBuildRuleTypes;
 import com.facebook.buck.rules.KnownBuildRuleTypesFactory;
 import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.rules.keys.IncrementalRuleKeyCache;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.test.TestConfig;
 import com.facebook.buck.test.TestResultSummaryVerbosity;
@@ -162,6 +167,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -269,6 +276,10 @@ public final class Main {
     private final Optional<WebServer> webServer;
     private final UUID watchmanQueryUUID;
     private final ActionGraphCache actionGraphCache;
+    private final QueryResultCache queryResultCache;
+    private final IjModuleCache ijModuleCache;
+    private final IncrementalRuleKeyCache incrementalRuleKeyCache;
+    private final ConcurrentMap<String, WorkerProcessPool> persistentWorkerPools;
 
     public Daemon(
         Cell cell,
@@ -284,6 +295,10 @@ public final class Main {
       this.fileEventBus = new EventBus("file-change-events");
 
       actionGraphCache = new ActionGraphCache();
+      queryResultCache = new QueryResultCache();
+      ijModuleCache = new IjModuleCache();
+      incrementalRuleKeyCache = new IncrementalRuleKeyCache(cell.getFilesystem());
+      persistentWorkerPools = new ConcurrentHashMap<>();
 
       TypeCoercerFactory typeCoercerFactory = new DefaultTypeCoercerFactory(objectMapper);
       this.parser = new Parser(
@@ -292,6 +307,8 @@ public final class Main {
           new ConstructorArgMarshaller(typeCoercerFactory));
       fileEventBus.register(parser);
       fileEventBus.register(actionGraphCache);
+      fileEventBus.register(queryResultCache);
+      fileEventBus.register(incrementalRuleKeyCache);
       fileEventBus.register(hashCache);
 
       if (webServerToReuse.isPresent()) {
@@ -365,6 +382,22 @@ public final class Main {
       return actionGraphCache;
     }
 
+    private QueryResultCache getQueryResultCache() {
+      return queryResultCache;
+    }
+
+    private IjModuleCache getIjModuleCache() {
+      return ijModuleCache;
+    }
+
+    private IncrementalRuleKeyCache getIncrementalRuleKeyCache() {
+      return incrementalRuleKeyCache;
+    }
+
+    private ConcurrentMap<String, WorkerProcessPool> getPersistentWorkerPools() {
+      return persistentWorkerPools;
+    }
+
     private FileHashCache getFileHashCache() {
       return hashCache;
     }
@@ -448,6 +481,18 @@ public final class Main {
     @Override
     public void close() throws IOException {
       shutdownWebServer();
+      closePersistentWorkerPools();
+    }
+
+    private void closePersistentWorkerPools() {
+      for (WorkerProcessPool pool : persistentWorkerPools.values()) {
+        try {
+          pool.close();
+        } catch (HumanReadableException e) {
+          LOG.error(e, "Failed to close worker processes.");
+        }
+      }
+      persistentWorkerPools.clear();
     }
 
     private void shutdownWebServer() {
@@ -1008,18 +1053,28 @@ public final class Main {
           }
 
           ActionGraphCache actionGraphCache = getActionGraphCacheFromDaemon(context, rootCell);
+          QueryResultCache queryResultCache = getQueryResultCacheFromDaemon(context, rootCell);
+          IjModuleCache ijModuleCache = getIjModuleCacheFromDaemon(context, rootCell);
+          Optional<IncrementalRuleKeyCache> incrementalRuleKeyCache =
+              getIncrementalRuleKeyCacheFromDaemon(context, rootCell);
+          Optional<ConcurrentMap<String, WorkerProcessPool>> persistentWorkerPools =
+              getPersistentWorkerPoolsFromDaemon(context, rootCell);
 
           // Because the Parser is potentially constructed before the CounterRegistry,
           // we need to manually register its counters after it's created.
           //
           // The counters will be unregistered once the counter registry is closed.
           counterRegistry.registerCounters(parser.getCounters());
+          counterRegistry.registerCounters(
+              ImmutableList.<Counter>of(new EventBusDispatchCounter(buildEventBus)));
 
           // Because the ActionGraphCache is potentially constructed before the CounterRegistry,
           // we need to manually register its counters after it's created. We register the counters
           // of the ActionGraphCache only if we run the daemon.
           if (context.isPresent()) {
             counterRegistry.registerCounters(actionGraphCache.getCounters());
+            counterRegistry.registerCounters(queryResultCache.getCounters());
+            counterRegistry.registerCounters(incrementalRuleKeyCache.get().getCounters());
           }
 
           JavaUtilsLoggingBuildListener.ensureLogFileIsWritten(rootCell.getFilesystem());
@@ -1070,7 +1125,11 @@ public final class Main {
                   fileHashCache,
                   executors,
                   buildEnvironmentDescription,
-                  actionGraphCache));
+                  actionGraphCache,
+                  queryResultCache,
+                  ijModuleCache,
+                  incrementalRuleKeyCache,
+                  persistentWorkerPools));
           // Wait for HTTP writes to complete.
           closeHttpExecutorService(
               cacheBuckConfig, Optional.of(buildEventBus), httpWriteExecutorService);
@@ -1388,6 +1447,46 @@ public final class Main {
     return new ActionGraphCache();
   }
 
+  private QueryResultCache getQueryResultCacheFromDaemon(
+      Optional<NGContext> context,
+      Cell cell)
+      throws IOException, InterruptedException {
+    if (context.isPresent()) {
+      return getDaemon(cell, objectMapper).getQueryResultCache();
+    }
+    return new QueryResultCache();
+  }
+
+  private IjModuleCache getIjModuleCacheFromDaemon(
+      Optional<NGContext> context,
+      Cell cell)
+      throws IOException, InterruptedException {
+    if (context.isPresent()) {
+      return getDaemon(cell, objectMapper).getIjModuleCache();
+    }
+    return new IjModuleCache();
+  }
+
+  private Optional<IncrementalRuleKeyCache> getIncrementalRuleKeyCacheFromDaemon(
+      Optional<NGContext> context,
+      Cell cell)
+      throws IOException, InterruptedException {
+    if (context.isPresent()) {
+      return Optional.of(getDaemon(cell, objectMapper).getIncrementalRuleKeyCache());
+    }
+    return Optional.absent();
+  }
+
+  private Optional<ConcurrentMap<String, WorkerProcessPool>> getPersistentWorkerPoolsFromDaemon(
+      Optional<NGContext> context,
+      Cell cell)
+      throws IOException, InterruptedException {
+    if (context.isPresent()) {
+      return Optional.of(getDaemon(cell, objectMapper).getPersistentWorkerPools());
+    }
+    return Optional.absent();
+  }
+
   private void loadListenersFromBuckConfig(
       ImmutableList.Builder<BuckEventListener> eventListeners,
       ProjectFilesystem projectFilesystem,
@@ -1469,7 +1568,8 @@ public final class Main {
             clock,
             objectMapper,
             config.getMaxTraces(),
-            config.getCompressTraces()));
+            config.getCompressTraces(),
+            config.getBinaryTraces()));
       } catch (IOException e) {
         LOG.error("Unable to create ChromeTrace listener!");
       }
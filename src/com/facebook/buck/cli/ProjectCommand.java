@@ -624,7 +624,7 @@ public class ProjectCommand extends BuildCommand {
   private ImmutableSet<BuildTarget> writeProjectAndGetRequiredBuildTargets(
       CommandRunnerParams params,
       final TargetGraphAndTargets targetGraphAndTargets
-  ) throws IOException {
+  ) throws IOException, InterruptedException {
     ActionGraphAndResolver result = Preconditions.checkNotNull(
         ActionGraphCache.getFreshActionGraph(
             params.getBuckEventBus(),
@@ -644,7 +644,11 @@ public class ProjectCommand extends BuildCommand {
         sourcePathResolver,
         params.getCell().getFilesystem(),
         getIntellijAggregationMode(params.getBuckConfig()),
-        params.getBuckConfig());
+        params.getBuckConfig(),
+        params.getIjModuleCache(),
+        Preconditions.checkNotNull(
+            params.getExecutors().get(ExecutionContext.ExecutorPool.PROJECT),
+            "CommandRunnerParams does not have executor for PROJECT pool"));
 
     return project.write(runIjCleaner, excludeArtifacts);
   }
@@ -230,7 +230,7 @@ public class QueryCommand extends AbstractCommand {
     if (shouldOutputAttributes()) {
       collectAndPrintAttributes(params, executor, env, queryResult);
     } else if (shouldGenerateDotOutput()) {
-      printDotOutput(params, env, queryResult);
+      printDotOutput(params, env, executor, queryResult);
     } else if (shouldGenerateJsonOutput()) {
       CommandHelper.printJSON(params, queryResult);
     } else {
@@ -242,8 +242,12 @@ public class QueryCommand extends AbstractCommand {
   private void printDotOutput(
       CommandRunnerParams params,
       BuckQueryEnvironment env,
+      ListeningExecutorService executor,
       Set<QueryTarget> queryResult)
       throws IOException, QueryException, InterruptedException {
+    // The result may have come from the query result cache, in which case the target graph has
+    // not been loaded yet.
+    env.buildTransitiveClosure(queryResult, Integer.MAX_VALUE, executor);
     Dot.writeSubgraphOutput(
         env.getTargetGraph(),
         "result_graph",
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.io.WatchEvents;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.parser.Parser;
+import com.facebook.buck.query.QueryExpression;
+import com.facebook.buck.query.QueryTarget;
+import com.facebook.buck.rules.Cell;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Daemon-scoped cache of {@code buck query} results, keyed by the normalized query expression.
+ * <p>
+ * Each entry remembers the raw nodes of every build file consulted while evaluating the query.
+ * An entry is only served while the {@link Parser} still holds those exact raw nodes, so every
+ * watch event that makes the parser drop a build file (edits to the file or its includes, added
+ * or removed files affecting globs, environment or config changes) also drops the entries that
+ * depended on it. Changes to build files themselves, which can alter which build files a query
+ * consults (e.g. a new package under a recursive pattern), and overflows flush the whole cache.
+ */
+public class QueryResultCache {
+
+  private static final Logger LOG = Logger.get(QueryResultCache.class);
+
+  private static final String COUNTER_CATEGORY = "buck_query_result_cache";
+  private static final String CACHE_HIT_COUNTER_NAME = "cache_hit";
+  private static final String CACHE_MISS_COUNTER_NAME = "cache_miss";
+  private static final String CACHE_INVALIDATION_COUNTER_NAME = "cache_invalidation";
+
+  private static final int MAX_CACHED_QUERIES = 1024;
+
+  private final IntegerCounter cacheHitCounter;
+  private final IntegerCounter cacheMissCounter;
+  private final IntegerCounter cacheInvalidationCounter;
+
+  private final Cache<String, CachedResult> results;
+  private final Set<String> buildFileNames;
+
+  public QueryResultCache() {
+    this.cacheHitCounter = new IntegerCounter(
+        COUNTER_CATEGORY,
+        CACHE_HIT_COUNTER_NAME,
+        ImmutableMap.<String, String>of());
+    this.cacheMissCounter = new IntegerCounter(
+        COUNTER_CATEGORY,
+        CACHE_MISS_COUNTER_NAME,
+        ImmutableMap.<String, String>of());
+    this.cacheInvalidationCounter = new IntegerCounter(
+        COUNTER_CATEGORY,
+        CACHE_INVALIDATION_COUNTER_NAME,
+        ImmutableMap.<String, String>of());
+    this.results = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_QUERIES).build();
+    this.buildFileNames = Sets.newConcurrentHashSet();
+  }
+
+  /**
+   * @return the cached result of {@code expr}, if present and every build file it was computed
+   *     from is still cached unchanged by {@code parser}.
+   */
+  public Optional<ImmutableSet<QueryTarget>> lookup(
+      Parser parser,
+      Cell rootCell,
+      QueryExpression expr) {
+    String key = expr.toString();
+    CachedResult cached = results.getIfPresent(key);
+    if (cached == null) {
+      cacheMissCounter.inc();
+      return Optional.absent();
+    }
+    for (Map.Entry<Path, BuildFileSnapshot> entry : cached.buildFiles.entrySet()) {
+      BuildFileSnapshot snapshot = entry.getValue();
+      Optional<ImmutableList<Map<String, Object>>> rawNodes = parser.lookupCachedRawNodes(
+          rootCell.getCell(snapshot.cellRoot),
+          entry.getKey());
+      if (!rawNodes.isPresent() || rawNodes.get() != snapshot.rawNodes) {
+        LOG.debug("Query result for %s is stale: %s changed.", key, entry.getKey());
+        results.invalidate(key);
+        cacheInvalidationCounter.inc();
+        cacheMissCounter.inc();
+        return Optional.absent();
+      }
+    }
+    cacheHitCounter.inc();
+    return Optional.of(cached.result);
+  }
+
+  /**
+   * Caches {@code result} as the value of {@code expr}.
+   *
+   * @param buildFiles the absolute paths of the build files consulted while evaluating
+   *     {@code expr}, keyed by the root of the cell owning them.
+   */
+  public void put(
+      Parser parser,
+      Cell rootCell,
+      QueryExpression expr,
+      Set<QueryTarget> result,
+      Multimap<Path, Path> buildFiles) {
+    buildFileNames.add(rootCell.getBuildFileName());
+    // Two cells can resolve to the same build file, so keep the first snapshot of each path.
+    Map<Path, BuildFileSnapshot> snapshots = new LinkedHashMap<>();
+    for (Map.Entry<Path, Path> entry : buildFiles.entries()) {
+      if (snapshots.containsKey(entry.getValue())) {
+        continue;
+      }
+      Cell cell = rootCell.getCell(entry.getKey());
+      Optional<ImmutableList<Map<String, Object>>> rawNodes =
+          parser.lookupCachedRawNodes(cell, entry.getValue());
+      if (!rawNodes.isPresent()) {
+        // The parser has already dropped a build file we depend on, so there is nothing reliable
+        // to validate this result against later.
+        LOG.debug("Not caching query result for %s: %s is not cached.", expr, entry.getValue());
+        return;
+      }
+      buildFileNames.add(cell.getBuildFileName());
+      snapshots.put(entry.getValue(), new BuildFileSnapshot(entry.getKey(), rawNodes.get()));
+    }
+    results.put(
+        expr.toString(),
+        new CachedResult(ImmutableSet.copyOf(result), ImmutableMap.copyOf(snapshots)));
+  }
+
+  @Subscribe
+  public void invalidateBasedOn(WatchEvent<?> event) {
+    if (!WatchEvents.isPathChangeEvent(event)) {
+      LOG.debug("Query result cache invalidation due to non-path event %s.", event);
+      invalidateAll();
+      return;
+    }
+    Path path = (Path) event.context();
+    for (String buildFileName : buildFileNames) {
+      if (path.endsWith(buildFileName)) {
+        LOG.debug("Query result cache invalidation due to build file %s changing.", path);
+        invalidateAll();
+        return;
+      }
+    }
+    // Any other change is caught by the raw node check in lookup().
+  }
+
+  private void invalidateAll() {
+    cacheInvalidationCounter.inc(results.size());
+    results.invalidateAll();
+  }
+
+  public ImmutableList<Counter> getCounters() {
+    return ImmutableList.<Counter>of(
+        cacheHitCounter,
+        cacheMissCounter,
+        cacheInvalidationCounter);
+  }
+
+  @VisibleForTesting
+  long size() {
+    return results.size();
+  }
+
+  private static class BuildFileSnapshot {
+    private final Path cellRoot;
+    private final ImmutableList<Map<String, Object>> rawNodes;
+
+    private BuildFileSnapshot(Path cellRoot, ImmutableList<Map<String, Object>> rawNodes) {
+      this.cellRoot = cellRoot;
+      this.rawNodes = rawNodes;
+    }
+  }
+
+  private static class CachedResult {
+    private final ImmutableSet<QueryTarget> result;
+    private final ImmutableMap<Path, BuildFileSnapshot> buildFiles;
+
+    private CachedResult(
+        ImmutableSet<QueryTarget> result,
+        ImmutableMap<Path, BuildFileSnapshot> buildFiles) {
+      this.result = result;
+      this.buildFiles = buildFiles;
+    }
+  }
+}
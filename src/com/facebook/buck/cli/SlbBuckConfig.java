@@ -39,6 +39,7 @@ public class SlbBuckConfig {
   private static final String LATENCY_CHECK_TIME_RANGE_MILLIS =
       "slb_latency_check_time_range_millis";
   private static final String MAX_ACCEPTABLE_LATENCY_MILLIS = "slb_max_acceptable_latency_millis";
+  private static final String HEDGE_PERCENTILE = "slb_hedge_percentile";
 
   private final String parentSection;
   private final BuckConfig buckConfig;
@@ -106,6 +107,11 @@ public class SlbBuckConfig {
           buckConfig.getFloat(parentSection, MAX_ERROR_PERCENTAGE).get());
     }
 
+    if (buckConfig.getValue(parentSection, HEDGE_PERCENTILE).isPresent()) {
+      configBuilder.setHedgePercentile(
+          buckConfig.getFloat(parentSection, HEDGE_PERCENTILE).get());
+    }
+
     return new ClientSideSlb(configBuilder.build());
   }
 }
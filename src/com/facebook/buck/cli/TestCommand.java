@@ -26,6 +26,7 @@ import com.facebook.buck.parser.BuildFileSpec;
 import com.facebook.buck.parser.ParserConfig;
 import com.facebook.buck.parser.TargetNodePredicateSpec;
 import com.facebook.buck.rules.ActionGraphAndResolver;
+import com.facebook.buck.rules.ArtifactUploadPipeline;
 import com.facebook.buck.rules.BuildEngine;
 import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.CachingBuildEngine;
@@ -45,6 +46,7 @@ import com.facebook.buck.test.CoverageReportFormat;
 import com.facebook.buck.test.TestRunningOptions;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.ForwardingProcessListener;
+import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.ListeningProcessExecutor;
 import com.facebook.buck.util.MoreExceptions;
 import com.facebook.buck.util.ProcessExecutorParams;
@@ -55,10 +57,12 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
 
 import org.kohsuke.args4j.Option;
 
@@ -131,6 +135,13 @@ public class TestCommand extends BuildCommand {
   @SuppressWarnings("PMD.UnusedPrivateField")
   private boolean isIgnoreFailingDependencies;
 
+  @Option(
+      name = "--only-impacted",
+      usage =
+          "Only run the Java test classes that may be affected by changes since they last ran. " +
+          "Test classes are run regardless when that is not known.")
+  private boolean isRunningImpactedTestsOnly;
+
   @Option(
       name = "--dry-run",
       usage = "Print tests that match the given command line options, but don't run them.")
@@ -250,6 +261,22 @@ public class TestCommand extends BuildCommand {
     return buckConfig.getNumThreads();
   }
 
+  private static ImmutableMap<String, Integer> getShardCountsByLabel(BuckConfig buckConfig) {
+    ImmutableMap.Builder<String, Integer> shardCounts = ImmutableMap.builder();
+    for (Map.Entry<String, String> entry :
+         buckConfig.getEntriesForSection("test_shards").entrySet()) {
+      Integer shardCount = Ints.tryParse(entry.getValue().trim());
+      if (shardCount == null || shardCount < 1) {
+        throw new HumanReadableException(
+            "test_shards.%s must be a positive integer, got '%s'.",
+            entry.getKey(),
+            entry.getValue());
+      }
+      shardCounts.put(entry.getKey(), shardCount);
+    }
+    return shardCounts.build();
+  }
+
   private TestRunningOptions getTestRunningOptions(CommandRunnerParams params) {
     return TestRunningOptions.builder()
         .setUsingOneTimeOutputDirectories(isUsingOneTimeOutput)
@@ -260,6 +287,10 @@ public class TestCommand extends BuildCommand {
         .setResultsCacheEnabled(isResultsCacheEnabled(params.getBuckConfig()))
         .setDryRun(isDryRun)
         .setShufflingTests(isShufflingTests)
+        .setRunningImpactedTestsOnly(isRunningImpactedTestsOnly)
+        .setWarmJvmMaxRuns(
+            params.getBuckConfig().getInteger("test", "warm_jvm_max_runs").or(0))
+        .setShardCountsByLabel(getShardCountsByLabel(params.getBuckConfig()))
         .setPathToXmlTestOutput(Optional.fromNullable(pathToXmlTestOutput))
         .setPathToJavaAgent(Optional.fromNullable(pathToJavaAgent))
         .setCoverageReportFormat(coverageReportFormat)
@@ -479,6 +510,8 @@ public class TestCommand extends BuildCommand {
         printMatchingTestRules(params.getConsole(), testRules);
       }
 
+      Optional<ArtifactUploadPipeline> artifactUploadPipeline =
+          createArtifactUploadPipeline(params.getBuckConfig());
       CachingBuildEngine cachingBuildEngine =
           new CachingBuildEngine(
               pool.getExecutor(),
@@ -490,7 +523,9 @@ public class TestCommand extends BuildCommand {
               params.getBuckConfig().getBuildInputRuleKeyFileSizeLimit(),
               params.getObjectMapper(),
               actionGraphAndResolver.getResolver(),
-              params.getBuckConfig().getKeySeed());
+              params.getBuckConfig().getKeySeed(),
+              params.getIncrementalRuleKeyCache(),
+              artifactUploadPipeline);
       try (Build build = createBuild(
           params.getBuckConfig(),
           actionGraphAndResolver.getActionGraph(),
@@ -507,7 +542,8 @@ public class TestCommand extends BuildCommand {
           params.getClock(),
           Optional.of(getAdbOptions(params.getBuckConfig())),
           Optional.of(getTargetDeviceOptions()),
-          params.getExecutors())) {
+          params.getExecutors(),
+          params.getPersistentWorkerPools())) {
 
         // Build all of the test rules.
         int exitCode = build.executeAndPrintFailuresToEventBus(
@@ -539,6 +575,8 @@ public class TestCommand extends BuildCommand {
               testRules);
         }
         return runTestsInternal(params, cachingBuildEngine, build, testRules);
+      } finally {
+        drainArtifactUploadPipeline(params, artifactUploadPipeline);
       }
     }
   }
@@ -35,6 +35,7 @@ import com.facebook.buck.rules.BuildResult;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.ImmutableBuildContext;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.step.AdbOptions;
 import com.facebook.buck.step.DefaultStepRunner;
 import com.facebook.buck.step.ExecutionContext;
@@ -73,6 +74,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 
 import javax.annotation.Nullable;
@@ -124,7 +126,8 @@ public class Build implements Closeable {
       ConcurrencyLimit concurrencyLimit,
       Optional<AdbOptions> adbOptions,
       Optional<TargetDeviceOptions> targetDeviceOptions,
-      Map<ExecutionContext.ExecutorPool, ListeningExecutorService> executors) {
+      Map<ExecutionContext.ExecutorPool, ListeningExecutorService> executors,
+      Optional<ConcurrentMap<String, WorkerProcessPool>> persistentWorkerPools) {
     this.actionGraph = actionGraph;
     this.ruleResolver = ruleResolver;
     this.executionContext = ExecutionContext.builder()
@@ -144,6 +147,7 @@ public class Build implements Closeable {
         .setAdbOptions(adbOptions)
         .setTargetDeviceOptions(targetDeviceOptions)
         .setExecutors(executors)
+        .setPersistentWorkerPools(persistentWorkerPools)
         .build();
     this.artifactCache = artifactCache;
     this.buildEngine = buildEngine;
@@ -36,6 +36,11 @@ public interface CounterRegistry extends Closeable {
       String name,
       ImmutableMap<String, String> tags);
 
+  HistogramCounter newHistogramCounter(
+      String category,
+      String name,
+      ImmutableMap<String, String> tags);
+
   TagSetCounter newTagSetCounter(
       String category,
       String name,
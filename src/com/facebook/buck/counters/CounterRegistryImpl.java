@@ -81,6 +81,13 @@ public class CounterRegistryImpl implements CounterRegistry {
         new SamplingCounter(category, name, tags));
   }
 
+  @Override
+  public HistogramCounter newHistogramCounter(
+      String category, String name, ImmutableMap<String, String> tags) {
+    return registerCounter(
+        new HistogramCounter(category, name, tags));
+  }
+
   @Override
   public TagSetCounter newTagSetCounter(
       String category, String name, ImmutableMap<String, String> tags) {
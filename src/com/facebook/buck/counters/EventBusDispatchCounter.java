@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.counters;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Reports how well the {@link BuckEventBus} kept up with delivering events to its subscribers.
+ */
+public class EventBusDispatchCounter extends Counter {
+
+  private static final String CATEGORY = "buck_event_bus";
+
+  private final BuckEventBus eventBus;
+
+  public EventBusDispatchCounter(BuckEventBus eventBus) {
+    super(CATEGORY, "dispatch", ImmutableMap.<String, String>of());
+    this.eventBus = eventBus;
+  }
+
+  @Override
+  public Optional<CounterSnapshot> flush() {
+    Optional<BuckEventBus.DispatchStats> stats = eventBus.getAndResetDispatchStats();
+    if (!stats.isPresent() || stats.get().getEventsDelivered() == 0) {
+      return Optional.absent();
+    }
+    CounterSnapshot.Builder snapshot = CounterSnapshot.builderForCounter(this);
+    snapshot.putValues("events_delivered", stats.get().getEventsDelivered());
+    snapshot.putValues("events_coalesced", stats.get().getEventsCoalesced());
+    snapshot.putValues("max_queued_events", stats.get().getMaxQueuedEvents());
+    snapshot.putValues("blocked_posts", stats.get().getBlockedPosts());
+    snapshot.putValues("blocked_post_time_ms", stats.get().getBlockedPostMillis());
+    snapshot.putAllTagSets("saturated_subscribers", stats.get().getSaturatedSubscribers());
+    return Optional.of(snapshot.build());
+  }
+}
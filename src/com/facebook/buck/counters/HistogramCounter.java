@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.counters;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the distribution of non-negative samples (typically latencies) in log-linear buckets,
+ * so that percentiles can be reported rather than just an average.
+ * <p>
+ * Values below {@value #EXACT_VALUES} get a bucket each. Larger values are bucketed by their
+ * power of two and the {@value #SUB_BUCKET_BITS} bits below their leading one, which bounds the
+ * error of any reported percentile to about 3% of its value. Recording a sample never allocates
+ * or takes a lock.
+ */
+public class HistogramCounter extends Counter {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int EXACT_VALUES = SUB_BUCKETS * 2;
+  private static final int FIRST_INEXACT_MAGNITUDE = Long.numberOfTrailingZeros(EXACT_VALUES);
+  private static final int BUCKET_COUNT =
+      EXACT_VALUES + (Long.SIZE - 1 - FIRST_INEXACT_MAGNITUDE) * SUB_BUCKETS;
+
+  private static final int[] REPORTED_PERCENTILES = {50, 90, 99};
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+  private final StripedLong sum = new StripedLong();
+  private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+  public HistogramCounter(String category, String name, ImmutableMap<String, String> tags) {
+    super(category, name, tags);
+  }
+
+  public void addSample(long value) {
+    value = Math.max(0, value);
+    buckets.incrementAndGet(bucketIndex(value));
+    sum.add(value);
+    SamplingCounter.updateMin(min, value);
+    SamplingCounter.updateMax(max, value);
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      count += buckets.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * @return the smallest recorded value that at least {@code percentile}% of the samples are less
+   *     than or equal to, to within the bucket precision, or 0 if there are no samples.
+   */
+  public long getPercentile(double percentile) {
+    long[] counts = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+    return percentile(counts, total, percentile, max.get());
+  }
+
+  @Override
+  public Optional<CounterSnapshot> flush() {
+    synchronized (this) {
+      long[] counts = new long[BUCKET_COUNT];
+      long total = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        counts[i] = buckets.getAndSet(i, 0);
+        total += counts[i];
+      }
+      long sumValue = sum.sumThenReset();
+      long minValue = min.getAndSet(Long.MAX_VALUE);
+      long maxValue = max.getAndSet(Long.MIN_VALUE);
+      if (total == 0) {
+        return Optional.absent();
+      }
+      if (minValue > maxValue) {
+        // A sample raced with this flush and was bucketed before it updated min and max.
+        minValue = lowestEquivalentValue(firstNonEmptyBucket(counts));
+        maxValue = highestEquivalentValue(lastNonEmptyBucket(counts));
+      }
+
+      CounterSnapshot.Builder snapshot = CounterSnapshot.builderForCounter(this);
+      snapshot.putValues(getName() + "_count", total);
+      snapshot.putValues(getName() + "_avg", sumValue / total);
+      snapshot.putValues(getName() + "_min", minValue);
+      for (int percentile : REPORTED_PERCENTILES) {
+        snapshot.putValues(
+            getName() + "_p" + percentile,
+            percentile(counts, total, percentile, maxValue));
+      }
+      snapshot.putValues(getName() + "_max", maxValue);
+      return Optional.of(snapshot.build());
+    }
+  }
+
+  private static long percentile(long[] counts, long total, double percentile, long maxValue) {
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(highestEquivalentValue(i), maxValue);
+      }
+    }
+    return maxValue;
+  }
+
+  private static int firstNonEmptyBucket(long[] counts) {
+    int i = 0;
+    while (counts[i] == 0) {
+      i++;
+    }
+    return i;
+  }
+
+  private static int lastNonEmptyBucket(long[] counts) {
+    int i = counts.length - 1;
+    while (counts[i] == 0) {
+      i--;
+    }
+    return i;
+  }
+
+  @VisibleForTesting
+  static int bucketIndex(long value) {
+    if (value < EXACT_VALUES) {
+      return (int) value;
+    }
+    int magnitude = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+    return EXACT_VALUES + (magnitude - FIRST_INEXACT_MAGNITUDE) * SUB_BUCKETS + subBucket;
+  }
+
+  @VisibleForTesting
+  static long lowestEquivalentValue(int index) {
+    if (index < EXACT_VALUES) {
+      return index;
+    }
+    int magnitude = (index - EXACT_VALUES) / SUB_BUCKETS + FIRST_INEXACT_MAGNITUDE;
+    long subBucket = (index - EXACT_VALUES) % SUB_BUCKETS + SUB_BUCKETS;
+    return subBucket << (magnitude - SUB_BUCKET_BITS);
+  }
+
+  @VisibleForTesting
+  static long highestEquivalentValue(int index) {
+    if (index == BUCKET_COUNT - 1) {
+      return Long.MAX_VALUE;
+    }
+    return lowestEquivalentValue(index + 1) - 1;
+  }
+}
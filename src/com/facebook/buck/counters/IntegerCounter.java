@@ -20,7 +20,7 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 
 public class IntegerCounter extends Counter {
-  private volatile long value;
+  private final StripedLong value = new StripedLong();
   private volatile boolean hasData;
 
   public IntegerCounter(String category, String name, ImmutableMap<String, String> tags) {
@@ -32,24 +32,28 @@ public class IntegerCounter extends Counter {
   }
 
   public void inc(long delta) {
-    synchronized (this) {
-      value += delta;
+    // The delta must land before the flag is checked: flush() clears the flag before it resets
+    // the value, so a delta that misses the reset is always followed by setting the flag again.
+    value.add(delta);
+    // Only write the flag when it changes, so hot counters don't bounce its cache line around.
+    if (!hasData) {
       hasData = true;
     }
   }
 
   public long get() {
-    return value;
+    return value.sum();
   }
 
   @Override
   public Optional<CounterSnapshot> flush() {
     synchronized (this) {
       if (hasData) {
-        CounterSnapshot.Builder snapshot = CounterSnapshot.builderForCounter(this);
-        snapshot.putValues(getName(), value);
-        value = 0;
+        // Clear the flag before resetting, never after: see inc().
         hasData = false;
+        long sum = value.sumThenReset();
+        CounterSnapshot.Builder snapshot = CounterSnapshot.builderForCounter(this);
+        snapshot.putValues(getName(), sum);
         return Optional.of(snapshot.build());
       } else {
         return Optional.absent();
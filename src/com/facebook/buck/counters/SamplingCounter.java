@@ -19,61 +19,63 @@ package com.facebook.buck.counters;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class SamplingCounter extends Counter {
-  private volatile long sum;
-  private volatile long count;
-  private volatile long min;
-  private volatile long max;
+  private final StripedLong sum = new StripedLong();
+  private final StripedLong count = new StripedLong();
+  private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
 
   public SamplingCounter(String category, String name, ImmutableMap<String, String> tags) {
     super(category, name, tags);
   }
 
   public long getMin() {
-    return min;
+    long value = min.get();
+    return value == Long.MAX_VALUE ? 0 : value;
   }
 
   public long getMax() {
-    return max;
+    long value = max.get();
+    return value == Long.MIN_VALUE ? 0 : value;
   }
 
   public long getAverage() {
-    synchronized (this) {
-      if (count != 0) {
-        return sum / count;
-      }
+    long samples = count.sum();
+    if (samples != 0) {
+      return sum.sum() / samples;
     }
 
     return 0;
   }
 
   public void addSample(long value) {
-    synchronized (this) {
-      sum += value;
-      if (count == 0) {
-        min = value;
-        max = value;
-      } else {
-        min = Math.min(min, value);
-        max = Math.max(max, value);
-      }
-      ++count;
-    }
+    sum.add(value);
+    count.add(1);
+    updateMin(min, value);
+    updateMax(max, value);
   }
 
   @Override
   public Optional<CounterSnapshot> flush() {
     synchronized (this) {
-      if (count > 0) {
+      long samples = count.sumThenReset();
+      long total = sum.sumThenReset();
+      long minValue = min.getAndSet(Long.MAX_VALUE);
+      long maxValue = max.getAndSet(Long.MIN_VALUE);
+      if (samples > 0) {
+        long average = total / samples;
+        if (minValue > maxValue) {
+          // A sample raced with this flush and was counted before it updated min and max.
+          minValue = average;
+          maxValue = average;
+        }
         CounterSnapshot.Builder snapshot = CounterSnapshot.builderForCounter(this);
-        snapshot.putValues(getName() + "_count", count);
-        snapshot.putValues(getName() + "_avg", getAverage());
-        snapshot.putValues(getName() + "_min", min);
-        snapshot.putValues(getName() + "_max", max);
-        sum = 0;
-        count = 0;
-        min = 0;
-        max = 0;
+        snapshot.putValues(getName() + "_count", samples);
+        snapshot.putValues(getName() + "_avg", average);
+        snapshot.putValues(getName() + "_min", minValue);
+        snapshot.putValues(getName() + "_max", maxValue);
         return Optional.of(snapshot.build());
       } else {
         return Optional.absent();
@@ -82,6 +84,20 @@ public class SamplingCounter extends Counter {
   }
 
   public long getCount() {
-    return count;
+    return count.sum();
+  }
+
+  static void updateMin(AtomicLong min, long value) {
+    long current = min.get();
+    while (value < current && !min.compareAndSet(current, value)) {
+      current = min.get();
+    }
+  }
+
+  static void updateMax(AtomicLong max, long value) {
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
   }
 }
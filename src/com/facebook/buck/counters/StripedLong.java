@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.counters;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@code long} sum spread over several cache-line padded cells, so that threads adding to it
+ * concurrently rarely contend on the same memory. Reads are not atomic with respect to concurrent
+ * writes, which is fine for counters that are only snapshotted periodically.
+ */
+final class StripedLong {
+
+  // Longs per 64-byte cache line, so adjacent cells never share a line.
+  private static final int PADDING = 8;
+  private static final int STRIPES = stripeCount(Runtime.getRuntime().availableProcessors());
+
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+  public void add(long delta) {
+    cells.getAndAdd(cellForCurrentThread(), delta);
+  }
+
+  public long sum() {
+    long sum = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      sum += cells.get(i * PADDING);
+    }
+    return sum;
+  }
+
+  public long sumThenReset() {
+    long sum = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      sum += cells.getAndSet(i * PADDING, 0);
+    }
+    return sum;
+  }
+
+  private static int cellForCurrentThread() {
+    long id = Thread.currentThread().getId();
+    int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    return ((hash >>> 16) & (STRIPES - 1)) * PADDING;
+  }
+
+  private static int stripeCount(int processors) {
+    int stripes = Integer.highestOneBit(Math.max(1, processors * 2 - 1)) << 1;
+    return Math.min(stripes, 64);
+  }
+}
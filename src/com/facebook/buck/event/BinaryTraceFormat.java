@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Constants and primitive encodings shared by {@link BinaryTraceWriter} and
+ * {@link BinaryTraceReader}.
+ * <p>
+ * A binary trace is the {@link #MAGIC} header and a {@link #VERSION} varint, followed by a sequence
+ * of records, each starting with a tag byte:
+ * <ul>
+ *   <li>{@link #TAG_STRING}: a string table entry, as a varint byte length and its UTF-8 bytes.
+ *   Entries are implicitly numbered from zero in the order they appear.</li>
+ *   <li>{@link #TAG_EVENT}: a {@link ChromeTraceEvent}, as the string table ids of its category and
+ *   name, its {@link ChromeTraceEvent.Phase} ordinal, varint process and thread ids, the zigzag
+ *   varint delta of its timestamp from the previous event's, and a varint count of arguments
+ *   followed by the string table ids of each key and value.</li>
+ *   <li>{@link #TAG_END}: the end of the trace.</li>
+ * </ul>
+ */
+final class BinaryTraceFormat {
+
+  static final byte[] MAGIC = {'B', 'U', 'C', 'K', 'T', 'R', 'A', 'C', 'E'};
+  static final int VERSION = 1;
+
+  static final int TAG_END = 0;
+  static final int TAG_STRING = 1;
+  static final int TAG_EVENT = 2;
+
+  private BinaryTraceFormat() {}
+
+  static void writeVarLong(OutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  static void writeZigZagVarLong(OutputStream out, long value) throws IOException {
+    writeVarLong(out, (value << 1) ^ (value >> 63));
+  }
+
+  static long readVarLong(InputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = readByte(in);
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint in binary trace.");
+  }
+
+  static int readVarInt(InputStream in) throws IOException {
+    long value = readVarLong(in);
+    if (value < 0 || value > Integer.MAX_VALUE) {
+      throw new IOException("Out of range varint in binary trace: " + value);
+    }
+    return (int) value;
+  }
+
+  static long readZigZagVarLong(InputStream in) throws IOException {
+    long value = readVarLong(in);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  static int readByte(InputStream in) throws IOException {
+    int b = in.read();
+    if (b < 0) {
+      throw new EOFException("Unexpected end of binary trace.");
+    }
+    return b;
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads back the {@link ChromeTraceEvent}s written by a {@link BinaryTraceWriter}.
+ */
+public class BinaryTraceReader implements Closeable {
+
+  private static final ChromeTraceEvent.Phase[] PHASES = ChromeTraceEvent.Phase.values();
+
+  private final InputStream in;
+  private final List<String> stringTable = new ArrayList<>();
+  private long lastMicroTime = 0;
+  private boolean done = false;
+
+  public BinaryTraceReader(InputStream in) throws IOException {
+    this.in = new BufferedInputStream(in);
+    if (!hasBinaryTraceHeader(this.in)) {
+      throw new IOException("Not a binary trace.");
+    }
+    int version = BinaryTraceFormat.readVarInt(this.in);
+    if (version != BinaryTraceFormat.VERSION) {
+      throw new IOException("Unsupported binary trace version: " + version);
+    }
+  }
+
+  /**
+   * @return whether {@code in} starts with a binary trace header, without consuming it.
+   *     {@code in} must support {@link InputStream#mark(int)}, e.g. a
+   *     {@link BufferedInputStream}.
+   */
+  public static boolean isBinaryTrace(InputStream in) throws IOException {
+    in.mark(BinaryTraceFormat.MAGIC.length);
+    try {
+      return hasBinaryTraceHeader(in);
+    } finally {
+      in.reset();
+    }
+  }
+
+  private static boolean hasBinaryTraceHeader(InputStream in) throws IOException {
+    byte[] magic = new byte[BinaryTraceFormat.MAGIC.length];
+    int read = ByteStreams.read(in, magic, 0, magic.length);
+    return read == magic.length && Arrays.equals(magic, BinaryTraceFormat.MAGIC);
+  }
+
+  /**
+   * @return the next event in the trace, or absent once the end of the trace has been reached.
+   */
+  public Optional<ChromeTraceEvent> next() throws IOException {
+    while (!done) {
+      // A missing end record means the trace was cut short, e.g. because buck was killed, in
+      // which case we still return everything that made it to disk.
+      int tag = in.read();
+      switch (tag) {
+        case -1:
+        case BinaryTraceFormat.TAG_END:
+          done = true;
+          break;
+        case BinaryTraceFormat.TAG_STRING:
+          byte[] bytes = new byte[BinaryTraceFormat.readVarInt(in)];
+          ByteStreams.readFully(in, bytes);
+          stringTable.add(new String(bytes, Charsets.UTF_8));
+          break;
+        case BinaryTraceFormat.TAG_EVENT:
+          return Optional.of(readEvent());
+        default:
+          throw new IOException("Unknown record in binary trace: " + tag);
+      }
+    }
+    return Optional.absent();
+  }
+
+  private ChromeTraceEvent readEvent() throws IOException {
+    String category = lookupString(BinaryTraceFormat.readVarInt(in));
+    String name = lookupString(BinaryTraceFormat.readVarInt(in));
+    int phase = BinaryTraceFormat.readByte(in);
+    if (phase >= PHASES.length) {
+      throw new IOException("Unknown phase in binary trace: " + phase);
+    }
+    long processId = BinaryTraceFormat.readVarLong(in);
+    long threadId = BinaryTraceFormat.readVarLong(in);
+    lastMicroTime += BinaryTraceFormat.readZigZagVarLong(in);
+    int argCount = BinaryTraceFormat.readVarInt(in);
+    ImmutableMap.Builder<String, String> args = ImmutableMap.builder();
+    for (int i = 0; i < argCount; i++) {
+      args.put(
+          lookupString(BinaryTraceFormat.readVarInt(in)),
+          lookupString(BinaryTraceFormat.readVarInt(in)));
+    }
+    return new ChromeTraceEvent(
+        category,
+        name,
+        PHASES[phase],
+        processId,
+        threadId,
+        lastMicroTime,
+        args.build());
+  }
+
+  private String lookupString(int id) throws IOException {
+    if (id >= stringTable.size()) {
+      throw new IOException("Unknown string id in binary trace: " + id);
+    }
+    return stringTable.get(id);
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Writes {@link ChromeTraceEvent}s in the compact format described in {@link BinaryTraceFormat}.
+ * <p>
+ * Recording an event only stores a reference in a ring buffer owned by the calling thread. A
+ * background thread periodically drains all the rings and does the encoding and I/O, so callers
+ * never wait on the output stream unless their ring fills up, in which case they drain it
+ * themselves rather than drop events.
+ */
+public class BinaryTraceWriter implements Closeable {
+
+  private static final Logger LOG = Logger.get(BinaryTraceWriter.class);
+
+  private static final int RING_CAPACITY = 4096;
+  private static final long DRAIN_INTERVAL_MILLIS = 100;
+  private static final int CLOSE_TIMEOUT_SECONDS = 30;
+
+  private final Object lock = new Object();
+  @GuardedBy("lock")
+  private final OutputStream out;
+  @GuardedBy("lock")
+  private final Map<String, Integer> stringTable = new HashMap<>();
+  @GuardedBy("lock")
+  private long lastMicroTime = 0;
+  @GuardedBy("lock")
+  private boolean failed = false;
+
+  private final List<Ring> rings = new CopyOnWriteArrayList<>();
+  private final ThreadLocal<Ring> ringForThread = new ThreadLocal<Ring>() {
+    @Override
+    protected Ring initialValue() {
+      Ring ring = new Ring();
+      rings.add(ring);
+      return ring;
+    }
+  };
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+  private final ScheduledExecutorService drainer;
+
+  public BinaryTraceWriter(OutputStream out) throws IOException {
+    this.out = new BufferedOutputStream(out);
+    this.out.write(BinaryTraceFormat.MAGIC);
+    BinaryTraceFormat.writeVarLong(this.out, BinaryTraceFormat.VERSION);
+    this.drainer = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat(BinaryTraceWriter.class.getSimpleName())
+            .setDaemon(true)
+            .build());
+    this.drainer.scheduleWithFixedDelay(
+        new Runnable() {
+          @Override
+          public void run() {
+            drainAll();
+          }
+        },
+        DRAIN_INTERVAL_MILLIS,
+        DRAIN_INTERVAL_MILLIS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Queues {@code event} to be written. Events recorded after {@link #close()} are ignored.
+   */
+  public void record(ChromeTraceEvent event) {
+    if (closed.get()) {
+      return;
+    }
+    Ring ring = ringForThread.get();
+    if (!ring.offer(event)) {
+      synchronized (lock) {
+        drain(ring);
+      }
+      ring.offer(event);
+    }
+  }
+
+  /**
+   * Writes out all recorded events and closes the underlying stream.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!closed.compareAndSet(false, true)) {
+      return;
+    }
+    drainer.shutdown();
+    try {
+      if (!drainer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        LOG.warn("Timed out waiting for binary trace to drain. Trace might be incomplete.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (lock) {
+      drainAll();
+      try {
+        out.write(BinaryTraceFormat.TAG_END);
+      } finally {
+        out.close();
+      }
+    }
+  }
+
+  private void drainAll() {
+    synchronized (lock) {
+      for (Ring ring : rings) {
+        drain(ring);
+      }
+      try {
+        out.flush();
+      } catch (IOException e) {
+        failed(e);
+      }
+    }
+  }
+
+  @GuardedBy("lock")
+  private void drain(Ring ring) {
+    long head = ring.head.get();
+    long tail = ring.tail.get();
+    for (; head < tail; head++) {
+      int index = (int) (head & (RING_CAPACITY - 1));
+      ChromeTraceEvent event = ring.slots[index];
+      ring.slots[index] = null;
+      if (!failed) {
+        try {
+          writeEvent(event);
+        } catch (IOException e) {
+          failed(e);
+        }
+      }
+    }
+    ring.head.lazySet(head);
+  }
+
+  @GuardedBy("lock")
+  private void failed(IOException e) {
+    if (!failed) {
+      // Like the JSON trace, swallow write failures rather than failing the build.
+      LOG.warn(e, "Failed to write binary trace.");
+      failed = true;
+    }
+  }
+
+  @GuardedBy("lock")
+  private void writeEvent(ChromeTraceEvent event) throws IOException {
+    int categoryId = internString(event.getCategory());
+    int nameId = internString(event.getName());
+    Map<String, String> args = event.getArgs();
+    int[] argIds = new int[args == null ? 0 : args.size() * 2];
+    if (args != null) {
+      int i = 0;
+      for (Map.Entry<String, String> arg : args.entrySet()) {
+        argIds[i++] = internString(arg.getKey());
+        argIds[i++] = internString(arg.getValue());
+      }
+    }
+
+    out.write(BinaryTraceFormat.TAG_EVENT);
+    BinaryTraceFormat.writeVarLong(out, categoryId);
+    BinaryTraceFormat.writeVarLong(out, nameId);
+    out.write(event.getPhase().ordinal());
+    BinaryTraceFormat.writeVarLong(out, event.getProcessId());
+    BinaryTraceFormat.writeVarLong(out, event.getThreadId());
+    BinaryTraceFormat.writeZigZagVarLong(out, event.getMicroTime() - lastMicroTime);
+    lastMicroTime = event.getMicroTime();
+    BinaryTraceFormat.writeVarLong(out, argIds.length / 2);
+    for (int argId : argIds) {
+      BinaryTraceFormat.writeVarLong(out, argId);
+    }
+  }
+
+  @GuardedBy("lock")
+  private int internString(String value) throws IOException {
+    Integer id = stringTable.get(value);
+    if (id != null) {
+      return id;
+    }
+    id = stringTable.size();
+    stringTable.put(value, id);
+    byte[] bytes = value.getBytes(Charsets.UTF_8);
+    out.write(BinaryTraceFormat.TAG_STRING);
+    BinaryTraceFormat.writeVarLong(out, bytes.length);
+    out.write(bytes);
+    return id;
+  }
+
+  /**
+   * A single-producer, single-consumer ring. Only the owning thread offers to it, and it is only
+   * drained while holding {@link #lock}.
+   */
+  private static class Ring {
+    private final ChromeTraceEvent[] slots = new ChromeTraceEvent[RING_CAPACITY];
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private boolean offer(ChromeTraceEvent event) {
+      long currentTail = tail.get();
+      if (currentTail - head.get() == RING_CAPACITY) {
+        return false;
+      }
+      slots[(int) (currentTail & (RING_CAPACITY - 1))] = event;
+      tail.lazySet(currentTail + 1);
+      return true;
+    }
+  }
+}
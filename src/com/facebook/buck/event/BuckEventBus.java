@@ -22,18 +22,20 @@ import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.concurrent.MostExecutors;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.EventBus;
-import com.google.common.util.concurrent.MoreExecutors;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Thin wrapper around guava event bus.
+ * <p>
+ * When asynchronous, each subscriber gets events from its own bounded queue, so that slow
+ * subscribers don't hold up the others. See {@link PerSubscriberDispatcher}.
  */
 public class BuckEventBus implements Closeable {
 
@@ -41,6 +43,10 @@ public class BuckEventBus implements Closeable {
 
   public static final int DEFAULT_SHUTDOWN_TIMEOUT_MS = 15000;
 
+  private static final int SUBSCRIBER_QUEUE_CAPACITY = 10000;
+  private static final int DISPATCH_THREADS =
+      Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
   private static final Supplier<Long> DEFAULT_THREAD_ID_SUPPLIER = new Supplier<Long>() {
     @Override
     public Long get() {
@@ -49,7 +55,7 @@ public class BuckEventBus implements Closeable {
   };
 
   private final Clock clock;
-  private final ExecutorService executorService;
+  private final Optional<PerSubscriberDispatcher> dispatcher;
   private final EventBus eventBus;
   private final Supplier<Long> threadIdSupplier;
   private final BuildId buildId;
@@ -66,24 +72,26 @@ public class BuckEventBus implements Closeable {
       BuildId buildId,
       int shutdownTimeoutMillis) {
     this.clock = clock;
-    this.executorService = async ?
-        MostExecutors.newSingleThreadExecutor(
-            new CommandThreadFactory(BuckEventBus.class.getSimpleName())) :
-        MoreExecutors.newDirectExecutorService();
+    this.dispatcher = async ?
+        Optional.of(
+            new PerSubscriberDispatcher(
+                MostExecutors.newMultiThreadExecutor(
+                    new CommandThreadFactory(BuckEventBus.class.getSimpleName()),
+                    DISPATCH_THREADS),
+                SUBSCRIBER_QUEUE_CAPACITY)) :
+        Optional.<PerSubscriberDispatcher>absent();
     this.eventBus = new EventBus("buck-build-events");
     this.threadIdSupplier = DEFAULT_THREAD_ID_SUPPLIER;
     this.buildId = buildId;
     this.shutdownTimeoutMillis = shutdownTimeoutMillis;
   }
 
-  private void dispatch(final BuckEvent event) {
-    executorService.submit(
-        new Runnable() {
-          @Override
-          public void run() {
-            eventBus.post(event);
-          }
-        });
+  private void dispatch(BuckEvent event) {
+    if (dispatcher.isPresent()) {
+      dispatcher.get().post(event);
+    } else {
+      eventBus.post(event);
+    }
   }
 
   public void post(BuckEvent event) {
@@ -109,14 +117,37 @@ public class BuckEventBus implements Closeable {
     dispatch(event);
   }
 
+  /**
+   * Registers every {@link com.google.common.eventbus.Subscribe} method of {@code object}. Objects
+   * implementing {@link CoalescingEventListener} may have some of their events coalesced.
+   */
   public void register(Object object) {
-    eventBus.register(object);
+    if (dispatcher.isPresent()) {
+      dispatcher.get().register(object);
+    } else {
+      eventBus.register(object);
+    }
   }
 
   @VisibleForTesting
   public void postWithoutConfiguring(BuckEvent event) {
     Preconditions.checkState(event.isConfigured());
-    eventBus.post(event);
+    if (dispatcher.isPresent()) {
+      dispatcher.get().postSynchronously(event);
+    } else {
+      eventBus.post(event);
+    }
+  }
+
+  /**
+   * @return statistics about event delivery since the last call, or absent if this event bus
+   *     delivers events synchronously.
+   */
+  public Optional<DispatchStats> getAndResetDispatchStats() {
+    if (!dispatcher.isPresent()) {
+      return Optional.absent();
+    }
+    return Optional.of(dispatcher.get().getAndResetStats());
   }
 
   @VisibleForTesting
@@ -141,22 +172,22 @@ public class BuckEventBus implements Closeable {
   }
 
   /**
-   * {@link ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)} is called
-   * to wait for events which have been posted, but which have been queued by the
-   * {@link EventBus}, to be delivered. This allows listeners to record or report as much
-   * information as possible. This aids debugging when close is called during exception processing.
+   * Waits for events which have been posted, but which are still queued for delivery, to be
+   * delivered. This allows listeners to record or report as much information as possible. This
+   * aids debugging when close is called during exception processing.
    */
   @Override
   public void close() throws IOException {
-    executorService.shutdown();
+    if (!dispatcher.isPresent()) {
+      return;
+    }
     try {
-      if (!executorService.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+      if (!dispatcher.get().close(shutdownTimeoutMillis)) {
         LOG.warn(Joiner.on(System.lineSeparator()).join(
           "The BuckEventBus failed to shut down within the standard timeout.",
           "Your build might have succeeded, but some messages were probably lost.",
           "Here's some debugging information:",
-          executorService.toString()));
-        executorService.shutdownNow();
+          dispatcher.get().toString()));
       }
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
@@ -171,4 +202,60 @@ public class BuckEventBus implements Closeable {
     event.configure(clock.currentTimeMillis(), clock.nanoTime(), threadIdSupplier.get(), buildId);
   }
 
+  /**
+   * How event delivery to subscribers went over some period of time.
+   */
+  public static class DispatchStats {
+    private final long eventsDelivered;
+    private final long eventsCoalesced;
+    private final long maxQueuedEvents;
+    private final long blockedPosts;
+    private final long blockedPostMillis;
+    private final ImmutableSet<String> saturatedSubscribers;
+
+    DispatchStats(
+        long eventsDelivered,
+        long eventsCoalesced,
+        long maxQueuedEvents,
+        long blockedPosts,
+        long blockedPostMillis,
+        ImmutableSet<String> saturatedSubscribers) {
+      this.eventsDelivered = eventsDelivered;
+      this.eventsCoalesced = eventsCoalesced;
+      this.maxQueuedEvents = maxQueuedEvents;
+      this.blockedPosts = blockedPosts;
+      this.blockedPostMillis = blockedPostMillis;
+      this.saturatedSubscribers = saturatedSubscribers;
+    }
+
+    /** @return how many events were handed to subscribers. */
+    public long getEventsDelivered() {
+      return eventsDelivered;
+    }
+
+    /** @return how many events were dropped in favor of a later event of the same type. */
+    public long getEventsCoalesced() {
+      return eventsCoalesced;
+    }
+
+    /** @return the longest backlog any single subscriber had. */
+    public long getMaxQueuedEvents() {
+      return maxQueuedEvents;
+    }
+
+    /** @return how many times posting an event had to wait for a subscriber to catch up. */
+    public long getBlockedPosts() {
+      return blockedPosts;
+    }
+
+    /** @return the total time spent waiting for subscribers to catch up. */
+    public long getBlockedPostMillis() {
+      return blockedPostMillis;
+    }
+
+    /** @return the class names of the subscribers whose queue filled up. */
+    public ImmutableSet<String> getSaturatedSubscribers() {
+      return saturatedSubscribers;
+    }
+  }
 }
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Implemented by {@link BuckEventBus} subscribers that only care about the latest of some
+ * high-frequency events, such as progress updates.
+ * <p>
+ * When an event of one of these types is posted while an earlier event of exactly the same type
+ * is still waiting to be delivered to this subscriber, the earlier event is dropped and only the
+ * new one is delivered. Other subscribers are unaffected.
+ */
+public interface CoalescingEventListener {
+  ImmutableSet<Class<? extends BuckEvent>> getCoalescedEventTypes();
+}
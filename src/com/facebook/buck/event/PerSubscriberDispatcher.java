@@ -0,0 +1,336 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Delivers events to each subscriber from its own bounded queue, on a shared pool of threads.
+ * <p>
+ * Every subscriber sees events in the order they were posted, but a slow subscriber only delays
+ * its own events rather than everyone else's. Subscribers get up to {@value #MAX_BATCH_SIZE} events
+ * per turn on the pool, which keeps the per-event scheduling overhead low without letting one busy
+ * subscriber starve the others.
+ * <p>
+ * When a subscriber's queue is full, threads posting events wait for it to drain, so that a slow
+ * subscriber pushes back on the build rather than buffering without bound or losing events.
+ * Dispatch threads never wait, since the subscriber they'd be waiting on could be the one they're
+ * running.
+ */
+class PerSubscriberDispatcher {
+
+  private static final Logger LOG = Logger.get(PerSubscriberDispatcher.class);
+
+  private static final int MAX_BATCH_SIZE = 256;
+
+  private final ExecutorService executorService;
+  private final int queueCapacity;
+  private final List<SubscriberQueue> subscribers = new CopyOnWriteArrayList<>();
+  private final ThreadLocal<Boolean> isDispatchThread = new ThreadLocal<Boolean>() {
+    @Override
+    protected Boolean initialValue() {
+      return false;
+    }
+  };
+  private volatile boolean closed = false;
+
+  private final AtomicLong eventsDelivered = new AtomicLong();
+  private final AtomicLong eventsCoalesced = new AtomicLong();
+  private final AtomicLong maxQueuedEvents = new AtomicLong();
+  private final AtomicLong blockedPosts = new AtomicLong();
+  private final AtomicLong blockedPostNanos = new AtomicLong();
+  private final Set<String> saturatedSubscribers = Sets.newConcurrentHashSet();
+
+  PerSubscriberDispatcher(ExecutorService executorService, int queueCapacity) {
+    this.executorService = executorService;
+    this.queueCapacity = queueCapacity;
+  }
+
+  void register(Object subscriber) {
+    subscribers.add(new SubscriberQueue(subscriber));
+  }
+
+  void post(BuckEvent event) {
+    if (closed) {
+      LOG.debug("Dropping %s posted after the event bus was closed.", event);
+      return;
+    }
+    boolean mayBlock = !isDispatchThread.get();
+    for (SubscriberQueue subscriber : subscribers) {
+      if (subscriber.isInterestedIn(event.getClass())) {
+        subscriber.enqueue(event, mayBlock);
+      }
+    }
+  }
+
+  /**
+   * Delivers {@code event} to every subscriber on the calling thread, bypassing the queues.
+   */
+  void postSynchronously(BuckEvent event) {
+    for (SubscriberQueue subscriber : subscribers) {
+      subscriber.eventBus.post(event);
+    }
+  }
+
+  /**
+   * Waits for every queued event to be delivered, then stops the dispatch threads.
+   *
+   * @return whether all events were delivered within {@code timeoutMillis}.
+   */
+  boolean close(long timeoutMillis) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    boolean drained = true;
+    for (SubscriberQueue subscriber : subscribers) {
+      drained &= subscriber.awaitIdle(deadline);
+    }
+    closed = true;
+    for (SubscriberQueue subscriber : subscribers) {
+      subscriber.wakeBlockedPosters();
+    }
+    executorService.shutdown();
+    long remainingNanos = Math.max(0, deadline - System.nanoTime());
+    if (!drained || !executorService.awaitTermination(remainingNanos, TimeUnit.NANOSECONDS)) {
+      executorService.shutdownNow();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return the dispatch statistics gathered since the last call.
+   */
+  BuckEventBus.DispatchStats getAndResetStats() {
+    ImmutableSet.Builder<String> saturated = ImmutableSet.builder();
+    for (String subscriber : saturatedSubscribers) {
+      saturatedSubscribers.remove(subscriber);
+      saturated.add(subscriber);
+    }
+    return new BuckEventBus.DispatchStats(
+        eventsDelivered.getAndSet(0),
+        eventsCoalesced.getAndSet(0),
+        maxQueuedEvents.getAndSet(0),
+        blockedPosts.getAndSet(0),
+        TimeUnit.NANOSECONDS.toMillis(blockedPostNanos.getAndSet(0)),
+        saturated.build());
+  }
+
+  @Override
+  public String toString() {
+    List<String> backlogs = new ArrayList<>();
+    for (SubscriberQueue subscriber : subscribers) {
+      backlogs.add(subscriber.toString());
+    }
+    return Joiner.on(System.lineSeparator()).join(backlogs);
+  }
+
+  private static ImmutableSet<Class<?>> getSubscribedEventTypes(Class<?> subscriberClass) {
+    // Mirrors how Guava's EventBus finds subscriber methods.
+    ImmutableSet.Builder<Class<?>> eventTypes = ImmutableSet.builder();
+    for (Class<?> type : TypeToken.of(subscriberClass).getTypes().rawTypes()) {
+      for (Method method : type.getDeclaredMethods()) {
+        if (method.isAnnotationPresent(Subscribe.class) &&
+            !method.isSynthetic() &&
+            method.getParameterTypes().length == 1) {
+          eventTypes.add(method.getParameterTypes()[0]);
+        }
+      }
+    }
+    return eventTypes.build();
+  }
+
+  private class SubscriberQueue implements Runnable {
+    private final String name;
+    private final EventBus eventBus;
+    private final ImmutableSet<Class<?>> subscribedEventTypes;
+    private final ImmutableSet<Class<? extends BuckEvent>> coalescedEventTypes;
+    private final ConcurrentMap<Class<?>, Boolean> isInterestedIn = new ConcurrentHashMap<>();
+
+    @GuardedBy("this")
+    private final ArrayDeque<Slot> queue = new ArrayDeque<>();
+    @GuardedBy("this")
+    private final Map<Class<?>, Slot> queuedCoalescedEvents = new HashMap<>();
+    @GuardedBy("this")
+    private int queuedEvents = 0;
+    @GuardedBy("this")
+    private boolean scheduled = false;
+
+    private SubscriberQueue(Object subscriber) {
+      this.name = subscriber.getClass().getName();
+      this.eventBus = new EventBus(name);
+      this.eventBus.register(subscriber);
+      this.subscribedEventTypes = getSubscribedEventTypes(subscriber.getClass());
+      this.coalescedEventTypes = subscriber instanceof CoalescingEventListener ?
+          ((CoalescingEventListener) subscriber).getCoalescedEventTypes() :
+          ImmutableSet.<Class<? extends BuckEvent>>of();
+    }
+
+    private boolean isInterestedIn(Class<?> eventType) {
+      Boolean interested = isInterestedIn.get(eventType);
+      if (interested == null) {
+        interested = false;
+        for (Class<?> subscribedEventType : subscribedEventTypes) {
+          if (subscribedEventType.isAssignableFrom(eventType)) {
+            interested = true;
+            break;
+          }
+        }
+        isInterestedIn.put(eventType, interested);
+      }
+      return interested;
+    }
+
+    private void enqueue(BuckEvent event, boolean mayBlock) {
+      boolean schedule;
+      synchronized (this) {
+        boolean coalesce = coalescedEventTypes.contains(event.getClass());
+        if (coalesce) {
+          Slot previous = queuedCoalescedEvents.get(event.getClass());
+          if (previous != null) {
+            previous.event = null;
+            queuedEvents--;
+            eventsCoalesced.incrementAndGet();
+          }
+        }
+        if (mayBlock && queuedEvents >= queueCapacity) {
+          waitForSpace();
+        }
+        Slot slot = new Slot(event);
+        queue.add(slot);
+        queuedEvents++;
+        if (coalesce) {
+          queuedCoalescedEvents.put(event.getClass(), slot);
+        }
+        schedule = !scheduled;
+        scheduled = true;
+      }
+      if (schedule) {
+        executorService.execute(this);
+      }
+    }
+
+    @GuardedBy("this")
+    private void waitForSpace() {
+      saturatedSubscribers.add(name);
+      blockedPosts.incrementAndGet();
+      long start = System.nanoTime();
+      try {
+        while (queuedEvents >= queueCapacity && !closed) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        // Don't lose the event; just stop waiting and let the caller deal with the interrupt.
+        Thread.currentThread().interrupt();
+      }
+      blockedPostNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    @Override
+    public void run() {
+      isDispatchThread.set(true);
+      List<BuckEvent> batch = new ArrayList<>();
+      synchronized (this) {
+        long queued = queuedEvents;
+        long max = maxQueuedEvents.get();
+        while (queued > max && !maxQueuedEvents.compareAndSet(max, queued)) {
+          max = maxQueuedEvents.get();
+        }
+        while (batch.size() < MAX_BATCH_SIZE && !queue.isEmpty()) {
+          Slot slot = queue.poll();
+          BuckEvent event = slot.event;
+          if (event == null) {
+            // Superseded by a later event of the same type.
+            continue;
+          }
+          batch.add(event);
+          queuedEvents--;
+          if (queuedCoalescedEvents.get(event.getClass()) == slot) {
+            queuedCoalescedEvents.remove(event.getClass());
+          }
+        }
+        notifyAll();
+      }
+
+      for (BuckEvent event : batch) {
+        eventBus.post(event);
+      }
+      eventsDelivered.addAndGet(batch.size());
+
+      synchronized (this) {
+        if (queue.isEmpty()) {
+          scheduled = false;
+          notifyAll();
+          return;
+        }
+      }
+      // Go to the back of the line, so other subscribers get a turn.
+      executorService.execute(this);
+    }
+
+    private synchronized boolean awaitIdle(long deadlineNanos) throws InterruptedException {
+      while (scheduled) {
+        long remainingMillis =
+            TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        if (remainingMillis <= 0) {
+          return false;
+        }
+        wait(remainingMillis);
+      }
+      return true;
+    }
+
+    private synchronized void wakeBlockedPosters() {
+      notifyAll();
+    }
+
+    @Override
+    public synchronized String toString() {
+      return String.format("%s: %d queued events", name, queuedEvents);
+    }
+  }
+
+  private static class Slot {
+    @Nullable
+    private BuckEvent event;
+
+    private Slot(BuckEvent event) {
+      this.event = event;
+    }
+  }
+}
@@ -21,6 +21,7 @@ import com.facebook.buck.artifact_cache.ArtifactCacheEvent;
 import com.facebook.buck.cli.CommandEvent;
 import com.facebook.buck.event.ActionGraphEvent;
 import com.facebook.buck.event.ArtifactCompressionEvent;
+import com.facebook.buck.event.BinaryTraceWriter;
 import com.facebook.buck.event.BuckEvent;
 import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.event.ChromeTraceEvent;
@@ -78,7 +79,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Logs events to a json file formatted to be viewed in Chrome Trace View (chrome://tracing).
+ * Logs events to a json file formatted to be viewed in Chrome Trace View (chrome://tracing), or
+ * to a more compact binary file that the web server converts to that format on demand.
  */
 public class ChromeTraceBuildListener implements BuckEventListener {
 
@@ -105,11 +107,13 @@ public class ChromeTraceBuildListener implements BuckEventListener {
   private final Clock clock;
   private final int tracesToKeep;
   private final boolean compressTraces;
+  private final boolean binaryTraces;
   private final ObjectMapper mapper;
   private final ThreadLocal<SimpleDateFormat> dateFormat;
   private final Path tracePath;
   private final OutputStream traceStream;
-  private final JsonGenerator jsonGenerator;
+  private final Optional<JsonGenerator> jsonGenerator;
+  private final Optional<BinaryTraceWriter> binaryTraceWriter;
   private final InvocationInfo invocationInfo;
 
   private final ExecutorService outputExecutor;
@@ -120,7 +124,8 @@ public class ChromeTraceBuildListener implements BuckEventListener {
       Clock clock,
       ObjectMapper objectMapper,
       int tracesToKeep,
-      boolean compressTraces) throws IOException {
+      boolean compressTraces,
+      boolean binaryTraces) throws IOException {
     this(
         projectFilesystem,
         invocationInfo,
@@ -129,7 +134,8 @@ public class ChromeTraceBuildListener implements BuckEventListener {
         Locale.US,
         TimeZone.getDefault(),
         tracesToKeep,
-        compressTraces);
+        compressTraces,
+        binaryTraces);
   }
 
   @VisibleForTesting
@@ -141,7 +147,8 @@ public class ChromeTraceBuildListener implements BuckEventListener {
       final Locale locale,
       final TimeZone timeZone,
       int tracesToKeep,
-      boolean compressTraces) throws IOException {
+      boolean compressTraces,
+      boolean binaryTraces) throws IOException {
     this.invocationInfo = invocationInfo;
     this.projectFilesystem = projectFilesystem;
     this.clock = clock;
@@ -156,14 +163,21 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     };
     this.tracesToKeep = tracesToKeep;
     this.compressTraces = compressTraces;
+    this.binaryTraces = binaryTraces;
     this.outputExecutor = MostExecutors.newSingleThreadExecutor(
         new CommandThreadFactory(getClass().getName()));
     TracePathAndStream tracePathAndStream = createPathAndStream(invocationInfo);
     this.tracePath = tracePathAndStream.getPath();
     this.traceStream = tracePathAndStream.getStream();
-    this.jsonGenerator = objectMapper.getFactory().createGenerator(this.traceStream);
-
-    this.jsonGenerator.writeStartArray();
+    if (binaryTraces) {
+      this.jsonGenerator = Optional.absent();
+      this.binaryTraceWriter = Optional.of(new BinaryTraceWriter(this.traceStream));
+    } else {
+      this.jsonGenerator =
+          Optional.of(objectMapper.getFactory().createGenerator(this.traceStream));
+      this.binaryTraceWriter = Optional.absent();
+      this.jsonGenerator.get().writeStartArray();
+    }
     addProcessMetadataEvent();
   }
 
@@ -196,7 +210,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     try {
       for (Path path : PathListing.listMatchingPathsWithFilters(
                traceDirectory,
-               "build.*.trace",
+               "build.*.{trace,bintrace}",
                PathListing.GET_PATH_MODIFIED_TIME,
                PathListing.FilterMode.EXCLUDE,
                Optional.of(tracesToKeep),
@@ -210,16 +224,20 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   private TracePathAndStream createPathAndStream(InvocationInfo invocationInfo) {
     String filenameTime = dateFormat.get().format(new Date(clock.currentTimeMillis()));
-    String traceName =
-        String.format("build.%s.%s.trace", filenameTime, invocationInfo.getBuildId());
-    if (compressTraces) {
+    String traceName = String.format(
+        "build.%s.%s.%s",
+        filenameTime,
+        invocationInfo.getBuildId(),
+        binaryTraces ? "bintrace" : "trace");
+    // Binary traces are already compact, so don't spend time compressing them.
+    if (compressTraces && !binaryTraces) {
       traceName = traceName + ".gz";
     }
     Path tracePath = invocationInfo.getLogDirectoryPath().resolve(traceName);
     try {
       projectFilesystem.createParentDirs(tracePath);
       OutputStream stream = projectFilesystem.newFileOutputStream(tracePath);
-      if (compressTraces) {
+      if (compressTraces && !binaryTraces) {
         stream = new BestCompressionGZIPOutputStream(stream, true);
       }
       return new TracePathAndStream(tracePath, stream);
@@ -241,10 +259,16 @@ public class ChromeTraceBuildListener implements BuckEventListener {
         Thread.currentThread().interrupt();
       }
 
-      jsonGenerator.writeEndArray();
-      jsonGenerator.close();
+      String symlinkName;
+      if (binaryTraceWriter.isPresent()) {
+        binaryTraceWriter.get().close();
+        symlinkName = "build.bintrace";
+      } else {
+        jsonGenerator.get().writeEndArray();
+        jsonGenerator.get().close();
+        symlinkName = compressTraces ? "build.trace.gz" : "build.trace";
+      }
       traceStream.close();
-      String symlinkName = compressTraces ? "build.trace.gz" : "build.trace";
       Path symlinkPath = projectFilesystem.getBuckPaths().getLogDir().resolve(symlinkName);
       projectFilesystem.createSymLink(
           projectFilesystem.resolve(symlinkPath),
@@ -716,11 +740,16 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   @SuppressWarnings("PMD.EmptyCatchBlock")
   private void submitTraceEvent(final ChromeTraceEvent chromeTraceEvent) {
+    if (binaryTraceWriter.isPresent()) {
+      // The binary writer already buffers events and does its I/O on its own thread.
+      binaryTraceWriter.get().record(chromeTraceEvent);
+      return;
+    }
     outputExecutor.submit(new Callable<Void>() {
       @Override
       public Void call() throws Exception {
         try {
-          mapper.writeValue(jsonGenerator, chromeTraceEvent);
+          mapper.writeValue(jsonGenerator.get(), chromeTraceEvent);
         } catch (IOException e) {
           // Swallow any failures to write.
         }
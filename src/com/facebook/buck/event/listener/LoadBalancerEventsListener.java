@@ -34,6 +34,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.eventbus.Subscribe;
 
+import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.util.concurrent.ConcurrentMap;
@@ -106,6 +107,16 @@ public class LoadBalancerEventsListener implements BuckEventListener {
     if (data.getResponseSizeBytes().isPresent()) {
       counters.getResponseSizeBytes().addSample(data.getResponseSizeBytes().get());
     }
+    if (data.getResponseCode().isPresent()) {
+      // A found artifact is a hit and a missing one a miss, which gives the hit rate of every
+      // server when the cache is sharded across the pool.
+      int responseCode = data.getResponseCode().get();
+      if (responseCode == HttpURLConnection.HTTP_OK) {
+        counters.getRequestHitCount().inc();
+      } else if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+        counters.getRequestMissCount().inc();
+      }
+    }
     if (data.getException().isPresent()) {
       Exception exception = data.getException().get();
       if (exception instanceof SocketTimeoutException) {
@@ -147,6 +158,8 @@ public class LoadBalancerEventsListener implements BuckEventListener {
     private final IntegerCounter requestCount;
     private final IntegerCounter requestErrorCount;
     private final IntegerCounter requestTimeoutCount;
+    private final IntegerCounter requestHitCount;
+    private final IntegerCounter requestMissCount;
 
     public ServerCounters(CounterRegistry registry, URI server) {
       this.pingRequestLatencyMillis = registry.newSamplingCounter(
@@ -194,6 +207,14 @@ public class LoadBalancerEventsListener implements BuckEventListener {
           PER_SERVER_CATEGORY,
           "request_timeout_count",
           getTagsForServer(server));
+      this.requestHitCount = registry.newIntegerCounter(
+          PER_SERVER_CATEGORY,
+          "request_hit_count",
+          getTagsForServer(server));
+      this.requestMissCount = registry.newIntegerCounter(
+          PER_SERVER_CATEGORY,
+          "request_miss_count",
+          getTagsForServer(server));
     }
 
     public IntegerCounter getIsBestServerCount() {
@@ -240,6 +261,14 @@ public class LoadBalancerEventsListener implements BuckEventListener {
       return requestTimeoutCount;
     }
 
+    public IntegerCounter getRequestHitCount() {
+      return requestHitCount;
+    }
+
+    public IntegerCounter getRequestMissCount() {
+      return requestMissCount;
+    }
+
     public static ImmutableMap<String, String> getTagsForServer(URI server) {
       return ImmutableMap.of(SERVER_TAG, server.toString());
     }
@@ -19,43 +19,130 @@ package com.facebook.buck.httpserver;
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
 import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.DirArtifactCache;
 import com.facebook.buck.artifact_cache.HttpArtifactCacheBinaryProtocol;
 import com.facebook.buck.artifact_cache.StoreResponseReadResult;
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.HistogramCounter;
+import com.facebook.buck.counters.IntegerCounter;
 import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Range;
 import com.google.common.io.ByteSource;
+import com.google.common.io.CountingOutputStream;
 
+import org.eclipse.jetty.server.HttpOutput;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import javax.annotation.Nullable;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
  * Implements a really simple cache server on top of the local dircache.
+ * <p>
+ * When the cache is a {@link DirArtifactCache}, hits are sent straight from the cached file,
+ * memory-mapped so that it is written to the connection without being copied through the heap,
+ * and uploads are written next to the cache and moved into it once their checksum is verified.
+ * Fetches honor single byte range requests, so that clients can resume broken downloads or fetch
+ * large artifacts over several connections.
  */
 public class ArtifactCacheHandler extends AbstractHandler {
   private static final Logger LOG = Logger.get(ArtifactCacheHandler.class);
 
+  private static final String COUNTER_CATEGORY = "buck_cache_server";
+
+  private static final String RANGE_HEADER = "Range";
+  private static final String ACCEPT_RANGES_HEADER = "Accept-Ranges";
+  private static final String CONTENT_RANGE_HEADER = "Content-Range";
+  private static final Pattern BYTE_RANGE_PATTERN = Pattern.compile("bytes=(\\d*)-(\\d*)");
+  private static final int MAX_DIR_CACHE_HEADERS = 1024;
+
   private final ProjectFilesystem projectFilesystem;
   private Optional<ArtifactCache> artifactCache;
 
+  /**
+   * The metadata sent ahead of recently fetched dir cache artifacts. Computing it hashes the whole
+   * artifact, which would otherwise happen again for every range of a parallel or resumed fetch.
+   */
+  private final Cache<RuleKey, DirCacheHeader> dirCacheHeaders =
+      CacheBuilder.newBuilder().maximumSize(MAX_DIR_CACHE_HEADERS).build();
+
+  private final HistogramCounter getLatencyCounter;
+  private final IntegerCounter getBytesCounter;
+  private final IntegerCounter getMissesCounter;
+  private final HistogramCounter putLatencyCounter;
+  private final IntegerCounter putBytesCounter;
+  private final IntegerCounter putRejectedCounter;
+
   public ArtifactCacheHandler(
       ProjectFilesystem projectFilesystem) {
     this.artifactCache = Optional.absent();
     this.projectFilesystem = projectFilesystem;
+    this.getLatencyCounter = new HistogramCounter(
+        COUNTER_CATEGORY,
+        "get_latency_ms",
+        ImmutableMap.<String, String>of());
+    this.getBytesCounter = new IntegerCounter(
+        COUNTER_CATEGORY,
+        "get_bytes",
+        ImmutableMap.<String, String>of());
+    this.getMissesCounter = new IntegerCounter(
+        COUNTER_CATEGORY,
+        "get_misses",
+        ImmutableMap.<String, String>of());
+    this.putLatencyCounter = new HistogramCounter(
+        COUNTER_CATEGORY,
+        "put_latency_ms",
+        ImmutableMap.<String, String>of());
+    this.putBytesCounter = new IntegerCounter(
+        COUNTER_CATEGORY,
+        "put_bytes",
+        ImmutableMap.<String, String>of());
+    this.putRejectedCounter = new IntegerCounter(
+        COUNTER_CATEGORY,
+        "put_rejected",
+        ImmutableMap.<String, String>of());
+  }
+
+  public ImmutableList<Counter> getCounters() {
+    return ImmutableList.<Counter>of(
+        getLatencyCounter,
+        getBytesCounter,
+        getMissesCounter,
+        putLatencyCounter,
+        putBytesCounter,
+        putRejectedCounter);
   }
 
   public void setArtifactCache(Optional<ArtifactCache> artifactCache) {
@@ -71,10 +158,13 @@ public class ArtifactCacheHandler extends AbstractHandler {
     try {
       int status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
       String method = baseRequest.getMethod();
+      Stopwatch stopwatch = Stopwatch.createStarted();
       if (method.equals("GET")) {
         status = handleGet(baseRequest, response);
+        getLatencyCounter.addSample(stopwatch.elapsed(TimeUnit.MILLISECONDS));
       } else if (method.equals("PUT")) {
         status = handlePut(baseRequest, response);
+        putLatencyCounter.addSample(stopwatch.elapsed(TimeUnit.MILLISECONDS));
       }
       response.setStatus(status);
     } catch (Exception e) {
@@ -102,6 +192,10 @@ public class ArtifactCacheHandler extends AbstractHandler {
 
     RuleKey ruleKey = RuleKey.TO_RULE_KEY.apply(pathElements[3]);
 
+    if (artifactCache.get() instanceof DirArtifactCache) {
+      return handleDirCacheGet((DirArtifactCache) artifactCache.get(), ruleKey, baseRequest);
+    }
+
     Path temp = null;
     try {
       projectFilesystem.mkdirs(projectFilesystem.getBuckPaths().getScratchDir());
@@ -111,23 +205,38 @@ public class ArtifactCacheHandler extends AbstractHandler {
           ".tmp");
       CacheResult fetchResult = artifactCache.get().fetch(ruleKey, LazyPath.ofInstance(temp));
       if (!fetchResult.getType().isSuccess()) {
+        getMissesCounter.inc();
         return HttpServletResponse.SC_NOT_FOUND;
       }
 
       final Path tempFinal = temp;
+      ByteSource payload =
+          new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+              return projectFilesystem.newFileInputStream(tempFinal);
+            }
+          };
       HttpArtifactCacheBinaryProtocol.FetchResponse fetchResponse =
           new HttpArtifactCacheBinaryProtocol.FetchResponse(
               ImmutableSet.of(ruleKey),
               fetchResult.getMetadata(),
-              new ByteSource() {
-                @Override
-                public InputStream openStream() throws IOException {
-                  return projectFilesystem.newFileInputStream(tempFinal);
-                }
-              });
-      fetchResponse.write(response.getOutputStream());
-      response.setContentLengthLong(fetchResponse.getContentLength());
-      return HttpServletResponse.SC_OK;
+              payload);
+      ByteSource body =
+          ByteSource.concat(ByteSource.wrap(getMetadataBytes(fetchResponse)), payload);
+
+      Optional<Range<Long>> range =
+          setRangeHeaders(baseRequest, response, fetchResponse.getContentLength());
+      if (!range.isPresent()) {
+        return HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE;
+      }
+      int status = getRangeStatus(range.get(), fetchResponse.getContentLength());
+      response.setStatus(status);
+      long start = range.get().lowerEndpoint();
+      long end = range.get().upperEndpoint();
+      body.slice(start, end - start).copyTo(response.getOutputStream());
+      getBytesCounter.inc(end - start);
+      return status;
     } finally {
       if (temp != null) {
         projectFilesystem.deleteFileAtPathIfExists(temp);
@@ -135,29 +244,220 @@ public class ArtifactCacheHandler extends AbstractHandler {
     }
   }
 
+  private int handleDirCacheGet(
+      DirArtifactCache dirCache,
+      RuleKey ruleKey,
+      Request baseRequest) throws IOException {
+    Optional<ImmutableMap<String, String>> metadata = dirCache.fetchMetadata(ruleKey);
+    if (!metadata.isPresent()) {
+      getMissesCounter.inc();
+      return HttpServletResponse.SC_NOT_FOUND;
+    }
+
+    // Map the artifact before anything is sent, so that it being evicted concurrently either
+    // results in a miss or goes unnoticed.
+    Path artifactPath = dirCache.getArtifactPath(ruleKey);
+    MappedByteBuffer payload;
+    FileTime lastModified;
+    try (FileChannel channel = FileChannel.open(artifactPath, StandardOpenOption.READ)) {
+      payload = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      lastModified = Files.getLastModifiedTime(artifactPath);
+    } catch (NoSuchFileException e) {
+      getMissesCounter.inc();
+      return HttpServletResponse.SC_NOT_FOUND;
+    }
+
+    byte[] header = getDirCacheHeader(ruleKey, metadata.get(), payload, lastModified);
+    long contentLength = header.length + payload.capacity();
+    HttpServletResponse response = baseRequest.getResponse();
+    Optional<Range<Long>> range = setRangeHeaders(baseRequest, response, contentLength);
+    if (!range.isPresent()) {
+      return HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE;
+    }
+    int status = getRangeStatus(range.get(), contentLength);
+    response.setStatus(status);
+
+    // The response is the metadata followed by the payload, so a range may cover either or both.
+    long start = range.get().lowerEndpoint();
+    long end = range.get().upperEndpoint();
+    HttpOutput output = baseRequest.getResponse().getHttpOutput();
+    if (start < header.length) {
+      output.write(header, (int) start, (int) (Math.min(end, header.length) - start));
+    }
+    if (end > header.length) {
+      ByteBuffer payloadRange = payload.duplicate();
+      payloadRange.limit((int) (end - header.length));
+      payloadRange.position((int) Math.max(0, start - header.length));
+      output.write(payloadRange);
+    }
+    output.close();
+    getBytesCounter.inc(end - start);
+    return status;
+  }
+
+  /**
+   * @return the metadata sent ahead of a dir cache artifact, reused for as long as the artifact
+   *     and its metadata are unchanged.
+   */
+  private byte[] getDirCacheHeader(
+      RuleKey ruleKey,
+      ImmutableMap<String, String> metadata,
+      final ByteBuffer payload,
+      FileTime lastModified) throws IOException {
+    DirCacheHeader cached = dirCacheHeaders.getIfPresent(ruleKey);
+    if (cached != null && cached.isFor(metadata, payload.capacity(), lastModified)) {
+      return cached.bytes;
+    }
+    HttpArtifactCacheBinaryProtocol.FetchResponse fetchResponse =
+        new HttpArtifactCacheBinaryProtocol.FetchResponse(
+            ImmutableSet.of(ruleKey),
+            metadata,
+            new ByteSource() {
+              @Override
+              public long size() {
+                return payload.capacity();
+              }
+
+              @Override
+              public InputStream openStream() {
+                return new ByteBufferInputStream(payload.duplicate());
+              }
+            });
+    byte[] bytes = getMetadataBytes(fetchResponse);
+    dirCacheHeaders.put(
+        ruleKey,
+        new DirCacheHeader(metadata, payload.capacity(), lastModified, bytes));
+    return bytes;
+  }
+
+  /**
+   * Sets the headers describing which part of a response of {@code length} bytes is sent, based
+   * on the request's {@code Range} header. Only a single range is supported, anything else is
+   * answered with the whole response.
+   *
+   * @return the {@code [start, end)} range of the response to send, or absent if the requested
+   *     range can't be satisfied.
+   */
+  private static Optional<Range<Long>> setRangeHeaders(
+      Request baseRequest,
+      HttpServletResponse response,
+      long length) {
+    response.setHeader(ACCEPT_RANGES_HEADER, "bytes");
+    Optional<Range<Long>> range = parseRange(baseRequest.getHeader(RANGE_HEADER), length);
+    if (!range.isPresent()) {
+      response.setHeader(CONTENT_RANGE_HEADER, "bytes */" + length);
+      return range;
+    }
+    long start = range.get().lowerEndpoint();
+    long end = range.get().upperEndpoint();
+    if (end - start != length) {
+      response.setHeader(
+          CONTENT_RANGE_HEADER,
+          String.format("bytes %d-%d/%d", start, end - 1, length));
+    }
+    response.setContentLengthLong(end - start);
+    return range;
+  }
+
+  private static int getRangeStatus(Range<Long> range, long length) {
+    return range.upperEndpoint() - range.lowerEndpoint() == length ?
+        HttpServletResponse.SC_OK :
+        HttpServletResponse.SC_PARTIAL_CONTENT;
+  }
+
+  /**
+   * @return the {@code [start, end)} range of a response of {@code length} bytes asked for by a
+   *     {@code Range} header, the whole response if there is no header or it isn't a valid single
+   *     byte range, or absent if the range lies outside of the response.
+   */
+  @VisibleForTesting
+  static Optional<Range<Long>> parseRange(@Nullable String header, long length) {
+    Range<Long> all = Range.closedOpen(0L, length);
+    if (header == null) {
+      return Optional.of(all);
+    }
+    Matcher matcher = BYTE_RANGE_PATTERN.matcher(header.trim());
+    if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+      return Optional.of(all);
+    }
+    long start;
+    long end;
+    if (matcher.group(1).isEmpty()) {
+      // A suffix range, asking for the last N bytes.
+      start = Math.max(0, length - parsePosition(matcher.group(2)));
+      end = length;
+    } else {
+      start = parsePosition(matcher.group(1));
+      if (!matcher.group(2).isEmpty()) {
+        long last = parsePosition(matcher.group(2));
+        if (last < start) {
+          // Not a valid range, which RFC 7233 says to ignore.
+          return Optional.of(all);
+        }
+        end = Math.min(length, last + 1);
+      } else {
+        end = length;
+      }
+    }
+    if (start >= end) {
+      return Optional.absent();
+    }
+    return Optional.of(Range.closedOpen(start, end));
+  }
+
+  /**
+   * @return the byte position given by {@code digits}, capped to one less than the largest
+   *     representable value, as no response could be that long anyway.
+   */
+  private static long parsePosition(String digits) {
+    try {
+      return Math.min(Long.parseLong(digits), Long.MAX_VALUE - 1);
+    } catch (NumberFormatException e) {
+      // The pattern only matches digits, so the position is too large to represent.
+      return Long.MAX_VALUE - 1;
+    }
+  }
+
+  private static byte[] getMetadataBytes(HttpArtifactCacheBinaryProtocol.FetchResponse response)
+      throws IOException {
+    ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+    response.writeMetadata(metadata);
+    return metadata.toByteArray();
+  }
+
   private int handlePut(Request baseRequest, HttpServletResponse response) throws IOException {
     if (!artifactCache.isPresent()) {
       response.getWriter().write("Serving local cache is disabled for this instance.");
       return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
     }
 
+    // Uploads to a dir cache are written next to it, so that they can be moved into it.
+    boolean borrowable = artifactCache.get() instanceof DirArtifactCache;
     Path temp = null;
     try {
-      projectFilesystem.mkdirs(projectFilesystem.getBuckPaths().getScratchDir());
-      temp = projectFilesystem.createTempFile(
-          projectFilesystem.getBuckPaths().getScratchDir(),
-          "incoming_upload",
-          ".tmp");
+      if (borrowable) {
+        temp = ((DirArtifactCache) artifactCache.get()).createTempFile("incoming_upload");
+      } else {
+        projectFilesystem.mkdirs(projectFilesystem.getBuckPaths().getScratchDir());
+        temp = projectFilesystem.createTempFile(
+            projectFilesystem.getBuckPaths().getScratchDir(),
+            "incoming_upload",
+            ".tmp");
+      }
 
       StoreResponseReadResult storeRequest;
       try (DataInputStream requestInputData = new DataInputStream(baseRequest.getInputStream());
-           OutputStream tempFileOutputStream = projectFilesystem.newFileOutputStream(temp)) {
+           CountingOutputStream tempFileOutputStream =
+               new CountingOutputStream(projectFilesystem.newFileOutputStream(temp))) {
+        // The checksum is computed as the payload is written out.
         storeRequest = HttpArtifactCacheBinaryProtocol.readStoreRequest(
             requestInputData,
             tempFileOutputStream);
+        putBytesCounter.inc(tempFileOutputStream.getCount());
       }
 
       if (!storeRequest.getActualHashCode().equals(storeRequest.getExpectedHashCode())) {
+        putRejectedCounter.inc();
         response.getWriter().write("Checksum mismatch.");
         return HttpServletResponse.SC_NOT_ACCEPTABLE;
       }
@@ -167,7 +467,9 @@ public class ArtifactCacheHandler extends AbstractHandler {
               .setRuleKeys(storeRequest.getRuleKeys())
               .setMetadata(storeRequest.getMetadata())
               .build(),
-          BorrowablePath.notBorrowablePath(temp));
+          borrowable ?
+              BorrowablePath.borrowablePath(temp) :
+              BorrowablePath.notBorrowablePath(temp));
       return HttpServletResponse.SC_ACCEPTED;
     } finally {
       if (temp != null) {
@@ -176,4 +478,54 @@ public class ArtifactCacheHandler extends AbstractHandler {
     }
 
   }
+
+  private static class DirCacheHeader {
+    private final ImmutableMap<String, String> metadata;
+    private final long payloadSize;
+    private final FileTime lastModified;
+    private final byte[] bytes;
+
+    public DirCacheHeader(
+        ImmutableMap<String, String> metadata,
+        long payloadSize,
+        FileTime lastModified,
+        byte[] bytes) {
+      this.metadata = metadata;
+      this.payloadSize = payloadSize;
+      this.lastModified = lastModified;
+      this.bytes = bytes;
+    }
+
+    public boolean isFor(
+        ImmutableMap<String, String> metadata,
+        long payloadSize,
+        FileTime lastModified) {
+      return this.metadata.equals(metadata) &&
+          this.payloadSize == payloadSize &&
+          this.lastModified.equals(lastModified);
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      length = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, length);
+      return length;
+    }
+  }
 }
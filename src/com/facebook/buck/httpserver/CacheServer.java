@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.httpserver;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * A standalone server that only serves an artifact cache, using the same protocol as the
+ * {@code /artifacts} endpoint of the {@link WebServer}, so that machines on a LAN can share a dir
+ * cache without any other infrastructure.
+ * <p>
+ * Connections are multiplexed over a few selector threads, so idle keep-alive connections are
+ * cheap; {@code maxThreads} only bounds the number of requests being served at once.
+ */
+public class CacheServer {
+
+  private static final String ARTIFACTS_CONTEXT_PATH = "/artifacts";
+  private static final int ACCEPT_QUEUE_SIZE = 1024;
+  private static final long IDLE_TIMEOUT_MILLIS = 60 * 1000;
+
+  private final Server server;
+  private final ServerConnector connector;
+  private final ArtifactCacheHandler artifactCacheHandler;
+
+  /**
+   * @param port If 0, then an ephemeral port will be assigned. Use {@link #getPort()} to find out
+   *     which port is being used.
+   */
+  public CacheServer(
+      int port,
+      int maxThreads,
+      ProjectFilesystem projectFilesystem,
+      ArtifactCache artifactCache) {
+    QueuedThreadPool threadPool = new QueuedThreadPool(maxThreads);
+    threadPool.setName("cache-server");
+    this.server = new Server(threadPool);
+    this.connector = new ServerConnector(server);
+    connector.setPort(port);
+    connector.setAcceptQueueSize(ACCEPT_QUEUE_SIZE);
+    connector.setIdleTimeout(IDLE_TIMEOUT_MILLIS);
+    server.addConnector(connector);
+
+    this.artifactCacheHandler = new ArtifactCacheHandler(projectFilesystem);
+    artifactCacheHandler.setArtifactCache(Optional.of(artifactCache));
+    ContextHandler contextHandler = new ContextHandler(ARTIFACTS_CONTEXT_PATH);
+    contextHandler.setHandler(artifactCacheHandler);
+    server.setHandler(contextHandler);
+  }
+
+  public ImmutableList<Counter> getCounters() {
+    return artifactCacheHandler.getCounters();
+  }
+
+  public void start() throws WebServer.WebServerException {
+    try {
+      server.start();
+    } catch (Exception e) {
+      throw new WebServer.WebServerException("Cannot start cache server.", e);
+    }
+  }
+
+  public int getPort() {
+    return connector.getLocalPort();
+  }
+
+  /**
+   * Blocks until the server is stopped.
+   */
+  public void join() throws InterruptedException {
+    server.join();
+  }
+
+  public void stop() throws WebServer.WebServerException {
+    if (!server.isRunning()) {
+      return;
+    }
+    try {
+      server.stop();
+    } catch (Exception e) {
+      throw new WebServer.WebServerException("Cannot stop cache server.", e);
+    }
+  }
+}
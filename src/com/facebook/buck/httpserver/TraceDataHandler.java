@@ -16,13 +16,24 @@
 
 package com.facebook.buck.httpserver;
 
+import com.facebook.buck.event.BinaryTraceReader;
+import com.facebook.buck.event.ChromeTraceEvent;
+import com.facebook.buck.util.ObjectMappers;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
 import com.google.common.io.CharStreams;
 import com.google.common.net.MediaType;
 
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -37,6 +48,11 @@ import javax.servlet.http.HttpServletResponse;
 
 /**
  * HTTP handler for requests to the {@code /tracedata} path.
+ * <p>
+ * JSON traces are served as they are on disk, while binary traces are converted to the same JSON
+ * format as they are read. Either kind can be narrowed down with the optional {@code start} and
+ * {@code end} parameters, which bound event timestamps in microseconds (inclusive), and the
+ * {@code tid} parameter, which selects a single thread. Metadata events are always included.
  */
 class TraceDataHandler extends AbstractHandler {
 
@@ -46,9 +62,11 @@ class TraceDataHandler extends AbstractHandler {
   static final Pattern CALLBACK_PATTERN = Pattern.compile("[\\w\\.]+");
 
   private final TracesHelper tracesHelper;
+  private final ObjectMapper objectMapper;
 
   TraceDataHandler(TracesHelper tracesHelper) {
     this.tracesHelper = tracesHelper;
+    this.objectMapper = ObjectMappers.newDefaultInstance();
   }
 
   @Override
@@ -76,6 +94,17 @@ class TraceDataHandler extends AbstractHandler {
 
     String id = matcher.group(1);
 
+    TraceEventFilter filter;
+    try {
+      filter = new TraceEventFilter(
+          parseLongParameter(baseRequest, "start"),
+          parseLongParameter(baseRequest, "end"),
+          parseLongParameter(baseRequest, "tid"));
+    } catch (NumberFormatException e) {
+      Responses.writeFailedResponse(baseRequest, response);
+      return;
+    }
+
     response.setContentType(MediaType.JAVASCRIPT_UTF_8.toString());
     response.setStatus(HttpServletResponse.SC_OK);
 
@@ -102,10 +131,14 @@ class TraceDataHandler extends AbstractHandler {
       } else {
         isFirst = false;
       }
-      try (
-          InputStream input = traceStreams.next();
-          InputStreamReader inputStreamReader = new InputStreamReader(input)) {
-        CharStreams.copy(inputStreamReader, responseWriter);
+      try (InputStream input = new BufferedInputStream(traceStreams.next())) {
+        if (BinaryTraceReader.isBinaryTrace(input)) {
+          writeBinaryTrace(input, filter, responseWriter);
+        } else if (filter.isPresent()) {
+          writeFilteredJsonTrace(input, filter, responseWriter);
+        } else {
+          CharStreams.copy(new InputStreamReader(input, Charsets.UTF_8), responseWriter);
+        }
       }
     }
 
@@ -118,4 +151,86 @@ class TraceDataHandler extends AbstractHandler {
     response.flushBuffer();
     baseRequest.setHandled(true);
   }
+
+  private void writeBinaryTrace(InputStream input, TraceEventFilter filter, Writer output)
+      throws IOException {
+    BinaryTraceReader reader = new BinaryTraceReader(input);
+    try (JsonGenerator generator = createGenerator(output)) {
+      generator.writeStartArray();
+      for (Optional<ChromeTraceEvent> event = reader.next();
+           event.isPresent();
+           event = reader.next()) {
+        ChromeTraceEvent traceEvent = event.get();
+        if (filter.apply(
+            traceEvent.getPhase() == ChromeTraceEvent.Phase.METADATA,
+            traceEvent.getThreadId(),
+            traceEvent.getMicroTime())) {
+          objectMapper.writeValue(generator, traceEvent);
+        }
+      }
+      generator.writeEndArray();
+    }
+  }
+
+  private void writeFilteredJsonTrace(InputStream input, TraceEventFilter filter, Writer output)
+      throws IOException {
+    try (
+        JsonParser parser = objectMapper.getFactory().createParser(input);
+        JsonGenerator generator = createGenerator(output)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new IOException("Expected a JSON array of trace events.");
+      }
+      generator.writeStartArray();
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        JsonNode event = parser.readValueAsTree();
+        if (filter.apply(
+            "M".equals(event.path("ph").asText()),
+            event.path("tid").asLong(),
+            event.path("ts").asLong())) {
+          objectMapper.writeTree(generator, event);
+        }
+      }
+      generator.writeEndArray();
+    }
+  }
+
+  private JsonGenerator createGenerator(Writer output) throws IOException {
+    JsonGenerator generator = objectMapper.getFactory().createGenerator(output);
+    // The response writer is shared across all traces, so leave it open.
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    return generator;
+  }
+
+  private static Optional<Long> parseLongParameter(Request baseRequest, String name) {
+    String value = baseRequest.getParameter(name);
+    if (value == null) {
+      return Optional.absent();
+    }
+    return Optional.of(Long.parseLong(value));
+  }
+
+  private static class TraceEventFilter {
+    private final Optional<Long> start;
+    private final Optional<Long> end;
+    private final Optional<Long> threadId;
+
+    private TraceEventFilter(Optional<Long> start, Optional<Long> end, Optional<Long> threadId) {
+      this.start = start;
+      this.end = end;
+      this.threadId = threadId;
+    }
+
+    private boolean isPresent() {
+      return start.isPresent() || end.isPresent() || threadId.isPresent();
+    }
+
+    private boolean apply(boolean isMetadata, long eventThreadId, long microTime) {
+      if (isMetadata) {
+        return true;
+      }
+      return (!threadId.isPresent() || threadId.get() == eventThreadId) &&
+          (!start.isPresent() || start.get() <= microTime) &&
+          (!end.isPresent() || microTime <= end.get());
+    }
+  }
 }
@@ -16,6 +16,8 @@
 
 package com.facebook.buck.httpserver;
 
+import com.facebook.buck.event.BinaryTraceReader;
+import com.facebook.buck.event.ChromeTraceEvent;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.util.BuckConstant;
@@ -29,6 +31,7 @@ import com.google.gson.JsonObject;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -45,6 +48,9 @@ public class TracesHelper {
 
   private static final Logger logger = Logger.get(TracesHelper.class);
 
+  private static final String TRACE_FILE_EXTENSIONS = "{trace,bintrace}";
+  private static final int EVENTS_TO_SEARCH_FOR_COMMAND = 4;
+
   private final ProjectFilesystem projectFilesystem;
 
   TracesHelper(ProjectFilesystem projectFilesystem) {
@@ -114,15 +120,27 @@ public class TracesHelper {
   }
 
   private Optional<String> parseCommandFrom(Path pathToTrace) {
-    try (
-        InputStream input = projectFilesystem.newFileInputStream(pathToTrace);
-        JsonReader jsonReader = new JsonReader(new InputStreamReader(input))) {
+    try (InputStream input =
+             new BufferedInputStream(projectFilesystem.newFileInputStream(pathToTrace))) {
+      if (BinaryTraceReader.isBinaryTrace(input)) {
+        return parseCommandFromBinaryTrace(new BinaryTraceReader(input));
+      }
+      return parseCommandFromJsonTrace(new JsonReader(new InputStreamReader(input)));
+    } catch (IOException e) {
+      logger.error(e);
+      return Optional.absent();
+    }
+  }
+
+  private static Optional<String> parseCommandFromJsonTrace(JsonReader jsonReader)
+      throws IOException {
+    try {
       jsonReader.beginArray();
       Gson gson = new Gson();
 
       // Look through the first few elements to see if one matches the schema for an event that
       // contains the command that the user ran.
-      for (int i = 0; i < 4; i++) {
+      for (int i = 0; i < EVENTS_TO_SEARCH_FOR_COMMAND; i++) {
         // If END_ARRAY is the next token, then there are no more elements in the array.
         if (jsonReader.peek().equals(JsonToken.END_ARRAY)) {
           break;
@@ -137,10 +155,24 @@ public class TracesHelper {
 
       // Oh well, we tried.
       return Optional.absent();
-    } catch (IOException e) {
-      logger.error(e);
-      return Optional.absent();
+    } finally {
+      jsonReader.close();
+    }
+  }
+
+  private static Optional<String> parseCommandFromBinaryTrace(BinaryTraceReader reader)
+      throws IOException {
+    for (int i = 0; i < EVENTS_TO_SEARCH_FOR_COMMAND; i++) {
+      Optional<ChromeTraceEvent> event = reader.next();
+      if (!event.isPresent()) {
+        break;
+      }
+      String commandArgs = event.get().getArgs().get("command_args");
+      if (commandArgs != null) {
+        return Optional.of("buck " + event.get().getName() + " " + commandArgs);
+      }
     }
+    return Optional.absent();
   }
 
   private static Optional<String> tryToFindCommand(JsonObject json) {
@@ -166,15 +198,15 @@ public class TracesHelper {
 
   private boolean isTraceForBuild(Path path, String id) {
     String testPrefix = "build.";
-    String testSuffix = "." + id + ".trace";
     String name = path.getFileName().toString();
-    return name.startsWith(testPrefix) && name.endsWith(testSuffix);
+    return name.startsWith(testPrefix) &&
+        (name.endsWith("." + id + ".trace") || name.endsWith("." + id + ".bintrace"));
   }
 
   Collection<Path> listTraceFilesByLastModified() throws IOException {
     return projectFilesystem.getSortedMatchingDirectoryContents(
         BuckConstant.getBuckTraceDir(),
-        "build.*.trace");
+        "build.*." + TRACE_FILE_EXTENSIONS);
   }
 
   /**
@@ -188,7 +220,7 @@ public class TracesHelper {
 
     Collection<Path> traces = projectFilesystem.getSortedMatchingDirectoryContents(
         BuckConstant.getBuckTraceDir(),
-        "*" + id + "*.trace");
+        "*" + id + "*." + TRACE_FILE_EXTENSIONS);
 
     if (traces.isEmpty()) {
       throw new HumanReadableException("Could not find a build trace with id %s.", id);
@@ -17,7 +17,9 @@
 package com.facebook.buck.httpserver;
 
 import com.facebook.buck.cli.ProgressEvent;
+import com.facebook.buck.event.BuckEvent;
 import com.facebook.buck.event.BuckEventListener;
+import com.facebook.buck.event.CoalescingEventListener;
 import com.facebook.buck.event.CompilerErrorEvent;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.InstallEvent;
@@ -27,6 +29,7 @@ import com.facebook.buck.parser.ParseEvent;
 import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.IndividualTestEvent;
 import com.facebook.buck.rules.TestRunEvent;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.Subscribe;
 
 
@@ -35,7 +38,8 @@ import com.google.common.eventbus.Subscribe;
  * {@link StreamingWebSocketServlet}. This class passes high-level objects to the servlet, and the
  * servlet takes responsibility for serializing the objects as JSON down to the client.
  */
-public class WebServerBuckEventListener implements BuckEventListener {
+public class WebServerBuckEventListener
+    implements BuckEventListener, CoalescingEventListener {
   private final StreamingWebSocketServlet streamingWebSocketServlet;
 
   WebServerBuckEventListener(WebServer webServer) {
@@ -45,6 +49,18 @@ public class WebServerBuckEventListener implements BuckEventListener {
   @Override
   public void outputTrace(BuildId buildId) {}
 
+  /**
+   * Clients only render the latest progress, so there's no point in sending them every update
+   * when they're falling behind.
+   */
+  @Override
+  public ImmutableSet<Class<? extends BuckEvent>> getCoalescedEventTypes() {
+    return ImmutableSet.<Class<? extends BuckEvent>>of(
+        ProgressEvent.BuildProgressUpdated.class,
+        ProgressEvent.ParsingProgressUpdated.class,
+        ProgressEvent.ProjectGenerationProgressUpdated.class);
+  }
+
   @Subscribe
   public void parseStarted(ParseEvent.Started started) {
     streamingWebSocketServlet.tellClients(started);
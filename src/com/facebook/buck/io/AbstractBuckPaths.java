@@ -86,6 +86,11 @@ abstract class AbstractBuckPaths {
     return getBuckOut().resolve("cache");
   }
 
+  @Value.Derived
+  public Path getChunkCacheDir() {
+    return getBuckOut().resolve("chunk-cache");
+  }
+
   @Value.Derived
   public Path getTmpDir() {
     return getBuckOut().resolve("tmp");
@@ -143,6 +143,8 @@ public class ProjectFilesystem {
   @SuppressWarnings("unused")
   private final ProjectFilesystemDelegate delegate;
 
+  private final WrittenFileHashes writtenFileHashes;
+
   // Defaults to false, and so paths should be valid.
   @VisibleForTesting
   protected boolean ignoreValidityOfPaths;
@@ -201,6 +203,7 @@ public class ProjectFilesystem {
     Preconditions.checkArgument(root.isAbsolute());
     this.projectRoot = MorePaths.normalize(root);
     this.delegate = delegate;
+    this.writtenFileHashes = new WrittenFileHashes();
     this.pathAbsolutifier = new Function<Path, Path>() {
       @Override
       public Path apply(Path path) {
@@ -809,19 +812,28 @@ public class ProjectFilesystem {
     }
   }
 
+  /**
+   * Opens {@code pathRelativeToProjectRoot} for writing, truncating it if it exists. The hash of
+   * files written under buck-out is recorded in {@link #getWrittenFileHashes()} once the stream is
+   * closed.
+   */
   public OutputStream newFileOutputStream(
       Path pathRelativeToProjectRoot,
       FileAttribute<?>... attrs)
       throws IOException {
-    return new BufferedOutputStream(
-        Channels.newOutputStream(
-            Files.newByteChannel(
-                getPathForRelativePath(pathRelativeToProjectRoot),
-                ImmutableSet.<OpenOption>of(
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING,
-                    StandardOpenOption.WRITE),
-                attrs)));
+    Path path = getPathForRelativePath(pathRelativeToProjectRoot);
+    OutputStream out = Channels.newOutputStream(
+        Files.newByteChannel(
+            path,
+            ImmutableSet.<OpenOption>of(
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE),
+            attrs));
+    if (isUnderBuckOut(path)) {
+      out = writtenFileHashes.newRecordingOutputStream(path, out);
+    }
+    return new BufferedOutputStream(out);
   }
 
   public <A extends BasicFileAttributes> A readAttributes(
@@ -965,10 +977,14 @@ public class ProjectFilesystem {
   public void copy(Path source, Path target, CopySourceMode sourceMode) throws IOException {
     switch (sourceMode) {
       case FILE:
+        Path resolvedTarget = resolve(target);
         Files.copy(
             resolve(source),
-            resolve(target),
+            resolvedTarget,
             StandardCopyOption.REPLACE_EXISTING);
+        if (isUnderBuckOut(resolvedTarget)) {
+          writtenFileHashes.recordCopy(resolve(source), resolvedTarget);
+        }
         break;
       case DIRECTORY_CONTENTS_ONLY:
         MoreFiles.copyRecursively(resolve(source), resolve(target));
@@ -1161,6 +1177,17 @@ public class ProjectFilesystem {
     return buckPaths;
   }
 
+  /**
+   * @return the hashes of files recently written under buck-out through this filesystem.
+   */
+  public WrittenFileHashes getWrittenFileHashes() {
+    return writtenFileHashes;
+  }
+
+  private boolean isUnderBuckOut(Path absolutePath) {
+    return absolutePath.normalize().startsWith(projectRoot.resolve(buckPaths.getBuckOut()));
+  }
+
   /**
    * @param path the path to check.
    * @return whether ignoredPaths contains path or any of its ancestors.
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io;
+
+import com.facebook.buck.timing.Clock;
+import com.facebook.buck.timing.DefaultClock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Remembers the SHA-1 of files as they are written, so that the hash of a freshly written output
+ * can be used without reading the file back.
+ * <p>
+ * Each hash is stored along with the size and modification time of the file once it was closed.
+ * A hash is only handed out while both still match, so a file rewritten by anything that doesn't
+ * go through this class (e.g. an external tool) is simply hashed again by the caller.
+ * <p>
+ * As modification times are coarse, a file rewritten with the same size shortly after the hash
+ * was recorded can keep the same modification time. Like git does for its index, a hash is not
+ * handed out at all if the file was modified too shortly before the hash was recorded for such a
+ * rewrite to be noticed.
+ */
+public class WrittenFileHashes {
+
+  private static final int MAX_RECORDED_FILES = 100_000;
+  // Timestamps in whole seconds may have been rounded to two seconds (e.g. FAT).
+  private static final long COARSE_TIMESTAMP_WINDOW_MILLIS = 2000;
+  // Finer timestamps still only advance on each tick of the kernel's clock.
+  private static final long FINE_TIMESTAMP_WINDOW_MILLIS = 20;
+
+  private final Clock clock;
+  private final Cache<Path, RecordedHash> hashes;
+
+  public WrittenFileHashes() {
+    this(new DefaultClock());
+  }
+
+  @VisibleForTesting
+  WrittenFileHashes(Clock clock) {
+    this.clock = clock;
+    this.hashes = CacheBuilder.newBuilder().maximumSize(MAX_RECORDED_FILES).build();
+  }
+
+  /**
+   * @return a stream writing to {@code out} which, once closed, records the hash of everything
+   *     written through it as the contents of {@code path}.
+   */
+  public OutputStream newRecordingOutputStream(Path path, OutputStream out) {
+    return new RecordingOutputStream(path.normalize(), out);
+  }
+
+  /**
+   * Records that {@code target} was just copied from {@code source}, reusing the hash recorded for
+   * {@code source} if there is one.
+   */
+  public void recordCopy(Path source, Path target) throws IOException {
+    Optional<HashCode> hashCode = get(source);
+    if (hashCode.isPresent()) {
+      record(target.normalize(), hashCode.get(), Files.size(target));
+    }
+  }
+
+  /**
+   * @return the hash recorded when {@code path} was last written, if the file hasn't changed since
+   *     and wasn't written too shortly before the hash was recorded to tell.
+   */
+  public Optional<HashCode> get(Path path) throws IOException {
+    Path normalized = path.normalize();
+    RecordedHash recorded = hashes.getIfPresent(normalized);
+    if (recorded == null) {
+      return Optional.absent();
+    }
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(normalized, BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      hashes.invalidate(normalized);
+      return Optional.absent();
+    }
+    if (attributes.size() != recorded.size ||
+        !attributes.lastModifiedTime().equals(recorded.lastModifiedTime)) {
+      hashes.invalidate(normalized);
+      return Optional.absent();
+    }
+    if (recorded.isRacy()) {
+      return Optional.absent();
+    }
+    return Optional.of(recorded.hashCode);
+  }
+
+  @VisibleForTesting
+  long size() {
+    return hashes.size();
+  }
+
+  private void record(Path path, HashCode hashCode, long bytesWritten) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    if (attributes.size() != bytesWritten) {
+      // Something else wrote to the file at the same time, so we don't know its contents.
+      hashes.invalidate(path);
+      return;
+    }
+    hashes.put(
+        path,
+        new RecordedHash(
+            hashCode,
+            bytesWritten,
+            attributes.lastModifiedTime(),
+            clock.currentTimeMillis()));
+  }
+
+  private static class RecordedHash {
+    private final HashCode hashCode;
+    private final long size;
+    private final FileTime lastModifiedTime;
+    private final long recordedAtMillis;
+
+    private RecordedHash(
+        HashCode hashCode,
+        long size,
+        FileTime lastModifiedTime,
+        long recordedAtMillis) {
+      this.hashCode = hashCode;
+      this.size = size;
+      this.lastModifiedTime = lastModifiedTime;
+      this.recordedAtMillis = recordedAtMillis;
+    }
+
+    /**
+     * @return whether the file could have been rewritten after the hash was recorded without its
+     *     modification time changing.
+     */
+    private boolean isRacy() {
+      long modifiedMillis = lastModifiedTime.toMillis();
+      long window = modifiedMillis % 1000 == 0 ?
+          COARSE_TIMESTAMP_WINDOW_MILLIS :
+          FINE_TIMESTAMP_WINDOW_MILLIS;
+      return modifiedMillis + window > recordedAtMillis;
+    }
+  }
+
+  private class RecordingOutputStream extends FilterOutputStream {
+    private final Path path;
+    private final Hasher hasher;
+    private long bytesWritten;
+    private boolean failed;
+    private boolean closed;
+
+    private RecordingOutputStream(Path path, OutputStream out) {
+      super(out);
+      this.path = path;
+      this.hasher = Hashing.sha1().newHasher();
+      // Drop any stale hash right away, the file is being truncated.
+      hashes.invalidate(path);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      try {
+        out.write(b);
+      } catch (IOException e) {
+        failed = true;
+        throw e;
+      }
+      hasher.putByte((byte) b);
+      bytesWritten++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      // We don't call super.write() here because it writes one byte at a time.
+      try {
+        out.write(b, off, len);
+      } catch (IOException e) {
+        failed = true;
+        throw e;
+      }
+      hasher.putBytes(b, off, len);
+      bytesWritten += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      super.close();
+      if (!failed) {
+        record(path, hasher.hash(), bytesWritten);
+      }
+    }
+  }
+}
@@ -22,6 +22,7 @@ import com.facebook.buck.shell.WorkerShellStep;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
 
 import java.nio.file.Path;
 
@@ -59,7 +60,9 @@ public class ReactNativeBundleWorkerStep extends WorkerShellStep {
                     isDevMode ? "true" : "false",
                     outputFile.toString(),
                     resourcePath.toString(),
-                    sourceMapFile.toString()))),
+                    sourceMapFile.toString()),
+                /* maxWorkers */ 1,
+                ImmutableSortedSet.<Path>of())),
         Optional.<WorkerJobParams>absent(),
         Optional.<WorkerJobParams>absent());
   }
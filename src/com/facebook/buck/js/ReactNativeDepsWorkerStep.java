@@ -22,6 +22,7 @@ import com.facebook.buck.shell.WorkerShellStep;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
 
 import java.nio.file.Path;
 
@@ -50,7 +51,9 @@ public class ReactNativeDepsWorkerStep extends WorkerShellStep {
                     "--command dependencies --platform %s --entry-file %s --output %s",
                     platform.toString(),
                     entryFile.toString(),
-                    outputFile.toString()))),
+                    outputFile.toString()),
+                /* maxWorkers */ 1,
+                ImmutableSortedSet.<Path>of())),
         Optional.<WorkerJobParams>absent(),
         Optional.<WorkerJobParams>absent());
   }
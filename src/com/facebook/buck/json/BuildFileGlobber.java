@@ -0,0 +1,336 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.json;
+
+import com.facebook.buck.io.MorePaths;
+import com.facebook.buck.io.PathOrGlobMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * The {@code glob()} of {@code buck.py}, without watchman: patterns are matched one path
+ * component at a time the way {@code pathlib} does, {@code **} matches any number of directories,
+ * and excludes and ignored paths are matched against whole paths.
+ */
+class BuildFileGlobber {
+
+  private static final Splitter PATH_SPLITTER = Splitter.on('/').omitEmptyStrings();
+
+  private final Path projectRoot;
+  private final ImmutableList<ImmutableList<String>> ignorePathPatterns;
+  private final ConcurrentMap<String, Pattern> compiledPatterns;
+
+  BuildFileGlobber(Path projectRoot, Iterable<PathOrGlobMatcher> ignorePaths) {
+    this.projectRoot = projectRoot;
+    ImmutableList.Builder<ImmutableList<String>> ignorePathPatterns = ImmutableList.builder();
+    for (PathOrGlobMatcher ignorePath : ignorePaths) {
+      String pattern = MorePaths.pathWithUnixSeparators(ignorePath.getPathOrGlob());
+      // Absolute patterns never match the relative paths they're compared with.
+      if (!pattern.startsWith("/")) {
+        ignorePathPatterns.add(splitPattern(pattern));
+      }
+    }
+    this.ignorePathPatterns = ignorePathPatterns.build();
+    this.compiledPatterns = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * @return the paths, relative to {@code searchBase}, of the files matching any of
+   *     {@code includes} and none of {@code excludes}, sorted.
+   */
+  ImmutableSortedSet<String> glob(
+      Path searchBase,
+      List<String> includes,
+      List<String> excludes,
+      boolean includeDotfiles) throws IOException, UnsupportedBuildFileException {
+    Set<String> candidates = new HashSet<>();
+    for (String include : includes) {
+      select(searchBase, "", checkInclude(include), 0, candidates, new HashSet<Path>());
+    }
+
+    ImmutableList.Builder<ImmutableList<String>> excludePatternsBuilder = ImmutableList.builder();
+    for (String exclude : excludes) {
+      if (isSpecial(exclude)) {
+        if (exclude.startsWith("/")) {
+          continue;
+        }
+        ImmutableList<String> excludePattern = splitPattern(exclude);
+        if (excludePattern.isEmpty()) {
+          throw new UnsupportedBuildFileException("empty exclude pattern");
+        }
+        excludePatternsBuilder.add(excludePattern);
+      }
+    }
+    ImmutableList<ImmutableList<String>> excludePatterns = excludePatternsBuilder.build();
+
+    Path relativeSearchBase = projectRoot.relativize(searchBase);
+    ImmutableSortedSet.Builder<String> results = ImmutableSortedSet.naturalOrder();
+    for (String candidate : candidates) {
+      ImmutableList<String> parts = ImmutableList.copyOf(PATH_SPLITTER.split(candidate));
+      if (parts.isEmpty()) {
+        // Only the search base itself matched, and it isn't a file.
+        continue;
+      }
+      String fileName = parts.get(parts.size() - 1);
+      if ((!includeDotfiles && fileName.startsWith(".")) ||
+          !Files.isRegularFile(searchBase.resolve(candidate)) ||
+          excludes.contains(candidate) ||
+          matchesAny(parts, excludePatterns) ||
+          matchesAny(
+              splitPattern(
+                  MorePaths.pathWithUnixSeparators(relativeSearchBase.resolve(candidate))),
+              ignorePathPatterns)) {
+        continue;
+      }
+      results.add(candidate);
+    }
+    return results.build();
+  }
+
+  /**
+   * @return the components of {@code include}.
+   * @throws UnsupportedBuildFileException if {@code include} isn't a pattern both globbers agree
+   *     on, like patterns that are absolute or leave the package.
+   */
+  static ImmutableList<String> checkInclude(String include)
+      throws UnsupportedBuildFileException {
+    if (include.startsWith("/")) {
+      throw new UnsupportedBuildFileException("absolute glob pattern %s", include);
+    }
+    ImmutableList<String> parts = splitPattern(include);
+    if (parts.contains("..")) {
+      throw new UnsupportedBuildFileException("glob pattern %s leaves the package", include);
+    }
+    if (parts.isEmpty()) {
+      throw new UnsupportedBuildFileException("empty glob pattern");
+    }
+    for (String part : parts) {
+      if (part.contains("**") && !part.equals("**")) {
+        throw new UnsupportedBuildFileException("invalid glob pattern %s", include);
+      }
+    }
+    return parts;
+  }
+
+  private void select(
+      Path path,
+      String relativePath,
+      ImmutableList<String> parts,
+      int index,
+      Set<String> results,
+      Set<Path> visitedDirectories) throws IOException, UnsupportedBuildFileException {
+    if (index == parts.size()) {
+      results.add(relativePath);
+      return;
+    }
+    String part = parts.get(index);
+    if (part.equals("**")) {
+      selectRecursively(path, relativePath, parts, index, results, visitedDirectories);
+    } else if (isSpecial(part)) {
+      if (!Files.isDirectory(path)) {
+        return;
+      }
+      Pattern pattern = compile(part);
+      try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+        for (Path child : children) {
+          String name = child.getFileName().toString();
+          if (pattern.matcher(name).matches()) {
+            select(
+                child,
+                join(relativePath, name),
+                parts,
+                index + 1,
+                results,
+                visitedDirectories);
+          }
+        }
+      }
+    } else {
+      Path child = path.resolve(part);
+      if (Files.exists(child)) {
+        select(child, join(relativePath, part), parts, index + 1, results, visitedDirectories);
+      }
+    }
+  }
+
+  private void selectRecursively(
+      Path directory,
+      String relativePath,
+      ImmutableList<String> parts,
+      int index,
+      Set<String> results,
+      Set<Path> visitedDirectories) throws IOException, UnsupportedBuildFileException {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    Path realPath = directory.toRealPath();
+    if (!visitedDirectories.add(realPath)) {
+      throw new UnsupportedBuildFileException("symlink loop at %s", directory);
+    }
+    select(directory, relativePath, parts, index + 1, results, visitedDirectories);
+    try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+      for (Path child : children) {
+        if (Files.isDirectory(child)) {
+          selectRecursively(
+              child,
+              join(relativePath, child.getFileName().toString()),
+              parts,
+              index,
+              results,
+              visitedDirectories);
+        }
+      }
+    }
+    visitedDirectories.remove(realPath);
+  }
+
+  private boolean matchesAny(
+      ImmutableList<String> parts,
+      ImmutableList<ImmutableList<String>> patterns) {
+    for (ImmutableList<String> pattern : patterns) {
+      if (matchesEntirely(parts, parts.size(), pattern, pattern.size())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether the first {@code partsCount} components of a path match the first
+   * {@code patternCount} components of a pattern, matching from the end like
+   * {@code pathlib.PurePath.match(pattern, match_entire=True)}.
+   */
+  private boolean matchesEntirely(
+      List<String> parts,
+      int partsCount,
+      List<String> pattern,
+      int patternCount) {
+    int partsMatched = 0;
+    int patternMatched = 0;
+    while (partsMatched < partsCount && patternMatched < patternCount) {
+      String patternPart = pattern.get(patternCount - patternMatched - 1);
+      if (patternPart.equals("**")) {
+        // ** can match nothing, or consume any number of components.
+        if (matchesEntirely(
+            parts,
+            partsCount - partsMatched,
+            pattern,
+            patternCount - patternMatched - 1)) {
+          return true;
+        }
+        partsMatched++;
+      } else if (compile(patternPart).matcher(parts.get(partsCount - partsMatched - 1))
+          .matches()) {
+        partsMatched++;
+        patternMatched++;
+      } else {
+        return false;
+      }
+    }
+    while (patternMatched < patternCount &&
+        pattern.get(patternCount - patternMatched - 1).equals("**")) {
+      patternMatched++;
+    }
+    return patternMatched == patternCount && partsMatched == partsCount;
+  }
+
+  private Pattern compile(String fnmatchPattern) {
+    Pattern pattern = compiledPatterns.get(fnmatchPattern);
+    if (pattern == null) {
+      pattern = Pattern.compile(translate(fnmatchPattern), Pattern.DOTALL);
+      compiledPatterns.putIfAbsent(fnmatchPattern, pattern);
+    }
+    return pattern;
+  }
+
+  /**
+   * Translates a shell pattern to a regular expression, like Python's {@code fnmatch.translate}.
+   */
+  private static String translate(String pattern) {
+    StringBuilder regex = new StringBuilder();
+    int i = 0;
+    int n = pattern.length();
+    while (i < n) {
+      char c = pattern.charAt(i++);
+      if (c == '*') {
+        regex.append(".*");
+      } else if (c == '?') {
+        regex.append('.');
+      } else if (c == '[') {
+        int j = i;
+        if (j < n && pattern.charAt(j) == '!') {
+          j++;
+        }
+        if (j < n && pattern.charAt(j) == ']') {
+          j++;
+        }
+        while (j < n && pattern.charAt(j) != ']') {
+          j++;
+        }
+        if (j >= n) {
+          regex.append("\\[");
+        } else {
+          String set = pattern.substring(i, j)
+              .replace("\\", "\\\\")
+              .replace("[", "\\[")
+              .replace("&", "\\&");
+          i = j + 1;
+          if (set.startsWith("!")) {
+            set = "^" + set.substring(1);
+          } else if (set.startsWith("^")) {
+            set = "\\" + set;
+          }
+          regex.append('[').append(set).append(']');
+        }
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return regex.toString();
+  }
+
+  private static ImmutableList<String> splitPattern(String pattern) {
+    ImmutableList.Builder<String> parts = ImmutableList.builder();
+    for (String part : PATH_SPLITTER.split(pattern)) {
+      if (!part.equals(".")) {
+        parts.add(part);
+      }
+    }
+    return parts.build();
+  }
+
+  private static boolean isSpecial(String pattern) {
+    return pattern.contains("*") || pattern.contains("?") || pattern.contains("[");
+  }
+
+  private static String join(String relativePath, String name) {
+    return relativePath.isEmpty() ? name : relativePath + "/" + name;
+  }
+}
@@ -0,0 +1,770 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.json;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.MorePaths;
+import com.facebook.buck.json.RestrictedBuildFileParser.Assignment;
+import com.facebook.buck.json.RestrictedBuildFileParser.Call;
+import com.facebook.buck.json.RestrictedBuildFileParser.DictLiteral;
+import com.facebook.buck.json.RestrictedBuildFileParser.Expression;
+import com.facebook.buck.json.RestrictedBuildFileParser.ExpressionStatement;
+import com.facebook.buck.json.RestrictedBuildFileParser.ListLiteral;
+import com.facebook.buck.json.RestrictedBuildFileParser.Literal;
+import com.facebook.buck.json.RestrictedBuildFileParser.Name;
+import com.facebook.buck.json.RestrictedBuildFileParser.Statement;
+import com.facebook.buck.json.RestrictedBuildFileParser.Sum;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.BuckPyFunction;
+import com.facebook.buck.rules.ConstructorArgMarshaller;
+import com.facebook.buck.rules.Description;
+import com.facebook.buck.rules.ParamInfo;
+import com.facebook.buck.rules.TargetName;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Evaluates build files written in a restricted, deterministic subset of the build file language
+ * without starting {@code buck.py}, producing the same raw nodes and meta rules it would.
+ * <p>
+ * The supported files, and their includes, consist of assignments and calls to rule functions,
+ * {@code glob}, {@code subdir_glob}, {@code include_defs}, {@code read_config},
+ * {@code add_build_file_dep} and {@code get_base_path}; see {@link RestrictedBuildFileParser} for
+ * the expressions allowed. Build files that use anything else, have a {@code .autodeps} file, or
+ * would fail to evaluate are left to {@code buck.py}, which is also where their errors get
+ * reported.
+ * <p>
+ * Instances are thread-safe, so, unlike {@link ProjectBuildFileParser}, a single one can parse
+ * any number of build files at once.
+ */
+public class InJvmBuildFileEvaluator {
+
+  private static final Logger LOG = Logger.get(InJvmBuildFileEvaluator.class);
+
+  private static final String INCLUDES_META_RULE = "__includes";
+  private static final String CONFIGS_META_RULE = "__configs";
+
+  private final ProjectBuildFileParserOptions options;
+  private final BuckEventBus buckEventBus;
+  private final boolean ignoreBuckAutodepsFiles;
+  private final ImmutableMap<String, RuleFunction> ruleFunctions;
+  private final BuildFileGlobber globber;
+  private final Optional<WatchmanBuildFileGlobber> watchmanGlobber;
+  private final ConcurrentMap<String, Environment> includeCache;
+
+  public InJvmBuildFileEvaluator(
+      ProjectBuildFileParserOptions options,
+      ConstructorArgMarshaller marshaller,
+      BuckEventBus buckEventBus,
+      boolean ignoreBuckAutodepsFiles) {
+    this.options = options;
+    this.buckEventBus = buckEventBus;
+    this.ignoreBuckAutodepsFiles = ignoreBuckAutodepsFiles;
+    this.globber = new BuildFileGlobber(options.getProjectRoot(), options.getIgnorePaths());
+    this.watchmanGlobber = WatchmanBuildFileGlobber.of(options);
+    this.includeCache = new ConcurrentHashMap<>();
+
+    BuckPyFunction function = new BuckPyFunction(marshaller);
+    ImmutableMap.Builder<String, RuleFunction> ruleFunctions = ImmutableMap.builder();
+    for (Description<?> description : options.getDescriptions()) {
+      Object dto = description.createUnpopulatedConstructorArg();
+      @Nullable TargetName defaultName = dto.getClass().getAnnotation(TargetName.class);
+      ruleFunctions.put(
+          description.getBuildRuleType().getName(),
+          new RuleFunction(
+              description.getBuildRuleType().getName(),
+              defaultName == null ?
+                  Optional.<String>absent() :
+                  Optional.of(defaultName.name()),
+              function.getParameters(dto)));
+    }
+    this.ruleFunctions = ruleFunctions.build();
+  }
+
+  /**
+   * Collect all rules from a particular build file, along with meta rules about the rules, like
+   * {@link ProjectBuildFileParser#getAllRulesAndMetaRules(Path)} does.
+   *
+   * @param buildFile should be an absolute path to a build file. Must have rootPath as its prefix.
+   * @return the rules and meta rules, or absent if the build file has to be parsed by
+   *     {@code buck.py}.
+   */
+  public Optional<ImmutableList<Map<String, Object>>> getAllRulesAndMetaRules(Path buildFile) {
+    // The parse events are only posted for build files evaluated here, as the parser that build
+    // files left to buck.py go to posts its own.
+    ParseBuckFileEvent.Started startTime = ParseBuckFileEvent.started(buildFile);
+    buckEventBus.timestamp(startTime);
+
+    ImmutableList<Map<String, Object>> values;
+    try {
+      values = evaluateBuildFile(buildFile);
+    } catch (UnsupportedBuildFileException e) {
+      LOG.debug("Leaving %s to buck.py: %s", buildFile, e.getMessage());
+      return Optional.absent();
+    } catch (IOException e) {
+      LOG.debug(e, "Leaving %s to buck.py", buildFile);
+      return Optional.absent();
+    }
+    LOG.verbose("Got rules: %s", values);
+    LOG.debug("Evaluated %d rules from %s", values.size(), buildFile);
+
+    ParseBuckFileEvent.Started parseBuckFileStarted = ParseBuckFileEvent.started(buildFile);
+    buckEventBus.post(parseBuckFileStarted, startTime);
+    buckEventBus.post(ParseBuckFileEvent.finished(parseBuckFileStarted, values, ""));
+    return Optional.of(values);
+  }
+
+  private ImmutableList<Map<String, Object>> evaluateBuildFile(Path buildFile)
+      throws IOException, UnsupportedBuildFileException {
+    Path directory = buildFile.getParent();
+    if (!ignoreBuckAutodepsFiles &&
+        Files.exists(directory.resolve(options.getBuildFileName() + ".autodeps"))) {
+      throw new UnsupportedBuildFileException("build file has a .autodeps file");
+    }
+
+    Environment environment = new Environment(
+        Optional.of(
+            MorePaths.pathWithUnixSeparators(options.getProjectRoot().relativize(directory))),
+        directory);
+    evaluateFile(environment, buildFile, options.getDefaultIncludes(), new HashSet<String>());
+
+    ImmutableList.Builder<Map<String, Object>> values = ImmutableList.builder();
+    values.addAll(environment.rules.values());
+    values.add(
+        ImmutableMap.<String, Object>of(
+            INCLUDES_META_RULE,
+            ImmutableList.builder()
+                .add(buildFile.toString())
+                .addAll(environment.includes)
+                .build()));
+    Map<String, Object> configs = new TreeMap<>();
+    for (Map.Entry<String, Map<String, String>> section : environment.usedConfigs.entrySet()) {
+      configs.put(section.getKey(), new TreeMap<>(section.getValue()));
+    }
+    values.add(ImmutableMap.<String, Object>of(CONFIGS_META_RULE, configs));
+    return values.build();
+  }
+
+  private void evaluateFile(
+      Environment environment,
+      Path path,
+      List<String> implicitIncludes,
+      Set<String> includeStack) throws IOException, UnsupportedBuildFileException {
+    ImmutableList<Statement> statements;
+    try {
+      statements = RestrictedBuildFileParser.parse(new String(Files.readAllBytes(path), UTF_8));
+    } catch (UnsupportedBuildFileException e) {
+      throw new UnsupportedBuildFileException("%s, %s", path, e.getMessage());
+    }
+
+    for (String include : implicitIncludes) {
+      String includePath = getIncludePath(include);
+      Environment included =
+          evaluateInclude(includePath, ImmutableList.<String>of(), includeStack);
+      mergeGlobals(included, environment);
+      environment.includes.add(includePath);
+      environment.includes.addAll(included.includes);
+    }
+
+    for (Statement statement : statements) {
+      if (statement instanceof Assignment) {
+        Assignment assignment = (Assignment) statement;
+        environment.globals.put(
+            assignment.name,
+            evaluate(environment, assignment.value, implicitIncludes, includeStack));
+      } else {
+        evaluate(
+            environment,
+            ((ExpressionStatement) statement).expression,
+            implicitIncludes,
+            includeStack);
+      }
+    }
+  }
+
+  private Environment evaluateInclude(
+      String includePath,
+      List<String> implicitIncludes,
+      Set<String> includeStack) throws IOException, UnsupportedBuildFileException {
+    Environment included = includeCache.get(includePath);
+    if (included != null) {
+      return included;
+    }
+    if (!includeStack.add(includePath)) {
+      throw new UnsupportedBuildFileException("%s includes itself", includePath);
+    }
+    included = new Environment(Optional.<String>absent(), null);
+    evaluateFile(
+        included,
+        options.getProjectRoot().getFileSystem().getPath(includePath),
+        implicitIncludes,
+        includeStack);
+    includeStack.remove(includePath);
+    includeCache.putIfAbsent(includePath, included);
+    return included;
+  }
+
+  @Nullable
+  private Object evaluate(
+      Environment environment,
+      Expression expression,
+      List<String> implicitIncludes,
+      Set<String> includeStack) throws IOException, UnsupportedBuildFileException {
+    if (expression instanceof Literal) {
+      return ((Literal) expression).value;
+    } else if (expression instanceof Name) {
+      String name = ((Name) expression).name;
+      if (!environment.globals.containsKey(name)) {
+        throw new UnsupportedBuildFileException(
+            "line %d: unsupported name %s",
+            expression.line,
+            name);
+      }
+      return environment.globals.get(name);
+    } else if (expression instanceof ListLiteral) {
+      ListLiteral list = (ListLiteral) expression;
+      List<Object> elements = new ArrayList<>();
+      for (Expression element : list.elements) {
+        elements.add(evaluate(environment, element, implicitIncludes, includeStack));
+      }
+      return list.isTuple ? new Tuple(elements) : elements;
+    } else if (expression instanceof DictLiteral) {
+      DictLiteral dict = (DictLiteral) expression;
+      Map<String, Object> entries = new LinkedHashMap<>();
+      for (int i = 0; i < dict.keys.size(); i++) {
+        Object key = evaluate(environment, dict.keys.get(i), implicitIncludes, includeStack);
+        if (!(key instanceof String)) {
+          throw new UnsupportedBuildFileException(
+              "line %d: unsupported dict key %s",
+              expression.line,
+              key);
+        }
+        entries.put(
+            (String) key,
+            evaluate(environment, dict.values.get(i), implicitIncludes, includeStack));
+      }
+      return entries;
+    } else if (expression instanceof Sum) {
+      Sum sum = (Sum) expression;
+      return add(
+          sum.line,
+          evaluate(environment, sum.left, implicitIncludes, includeStack),
+          evaluate(environment, sum.right, implicitIncludes, includeStack));
+    } else {
+      Call call = (Call) expression;
+      List<Object> args = new ArrayList<>();
+      for (Expression arg : call.args) {
+        args.add(evaluate(environment, arg, implicitIncludes, includeStack));
+      }
+      Map<String, Object> kwargs = new HashMap<>();
+      for (Map.Entry<String, Expression> kwarg : call.kwargs.entrySet()) {
+        kwargs.put(
+            kwarg.getKey(),
+            evaluate(environment, kwarg.getValue(), implicitIncludes, includeStack));
+      }
+      return call(environment, call, args, kwargs, implicitIncludes, includeStack);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object add(int line, @Nullable Object left, @Nullable Object right)
+      throws UnsupportedBuildFileException {
+    if (left instanceof String && right instanceof String) {
+      return (String) left + right;
+    } else if (left instanceof Long && right instanceof Long) {
+      return (Long) left + (Long) right;
+    } else if (left instanceof Tuple && right instanceof Tuple) {
+      return new Tuple(
+          ImmutableList.copyOf(Iterables.concat((Tuple) left, (Tuple) right)));
+    } else if (left instanceof List && right instanceof List &&
+        !(left instanceof Tuple) && !(right instanceof Tuple)) {
+      List<Object> sum = new ArrayList<>((List<Object>) left);
+      sum.addAll((List<Object>) right);
+      return sum;
+    }
+    throw new UnsupportedBuildFileException(
+        "line %d: unsupported operands for +: %s and %s",
+        line,
+        left,
+        right);
+  }
+
+  @Nullable
+  private Object call(
+      Environment environment,
+      Call call,
+      List<Object> args,
+      Map<String, Object> kwargs,
+      List<String> implicitIncludes,
+      Set<String> includeStack) throws IOException, UnsupportedBuildFileException {
+    if (environment.globals.containsKey(call.function)) {
+      throw new UnsupportedBuildFileException(
+          "line %d: %s is not a builtin function",
+          call.line,
+          call.function);
+    }
+    RuleFunction ruleFunction = ruleFunctions.get(call.function);
+    if (ruleFunction != null) {
+      addRule(environment, call, ruleFunction.apply(call, args, kwargs));
+      return null;
+    }
+
+    Map<String, Object> arguments;
+    switch (call.function) {
+      case "include_defs":
+        arguments = bind(call, ImmutableList.of("name"), 1, args, kwargs);
+        String includePath = getIncludePath(getString(call, arguments, "name"));
+        Environment included = evaluateInclude(includePath, implicitIncludes, includeStack);
+        mergeGlobals(included, environment);
+        environment.includes.add(includePath);
+        environment.includes.addAll(included.includes);
+        for (Map.Entry<String, Map<String, String>> section :
+            included.usedConfigs.entrySet()) {
+          environment.getUsedConfigs(section.getKey()).putAll(section.getValue());
+        }
+        return null;
+
+      case "add_build_file_dep":
+        arguments = bind(call, ImmutableList.of("name"), 1, args, kwargs);
+        environment.includes.add(getIncludePath(getString(call, arguments, "name")));
+        return null;
+
+      case "read_config":
+        arguments = bind(call, ImmutableList.of("section", "field", "default"), 2, args, kwargs);
+        String section = getString(call, arguments, "section");
+        String field = getString(call, arguments, "field");
+        ImmutableMap<String, String> sectionValues = options.getRawConfig().get(section);
+        String value = sectionValues == null ? null : sectionValues.get(field);
+        environment.getUsedConfigs(section).put(field, value);
+        return value == null ? arguments.get("default") : value;
+
+      case "get_base_path":
+        bind(call, ImmutableList.<String>of(), 0, args, kwargs);
+        return environment.getBasePath(call);
+
+      case "glob":
+        arguments = bind(
+            call,
+            ImmutableList.of("includes", "excludes", "include_dotfiles"),
+            1,
+            args,
+            kwargs);
+        return glob(
+            environment,
+            call,
+            getStrings(call, arguments, "includes"),
+            arguments.containsKey("excludes") ?
+                getStrings(call, arguments, "excludes") :
+                ImmutableList.<String>of(),
+            arguments.containsKey("include_dotfiles") &&
+                getBoolean(call, arguments, "include_dotfiles"));
+
+      case "subdir_glob":
+        arguments = bind(
+            call,
+            ImmutableList.of("glob_specs", "excludes", "prefix"),
+            1,
+            args,
+            kwargs);
+        return subdirGlob(
+            environment,
+            call,
+            arguments.get("glob_specs"),
+            arguments.containsKey("excludes") ?
+                getStrings(call, arguments, "excludes") :
+                ImmutableList.<String>of(),
+            arguments.get("prefix") == null ?
+                Optional.<String>absent() :
+                Optional.of(getString(call, arguments, "prefix")));
+
+      default:
+        throw new UnsupportedBuildFileException(
+            "line %d: unsupported function %s",
+            call.line,
+            call.function);
+    }
+  }
+
+  private List<Object> glob(
+      Environment environment,
+      Call call,
+      List<String> includes,
+      List<String> excludes,
+      boolean includeDotfiles) throws IOException, UnsupportedBuildFileException {
+    String basePath = environment.getBasePath(call);
+    if (includes.isEmpty()) {
+      return new ArrayList<>();
+    }
+    Optional<ImmutableSortedSet<String>> files = Optional.absent();
+    if (watchmanGlobber.isPresent()) {
+      files = watchmanGlobber.get().glob(basePath, includes, excludes, includeDotfiles);
+    }
+    if (!files.isPresent()) {
+      files = Optional.of(
+          globber.glob(environment.getDirectory(), includes, excludes, includeDotfiles));
+    }
+    List<Object> results = new ArrayList<Object>(files.get());
+    if (results.isEmpty() && !options.getAllowEmptyGlobs()) {
+      throw new UnsupportedBuildFileException(
+          "line %d: glob() returned no results",
+          call.line);
+    }
+    return results;
+  }
+
+  private Map<String, Object> subdirGlob(
+      Environment environment,
+      Call call,
+      @Nullable Object globSpecs,
+      List<String> excludes,
+      Optional<String> prefix) throws IOException, UnsupportedBuildFileException {
+    if (!(globSpecs instanceof List)) {
+      throw new UnsupportedBuildFileException(
+          "line %d: unsupported glob specs %s",
+          call.line,
+          globSpecs);
+    }
+    Map<String, Object> results = new LinkedHashMap<>();
+    for (Object globSpec : (List<?>) globSpecs) {
+      if (!(globSpec instanceof List) ||
+          ((List<?>) globSpec).size() != 2 ||
+          !(((List<?>) globSpec).get(0) instanceof String) ||
+          !(((List<?>) globSpec).get(1) instanceof String)) {
+        throw new UnsupportedBuildFileException(
+            "line %d: unsupported glob spec %s",
+            call.line,
+            globSpec);
+      }
+      String directory = (String) ((List<?>) globSpec).get(0);
+      String pattern = (String) ((List<?>) globSpec).get(1);
+      if (!directory.isEmpty()) {
+        pattern = directory.endsWith("/") ? directory + pattern : directory + "/" + pattern;
+      }
+      for (Object file :
+          glob(environment, call, ImmutableList.of(pattern), excludes, false)) {
+        String key = (String) file;
+        if (!directory.isEmpty()) {
+          key = key.substring(directory.length() + 1);
+        }
+        if (prefix.isPresent() && !prefix.get().isEmpty()) {
+          if (prefix.get().startsWith("/")) {
+            throw new UnsupportedBuildFileException("line %d: absolute prefix", call.line);
+          }
+          key = normalizeJoin(prefix.get(), key);
+        }
+        Object previous = results.put(key, file);
+        if (previous != null && !previous.equals(file)) {
+          throw new UnsupportedBuildFileException(
+              "line %d: conflicting header files for %s",
+              call.line,
+              key);
+        }
+      }
+    }
+    return results;
+  }
+
+  private static String normalizeJoin(String first, String second) {
+    List<String> parts = new ArrayList<>();
+    for (String part : (first + "/" + second).split("/")) {
+      if (!part.isEmpty() && !part.equals(".")) {
+        parts.add(part);
+      }
+    }
+    return Joiner.on('/').join(parts);
+  }
+
+  private void addRule(Environment environment, Call call, Map<String, Object> rule)
+      throws UnsupportedBuildFileException {
+    String basePath = environment.getBasePath(call);
+    Object name = rule.get("name");
+    if (!(name instanceof String)) {
+      throw new UnsupportedBuildFileException("line %d: rule name must be a string", call.line);
+    }
+    if (environment.rules.containsKey(name)) {
+      throw new UnsupportedBuildFileException(
+          "line %d: duplicate rule definition %s",
+          call.line,
+          name);
+    }
+    rule.put("buck.base_path", basePath);
+    environment.rules.put((String) name, rule);
+  }
+
+  private String getIncludePath(String name) throws UnsupportedBuildFileException {
+    if (!name.startsWith("//")) {
+      throw new UnsupportedBuildFileException("include %s must begin with //", name);
+    }
+    return options.getProjectRoot().resolve(name.substring(2)).toString();
+  }
+
+  private static void mergeGlobals(Environment from, Environment to) {
+    for (Map.Entry<String, Object> global : from.globals.entrySet()) {
+      if (!global.getKey().startsWith("_")) {
+        to.globals.put(global.getKey(), global.getValue());
+      }
+    }
+  }
+
+  /**
+   * Binds the arguments of a call to the parameters of a function the way Python does.
+   *
+   * @param mandatoryCount how many of the leading {@code parameters} have no default.
+   * @return the arguments that were passed, by parameter name.
+   */
+  private static Map<String, Object> bind(
+      Call call,
+      ImmutableList<String> parameters,
+      int mandatoryCount,
+      List<Object> args,
+      Map<String, Object> kwargs) throws UnsupportedBuildFileException {
+    if (args.size() > parameters.size()) {
+      throw new UnsupportedBuildFileException(
+          "line %d: too many arguments to %s",
+          call.line,
+          call.function);
+    }
+    Map<String, Object> arguments = new HashMap<>();
+    for (int i = 0; i < args.size(); i++) {
+      arguments.put(parameters.get(i), args.get(i));
+    }
+    for (Map.Entry<String, Object> kwarg : kwargs.entrySet()) {
+      if (!parameters.contains(kwarg.getKey()) || arguments.containsKey(kwarg.getKey())) {
+        throw new UnsupportedBuildFileException(
+            "line %d: unexpected argument %s to %s",
+            call.line,
+            kwarg.getKey(),
+            call.function);
+      }
+      arguments.put(kwarg.getKey(), kwarg.getValue());
+    }
+    for (String mandatory : parameters.subList(0, mandatoryCount)) {
+      if (!arguments.containsKey(mandatory)) {
+        throw new UnsupportedBuildFileException(
+            "line %d: missing argument %s to %s",
+            call.line,
+            mandatory,
+            call.function);
+      }
+    }
+    return arguments;
+  }
+
+  private static String getString(Call call, Map<String, Object> arguments, String name)
+      throws UnsupportedBuildFileException {
+    Object value = arguments.get(name);
+    if (!(value instanceof String)) {
+      throw new UnsupportedBuildFileException(
+          "line %d: %s must be a string",
+          call.line,
+          name);
+    }
+    return (String) value;
+  }
+
+  private static boolean getBoolean(Call call, Map<String, Object> arguments, String name)
+      throws UnsupportedBuildFileException {
+    Object value = arguments.get(name);
+    if (!(value instanceof Boolean)) {
+      throw new UnsupportedBuildFileException(
+          "line %d: %s must be a boolean",
+          call.line,
+          name);
+    }
+    return (Boolean) value;
+  }
+
+  private static List<String> getStrings(Call call, Map<String, Object> arguments, String name)
+      throws UnsupportedBuildFileException {
+    Object value = arguments.get(name);
+    if (value instanceof List) {
+      ImmutableList.Builder<String> strings = ImmutableList.builder();
+      for (Object element : (List<?>) value) {
+        if (!(element instanceof String)) {
+          break;
+        }
+        strings.add((String) element);
+      }
+      ImmutableList<String> result = strings.build();
+      if (result.size() == ((List<?>) value).size()) {
+        return result;
+      }
+    }
+    throw new UnsupportedBuildFileException(
+        "line %d: %s must be a list of strings",
+        call.line,
+        name);
+  }
+
+  /**
+   * Deep copies a value into the types {@code buck.py} results are deserialized to.
+   */
+  @Nullable
+  private static Object toRawValue(@Nullable Object value) {
+    if (value instanceof List) {
+      List<Object> list = new ArrayList<>();
+      for (Object element : (List<?>) value) {
+        list.add(toRawValue(element));
+      }
+      return list;
+    } else if (value instanceof Map) {
+      Map<String, Object> map = new TreeMap<>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        map.put((String) entry.getKey(), toRawValue(entry.getValue()));
+      }
+      return map;
+    }
+    return value;
+  }
+
+  /**
+   * A rule function, as generated into {@code buck.py} by {@link BuckPyFunction}.
+   */
+  private static class RuleFunction {
+    private final String type;
+    private final Optional<String> defaultName;
+    private final ImmutableList<ParamInfo> params;
+    private final ImmutableList<String> parameterNames;
+    private final int mandatoryCount;
+
+    private RuleFunction(
+        String type,
+        Optional<String> defaultName,
+        ImmutableList<ParamInfo> params) {
+      this.type = type;
+      this.defaultName = defaultName;
+      this.params = params;
+
+      ImmutableList.Builder<String> parameterNames = ImmutableList.builder();
+      int mandatoryCount = 0;
+      if (!defaultName.isPresent()) {
+        parameterNames.add("name");
+        mandatoryCount++;
+      }
+      for (ParamInfo param : params) {
+        parameterNames.add(param.getPythonName());
+        if (!param.isOptional()) {
+          mandatoryCount++;
+        }
+      }
+      parameterNames.add("visibility");
+      this.parameterNames = parameterNames.build();
+      this.mandatoryCount = mandatoryCount;
+    }
+
+    private Map<String, Object> apply(
+        Call call,
+        List<Object> args,
+        Map<String, Object> kwargs) throws UnsupportedBuildFileException {
+      Map<String, Object> arguments = bind(call, parameterNames, mandatoryCount, args, kwargs);
+      Map<String, Object> rule = new TreeMap<>();
+      rule.put(BuckPyFunction.TYPE_PROPERTY_NAME, type);
+      rule.put("name", defaultName.isPresent() ? defaultName.get() : arguments.get("name"));
+      for (ParamInfo param : params) {
+        rule.put(
+            param.getName(),
+            arguments.containsKey(param.getPythonName()) ?
+                toRawValue(arguments.get(param.getPythonName())) :
+                BuckPyFunction.getDefaultValue(param));
+      }
+      rule.put(
+          "visibility",
+          arguments.containsKey("visibility") ?
+              toRawValue(arguments.get("visibility")) :
+              new ArrayList<>());
+      return rule;
+    }
+  }
+
+  /**
+   * A Python tuple, which can't be concatenated with a list.
+   */
+  @SuppressWarnings("serial")
+  private static class Tuple extends ArrayList<Object> {
+    private Tuple(List<Object> elements) {
+      super(elements);
+    }
+  }
+
+  /**
+   * What evaluating a build file or an include has defined and used so far.
+   */
+  private static class Environment {
+    /** Only present for build files. */
+    private final Optional<String> basePath;
+    @Nullable
+    private final Path directory;
+    private final Map<String, Object> globals = new HashMap<>();
+    private final SortedSet<String> includes = new TreeSet<>();
+    private final Map<String, Map<String, String>> usedConfigs = new HashMap<>();
+    private final Map<String, Map<String, Object>> rules = new LinkedHashMap<>();
+
+    private Environment(Optional<String> basePath, @Nullable Path directory) {
+      this.basePath = basePath;
+      this.directory = directory;
+    }
+
+    private String getBasePath(Call call) throws UnsupportedBuildFileException {
+      if (!basePath.isPresent()) {
+        throw new UnsupportedBuildFileException(
+            "line %d: %s() called at the top-level of an included file",
+            call.line,
+            call.function);
+      }
+      return basePath.get();
+    }
+
+    private Path getDirectory() {
+      return Preconditions.checkNotNull(directory);
+    }
+
+    private Map<String, String> getUsedConfigs(String section) {
+      Map<String, String> sectionConfigs = usedConfigs.get(section);
+      if (sectionConfigs == null) {
+        sectionConfigs = new HashMap<>();
+        usedConfigs.put(section, sectionConfigs);
+      }
+      return sectionConfigs;
+    }
+  }
+}
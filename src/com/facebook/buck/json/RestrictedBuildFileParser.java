@@ -0,0 +1,575 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.json;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Parses the subset of Python that {@link InJvmBuildFileEvaluator} can evaluate: top-level
+ * assignments to plain names and expression statements, where expressions are made of string,
+ * integer, boolean and {@code None} literals, lists, tuples, dicts, names, {@code +} and calls of
+ * named functions.
+ * <p>
+ * Anything else, including every compound statement, makes the parser throw
+ * {@link UnsupportedBuildFileException}, as do syntax errors, which are left to {@code buck.py}
+ * to report.
+ */
+class RestrictedBuildFileParser {
+
+  private static final ImmutableSet<String> KEYWORDS = ImmutableSet.of(
+      "and", "as", "assert", "break", "class", "continue", "def", "del", "elif", "else", "except",
+      "exec", "finally", "for", "from", "global", "if", "import", "in", "is", "lambda", "not", "or",
+      "pass", "print", "raise", "return", "try", "while", "with", "yield");
+
+  private static final ImmutableMap<String, Boolean> BOOLEANS =
+      ImmutableMap.of("True", true, "False", false);
+
+  private final String source;
+  private final List<Token> tokens;
+  private int position;
+
+  private RestrictedBuildFileParser(String source) {
+    this.source = source;
+    this.tokens = new ArrayList<>();
+    this.position = 0;
+  }
+
+  /**
+   * @return the statements of {@code source}, in order.
+   */
+  static ImmutableList<Statement> parse(String source) throws UnsupportedBuildFileException {
+    RestrictedBuildFileParser parser = new RestrictedBuildFileParser(source);
+    parser.tokenize();
+    return parser.parseStatements();
+  }
+
+  private ImmutableList<Statement> parseStatements() throws UnsupportedBuildFileException {
+    ImmutableList.Builder<Statement> statements = ImmutableList.builder();
+    while (peek().kind != TokenKind.END) {
+      if (peek().kind == TokenKind.NEWLINE) {
+        position++;
+        continue;
+      }
+      statements.add(parseStatement());
+      expect(TokenKind.NEWLINE, null);
+    }
+    return statements.build();
+  }
+
+  private Statement parseStatement() throws UnsupportedBuildFileException {
+    Token first = peek();
+    if (first.kind == TokenKind.NAME && isOperator(peek(1), "=")) {
+      position += 2;
+      return new Assignment(first.line, (String) first.value, parseExpression());
+    }
+    return new ExpressionStatement(first.line, parseExpression());
+  }
+
+  private Expression parseExpression() throws UnsupportedBuildFileException {
+    Expression expression = parsePrimary();
+    while (isOperator(peek(), "+")) {
+      Token plus = next();
+      expression = new Sum(plus.line, expression, parsePrimary());
+    }
+    return expression;
+  }
+
+  private Expression parsePrimary() throws UnsupportedBuildFileException {
+    Token token = next();
+    switch (token.kind) {
+      case STRING:
+        StringBuilder value = new StringBuilder((String) token.value);
+        // Adjacent string literals are concatenated.
+        while (peek().kind == TokenKind.STRING) {
+          value.append((String) next().value);
+        }
+        return new Literal(token.line, value.toString());
+      case NUMBER:
+        return new Literal(token.line, token.value);
+      case NAME:
+        String name = (String) token.value;
+        if (isOperator(peek(), "(")) {
+          position++;
+          return parseCall(token.line, name);
+        }
+        if (name.equals("None")) {
+          return new Literal(token.line, null);
+        }
+        if (BOOLEANS.containsKey(name)) {
+          return new Literal(token.line, BOOLEANS.get(name));
+        }
+        return new Name(token.line, name);
+      case OPERATOR:
+        switch ((String) token.value) {
+          case "-":
+            Token number = expect(TokenKind.NUMBER, null);
+            return new Literal(number.line, -(Long) number.value);
+          case "[":
+            return new ListLiteral(token.line, parseSequence("]"), /* isTuple */ false);
+          case "(":
+            if (isOperator(peek(), ")")) {
+              position++;
+              return new ListLiteral(token.line, ImmutableList.<Expression>of(), true);
+            }
+            Expression first = parseExpression();
+            if (isOperator(peek(), ")")) {
+              // Just a parenthesized expression.
+              position++;
+              return first;
+            }
+            expect(TokenKind.OPERATOR, ",");
+            ImmutableList<Expression> rest = parseSequence(")");
+            return new ListLiteral(
+                token.line,
+                ImmutableList.<Expression>builder().add(first).addAll(rest).build(),
+                true);
+          case "{":
+            return parseDict(token.line);
+        }
+        break;
+      case NEWLINE:
+      case END:
+        break;
+    }
+    throw unexpected(token);
+  }
+
+  private ImmutableList<Expression> parseSequence(String closer)
+      throws UnsupportedBuildFileException {
+    ImmutableList.Builder<Expression> elements = ImmutableList.builder();
+    while (!isOperator(peek(), closer)) {
+      elements.add(parseExpression());
+      if (!isOperator(peek(), closer)) {
+        expect(TokenKind.OPERATOR, ",");
+      }
+    }
+    position++;
+    return elements.build();
+  }
+
+  private Expression parseDict(int line) throws UnsupportedBuildFileException {
+    ImmutableList.Builder<Expression> keys = ImmutableList.builder();
+    ImmutableList.Builder<Expression> values = ImmutableList.builder();
+    while (!isOperator(peek(), "}")) {
+      keys.add(parseExpression());
+      expect(TokenKind.OPERATOR, ":");
+      values.add(parseExpression());
+      if (!isOperator(peek(), "}")) {
+        expect(TokenKind.OPERATOR, ",");
+      }
+    }
+    position++;
+    return new DictLiteral(line, keys.build(), values.build());
+  }
+
+  private Expression parseCall(int line, String function) throws UnsupportedBuildFileException {
+    ImmutableList.Builder<Expression> args = ImmutableList.builder();
+    Map<String, Expression> kwargs = new LinkedHashMap<>();
+    while (!isOperator(peek(), ")")) {
+      if (peek().kind == TokenKind.NAME && isOperator(peek(1), "=")) {
+        String keyword = (String) next().value;
+        position++;
+        if (kwargs.put(keyword, parseExpression()) != null) {
+          throw new UnsupportedBuildFileException(
+              "line %d: keyword argument %s repeated", line, keyword);
+        }
+      } else if (kwargs.isEmpty()) {
+        args.add(parseExpression());
+      } else {
+        throw new UnsupportedBuildFileException(
+            "line %d: positional argument follows keyword argument", line);
+      }
+      if (!isOperator(peek(), ")")) {
+        expect(TokenKind.OPERATOR, ",");
+      }
+    }
+    position++;
+    return new Call(line, function, args.build(), ImmutableMap.copyOf(kwargs));
+  }
+
+  private Token peek() {
+    return peek(0);
+  }
+
+  private Token peek(int offset) {
+    return tokens.get(Math.min(position + offset, tokens.size() - 1));
+  }
+
+  private Token next() {
+    Token token = peek();
+    if (token.kind != TokenKind.END) {
+      position++;
+    }
+    return token;
+  }
+
+  private Token expect(TokenKind kind, @Nullable String operator)
+      throws UnsupportedBuildFileException {
+    Token token = next();
+    if (token.kind != kind || (operator != null && !operator.equals(token.value))) {
+      throw unexpected(token);
+    }
+    return token;
+  }
+
+  private static boolean isOperator(Token token, String operator) {
+    return token.kind == TokenKind.OPERATOR && operator.equals(token.value);
+  }
+
+  private static UnsupportedBuildFileException unexpected(Token token) {
+    return new UnsupportedBuildFileException(
+        "line %d: unexpected %s",
+        token.line,
+        token.value == null ? token.kind : token.value);
+  }
+
+  private void tokenize() throws UnsupportedBuildFileException {
+    int line = 1;
+    int depth = 0;
+    boolean atLineStart = true;
+    int i = 0;
+    while (i < source.length()) {
+      char c = source.charAt(i);
+      if (atLineStart && depth == 0) {
+        // Only unindented statements are supported, but blank and comment lines can be anything.
+        int end = i;
+        while (end < source.length() && (source.charAt(end) == ' ' || source.charAt(end) == '\t')) {
+          end++;
+        }
+        boolean blank = end == source.length() ||
+            source.charAt(end) == '\n' ||
+            source.charAt(end) == '\r' ||
+            source.charAt(end) == '#';
+        if (end > i && !blank) {
+          throw new UnsupportedBuildFileException("line %d: unexpected indentation", line);
+        }
+        atLineStart = false;
+        i = end;
+        continue;
+      }
+      if (c == '\n') {
+        if (depth == 0) {
+          addNewline(line);
+          atLineStart = true;
+        }
+        line++;
+        i++;
+      } else if (c == ' ' || c == '\t' || c == '\r' || c == '\f') {
+        i++;
+      } else if (c == '#') {
+        while (i < source.length() && source.charAt(i) != '\n') {
+          i++;
+        }
+      } else if (c == '\\' && i + 1 < source.length() && source.charAt(i + 1) == '\n') {
+        line++;
+        i += 2;
+      } else if (c == '"' || c == '\'') {
+        i = readString(i, i, line);
+        line += countNewlines(source, tokens.get(tokens.size() - 1).start, i);
+      } else if (Character.isDigit(c)) {
+        int end = i;
+        while (end < source.length() && Character.isLetterOrDigit(source.charAt(end))) {
+          end++;
+        }
+        String digits = source.substring(i, end);
+        if ((digits.length() > 1 && digits.startsWith("0")) || !digits.matches("[0-9]+") ||
+            (end < source.length() && source.charAt(end) == '.')) {
+          throw new UnsupportedBuildFileException("line %d: unsupported number %s", line, digits);
+        }
+        try {
+          tokens.add(new Token(TokenKind.NUMBER, Long.parseLong(digits), line, i));
+        } catch (NumberFormatException e) {
+          throw new UnsupportedBuildFileException("line %d: number too large", line);
+        }
+        i = end;
+      } else if (Character.isLetter(c) || c == '_') {
+        int end = i;
+        while (end < source.length() &&
+            (Character.isLetterOrDigit(source.charAt(end)) || source.charAt(end) == '_')) {
+          end++;
+        }
+        String name = source.substring(i, end);
+        if (end < source.length() &&
+            (source.charAt(end) == '"' || source.charAt(end) == '\'') &&
+            isStringPrefix(name)) {
+          i = readString(i, end, line);
+          line += countNewlines(source, end, i);
+          continue;
+        }
+        if (KEYWORDS.contains(name)) {
+          throw new UnsupportedBuildFileException("line %d: unsupported statement %s", line, name);
+        }
+        tokens.add(new Token(TokenKind.NAME, name, line, i));
+        i = end;
+      } else if ("()[]{},:=+-".indexOf(c) >= 0) {
+        if (c == '=' && i + 1 < source.length() && source.charAt(i + 1) == '=') {
+          throw new UnsupportedBuildFileException("line %d: unsupported operator ==", line);
+        }
+        if ("([{".indexOf(c) >= 0) {
+          depth++;
+        } else if (")]}".indexOf(c) >= 0) {
+          depth = Math.max(0, depth - 1);
+        }
+        tokens.add(new Token(TokenKind.OPERATOR, String.valueOf(c), line, i));
+        i++;
+      } else {
+        throw new UnsupportedBuildFileException("line %d: unsupported character '%s'", line, c);
+      }
+    }
+    addNewline(line);
+    tokens.add(new Token(TokenKind.END, null, line, source.length()));
+  }
+
+  private void addNewline(int line) {
+    if (!tokens.isEmpty() && tokens.get(tokens.size() - 1).kind != TokenKind.NEWLINE) {
+      tokens.add(new Token(TokenKind.NEWLINE, null, line, -1));
+    }
+  }
+
+  private static boolean isStringPrefix(String name) {
+    String prefix = name.toLowerCase();
+    return prefix.equals("r") || prefix.equals("u") || prefix.equals("ur");
+  }
+
+  /**
+   * Reads the string literal starting at {@code start}, whose opening quote is at {@code quote}.
+   *
+   * @return the index just past the literal.
+   */
+  private int readString(int start, int quote, int line) throws UnsupportedBuildFileException {
+    boolean raw = source.substring(start, quote).toLowerCase().contains("r");
+    char quoteChar = source.charAt(quote);
+    String delimiter = source.startsWith(
+        new String(new char[] {quoteChar, quoteChar, quoteChar}),
+        quote) ? source.substring(quote, quote + 3) : String.valueOf(quoteChar);
+    boolean triple = delimiter.length() == 3;
+    StringBuilder value = new StringBuilder();
+    int i = quote + delimiter.length();
+    while (true) {
+      if (i >= source.length()) {
+        throw new UnsupportedBuildFileException("line %d: unterminated string", line);
+      }
+      if (source.startsWith(delimiter, i)) {
+        tokens.add(new Token(TokenKind.STRING, value.toString(), line, quote));
+        return i + delimiter.length();
+      }
+      char c = source.charAt(i);
+      if (c == '\n' && !triple) {
+        throw new UnsupportedBuildFileException("line %d: unterminated string", line);
+      }
+      if (c != '\\') {
+        value.append(c);
+        i++;
+        continue;
+      }
+      if (i + 1 >= source.length()) {
+        throw new UnsupportedBuildFileException("line %d: unterminated string", line);
+      }
+      char escaped = source.charAt(i + 1);
+      if (raw) {
+        // Raw strings keep the backslash, but it still stops the next quote from ending them.
+        value.append(c).append(escaped);
+      } else {
+        switch (escaped) {
+          case '\n':
+            break;
+          case '\\':
+          case '\'':
+          case '"':
+            value.append(escaped);
+            break;
+          case 'n':
+            value.append('\n');
+            break;
+          case 't':
+            value.append('\t');
+            break;
+          case 'r':
+            value.append('\r');
+            break;
+          default:
+            throw new UnsupportedBuildFileException(
+                "line %d: unsupported escape sequence \\%s",
+                line,
+                escaped);
+        }
+      }
+      i += 2;
+    }
+  }
+
+  private static int countNewlines(String source, int start, int end) {
+    int newlines = 0;
+    for (int i = start; i < end; i++) {
+      if (source.charAt(i) == '\n') {
+        newlines++;
+      }
+    }
+    return newlines;
+  }
+
+  private enum TokenKind {
+    NAME,
+    STRING,
+    NUMBER,
+    OPERATOR,
+    NEWLINE,
+    END,
+  }
+
+  private static class Token {
+    private final TokenKind kind;
+    @Nullable
+    private final Object value;
+    private final int line;
+    private final int start;
+
+    private Token(TokenKind kind, @Nullable Object value, int line, int start) {
+      this.kind = kind;
+      this.value = value;
+      this.line = line;
+      this.start = start;
+    }
+  }
+
+  abstract static class Statement {
+    final int line;
+
+    private Statement(int line) {
+      this.line = line;
+    }
+  }
+
+  /**
+   * {@code name = value}
+   */
+  static class Assignment extends Statement {
+    final String name;
+    final Expression value;
+
+    private Assignment(int line, String name, Expression value) {
+      super(line);
+      this.name = name;
+      this.value = value;
+    }
+  }
+
+  static class ExpressionStatement extends Statement {
+    final Expression expression;
+
+    private ExpressionStatement(int line, Expression expression) {
+      super(line);
+      this.expression = expression;
+    }
+  }
+
+  abstract static class Expression {
+    final int line;
+
+    private Expression(int line) {
+      this.line = line;
+    }
+  }
+
+  /**
+   * A string, integer ({@link Long}), boolean, or {@code None} ({@code null}) literal.
+   */
+  static class Literal extends Expression {
+    @Nullable
+    final Object value;
+
+    private Literal(int line, @Nullable Object value) {
+      super(line);
+      this.value = value;
+    }
+  }
+
+  static class Name extends Expression {
+    final String name;
+
+    private Name(int line, String name) {
+      super(line);
+      this.name = name;
+    }
+  }
+
+  static class ListLiteral extends Expression {
+    final ImmutableList<Expression> elements;
+    final boolean isTuple;
+
+    private ListLiteral(int line, ImmutableList<Expression> elements, boolean isTuple) {
+      super(line);
+      this.elements = elements;
+      this.isTuple = isTuple;
+    }
+  }
+
+  static class DictLiteral extends Expression {
+    final ImmutableList<Expression> keys;
+    final ImmutableList<Expression> values;
+
+    private DictLiteral(
+        int line,
+        ImmutableList<Expression> keys,
+        ImmutableList<Expression> values) {
+      super(line);
+      this.keys = keys;
+      this.values = values;
+    }
+  }
+
+  /**
+   * {@code left + right}
+   */
+  static class Sum extends Expression {
+    final Expression left;
+    final Expression right;
+
+    private Sum(int line, Expression left, Expression right) {
+      super(line);
+      this.left = left;
+      this.right = right;
+    }
+  }
+
+  static class Call extends Expression {
+    final String function;
+    final ImmutableList<Expression> args;
+    final ImmutableMap<String, Expression> kwargs;
+
+    private Call(
+        int line,
+        String function,
+        ImmutableList<Expression> args,
+        ImmutableMap<String, Expression> kwargs) {
+      super(line);
+      this.function = function;
+      this.args = args;
+      this.kwargs = kwargs;
+    }
+  }
+}
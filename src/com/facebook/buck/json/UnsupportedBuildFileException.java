@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.json;
+
+/**
+ * Thrown by {@link InJvmBuildFileEvaluator} when a build file, or one of its includes, uses
+ * something outside the subset of Python it understands. The file should then be handed to
+ * {@code buck.py}, which also produces the error messages for build files that are broken.
+ */
+@SuppressWarnings("serial")
+class UnsupportedBuildFileException extends Exception {
+
+  UnsupportedBuildFileException(String message, Object... args) {
+    super(String.format(message, args));
+  }
+}
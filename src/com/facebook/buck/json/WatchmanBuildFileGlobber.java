@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import com.facebook.buck.io.Watchman;
+import com.facebook.buck.io.WatchmanClient;
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The {@code glob()} of {@code buck.py} when {@code project.glob_handler} is {@code watchman}:
+ * the patterns are sent to watchman as {@code wholename} matches, with the same query
+ * {@code buck.py} sends.
+ * <p>
+ * Like {@code buck.py}, once a query fails, watchman isn't used for any further globs, which are
+ * left to {@link BuildFileGlobber}.
+ */
+class WatchmanBuildFileGlobber {
+
+  private static final Logger LOG = Logger.get(WatchmanBuildFileGlobber.class);
+
+  /**
+   * The default timeout of pywatchman, which {@code buck.py} uses when none is configured.
+   */
+  private static final long DEFAULT_QUERY_TIMEOUT_MS = 1000;
+
+  private final WatchmanClient watchmanClient;
+  private final String watchRoot;
+  private final Optional<String> projectPrefix;
+  private final long timeoutNanos;
+  /** Sync cookies are expensive, so only the first query waits for them. */
+  private final AtomicBoolean useSyncCookies;
+  private volatile boolean failed;
+
+  private WatchmanBuildFileGlobber(
+      WatchmanClient watchmanClient,
+      String watchRoot,
+      Optional<String> projectPrefix,
+      long timeoutMs) {
+    this.watchmanClient = watchmanClient;
+    this.watchRoot = watchRoot;
+    this.projectPrefix = projectPrefix;
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMs));
+    this.useSyncCookies = new AtomicBoolean(true);
+    this.failed = false;
+  }
+
+  /**
+   * @return a globber querying the watchman of {@code options}, or absent if they don't use
+   *     watchman to glob.
+   */
+  static Optional<WatchmanBuildFileGlobber> of(ProjectBuildFileParserOptions options) {
+    Watchman watchman = options.getWatchman();
+    if (!options.getUseWatchmanGlob() ||
+        !watchman.getWatchmanClient().isPresent() ||
+        !watchman.getWatchRoot().isPresent()) {
+      return Optional.absent();
+    }
+    return Optional.of(
+        new WatchmanBuildFileGlobber(
+            watchman.getWatchmanClient().get(),
+            watchman.getWatchRoot().get(),
+            watchman.getProjectPrefix(),
+            options.getWatchmanQueryTimeoutMs().or(DEFAULT_QUERY_TIMEOUT_MS)));
+  }
+
+  /**
+   * @param basePath the path of the build file's directory, relative to the project root.
+   * @return the paths, relative to {@code basePath}, of the files matching any of
+   *     {@code includes} and none of {@code excludes}, sorted, or absent if watchman couldn't
+   *     answer and {@link BuildFileGlobber} has to be used instead.
+   */
+  @SuppressWarnings("unchecked")
+  Optional<ImmutableSortedSet<String>> glob(
+      String basePath,
+      List<String> includes,
+      List<String> excludes,
+      boolean includeDotfiles) throws UnsupportedBuildFileException {
+    for (String include : includes) {
+      BuildFileGlobber.checkInclude(include);
+    }
+    if (failed) {
+      return Optional.absent();
+    }
+
+    Object[] query = new Object[] {
+        "query",
+        watchRoot,
+        createQueryParams(basePath, includes, excludes, includeDotfiles),
+    };
+    Optional<? extends Map<String, ? extends Object>> queryResponse;
+    try {
+      queryResponse = watchmanClient.queryWithTimeout(timeoutNanos, query);
+    } catch (IOException e) {
+      LOG.warn(
+          e,
+          "Error from Watchman query %s, falling back to slow glob",
+          Lists.newArrayList(query));
+      failed = true;
+      return Optional.absent();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Optional.absent();
+    }
+    if (!queryResponse.isPresent()) {
+      LOG.warn(
+          "Timed out after %d ns for Watchman query %s, falling back to slow glob",
+          timeoutNanos,
+          Lists.newArrayList(query));
+      failed = true;
+      return Optional.absent();
+    }
+
+    Map<String, ? extends Object> response = queryResponse.get();
+    Object error = response.get("error");
+    if (error != null) {
+      LOG.warn(
+          "Error from Watchman query %s, falling back to slow glob: %s",
+          Lists.newArrayList(query),
+          error);
+      failed = true;
+      return Optional.absent();
+    }
+    Object warning = response.get("warning");
+    if (warning != null) {
+      LOG.warn("Watchman warning from query %s: %s", Lists.newArrayList(query), warning);
+    }
+
+    Object files = response.get("files");
+    if (files == null) {
+      return Optional.of(ImmutableSortedSet.<String>of());
+    }
+    return Optional.of(ImmutableSortedSet.copyOf((List<String>) files));
+  }
+
+  /**
+   * Mirrors {@code format_watchman_query_params} in {@code buck.py}.
+   */
+  private Map<String, Object> createQueryParams(
+      String basePath,
+      List<String> includes,
+      List<String> excludes,
+      boolean includeDotfiles) {
+    Map<String, Object> matchFlags = includeDotfiles ?
+        ImmutableMap.<String, Object>of("includedotfiles", true) :
+        ImmutableMap.<String, Object>of();
+    List<Object> expression = Lists.<Object>newArrayList(
+        "allof",
+        "exists",
+        Lists.newArrayList(
+            "anyof",
+            Lists.newArrayList("type", "f"),
+            Lists.newArrayList("type", "l")));
+    expression.add(createAnyOfMatches(includes, matchFlags));
+    if (!excludes.isEmpty()) {
+      expression.add(Lists.newArrayList("not", createAnyOfMatches(excludes, matchFlags)));
+    }
+
+    Map<String, Object> params = new LinkedHashMap<>();
+    String relativeRoot = projectPrefix.isPresent() ?
+        joinPath(projectPrefix.get(), basePath) :
+        basePath;
+    // An empty relative root is the watch root itself.
+    if (!relativeRoot.isEmpty()) {
+      params.put("relative_root", relativeRoot);
+    }
+    // Explicitly pass an empty path so Watchman queries only the tree of files starting at the
+    // relative root.
+    params.put("path", Lists.newArrayList(""));
+    params.put("fields", Lists.newArrayList("name"));
+    params.put("expression", expression);
+    if (!useSyncCookies.compareAndSet(true, false)) {
+      params.put("sync_timeout", 0);
+    }
+    return params;
+  }
+
+  private static List<Object> createAnyOfMatches(
+      List<String> patterns,
+      Map<String, Object> matchFlags) {
+    List<Object> anyOf = new ArrayList<>();
+    anyOf.add("anyof");
+    for (String pattern : patterns) {
+      anyOf.add(Lists.newArrayList("match", pattern, "wholename", matchFlags));
+    }
+    return anyOf;
+  }
+
+  private static String joinPath(String first, String second) {
+    if (first.isEmpty() || second.isEmpty()) {
+      return first + second;
+    }
+    return first.endsWith("/") ? first + second : first + "/" + second;
+  }
+}
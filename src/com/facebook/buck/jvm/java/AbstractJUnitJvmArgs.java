@@ -23,13 +23,17 @@ import com.facebook.buck.test.selectors.TestSelectorList;
 import com.facebook.buck.util.immutables.BuckStyleImmutable;
 import com.facebook.buck.util.Verbosity;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 
 import java.io.File;
 
 import java.nio.file.Path;
 
+import java.util.Map;
 import java.util.logging.Level;
 
 import org.immutables.value.Value;
@@ -46,6 +50,12 @@ abstract class AbstractJUnitJvmArgs {
   private static final String STD_OUT_LOG_LEVEL_PROPERTY = "com.facebook.buck.stdOutLogLevel";
   private static final String STD_ERR_LOG_LEVEL_PROPERTY = "com.facebook.buck.stdErrLogLevel";
 
+  // Keep in sync with JUnitServerMain.
+  private static final String WARM_JVM_RUNNER = "com.facebook.buck.testrunner.JUnitServerMain";
+  private static final String WARM_JVM_PROPERTY_PREFIX = "property:";
+  private static final String WARM_JVM_CLASSPATH_PREFIX = "classpath:";
+  private static final String WARM_JVM_ARG_PREFIX = "arg:";
+
   /**
    * @return Directory to use to write test results to.
    */
@@ -96,6 +106,15 @@ abstract class AbstractJUnitJvmArgs {
     return false;
   }
 
+  /**
+   * @return If positive, runs the tests in a JVM kept warm for other test rules, which is replaced
+   * after running this many of them. Defaults to 0, starting a fresh JVM for every run.
+   */
+  @Value.Default
+  int getWarmJvmMaxRuns() {
+    return 0;
+  }
+
   /**
    * @return The filesystem path to a JVM agent (i.e., a profiler).
    */
@@ -150,6 +169,11 @@ abstract class AbstractJUnitJvmArgs {
    */
   abstract Optional<TestSelectorList> getTestSelectorList();
 
+  /**
+   * @return If set, the file to which the test runner records which classes each test class used.
+   */
+  abstract Optional<Path> getClassUsageFile();
+
   /**
    * Formats the JVM arguments in this object suitable to pass on the
    * command line.
@@ -181,31 +205,8 @@ abstract class AbstractJUnitJvmArgs {
       args.add(String.format("-agentpath:%s", getPathToJavaAgent().get()));
     }
 
-    // Include the buildId
-    args.add(String.format("-D%s=%s", BUILD_ID_PROPERTY, getBuildId()));
-
-    // Include the baseDir
-    args.add(
-        String.format("-D%s=%s", MODULE_BASE_PATH_PROPERTY, getBuckModuleBaseSourceCodePath()));
-
-    // Include log levels
-    if (getStdOutLogLevel().isPresent()) {
-      args.add(
-          String.format(
-              "-D%s=%s",
-              STD_OUT_LOG_LEVEL_PROPERTY, getStdOutLogLevel().get()));
-    }
-    if (getStdErrLogLevel().isPresent()) {
-      args.add(
-          String.format(
-              "-D%s=%s",
-              STD_ERR_LOG_LEVEL_PROPERTY, getStdErrLogLevel().get()));
-    }
-
-    if (getRobolectricLogPath().isPresent()) {
-      args.add(
-          String.format(
-              "-Drobolectric.logging=%s", getRobolectricLogPath().get()));
+    for (Map.Entry<String, String> property : getTestSystemProperties().entrySet()) {
+      args.add(String.format("-D%s=%s", property.getKey(), property.getValue()));
     }
 
     if (isDebugEnabled()) {
@@ -236,6 +237,121 @@ abstract class AbstractJUnitJvmArgs {
     // responsible for running the tests.
     args.add(getTestType().getDefaultTestRunner());
 
+    formatTestRunnerArgsToList(args, defaultTestTimeoutMillis);
+  }
+
+  /**
+   * @return whether the tests may run in a warm JVM shared with other test rules. Debugging and
+   * code coverage set up JVM-wide agents for a single run, so they always get a fresh JVM.
+   */
+  public boolean canRunInWarmJvm() {
+    return getWarmJvmMaxRuns() > 0 &&
+        getTestType() == TestType.JUNIT &&
+        !isDebugEnabled() &&
+        !isCodeCoverageEnabled();
+  }
+
+  /**
+   * Formats the JVM arguments for a warm JVM that keeps {@code sharedClasspath} loaded across the
+   * test rules it runs. The JVM-wide settings of this rule are part of the command, so only rules
+   * agreeing on them share a JVM.
+   *
+   * @param warmJvmTmpDirectory the temporary directory of the JVM itself. The JDK caches the
+   *     temporary directory on first use, so it must outlive every run.
+   */
+  public void formatWarmJvmCommandLineArgsToList(
+      ImmutableList.Builder<String> args,
+      Path warmJvmTmpDirectory,
+      Iterable<Path> sharedClasspath,
+      Verbosity verbosity) {
+    args.add(String.format("-Djava.io.tmpdir=%s", warmJvmTmpDirectory));
+    args.add(String.format("-Dbuck.testrunner_classes=%s", getTestRunnerClasspath()));
+
+    if (getPathToJavaAgent().isPresent()) {
+      args.add(String.format("-agentpath:%s", getPathToJavaAgent().get()));
+    }
+
+    if (getExtraJvmArgs().isPresent()) {
+      args.addAll(getExtraJvmArgs().get());
+    }
+
+    if (verbosity.shouldUseVerbosityFlagIfAvailable()) {
+      args.add("-verbose");
+    }
+
+    args.add(
+        "-classpath",
+        Joiner.on(File.pathSeparator).join(
+            Iterables.concat(sharedClasspath, ImmutableList.of(getTestRunnerClasspath()))));
+    args.add(WARM_JVM_RUNNER);
+  }
+
+  /**
+   * Formats the job sent to a warm JVM to run these tests: the system properties for this run,
+   * the classpath entries to load the tests from, on top of the JVM's own classpath, and the
+   * arguments to the test runner.
+   */
+  public String formatWarmJvmJobArgs(
+      ProjectFilesystem filesystem,
+      Iterable<Path> testClasspath,
+      long defaultTestTimeoutMillis) {
+    ImmutableList.Builder<String> entries = ImmutableList.builder();
+    if (getTmpDirectory().isPresent()) {
+      entries.add(
+          WARM_JVM_PROPERTY_PREFIX + "java.io.tmpdir=" +
+              filesystem.resolve(getTmpDirectory().get()));
+    }
+    for (Map.Entry<String, String> property : getTestSystemProperties().entrySet()) {
+      entries.add(WARM_JVM_PROPERTY_PREFIX + property.getKey() + "=" + property.getValue());
+    }
+    for (Path entry : testClasspath) {
+      entries.add(WARM_JVM_CLASSPATH_PREFIX + entry);
+    }
+    ImmutableList.Builder<String> runnerArgs = ImmutableList.builder();
+    formatTestRunnerArgsToList(runnerArgs, defaultTestTimeoutMillis);
+    for (String arg : runnerArgs.build()) {
+      entries.add(WARM_JVM_ARG_PREFIX + arg);
+    }
+
+    StringBuilder jobArgs = new StringBuilder();
+    for (String entry : entries.build()) {
+      // One entry per line, so escape the line breaks within them (e.g. in test selectors).
+      jobArgs
+          .append(entry.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r"))
+          .append('\n');
+    }
+    return jobArgs.toString();
+  }
+
+  /**
+   * @return the system properties describing this test run to the tests.
+   */
+  private ImmutableMap<String, String> getTestSystemProperties() {
+    ImmutableMap.Builder<String, String> properties = ImmutableMap.builder();
+
+    // Include the buildId
+    properties.put(BUILD_ID_PROPERTY, getBuildId().toString());
+
+    // Include the baseDir
+    properties.put(MODULE_BASE_PATH_PROPERTY, getBuckModuleBaseSourceCodePath().toString());
+
+    // Include log levels
+    if (getStdOutLogLevel().isPresent()) {
+      properties.put(STD_OUT_LOG_LEVEL_PROPERTY, getStdOutLogLevel().get().toString());
+    }
+    if (getStdErrLogLevel().isPresent()) {
+      properties.put(STD_ERR_LOG_LEVEL_PROPERTY, getStdErrLogLevel().get().toString());
+    }
+
+    if (getRobolectricLogPath().isPresent()) {
+      properties.put("robolectric.logging", getRobolectricLogPath().get().toString());
+    }
+    return properties.build();
+  }
+
+  private void formatTestRunnerArgsToList(
+      ImmutableList.Builder<String> args,
+      long defaultTestTimeoutMillis) {
     // The first argument to the test runner is where the test results should be written. It is not
     // reliable to write test results to stdout or stderr because there may be output from the unit
     // tests written to those file descriptors, as well.
@@ -262,6 +378,10 @@ abstract class AbstractJUnitJvmArgs {
       args.add("--dry-run");
     }
 
+    if (getClassUsageFile().isPresent()) {
+      args.add("--class-usage-output", getClassUsageFile().get().toString());
+    }
+
     // List all of the tests to be run.
     for (String testClassName : getTestClasses()) {
       args.add(testClassName);
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.io.MorePaths;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The state of the classes on a test's classpath: a hash of every class, by name, and a single
+ * fingerprint for everything else a test may depend on, such as resources and the settings of the
+ * test JVM.
+ * <p>
+ * Jars are only read up to their central directory, whose checksums stand in for the hashes of
+ * their entries.
+ */
+class ClasspathSnapshot {
+
+  private static final String CLASS_SUFFIX = ".class";
+
+  private final ImmutableMap<String, String> classHashes;
+  private final String fingerprint;
+
+  ClasspathSnapshot(ImmutableMap<String, String> classHashes, String fingerprint) {
+    this.classHashes = classHashes;
+    this.fingerprint = fingerprint;
+  }
+
+  /**
+   * @param classpath the absolute paths of the jars and directories on the classpath, in order.
+   * @param settings anything else a change to which should count as changing every class.
+   */
+  static ClasspathSnapshot of(Iterable<Path> classpath, String settings) throws IOException {
+    // Earlier entries shadow later ones, as they do on the classpath.
+    final Map<String, String> classHashes = new HashMap<>();
+    final Map<String, String> resourceHashes = new TreeMap<>();
+    for (Path entry : classpath) {
+      if (Files.isDirectory(entry)) {
+        final Path root = entry;
+        Files.walkFileTree(
+            root,
+            new SimpleFileVisitor<Path>() {
+              @Override
+              public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                  throws IOException {
+                String name = MorePaths.pathWithUnixSeparators(root.relativize(file));
+                HashCode hash = Hashing.crc32().hashBytes(Files.readAllBytes(file));
+                addEntry(name, Long.toHexString(hash.padToLong()), classHashes, resourceHashes);
+                return FileVisitResult.CONTINUE;
+              }
+            });
+      } else if (Files.isRegularFile(entry)) {
+        try (ZipFile zipFile = new ZipFile(entry.toFile())) {
+          Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+          while (zipEntries.hasMoreElements()) {
+            ZipEntry zipEntry = zipEntries.nextElement();
+            if (!zipEntry.isDirectory()) {
+              addEntry(
+                  zipEntry.getName(),
+                  Long.toHexString(zipEntry.getCrc()),
+                  classHashes,
+                  resourceHashes);
+            }
+          }
+        }
+      }
+    }
+
+    Hasher fingerprint = Hashing.sha1().newHasher();
+    fingerprint.putString(settings, StandardCharsets.UTF_8);
+    for (Map.Entry<String, String> resource : resourceHashes.entrySet()) {
+      fingerprint.putString(resource.getKey(), StandardCharsets.UTF_8);
+      fingerprint.putString(resource.getValue(), StandardCharsets.UTF_8);
+    }
+    return new ClasspathSnapshot(ImmutableMap.copyOf(classHashes), fingerprint.hash().toString());
+  }
+
+  private static void addEntry(
+      String name,
+      String hash,
+      Map<String, String> classHashes,
+      Map<String, String> resourceHashes) {
+    Map<String, String> hashes = resourceHashes;
+    if (name.endsWith(CLASS_SUFFIX)) {
+      name = name.substring(0, name.length() - CLASS_SUFFIX.length()).replace('/', '.');
+      hashes = classHashes;
+    }
+    if (!hashes.containsKey(name)) {
+      hashes.put(name, hash);
+    }
+  }
+
+  /**
+   * @return the hashes of the classes on the classpath, keyed by their fully-qualified names.
+   */
+  ImmutableMap<String, String> getClassHashes() {
+    return classHashes;
+  }
+
+  /**
+   * @return a hash of everything on the classpath other than classes, and of the settings.
+   */
+  String getFingerprint() {
+    return fingerprint;
+  }
+}
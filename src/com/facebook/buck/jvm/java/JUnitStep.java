@@ -16,29 +16,46 @@
 
 package com.facebook.buck.jvm.java;
 
+import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.ExecutableFinder;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.shell.ShellStep;
+import com.facebook.buck.shell.WorkerJobResult;
+import com.facebook.buck.shell.WorkerProcess;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Function;
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class JUnitStep extends ShellStep {
   private static final Logger LOG = Logger.get(JUnitStep.class);
 
+  private static final String WARM_JVM_DIR_NAME = "junit-warm-jvm";
+
   private final ProjectFilesystem filesystem;
   private final JavaRuntimeLauncher javaRuntimeLauncher;
   private final ImmutableMap<String, String> nativeLibsEnvironment;
@@ -67,6 +84,149 @@ public class JUnitStep extends ShellStep {
     return "junit";
   }
 
+  @Override
+  public StepExecutionResult execute(ExecutionContext context)
+      throws InterruptedException, IOException {
+    // A warm JVM can neither be killed on a per-rule timeout nor pick up a rule's native libraries.
+    if (junitJvmArgs.canRunInWarmJvm() &&
+        !testRuleTimeoutMs.isPresent() &&
+        nativeLibsEnvironment.isEmpty()) {
+      Optional<Integer> exitCode = executeInWarmJvm(context);
+      if (exitCode.isPresent()) {
+        return StepExecutionResult.of(exitCode.get());
+      }
+    }
+    return super.execute(context);
+  }
+
+  /**
+   * Runs the tests in a warm JVM taken from the build's pool. The JVM keeps the jars from outside
+   * buck-out loaded, and loads the rest of the classpath in a fresh class loader for this run. It
+   * is shut down once it ran its share of test rules, or when a run fails.
+   *
+   * @return the exit code of the test runner, or absent if the tests should run in a fresh JVM
+   *     instead.
+   */
+  private Optional<Integer> executeInWarmJvm(ExecutionContext context)
+      throws InterruptedException {
+    try {
+      Path buckOut = filesystem.resolve(filesystem.getBuckPaths().getBuckOut());
+      ImmutableList.Builder<Path> sharedClasspath = ImmutableList.builder();
+      ImmutableList.Builder<Path> testClasspath = ImmutableList.builder();
+      for (String line : filesystem.readLines(junitJvmArgs.getClasspathFile())) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        Path entry = filesystem.resolve(line);
+        if (entry.startsWith(buckOut)) {
+          testClasspath.add(entry);
+        } else {
+          sharedClasspath.add(entry);
+        }
+      }
+
+      WorkerProcessPool pool = getWarmJvmPool(context, sharedClasspath.build());
+      WorkerProcess process = pool.borrowWorkerProcess(context.getProcessExecutor());
+      WorkerJobResult result = null;
+      try {
+        result = process.submitAndWaitForJob(
+            junitJvmArgs.formatWarmJvmJobArgs(
+                filesystem,
+                testClasspath.build(),
+                context.getDefaultTestTimeoutMillis()));
+      } finally {
+        if (result != null &&
+            result.getExitCode() == 0 &&
+            process.getSubmittedJobCount() < junitJvmArgs.getWarmJvmMaxRuns()) {
+          pool.returnWorkerProcess(process);
+        } else {
+          pool.destroyWorkerProcess(process);
+        }
+      }
+
+      if (result.getExitCode() != 0) {
+        LOG.info(
+            "Test runner failed in a warm JVM, retrying in a fresh one:\n%s",
+            result.getStderr().or(""));
+        return Optional.absent();
+      }
+      Verbosity verbosity = context.getVerbosity();
+      if (result.getStdout().isPresent() && !result.getStdout().get().isEmpty() &&
+          shouldPrintStdout(verbosity)) {
+        context.postEvent(ConsoleEvent.info("%s", result.getStdout().get()));
+      }
+      if (result.getStderr().isPresent() && !result.getStderr().get().isEmpty() &&
+          shouldPrintStderr(verbosity)) {
+        context.postEvent(ConsoleEvent.warning("%s", result.getStderr().get()));
+      }
+      return Optional.of(result.getExitCode());
+    } catch (IOException | HumanReadableException e) {
+      LOG.warn(e, "Could not run tests in a warm JVM, falling back to a fresh one.");
+      return Optional.absent();
+    }
+  }
+
+  private WorkerProcessPool getWarmJvmPool(
+      final ExecutionContext context,
+      ImmutableList<Path> sharedClasspath) throws IOException {
+    Path warmJvmDir = filesystem.getBuckPaths().getScratchDir().resolve(WARM_JVM_DIR_NAME);
+    Path tmpDir = warmJvmDir.resolve("tmp");
+    ImmutableList.Builder<String> command = ImmutableList.builder();
+    command.add(javaRuntimeLauncher.getCommand());
+    junitJvmArgs.formatWarmJvmCommandLineArgsToList(
+        command,
+        filesystem.resolve(tmpDir),
+        sharedClasspath,
+        context.getVerbosity());
+    ImmutableList<String> warmJvmCommand = command.build();
+
+    String key = "java_test warm JVM: " + Joiner.on(' ').join(warmJvmCommand);
+    ConcurrentMap<String, WorkerProcessPool> pools = context.getWorkerProcessPools();
+    WorkerProcessPool pool = pools.get(key);
+    if (pool != null) {
+      return pool;
+    }
+
+    HashCode keyHash = Hashing.sha1().hashString(key, StandardCharsets.UTF_8);
+    final Path poolDir = warmJvmDir.resolve(keyHash.toString());
+    filesystem.mkdirs(tmpDir);
+    Map<String, String> environment = Maps.newHashMap(context.getEnvironment());
+    environment.put("PWD", filesystem.getRootPath().toString());
+    environment.put("TMP", filesystem.resolve(tmpDir).toString());
+    final ProcessExecutorParams processParams = ProcessExecutorParams.builder()
+        .setCommand(warmJvmCommand)
+        .setEnvironment(environment)
+        .setDirectory(filesystem.getRootPath().toFile())
+        .build();
+    final AtomicInteger processCount = new AtomicInteger();
+    WorkerProcessPool newPool = new WorkerProcessPool(
+        context.getConcurrencyLimit().threadLimit,
+        keyHash) {
+      @Override
+      protected WorkerProcess startWorkerProcess(ProcessExecutor executor) throws IOException {
+        // Each JVM numbers its jobs from zero, so give each one its own directory for the files
+        // it exchanges with Buck.
+        Path processDir = poolDir.resolve(String.valueOf(processCount.getAndIncrement()));
+        filesystem.mkdirs(processDir);
+        WorkerProcess process = new WorkerProcess(
+            executor,
+            processParams,
+            filesystem,
+            processDir);
+        process.ensureLaunchAndHandshake();
+        return process;
+      }
+    };
+
+    WorkerProcessPool previousValue = pools.putIfAbsent(key, newPool);
+    if (previousValue == null) {
+      return newPool;
+    }
+    // Another rule created the pool first. Ours has not started any JVM yet, so closing it is free.
+    newPool.close();
+    return previousValue;
+  }
+
   @Override
   protected ImmutableList<String> getShellCommandInternal(ExecutionContext context) {
     ImmutableList.Builder<String> args = ImmutableList.builder();
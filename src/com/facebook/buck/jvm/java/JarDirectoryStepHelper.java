@@ -158,9 +158,8 @@ public class JarDirectoryStepHelper {
       Iterable<Pattern> blacklist,
       ExecutionContext context) throws IOException {
 
-    Path absoluteOutputPath = filesystem.getPathForRelativePath(pathToOutputFile);
     try (CustomZipOutputStream outputFile = ZipOutputStreams.newOutputStream(
-        absoluteOutputPath, APPEND_TO_ZIP)) {
+        filesystem.newFileOutputStream(pathToOutputFile), APPEND_TO_ZIP)) {
       return createJarFile(filesystem,
           pathToOutputFile,
           outputFile,
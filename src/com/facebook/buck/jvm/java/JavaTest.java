@@ -54,6 +54,7 @@ import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.ZipFileTraversal;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Functions;
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicates;
@@ -71,6 +72,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -134,6 +136,9 @@ public class JavaTest
   @Nullable
   private JUnitStep junit;
 
+  @Nullable
+  private ShardedJUnitStep shardedJunit;
+
   @AddToRuleKey
   private final boolean runTestSeparately;
 
@@ -232,11 +237,9 @@ public class JavaTest
       TestRunningOptions options,
       Optional<Path> outDir,
       Optional<Path> tempDir,
-      Optional<Path> robolectricLogPath) {
-
-    Set<String> testClassNames = getClassNamesForSources();
-    Iterable<String> reorderedTestClasses =
-        reorderClasses(testClassNames, options.isShufflingTests());
+      Optional<Path> robolectricLogPath,
+      Iterable<String> testClassNames,
+      Optional<Path> classUsageFile) {
 
     ImmutableList<String> properVmArgs = amendVmArgs(
         this.vmArgs,
@@ -260,9 +263,11 @@ public class JavaTest
         .setStdErrLogLevel(stdErrLogLevel)
         .setRobolectricLogPath(robolectricLogPath)
         .setExtraJvmArgs(properVmArgs)
-        .addAllTestClasses(reorderedTestClasses)
+        .addAllTestClasses(testClassNames)
         .setDryRun(options.isDryRun())
         .setTestSelectorList(testSelectorList)
+        .setWarmJvmMaxRuns(options.getWarmJvmMaxRuns())
+        .setClassUsageFile(classUsageFile)
         .build();
 
     return new JUnitStep(
@@ -293,21 +298,264 @@ public class JavaTest
     }
 
     ImmutableList.Builder<Step> steps = ImmutableList.builder();
-    Path pathToTestOutput = getPathToTestOutputDirectory();
-    Path tmpDirectory = getPathToTmpDirectory();
-    steps.add(new MakeCleanDirectoryStep(getProjectFilesystem(), pathToTestOutput));
+    final Path pathToTestOutput = getPathToTestOutputDirectory();
+    final Path tmpDirectory = getPathToTmpDirectory();
+    ImmutableList<String> reorderedTestClasses =
+        ImmutableList.copyOf(reorderClasses(testClassNames, options.isShufflingTests()));
+
+    final boolean recordClassUsage = isRecordingClassUsage(options);
+    if (recordClassUsage) {
+      final ImmutableSet<String> impactedTestClasses =
+          getImpactedTestClasses(pathToTestOutput, testClassNames);
+      LOG.debug(
+          "%d of %d test classes of %s may be affected by changes.",
+          impactedTestClasses.size(),
+          testClassNames.size(),
+          getBuildTarget());
+      reorderedTestClasses = FluentIterable.from(reorderedTestClasses)
+          .filter(Predicates.in(impactedTestClasses))
+          .toList();
+      // Keep the results of the test classes that won't run, so they are reported again.
+      steps.add(new MkdirStep(getProjectFilesystem(), pathToTestOutput));
+      steps.add(
+          new AbstractExecutionStep("remove stale test results") {
+            @Override
+            public StepExecutionResult execute(ExecutionContext context) throws IOException {
+              for (String testClass : impactedTestClasses) {
+                getProjectFilesystem().deleteFileAtPathIfExists(
+                    pathToTestOutput.resolve(String.format("%s.xml", testClass)));
+              }
+              return StepExecutionResult.SUCCESS;
+            }
+          });
+    } else {
+      steps.add(new MakeCleanDirectoryStep(getProjectFilesystem(), pathToTestOutput));
+    }
     steps.add(new MakeCleanDirectoryStep(getProjectFilesystem(), tmpDirectory));
-    junit =
-        getJUnitStep(
-            executionContext,
-            options,
-            Optional.of(pathToTestOutput),
-            Optional.of(tmpDirectory),
-            Optional.of(pathToTestLogs));
-    steps.add(junit);
+
+    junit = null;
+    shardedJunit = null;
+    if (reorderedTestClasses.isEmpty()) {
+      LOG.info("No test class of %s is affected by changes.", getBuildTarget());
+      return steps.build();
+    }
+
+    final int shardCount = getShardCount(executionContext, options, reorderedTestClasses.size());
+    if (shardCount <= 1) {
+      junit =
+          getJUnitStep(
+              executionContext,
+              options,
+              Optional.of(pathToTestOutput),
+              Optional.of(tmpDirectory),
+              Optional.of(pathToTestLogs),
+              reorderedTestClasses,
+              getClassUsageFile(recordClassUsage, tmpDirectory, 0));
+      steps.add(junit);
+    } else {
+      // The results of the previous run are still around at this point, so use them to balance
+      // the shards before they get cleaned out.
+      ImmutableList<ImmutableList<String>> shards = ShardedJUnitStep.shardTestClasses(
+          reorderedTestClasses,
+          readPreviousTestClassDurations(pathToTestOutput, testClassNames),
+          shardCount);
+      LOG.debug("Running %s in %d shards.", getBuildTarget(), shards.size());
+      ImmutableList.Builder<JUnitStep> shardSteps = ImmutableList.builder();
+      for (int shard = 0; shard < shards.size(); shard++) {
+        // Give each shard its own temporary directory, so concurrently running tests don't trip
+        // over each other's files.
+        Path shardTmpDirectory = tmpDirectory.resolve("shard-" + shard);
+        steps.add(new MkdirStep(getProjectFilesystem(), shardTmpDirectory));
+        shardSteps.add(
+            getJUnitStep(
+                executionContext,
+                options,
+                Optional.of(pathToTestOutput),
+                Optional.of(shardTmpDirectory),
+                Optional.of(pathToTestLogs),
+                shards.get(shard),
+                getClassUsageFile(recordClassUsage, tmpDirectory, shard)));
+      }
+      shardedJunit = new ShardedJUnitStep(shardSteps.build());
+      steps.add(shardedJunit);
+    }
+
+    if (recordClassUsage) {
+      steps.add(
+          new AbstractExecutionStep("record test class usage") {
+            @Override
+            public StepExecutionResult execute(ExecutionContext context) throws IOException {
+              List<List<String>> recordedRuns = new ArrayList<>();
+              for (int shard = 0; shard < shardCount; shard++) {
+                Path classUsageFile =
+                    getClassUsageFile(true, tmpDirectory, shard).get();
+                if (getProjectFilesystem().isFile(classUsageFile)) {
+                  recordedRuns.add(getProjectFilesystem().readLines(classUsageFile));
+                }
+              }
+              recordClassUsage(recordedRuns);
+              return StepExecutionResult.SUCCESS;
+            }
+          });
+    }
     return steps.build();
   }
 
+  /**
+   * @return whether to only run the test classes affected by changes, as far as the usage recorded
+   *     by the test runner tells, and record it anew. Partial runs leave nothing to compare with.
+   */
+  private boolean isRecordingClassUsage(TestRunningOptions options) {
+    return options.isRunningImpactedTestsOnly() &&
+        testType == TestType.JUNIT &&
+        options.getTestSelectorList().isEmpty() &&
+        !options.isDryRun();
+  }
+
+  private static Optional<Path> getClassUsageFile(
+      boolean recordClassUsage,
+      Path tmpDirectory,
+      int shard) {
+    if (!recordClassUsage) {
+      return Optional.absent();
+    }
+    return Optional.of(tmpDirectory.resolve("class-usage-" + shard));
+  }
+
+  private Path getPathToClassUsageHistory() {
+    return BuildTargets.getScratchPath(
+        getProjectFilesystem(),
+        getBuildTarget(),
+        "__java_test_%s_class_usage__");
+  }
+
+  private ClasspathSnapshot getClasspathSnapshot() throws IOException {
+    ImmutableList.Builder<Path> classpath = ImmutableList.builder();
+    for (String line : getProjectFilesystem().readLines(getClassPathFile())) {
+      if (!line.isEmpty()) {
+        classpath.add(getProjectFilesystem().resolve(line));
+      }
+    }
+    // Changes to these make every test class suspect.
+    String settings = Joiner.on('\n').join(
+        testType,
+        vmArgs,
+        nativeLibsEnvironment);
+    return ClasspathSnapshot.of(classpath.build(), settings);
+  }
+
+  /**
+   * @return the test classes that may be affected by changes since they last ran, along with the
+   *     ones that have no successful results left from then. Returns every test class if the usage
+   *     of any of them is unknown.
+   */
+  private ImmutableSet<String> getImpactedTestClasses(
+      Path pathToTestOutput,
+      Set<String> testClassNames) {
+    Optional<TestClassUsageHistory> history = Optional.absent();
+    ClasspathSnapshot snapshot;
+    try {
+      Path historyPath = getPathToClassUsageHistory();
+      if (getProjectFilesystem().isFile(historyPath)) {
+        history = TestClassUsageHistory.fromLines(getProjectFilesystem().readLines(historyPath));
+      }
+      if (!history.isPresent()) {
+        return ImmutableSet.copyOf(testClassNames);
+      }
+      snapshot = getClasspathSnapshot();
+    } catch (IOException e) {
+      LOG.warn(e, "Could not tell which test classes of %s are affected.", getBuildTarget());
+      return ImmutableSet.copyOf(testClassNames);
+    }
+
+    ImmutableSet.Builder<String> impacted = ImmutableSet.builder();
+    impacted.addAll(history.get().getImpactedTestClasses(snapshot, testClassNames));
+    for (String testClass : testClassNames) {
+      Path testResultFile = getProjectFilesystem().getPathForRelativePath(
+          pathToTestOutput.resolve(String.format("%s.xml", testClass)));
+      try {
+        if (!Files.isRegularFile(testResultFile) ||
+            !XmlTestResultParser.parse(testResultFile).isSuccess()) {
+          impacted.add(testClass);
+        }
+      } catch (IOException | RuntimeException e) {
+        impacted.add(testClass);
+      }
+    }
+    return impacted.build();
+  }
+
+  private void recordClassUsage(List<List<String>> recordedRuns) throws IOException {
+    Path historyPath = getPathToClassUsageHistory();
+    if (recordedRuns.isEmpty()) {
+      // The test runner could not record anything, so we know nothing about this run.
+      getProjectFilesystem().deleteFileAtPathIfExists(historyPath);
+      return;
+    }
+    Optional<TestClassUsageHistory> previous = Optional.absent();
+    if (getProjectFilesystem().isFile(historyPath)) {
+      previous = TestClassUsageHistory.fromLines(getProjectFilesystem().readLines(historyPath));
+    }
+    TestClassUsageHistory history =
+        TestClassUsageHistory.update(previous, getClasspathSnapshot(), recordedRuns);
+    getProjectFilesystem().createParentDirs(historyPath);
+    getProjectFilesystem().writeLinesToPath(history.toLines(), historyPath);
+  }
+
+  /**
+   * @return how many processes to split the test classes across, which is the largest shard count
+   *     configured for any of this rule's labels, capped at the number of threads the build may
+   *     use.
+   */
+  private int getShardCount(
+      ExecutionContext executionContext,
+      TestRunningOptions options,
+      int testClassCount) {
+    // Only a single JVM can wait for the debugger.
+    if (executionContext.isDebugEnabled()) {
+      return 1;
+    }
+    int shardCount = 1;
+    for (Label label : labels) {
+      Integer labelShardCount = options.getShardCountsByLabel().get(label.getLabelString());
+      if (labelShardCount != null) {
+        shardCount = Math.max(shardCount, labelShardCount);
+      }
+    }
+    shardCount = Math.min(shardCount, executionContext.getConcurrencyLimit().threadLimit);
+    return Math.max(1, Math.min(shardCount, testClassCount));
+  }
+
+  /**
+   * @return how long each test class took the last time it ran, according to the results it left
+   *     in {@code pathToTestOutput}.
+   */
+  private ImmutableMap<String, Long> readPreviousTestClassDurations(
+      Path pathToTestOutput,
+      Set<String> testClassNames) {
+    ImmutableMap.Builder<String, Long> durations = ImmutableMap.builder();
+    for (String testClass : testClassNames) {
+      Path testResultFile = getProjectFilesystem().getPathForRelativePath(
+          pathToTestOutput.resolve(String.format("%s.xml", testClass)));
+      if (!Files.isRegularFile(testResultFile)) {
+        continue;
+      }
+      try {
+        durations.put(testClass, XmlTestResultParser.parse(testResultFile).getTotalTime());
+      } catch (IOException | RuntimeException e) {
+        LOG.debug(e, "Could not read the previous results of %s.", testClass);
+      }
+    }
+    return durations.build();
+  }
+
+  private boolean hasTimedOut() {
+    if (shardedJunit != null) {
+      return shardedJunit.hasTimedOut();
+    }
+    return junit != null && junit.hasTimedOut();
+  }
+
   private static Iterable<String> reorderClasses(Set<String> testClassNames, boolean shuffle) {
     Random rng;
     if (shuffle) {
@@ -477,7 +725,7 @@ public class JavaTest
               getPathToTestOutputDirectory().resolve(path));
           if (!isUsingTestSelectors && !Files.isRegularFile(testResultFile)) {
             String message;
-            if (Preconditions.checkNotNull(junit).hasTimedOut()) {
+            if (hasTimedOut()) {
               message = "test timed out before generating results file";
             } else {
               message = "test exited before generating results file";
@@ -649,6 +897,8 @@ public class JavaTest
             options,
             Optional.<Path>absent(),
             Optional.<Path>absent(),
+            Optional.<Path>absent(),
+            reorderClasses(getClassNamesForSources(), options.isShufflingTests()),
             Optional.<Path>absent());
     return ExternalTestRunnerTestSpec.builder()
         .setTarget(getBuildTarget())
@@ -105,7 +105,7 @@ public class JavacDirectToJarStep implements Step {
     try {
 
       jarOutputStream = ZipOutputStreams.newOutputStream(
-          filesystem.getPathForRelativePath(outputJar),
+          filesystem.newFileOutputStream(outputJar),
           ZipOutputStreams.HandleDuplicates.APPEND_TO_ZIP);
 
       JavacStep javacStep = createJavacStep(jarOutputStream);
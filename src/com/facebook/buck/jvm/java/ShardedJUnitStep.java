@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the test classes of a single test rule as several {@link JUnitStep}s at once, each with its
+ * own share of the classes. Every shard writes its results next to the others', so they are read
+ * back as a single {@link com.facebook.buck.test.TestResults}.
+ */
+public class ShardedJUnitStep implements Step {
+
+  private final ImmutableList<JUnitStep> shards;
+
+  public ShardedJUnitStep(List<JUnitStep> shards) {
+    Preconditions.checkArgument(!shards.isEmpty(), "Must have at least one shard.");
+    this.shards = ImmutableList.copyOf(shards);
+  }
+
+  @Override
+  public StepExecutionResult execute(final ExecutionContext context)
+      throws IOException, InterruptedException {
+    // The other shards just wait on their processes, so share the build's executor rather than
+    // starting threads for every rule.
+    ListeningExecutorService executor =
+        context.getExecutorService(ExecutionContext.ExecutorPool.CPU);
+    List<Future<StepExecutionResult>> otherShards = new ArrayList<>();
+    try {
+      for (final JUnitStep shard : shards.subList(1, shards.size())) {
+        otherShards.add(
+            executor.submit(
+                new Callable<StepExecutionResult>() {
+                  @Override
+                  public StepExecutionResult call() throws Exception {
+                    return shard.execute(context);
+                  }
+                }));
+      }
+
+      // Run one shard on this thread rather than leaving it idle.
+      StepExecutionResult result = shards.get(0).execute(context);
+      for (Future<StepExecutionResult> otherShard : otherShards) {
+        StepExecutionResult shardResult;
+        try {
+          shardResult = otherShard.get();
+        } catch (ExecutionException e) {
+          Throwables.propagateIfPossible(e.getCause(), IOException.class);
+          Throwables.propagateIfInstanceOf(e.getCause(), InterruptedException.class);
+          throw new RuntimeException(e.getCause());
+        }
+        if (result.isSuccess() && !shardResult.isSuccess()) {
+          result = shardResult;
+        }
+      }
+      return result;
+    } finally {
+      for (Future<StepExecutionResult> otherShard : otherShards) {
+        otherShard.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * @return whether any shard was stopped for taking too long.
+   */
+  public boolean hasTimedOut() {
+    for (JUnitStep shard : shards) {
+      if (shard.hasTimedOut()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String getShortName() {
+    return "junit";
+  }
+
+  @Override
+  public String getDescription(final ExecutionContext context) {
+    return Joiner.on(" & ").join(
+        Iterables.transform(
+            shards,
+            new Function<JUnitStep, String>() {
+              @Override
+              public String apply(JUnitStep shard) {
+                return shard.getDescription(context);
+              }
+            }));
+  }
+
+  /**
+   * Splits the test classes into at most {@code shardCount} shards of about the same total
+   * duration, by handing out the slowest classes first, each to the shard with the least work so
+   * far. Classes without a recorded duration are assumed to take as long as the average recorded
+   * class. The classes keep their relative order within each shard.
+   *
+   * @param durations how long each test class took when it last ran, in milliseconds.
+   */
+  public static ImmutableList<ImmutableList<String>> shardTestClasses(
+      List<String> testClassNames,
+      final Map<String, Long> durations,
+      int shardCount) {
+    Preconditions.checkArgument(shardCount > 0, "shardCount must be positive.");
+    shardCount = Math.min(shardCount, testClassNames.size());
+
+    long totalRecordedDuration = 0;
+    int recordedClasses = 0;
+    for (String testClassName : testClassNames) {
+      Long duration = durations.get(testClassName);
+      if (duration != null) {
+        totalRecordedDuration += duration;
+        recordedClasses++;
+      }
+    }
+    final long defaultDuration =
+        recordedClasses == 0 ? 1 : Math.max(1, totalRecordedDuration / recordedClasses);
+
+    final List<String> byDescendingDuration = Lists.newArrayList(testClassNames);
+    // The sort is stable, so equally slow classes are handed out in their original order.
+    Collections.sort(
+        byDescendingDuration,
+        new Comparator<String>() {
+          @Override
+          public int compare(String a, String b) {
+            return Long.compare(getDuration(b), getDuration(a));
+          }
+
+          private long getDuration(String testClassName) {
+            Long duration = durations.get(testClassName);
+            return duration == null ? defaultDuration : duration;
+          }
+        });
+
+    long[] shardDurations = new long[shardCount];
+    int[] shardOfClass = new int[testClassNames.size()];
+    for (String testClassName : byDescendingDuration) {
+      int lightestShard = 0;
+      for (int shard = 1; shard < shardCount; shard++) {
+        if (shardDurations[shard] < shardDurations[lightestShard]) {
+          lightestShard = shard;
+        }
+      }
+      Long duration = durations.get(testClassName);
+      shardDurations[lightestShard] += duration == null ? defaultDuration : duration;
+      shardOfClass[testClassNames.indexOf(testClassName)] = lightestShard;
+    }
+
+    List<ImmutableList.Builder<String>> shards = new ArrayList<>();
+    for (int shard = 0; shard < shardCount; shard++) {
+      shards.add(ImmutableList.<String>builder());
+    }
+    for (int i = 0; i < testClassNames.size(); i++) {
+      shards.get(shardOfClass[i]).add(testClassNames.get(i));
+    }
+    ImmutableList.Builder<ImmutableList<String>> result = ImmutableList.builder();
+    for (ImmutableList.Builder<String> shard : shards) {
+      result.add(shard.build());
+    }
+    return result.build();
+  }
+}
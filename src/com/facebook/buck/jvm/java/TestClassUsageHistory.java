@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What the test classes of a rule used the last time they ran, as recorded by the test runner's
+ * {@code --class-usage-output}, for running only the test classes that a change can affect.
+ * <p>
+ * The history is a list of runs, each of which lists its test classes in the order they ran, along
+ * with the hashes of the classes first loaded while each of them ran. A test class may have used
+ * anything loaded up to the end of its own section, so it is affected by a change to any of those
+ * classes. Only the latest run of each test class counts, and runs that are nobody's latest are
+ * dropped.
+ */
+class TestClassUsageHistory {
+
+  private static final String FINGERPRINT_PREFIX = "fingerprint ";
+  private static final String RUN_LINE = "run";
+  private static final String TEST_PREFIX = "test ";
+
+  private final String fingerprint;
+  private final ImmutableList<ImmutableList<Section>> runs;
+
+  private TestClassUsageHistory(String fingerprint, ImmutableList<ImmutableList<Section>> runs) {
+    this.fingerprint = fingerprint;
+    this.runs = runs;
+  }
+
+  /**
+   * @return the history serialized by {@link #toLines()}, or absent if it is malformed.
+   */
+  static Optional<TestClassUsageHistory> fromLines(List<String> lines) {
+    if (lines.isEmpty() || !lines.get(0).startsWith(FINGERPRINT_PREFIX)) {
+      return Optional.absent();
+    }
+    String fingerprint = lines.get(0).substring(FINGERPRINT_PREFIX.length());
+    ImmutableList.Builder<ImmutableList<Section>> runs = ImmutableList.builder();
+    List<Section> run = null;
+    Section section = null;
+    for (String line : lines.subList(1, lines.size())) {
+      if (line.equals(RUN_LINE)) {
+        if (run != null) {
+          runs.add(ImmutableList.copyOf(run));
+        }
+        run = new ArrayList<>();
+        section = null;
+      } else if (line.startsWith(TEST_PREFIX) && run != null) {
+        section = new Section(line.substring(TEST_PREFIX.length()));
+        run.add(section);
+      } else if (section != null && line.indexOf(' ') > 0) {
+        int space = line.indexOf(' ');
+        section.classHashes.put(line.substring(0, space), line.substring(space + 1));
+      } else if (!line.isEmpty()) {
+        return Optional.absent();
+      }
+    }
+    if (run != null) {
+      runs.add(ImmutableList.copyOf(run));
+    }
+    return Optional.of(new TestClassUsageHistory(fingerprint, runs.build()));
+  }
+
+  List<String> toLines() {
+    List<String> lines = new ArrayList<>();
+    lines.add(FINGERPRINT_PREFIX + fingerprint);
+    for (ImmutableList<Section> run : runs) {
+      lines.add(RUN_LINE);
+      for (Section section : run) {
+        lines.add(TEST_PREFIX + section.testClass);
+        for (Map.Entry<String, String> classHash : section.classHashes.entrySet()) {
+          lines.add(classHash.getKey() + " " + classHash.getValue());
+        }
+      }
+    }
+    return lines;
+  }
+
+  /**
+   * @return the test classes among {@code testClassNames} that may be affected by the differences
+   *     between the classpath they last ran with and {@code snapshot}, or that never ran before.
+   */
+  ImmutableSet<String> getImpactedTestClasses(
+      ClasspathSnapshot snapshot,
+      Set<String> testClassNames) {
+    if (!fingerprint.equals(snapshot.getFingerprint())) {
+      return ImmutableSet.copyOf(testClassNames);
+    }
+    Map<String, Boolean> isImpacted = new HashMap<>();
+    for (ImmutableList<Section> run : runs) {
+      boolean usedChangedClass = false;
+      for (Section section : run) {
+        if (!usedChangedClass) {
+          for (Map.Entry<String, String> classHash : section.classHashes.entrySet()) {
+            if (!classHash.getValue().equals(snapshot.getClassHashes().get(classHash.getKey()))) {
+              usedChangedClass = true;
+              break;
+            }
+          }
+        }
+        // Later runs are more recent, so they override what earlier ones said.
+        isImpacted.put(section.testClass, usedChangedClass);
+      }
+    }
+    ImmutableSet.Builder<String> impacted = ImmutableSet.builder();
+    for (String testClassName : testClassNames) {
+      Boolean testClassImpacted = isImpacted.get(testClassName);
+      if (testClassImpacted == null || testClassImpacted) {
+        impacted.add(testClassName);
+      }
+    }
+    return impacted.build();
+  }
+
+  /**
+   * Adds the runs recorded by the test runner, in the format written by its
+   * {@code --class-usage-output}, to {@code previous}.
+   *
+   * @param snapshot the classpath the recorded runs used. If its fingerprint differs from the one
+   *     {@code previous} was recorded with, {@code previous} is discarded.
+   */
+  static TestClassUsageHistory update(
+      Optional<TestClassUsageHistory> previous,
+      ClasspathSnapshot snapshot,
+      List<List<String>> recordedRuns) {
+    ImmutableList.Builder<ImmutableList<Section>> allRuns = ImmutableList.builder();
+    if (previous.isPresent() &&
+        previous.get().fingerprint.equals(snapshot.getFingerprint())) {
+      allRuns.addAll(previous.get().runs);
+    }
+    for (List<String> recordedRun : recordedRuns) {
+      List<Section> run = new ArrayList<>();
+      Section section = null;
+      for (String line : recordedRun) {
+        if (line.startsWith(TEST_PREFIX)) {
+          section = new Section(line.substring(TEST_PREFIX.length()));
+          run.add(section);
+        } else if (section != null && !line.isEmpty()) {
+          String hash = snapshot.getClassHashes().get(line);
+          // Classes from outside the classpath, such as the JDK's, are not tracked.
+          if (hash != null) {
+            section.classHashes.put(line, hash);
+          }
+        }
+      }
+      allRuns.add(ImmutableList.copyOf(run));
+    }
+    return new TestClassUsageHistory(snapshot.getFingerprint(), pruneRuns(allRuns.build()));
+  }
+
+  private static ImmutableList<ImmutableList<Section>> pruneRuns(
+      ImmutableList<ImmutableList<Section>> runs) {
+    Set<String> seenTestClasses = new HashSet<>();
+    List<ImmutableList<Section>> keptRuns = new ArrayList<>();
+    for (ImmutableList<Section> run : runs.reverse()) {
+      boolean isLatestRunOfAnyTestClass = false;
+      for (Section section : run) {
+        if (seenTestClasses.add(section.testClass)) {
+          isLatestRunOfAnyTestClass = true;
+        }
+      }
+      if (isLatestRunOfAnyTestClass) {
+        keptRuns.add(run);
+      }
+    }
+    return ImmutableList.copyOf(keptRuns).reverse();
+  }
+
+  private static class Section {
+    private final String testClass;
+    private final Map<String, String> classHashes = new HashMap<>();
+
+    private Section(String testClass) {
+      this.testClass = testClass;
+    }
+  }
+}
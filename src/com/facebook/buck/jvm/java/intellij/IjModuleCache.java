@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.jvm.java.intellij;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.rules.TargetNode;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * Daemon-scoped cache of the {@link IjModule}s created by {@link IjModuleFactory}, so that
+ * {@code buck project} only recreates the modules whose targets changed since the last run.
+ * <p>
+ * The parser hands out the same {@link TargetNode} instances for as long as their build files
+ * don't change, so a module stays valid while neither its targets nor anything they depend on
+ * (e.g. the android resources deciding whether there is an R.java) was replaced by a new node.
+ */
+public class IjModuleCache {
+
+  private static final Logger LOG = Logger.get(IjModuleCache.class);
+
+  private final Map<Path, CachedModule> modules;
+  private Set<TargetNode<?>> knownNodes;
+  @Nullable
+  private Boolean excludeShadows;
+  @Nullable
+  private Set<BuildTarget> requiredBuildTargetsOfModuleBeingCreated;
+
+  public IjModuleCache() {
+    this.modules = new HashMap<>();
+    this.knownNodes = Sets.newIdentityHashSet();
+  }
+
+  /**
+   * Drops the modules which may differ when created from {@code targetGraph}, which is about to
+   * be turned into an {@link IjModuleGraph}.
+   *
+   * @param excludeShadows the setting the {@link IjModuleFactory} was created with.
+   */
+  public synchronized void update(TargetGraph targetGraph, boolean excludeShadows) {
+    if (this.excludeShadows == null || this.excludeShadows != excludeShadows) {
+      modules.clear();
+      this.excludeShadows = excludeShadows;
+    }
+
+    Set<TargetNode<?>> currentNodes = Sets.newIdentityHashSet();
+    Queue<TargetNode<?>> changedNodes = new ArrayDeque<>();
+    for (TargetNode<?> node : targetGraph.getNodes()) {
+      currentNodes.add(node);
+      if (!knownNodes.contains(node)) {
+        changedNodes.add(node);
+      }
+    }
+    Set<TargetNode<?>> dirtyNodes = Sets.newIdentityHashSet();
+    while (!changedNodes.isEmpty()) {
+      TargetNode<?> node = changedNodes.remove();
+      if (dirtyNodes.add(node)) {
+        changedNodes.addAll(targetGraph.getIncomingNodesFor(node));
+      }
+    }
+
+    // Modules which are not part of this graph go too. They are not validated against it, so
+    // changes to their dependencies would go unnoticed if they were to come back later.
+    Iterator<CachedModule> iterator = modules.values().iterator();
+    while (iterator.hasNext()) {
+      for (TargetNode<?> node : iterator.next().module.getTargets()) {
+        if (!currentNodes.contains(node) || dirtyNodes.contains(node)) {
+          iterator.remove();
+          break;
+        }
+      }
+    }
+    LOG.debug(
+        "%d target nodes changed, %d modules can be reused.",
+        dirtyNodes.size(),
+        modules.size());
+    knownNodes = currentNodes;
+  }
+
+  /**
+   * @return the module cached for {@code targetNodes} under {@code moduleBasePath}, creating it
+   *     with {@code moduleFactory} if there is none.
+   */
+  public synchronized IjModule getOrCreate(
+      Path moduleBasePath,
+      ImmutableSet<TargetNode<?>> targetNodes,
+      IjModuleFactory moduleFactory) {
+    CachedModule cached = modules.get(moduleBasePath);
+    if (cached != null && cached.module.getTargets().equals(targetNodes)) {
+      return cached.module;
+    }
+    requiredBuildTargetsOfModuleBeingCreated = new LinkedHashSet<>();
+    try {
+      IjModule module = moduleFactory.createModule(moduleBasePath, targetNodes);
+      modules.put(
+          moduleBasePath,
+          new CachedModule(module, ImmutableSet.copyOf(requiredBuildTargetsOfModuleBeingCreated)));
+      return module;
+    } finally {
+      requiredBuildTargetsOfModuleBeingCreated = null;
+    }
+  }
+
+  /**
+   * Called by the {@link IjModuleFactory.IjModuleFactoryResolver} for the targets which have to be
+   * built for the module currently being created to index correctly.
+   */
+  public synchronized void recordRequiredBuildTarget(BuildTarget buildTarget) {
+    if (requiredBuildTargetsOfModuleBeingCreated != null) {
+      requiredBuildTargetsOfModuleBeingCreated.add(buildTarget);
+    }
+  }
+
+  /**
+   * @return the targets recorded with {@link #recordRequiredBuildTarget(BuildTarget)} while
+   *     {@code modules} were created.
+   */
+  public synchronized ImmutableSet<BuildTarget> getRequiredBuildTargets(
+      Iterable<IjModule> modules) {
+    ImmutableSet.Builder<BuildTarget> requiredBuildTargets = ImmutableSet.builder();
+    for (IjModule module : modules) {
+      CachedModule cached = this.modules.get(module.getModuleBasePath());
+      if (cached != null && cached.module == module) {
+        requiredBuildTargets.addAll(cached.requiredBuildTargets);
+      }
+    }
+    return requiredBuildTargets.build();
+  }
+
+  @VisibleForTesting
+  synchronized int size() {
+    return modules.size();
+  }
+
+  private static class CachedModule {
+    private final IjModule module;
+    private final ImmutableSet<BuildTarget> requiredBuildTargets;
+
+    private CachedModule(IjModule module, ImmutableSet<BuildTarget> requiredBuildTargets) {
+      this.module = module;
+      this.requiredBuildTargets = requiredBuildTargets;
+    }
+  }
+}
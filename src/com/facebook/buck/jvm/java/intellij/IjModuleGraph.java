@@ -159,6 +159,7 @@ public class IjModuleGraph {
   private static ImmutableMap<BuildTarget, IjModule> createModules(
       TargetGraph targetGraph,
       IjModuleFactory moduleFactory,
+      IjModuleCache moduleCache,
       final int minimumPathDepth) {
     final BlockedPathNode blockedPathTree = createAggregationHaltPoints(targetGraph);
 
@@ -186,7 +187,7 @@ public class IjModuleGraph {
       ImmutableSet<TargetNode<?>> targets =
           FluentIterable.from(baseTargetPathMultimap.get(baseTargetPath)).toSet();
 
-      IjModule module = moduleFactory.createModule(baseTargetPath, targets);
+      IjModule module = moduleCache.getOrCreate(baseTargetPath, targets, moduleFactory);
 
       for (TargetNode<?> target : targets) {
         moduleMapBuilder.put(target.getBuildTarget(), module);
@@ -247,15 +248,35 @@ public class IjModuleGraph {
    * exists between two modules (Ma, Mb) if a TargetGraph edge existed between a pair of
    * nodes (Ta, Tb) and Ma contains Ta and Mb contains Tb.
    */
+  public static IjModuleGraph from(
+      TargetGraph targetGraph,
+      IjLibraryFactory libraryFactory,
+      IjModuleFactory moduleFactory,
+      AggregationMode aggregationMode) {
+    return from(
+        targetGraph,
+        libraryFactory,
+        moduleFactory,
+        new IjModuleCache(),
+        aggregationMode);
+  }
+
+  /**
+   * Same as {@link #from(TargetGraph, IjLibraryFactory, IjModuleFactory, AggregationMode)}, but
+   * reuses the modules in {@code moduleCache}, which must have been updated with
+   * {@code targetGraph}.
+   */
   public static IjModuleGraph from(
       final TargetGraph targetGraph,
       final IjLibraryFactory libraryFactory,
       final IjModuleFactory moduleFactory,
+      IjModuleCache moduleCache,
       AggregationMode aggregationMode) {
     final ImmutableMap<BuildTarget, IjModule> rulesToModules =
         createModules(
             targetGraph,
             moduleFactory,
+            moduleCache,
             aggregationMode.getGraphMinimumDepth(targetGraph.getNodes().size()));
     final ExportedDepsClosureResolver exportedDepsClosureResolver =
         new ExportedDepsClosureResolver(targetGraph);
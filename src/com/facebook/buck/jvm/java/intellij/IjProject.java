@@ -38,6 +38,7 @@ import com.facebook.buck.rules.TargetNode;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -55,6 +56,8 @@ public class IjProject {
   private final ProjectFilesystem projectFilesystem;
   private final IjModuleGraph.AggregationMode aggregationMode;
   private final BuckConfig buckConfig;
+  private final IjModuleCache moduleCache;
+  private final ListeningExecutorService executorService;
 
   public IjProject(
       TargetGraphAndTargets targetGraphAndTargets,
@@ -64,7 +67,9 @@ public class IjProject {
       SourcePathResolver sourcePathResolver,
       ProjectFilesystem projectFilesystem,
       IjModuleGraph.AggregationMode aggregationMode,
-      BuckConfig buckConfig) {
+      BuckConfig buckConfig,
+      IjModuleCache moduleCache,
+      ListeningExecutorService executorService) {
     this.targetGraphAndTargets = targetGraphAndTargets;
     this.javaPackageFinder = javaPackageFinder;
     this.javaFileParser = javaFileParser;
@@ -73,6 +78,8 @@ public class IjProject {
     this.projectFilesystem = projectFilesystem;
     this.aggregationMode = aggregationMode;
     this.buckConfig = buckConfig;
+    this.moduleCache = moduleCache;
+    this.executorService = executorService;
   }
 
   /**
@@ -82,11 +89,12 @@ public class IjProject {
    * @return set of {@link BuildTarget}s which should be built in order for the project to index
    *   correctly.
    * @throws IOException
+   * @throws InterruptedException
    */
   public ImmutableSet<BuildTarget> write(
       boolean runPostGenerationCleaner,
       boolean excludeArtifacts)
-      throws IOException {
+      throws IOException, InterruptedException {
     final ImmutableSet.Builder<BuildTarget> requiredBuildTargets = ImmutableSet.builder();
     IjLibraryFactory libraryFactory = new DefaultIjLibraryFactory(
         new DefaultIjLibraryFactory.IjLibraryFactoryResolver() {
@@ -128,7 +136,7 @@ public class IjProject {
             Optional<BuildRule> dummyRDotJavaRule =
                 buildRuleResolver.getRuleOptional(dummyRDotJavaTarget);
             if (dummyRDotJavaRule.isPresent()) {
-              requiredBuildTargets.add(dummyRDotJavaTarget);
+              moduleCache.recordRequiredBuildTarget(dummyRDotJavaTarget);
               return Optional.of(
                   DummyRDotJava.getRDotJavaBinFolder(dummyRDotJavaTarget, projectFilesystem));
             }
@@ -188,18 +196,24 @@ public class IjProject {
           }
 
           private Path getRelativePathAndRecordRule(SourcePath sourcePath) {
-            requiredBuildTargets.addAll(
-                sourcePathResolver.getRule(sourcePath)
-                    .transform(HasBuildTarget.TO_TARGET)
-                    .asSet());
+            Optional<BuildTarget> ruleTarget =
+                sourcePathResolver.getRule(sourcePath).transform(HasBuildTarget.TO_TARGET);
+            if (ruleTarget.isPresent()) {
+              moduleCache.recordRequiredBuildTarget(ruleTarget.get());
+            }
             return sourcePathResolver.getRelativePath(sourcePath);
           }
         };
+    // Modules are only recreated if their targets changed since the last run in this daemon, so
+    // the targets they require are recorded along with them.
+    moduleCache.update(targetGraphAndTargets.getTargetGraph(), excludeArtifacts);
     IjModuleGraph moduleGraph = IjModuleGraph.from(
         targetGraphAndTargets.getTargetGraph(),
         libraryFactory,
         new IjModuleFactory(moduleFactoryResolver, excludeArtifacts),
+        moduleCache,
         aggregationMode);
+    requiredBuildTargets.addAll(moduleCache.getRequiredBuildTargets(moduleGraph.getModuleNodes()));
     JavaPackageFinder parsingJavaPackageFinder = ParsingJavaPackageFinder.preparse(
         javaFileParser,
         projectFilesystem,
@@ -207,7 +221,8 @@ public class IjProject {
         javaPackageFinder);
     IjProjectWriter writer = new IjProjectWriter(
         new IjProjectTemplateDataPreparer(parsingJavaPackageFinder, moduleGraph, projectFilesystem),
-        projectFilesystem);
+        projectFilesystem,
+        executorService);
     writer.write(buckConfig, runPostGenerationCleaner);
     return requiredBuildTargets.build();
   }
@@ -19,10 +19,14 @@ package com.facebook.buck.jvm.java.intellij;
 import com.facebook.buck.cli.BuckConfig;
 import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.util.concurrent.MoreFutures;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.hash.Hashing;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import org.stringtemplate.v4.AutoIndentWriter;
 import org.stringtemplate.v4.ST;
@@ -35,6 +39,8 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Writes the serialized representations of IntelliJ project components to disk.
@@ -63,24 +69,50 @@ public class IjProjectWriter {
 
   private IjProjectTemplateDataPreparer projectDataPreparer;
   private ProjectFilesystem projectFilesystem;
+  private ListeningExecutorService executorService;
 
   public IjProjectWriter(
       IjProjectTemplateDataPreparer projectDataPreparer,
-      ProjectFilesystem projectFilesystem) {
+      ProjectFilesystem projectFilesystem,
+      ListeningExecutorService executorService) {
     this.projectDataPreparer = projectDataPreparer;
     this.projectFilesystem = projectFilesystem;
+    this.executorService = executorService;
   }
 
-  public void write(BuckConfig buckConfig, boolean runPostGenerationCleaner) throws IOException {
+  public void write(BuckConfig buckConfig, boolean runPostGenerationCleaner)
+      throws IOException, InterruptedException {
     IJProjectCleaner cleaner = new IJProjectCleaner(projectFilesystem);
 
-    for (IjModule module : projectDataPreparer.getModulesToBeWritten()) {
-      Path generatedModuleFile = writeModule(module);
-      cleaner.doNotDelete(generatedModuleFile);
+    projectFilesystem.mkdirs(MODULES_PREFIX);
+    projectFilesystem.mkdirs(LIBRARIES_PREFIX);
+    // Rendering the templates dominates, and every file is independent of the others.
+    ImmutableList.Builder<Callable<Path>> writers = ImmutableList.builder();
+    for (final IjModule module : projectDataPreparer.getModulesToBeWritten()) {
+      writers.add(
+          new Callable<Path>() {
+            @Override
+            public Path call() throws IOException {
+              return writeModule(module);
+            }
+          });
     }
-    for (IjLibrary library : projectDataPreparer.getLibrariesToBeWritten()) {
-      Path generatedLibraryFile = writeLibrary(library);
-      cleaner.doNotDelete(generatedLibraryFile);
+    for (final IjLibrary library : projectDataPreparer.getLibrariesToBeWritten()) {
+      writers.add(
+          new Callable<Path>() {
+            @Override
+            public Path call() throws IOException {
+              return writeLibrary(library);
+            }
+          });
+    }
+    try {
+      for (Path generatedFile : MoreFutures.getAll(executorService, writers.build())) {
+        cleaner.doNotDelete(generatedFile);
+      }
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
     }
     Path indexFile = writeModulesIndex();
     cleaner.doNotDelete(indexFile);
@@ -91,7 +123,6 @@ public class IjProjectWriter {
   }
 
   private Path writeModule(IjModule module) throws IOException {
-    projectFilesystem.mkdirs(MODULES_PREFIX);
     Path path = module.getModuleImlFilePath();
 
     ST moduleContents = getST(StringTemplateFile.MODULE_TEMPLATE);
@@ -114,7 +145,6 @@ public class IjProjectWriter {
   }
 
   private Path writeLibrary(IjLibrary library) throws IOException {
-    projectFilesystem.mkdirs(LIBRARIES_PREFIX);
     Path path = LIBRARIES_PREFIX.resolve(library.getName() + ".xml");
 
     ST contents = getST(StringTemplateFile.LIBRARY_TEMPLATE);
@@ -152,7 +182,7 @@ public class IjProjectWriter {
     StringWriter stringWriter = new StringWriter();
     AutoIndentWriter noIndentWriter = new AutoIndentWriter(stringWriter);
     contents.write(noIndentWriter);
-    byte[] renderedContentsBytes = noIndentWriter.toString().getBytes(StandardCharsets.UTF_8);
+    byte[] renderedContentsBytes = stringWriter.toString().getBytes(StandardCharsets.UTF_8);
     if (projectFilesystem.exists(path)) {
       String fileSha1 = projectFilesystem.computeSha1(path);
       String contentsSha1 = Hashing.sha1().hashBytes(renderedContentsBytes).toString();
@@ -169,7 +199,7 @@ public class IjProjectWriter {
     try {
       danglingTempFile = true;
       try (OutputStream outputStream = projectFilesystem.newFileOutputStream(tempFile)) {
-        outputStream.write(contents.render().getBytes());
+        outputStream.write(renderedContentsBytes);
       }
       projectFilesystem.createParentDirs(path);
       projectFilesystem.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
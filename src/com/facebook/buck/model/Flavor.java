@@ -23,7 +23,7 @@ import org.immutables.value.Value;
 
 import java.util.regex.Pattern;
 
-@Value.Immutable
+@Value.Immutable(intern = true)
 public abstract class Flavor implements Comparable<Flavor> {
 
   private static final Pattern INVALID_FLAVOR_CHARACTERS = Pattern.compile("[^-a-zA-Z0-9_\\.]");
@@ -18,6 +18,7 @@ package com.facebook.buck.parser;
 
 import com.facebook.buck.cli.BuckConfig;
 import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.HistogramCounter;
 import com.facebook.buck.counters.IntegerCounter;
 import com.facebook.buck.counters.TagSetCounter;
 import com.facebook.buck.io.WatchEvents;
@@ -92,6 +93,7 @@ class DaemonicParserState implements ParsePipeline.Cache {
   private static final String BUILD_FILES_INVALIDATED_BY_FILE_ADD_OR_REMOVE_COUNTER_NAME =
       "build_files_invalidated_by_add_or_remove";
   private static final String FILES_CHANGED_COUNTER_NAME = "files_changed";
+  private static final String BUILD_FILE_PARSE_TIME_COUNTER_NAME = "build_file_parse_time_micros";
   private static final String RULES_INVALIDATED_BY_WATCH_EVENTS_COUNTER_NAME =
       "rules_invalidated_by_watch_events";
 
@@ -108,6 +110,7 @@ class DaemonicParserState implements ParsePipeline.Cache {
   private final IntegerCounter buildFilesInvalidatedByFileAddOrRemoveCounter;
   private final IntegerCounter filesChangedCounter;
   private final IntegerCounter rulesInvalidatedByWatchEventsCounter;
+  private final HistogramCounter buildFileParseTimeCounter;
 
   /**
    * The set of {@link Cell} instances that have been seen by this state. This information is used
@@ -168,6 +171,10 @@ class DaemonicParserState implements ParsePipeline.Cache {
         COUNTER_CATEGORY,
         RULES_INVALIDATED_BY_WATCH_EVENTS_COUNTER_NAME,
         ImmutableMap.<String, String>of());
+    this.buildFileParseTimeCounter = new HistogramCounter(
+        COUNTER_CATEGORY,
+        BUILD_FILE_PARSE_TIME_COUNTER_NAME,
+        ImmutableMap.<String, String>of());
     this.buildFileTrees = CacheBuilder.newBuilder().build(
         new CacheLoader<Cell, BuildFileTree>() {
           @Override
@@ -195,6 +202,10 @@ class DaemonicParserState implements ParsePipeline.Cache {
     return buildFileTrees;
   }
 
+  HistogramCounter getBuildFileParseTimeCounter() {
+    return buildFileParseTimeCounter;
+  }
+
   @Override
   public Optional<TargetNode<?>> lookupTargetNode(
       final Cell cell,
@@ -577,7 +588,8 @@ class DaemonicParserState implements ParsePipeline.Cache {
         cacheInvalidatedByWatchOverflowCounter,
         buildFilesInvalidatedByFileAddOrRemoveCounter,
         filesChangedCounter,
-        rulesInvalidatedByWatchEventsCounter
+        rulesInvalidatedByWatchEventsCounter,
+        buildFileParseTimeCounter
     );
   }
 
@@ -62,7 +62,7 @@ public class DefaultParserTargetNodeFactory implements ParserTargetNodeFactory {
 
   private final BuckEventBus eventBus;
   private final ConstructorArgMarshaller marshaller;
-  private final TypeCoercerFactory typeCoercerFactory;
+  private final TargetNodeFactory targetNodeFactory;
   private final Optional<LoadingCache<Cell, BuildFileTree>> buildFileTrees;
   private final TargetNodeListener nodeListener;
 
@@ -74,7 +74,7 @@ public class DefaultParserTargetNodeFactory implements ParserTargetNodeFactory {
       TargetNodeListener nodeListener) {
     this.eventBus = eventBus;
     this.marshaller = marshaller;
-    this.typeCoercerFactory = typeCoercerFactory;
+    this.targetNodeFactory = new TargetNodeFactory(typeCoercerFactory);
     this.buildFileTrees = buildFileTrees;
     this.nodeListener = nodeListener;
   }
@@ -188,7 +188,6 @@ public class DefaultParserTargetNodeFactory implements ParserTargetNodeFactory {
         Hasher hasher = Hashing.sha1().newHasher();
         hasher.putString(BuckVersion.getVersion(), UTF_8);
         JsonObjectHashing.hashJsonObject(hasher, rawNode);
-        TargetNodeFactory targetNodeFactory = new TargetNodeFactory(typeCoercerFactory);
         TargetNode<?> node = targetNodeFactory.createFromObject(
             hasher.hash(),
             description,
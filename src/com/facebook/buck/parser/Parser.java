@@ -153,6 +153,17 @@ public class Parser {
     }
   }
 
+  /**
+   * @return the raw nodes of {@code buildFile} if they are currently cached, without parsing. The
+   *     cached list is dropped whenever the build file is invalidated, so callers may compare
+   *     results by identity to detect changes.
+   */
+  public Optional<ImmutableList<Map<String, Object>>> lookupCachedRawNodes(
+      Cell cell,
+      Path buildFile) {
+    return permState.lookupRawNodes(cell, buildFile);
+  }
+
   public TargetNode<?> getTargetNode(
       BuckEventBus eventBus,
       Cell cell,
@@ -154,6 +154,14 @@ public class ParserConfig {
     return delegate.getLong("project", "watchman_query_timeout_ms");
   }
 
+  /**
+   * Whether to evaluate build files that only use a restricted subset of the build file language
+   * inside the JVM instead of in {@code buck.py}.
+   */
+  public boolean getEnableInJvmBuildFileEvaluation() {
+    return delegate.getBooleanValue("project", "in_jvm_build_file_evaluation", false);
+  }
+
   public boolean getEnableParallelParsing() {
     return delegate.getBooleanValue("project", "parallel_parsing", true);
   }
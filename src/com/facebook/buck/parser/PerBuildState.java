@@ -20,6 +20,7 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.json.BuildFileParseException;
+import com.facebook.buck.json.InJvmBuildFileEvaluator;
 import com.facebook.buck.json.ProjectBuildFileParser;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
@@ -125,6 +126,16 @@ class PerBuildState implements AutoCloseable {
           public ProjectBuildFileParser apply(Cell input) {
             return createBuildFileParser(input, PerBuildState.this.ignoreBuckAutodepsFiles);
           }
+        },
+        permState.getBuildFileParseTimeCounter(),
+        new Function<Cell, Optional<InJvmBuildFileEvaluator>>() {
+          @Override
+          public Optional<InJvmBuildFileEvaluator> apply(Cell input) {
+            return input.createInJvmBuildFileEvaluator(
+                PerBuildState.this.marshaller,
+                PerBuildState.this.eventBus,
+                PerBuildState.this.ignoreBuckAutodepsFiles);
+          }
         });
     this.parsePipeline = new ParsePipeline(
         permState,
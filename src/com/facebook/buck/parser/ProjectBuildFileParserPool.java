@@ -16,17 +16,21 @@
 
 package com.facebook.buck.parser;
 
+import com.facebook.buck.counters.HistogramCounter;
 import com.facebook.buck.json.BuildFileParseException;
+import com.facebook.buck.json.InJvmBuildFileEvaluator;
 import com.facebook.buck.json.ProjectBuildFileParser;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.Either;
 import com.facebook.buck.rules.Cell;
 import com.facebook.buck.util.concurrent.MostExecutors;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multimap;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
@@ -42,7 +46,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.concurrent.GuardedBy;
@@ -54,6 +60,10 @@ import javax.annotation.concurrent.GuardedBy;
  * requested the associated 'requests' are queued up in the parserRequests field. As soon as
  * a parser is returned it will be used to satisfy the first pending request, otherwise it
  * is stored in the parkedParsers queue.
+ *
+ * If the cell has an {@link InJvmBuildFileEvaluator}, build files are first given to it, on the
+ * calling executor and without waiting for a parser. Only the build files it can't evaluate are
+ * queued up for a parser.
  */
 class ProjectBuildFileParserPool implements AutoCloseable {
   private static final Logger LOG = Logger.get(ProjectBuildFileParserPool.class);
@@ -70,18 +80,52 @@ class ProjectBuildFileParserPool implements AutoCloseable {
   private final AtomicBoolean closing;
   @GuardedBy("this")
   private final Set<ListenableFuture<?>> pendingWork;
+  private final HistogramCounter parseTimeMicros;
+  private final Function<Cell, Optional<InJvmBuildFileEvaluator>> evaluatorFactory;
+  @GuardedBy("this")
+  private final Map<Cell, Optional<InJvmBuildFileEvaluator>> evaluators;
 
   /**
    * @param maxParsersPerCell maximum number of parsers to create for a single cell.
    * @param parserFactory function used to create a new parser.
    */
-  public ProjectBuildFileParserPool(
+  @VisibleForTesting
+  ProjectBuildFileParserPool(
       int maxParsersPerCell,
       Function<Cell, ProjectBuildFileParser> parserFactory) {
+    this(
+        maxParsersPerCell,
+        parserFactory,
+        new HistogramCounter(
+            "buck_parser_pool",
+            "build_file_parse_time_micros",
+            ImmutableMap.<String, String>of()),
+        new Function<Cell, Optional<InJvmBuildFileEvaluator>>() {
+          @Override
+          public Optional<InJvmBuildFileEvaluator> apply(Cell input) {
+            return Optional.absent();
+          }
+        });
+  }
+
+  /**
+   * @param maxParsersPerCell maximum number of parsers to create for a single cell.
+   * @param parserFactory function used to create a new parser.
+   * @param parseTimeMicros where to record how long each build file took to parse.
+   * @param evaluatorFactory function used to create the in-JVM evaluator of a cell, if any.
+   */
+  public ProjectBuildFileParserPool(
+      int maxParsersPerCell,
+      Function<Cell, ProjectBuildFileParser> parserFactory,
+      HistogramCounter parseTimeMicros,
+      Function<Cell, Optional<InJvmBuildFileEvaluator>> evaluatorFactory) {
     Preconditions.checkArgument(maxParsersPerCell > 0);
 
     this.maxParsersPerCell = maxParsersPerCell;
     this.parserFactory = parserFactory;
+    this.parseTimeMicros = parseTimeMicros;
+    this.evaluatorFactory = evaluatorFactory;
+    this.evaluators = new HashMap<>();
     this.createdParsers = ArrayListMultimap.create();
     this.parkedParsers = new HashMap<>();
     this.parserRequests = new HashMap<>();
@@ -102,6 +146,51 @@ class ProjectBuildFileParserPool implements AutoCloseable {
       final ListeningExecutorService executorService) {
     Preconditions.checkState(!closing.get());
 
+    final Optional<InJvmBuildFileEvaluator> evaluator = getEvaluator(cell);
+    if (!evaluator.isPresent()) {
+      return getAllRulesAndMetaRulesFromParser(cell, buildFile, executorService);
+    }
+    ListenableFuture<Optional<ImmutableList<Map<String, Object>>>> evaluated =
+        executorService.submit(
+            new Callable<Optional<ImmutableList<Map<String, Object>>>>() {
+              @Override
+              public Optional<ImmutableList<Map<String, Object>>> call() {
+                long start = System.nanoTime();
+                Optional<ImmutableList<Map<String, Object>>> result =
+                    evaluator.get().getAllRulesAndMetaRules(buildFile);
+                if (result.isPresent()) {
+                  parseTimeMicros.addSample(
+                      TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                }
+                return result;
+              }
+            });
+    return Futures.transformAsync(
+        evaluated,
+        new AsyncFunction<
+            Optional<ImmutableList<Map<String, Object>>>,
+            ImmutableList<Map<String, Object>>>() {
+          @Override
+          public ListenableFuture<ImmutableList<Map<String, Object>>> apply(
+              Optional<ImmutableList<Map<String, Object>>> input) {
+            if (input.isPresent()) {
+              return Futures.immediateFuture(input.get());
+            }
+            synchronized (ProjectBuildFileParserPool.this) {
+              if (closing.get()) {
+                return Futures.immediateCancelledFuture();
+              }
+              return getAllRulesAndMetaRulesFromParser(cell, buildFile, executorService);
+            }
+          }
+        });
+  }
+
+  private synchronized ListenableFuture<ImmutableList<Map<String, Object>>>
+      getAllRulesAndMetaRulesFromParser(
+          final Cell cell,
+          final Path buildFile,
+          final ListeningExecutorService executorService) {
     final ListenableFuture<ImmutableList<Map<String, Object>>> futureWork = Futures.transformAsync(
         initialSchedule(cell),
         new AsyncFunction<Void, ImmutableList<Map<String, Object>>>() {
@@ -113,6 +202,7 @@ class ProjectBuildFileParserPool implements AutoCloseable {
             if (parserRequest.isLeft()) {
               ProjectBuildFileParser parser = parserRequest.getLeft();
               boolean hadErrorDuringParsing = false;
+              long start = System.nanoTime();
               try {
                 return Futures.immediateFuture(
                     ImmutableList.copyOf(parser.getAllRulesAndMetaRules(buildFile)));
@@ -120,6 +210,8 @@ class ProjectBuildFileParserPool implements AutoCloseable {
                 hadErrorDuringParsing = true;
                 throw e;
               } finally {
+                parseTimeMicros.addSample(
+                    TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
                 returnParser(cell, parser, hadErrorDuringParsing);
               }
             } else {
@@ -146,6 +238,15 @@ class ProjectBuildFileParserPool implements AutoCloseable {
     return Futures.nonCancellationPropagating(futureWork);
   }
 
+  private synchronized Optional<InJvmBuildFileEvaluator> getEvaluator(Cell cell) {
+    Optional<InJvmBuildFileEvaluator> evaluator = evaluators.get(cell);
+    if (evaluator == null) {
+      evaluator = evaluatorFactory.apply(cell);
+      evaluators.put(cell, evaluator);
+    }
+    return evaluator;
+  }
+
   private synchronized ListenableFuture<Void> initialSchedule(Cell cell) {
     // If we'll (potentially) be allowed to create a parser or there are some parked then we'll take
     // the chance and attempt to run immediately.
@@ -20,7 +20,7 @@ import com.facebook.buck.util.immutables.BuckStyleImmutable;
 
 import org.immutables.value.Value;
 
-@Value.Immutable
+@Value.Immutable(intern = true)
 @BuckStyleImmutable
 abstract class AbstractLabel implements Comparable<AbstractLabel> {
 
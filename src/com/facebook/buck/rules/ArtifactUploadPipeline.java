@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prepares and stores artifacts on dedicated threads, so that compressing the outputs of a rule
+ * doesn't hold up the build.
+ * <p>
+ * The pipeline is bounded in two ways: {@link #enqueue} blocks while {@code maxQueuedUploads}
+ * uploads are waiting to be started, and an upload isn't started while the estimated sizes of the
+ * uploads in flight (from the start of compression until the store finishes) would exceed
+ * {@code diskBudgetBytes}, unless nothing else is in flight. Waiting uploads are started in order
+ * of priority, and rule keys that were already enqueued are not stored again.
+ */
+public class ArtifactUploadPipeline {
+
+  private static final Logger LOG = Logger.get(ArtifactUploadPipeline.class);
+
+  /**
+   * Prepares an artifact and stores it in the cache.
+   */
+  public interface Upload {
+    /**
+     * @return a future which completes once the artifact is stored and its temporary files are
+     *     deleted.
+     */
+    ListenableFuture<Void> start(ImmutableSet<RuleKey> ruleKeys) throws InterruptedException;
+  }
+
+  private final ExecutorService executor;
+  private final int maxQueuedUploads;
+  private final long diskBudgetBytes;
+
+  // All guarded by this.
+  private final PriorityQueue<QueuedUpload> queue = new PriorityQueue<>();
+  private final Set<RuleKey> enqueuedRuleKeys = new HashSet<>();
+  private long nextSequenceNumber = 0;
+  private int pendingUploads = 0;
+  private long bytesInFlight = 0;
+  private boolean draining = false;
+
+  public ArtifactUploadPipeline(int threads, int maxQueuedUploads, long diskBudgetBytes) {
+    Preconditions.checkArgument(threads > 0);
+    Preconditions.checkArgument(maxQueuedUploads > 0);
+    this.executor = MostExecutors.newMultiThreadExecutor("ArtifactUpload", threads);
+    this.maxQueuedUploads = maxQueuedUploads;
+    this.diskBudgetBytes = diskBudgetBytes;
+  }
+
+  /**
+   * Schedules {@code upload} for the rule keys in {@code ruleKeys} which haven't been enqueued
+   * before, blocking while the queue is full. Uploads enqueued once {@link #drain} started are
+   * skipped.
+   *
+   * @param estimatedSizeBytes the size of the outputs being uploaded.
+   * @param priority uploads with higher priorities are started first.
+   * @return whether an upload was scheduled.
+   */
+  public synchronized boolean enqueue(
+      ImmutableSet<RuleKey> ruleKeys,
+      long estimatedSizeBytes,
+      int priority,
+      Upload upload) throws InterruptedException {
+    ImmutableSet<RuleKey> newRuleKeys;
+    while (true) {
+      // Rules can still finish building while the build is shutting down, e.g. after a failure.
+      if (draining) {
+        LOG.warn("Not storing %s, the upload pipeline is draining.", ruleKeys);
+        return false;
+      }
+      // Check again after waiting, the same rule keys may have been enqueued in the meantime.
+      newRuleKeys = ImmutableSet.copyOf(Sets.difference(ruleKeys, enqueuedRuleKeys));
+      if (newRuleKeys.isEmpty()) {
+        LOG.debug("Not storing %s again.", ruleKeys);
+        return false;
+      }
+      if (queue.size() < maxQueuedUploads) {
+        break;
+      }
+      wait();
+    }
+    enqueuedRuleKeys.addAll(newRuleKeys);
+    queue.add(
+        new QueuedUpload(
+            newRuleKeys,
+            estimatedSizeBytes,
+            priority,
+            nextSequenceNumber++,
+            upload));
+    pendingUploads++;
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            startNextUpload();
+          }
+        });
+    return true;
+  }
+
+  /**
+   * Waits for all enqueued uploads to finish, giving up on the ones which haven't been started
+   * once {@code timeout} expires, and stops the pipeline's threads.
+   *
+   * @return whether all uploads finished in time.
+   */
+  public boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+    boolean drained = true;
+    synchronized (this) {
+      draining = true;
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      while (pendingUploads > 0) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          LOG.warn(
+              "Timed out waiting for %d artifact uploads, skipping %d which haven't started.",
+              pendingUploads,
+              queue.size());
+          pendingUploads -= queue.size();
+          queue.clear();
+          notifyAll();
+          drained = false;
+          break;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+    }
+    executor.shutdown();
+    return drained;
+  }
+
+  private void startNextUpload() {
+    final QueuedUpload next;
+    synchronized (this) {
+      boolean started = false;
+      try {
+        while (!queue.isEmpty() &&
+            bytesInFlight > 0 &&
+            bytesInFlight + queue.peek().estimatedSizeBytes > diskBudgetBytes) {
+          wait();
+        }
+        next = queue.poll();
+        if (next == null) {
+          // Dropped by drain(), which no longer counts it as pending.
+          started = true;
+          return;
+        }
+        bytesInFlight += next.estimatedSizeBytes;
+        started = true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } finally {
+        if (!started) {
+          // Every queued upload is started by exactly one call, so give up on one of them to keep
+          // drain() from waiting on an upload nothing will start.
+          QueuedUpload dropped = queue.poll();
+          if (dropped != null) {
+            LOG.warn("Interrupted, not storing %s.", dropped.ruleKeys);
+            pendingUploads--;
+          }
+        }
+        // Wake up producers blocked on a full queue, and drain() if nothing is pending anymore.
+        notifyAll();
+      }
+    }
+
+    ListenableFuture<Void> stored;
+    try {
+      stored = next.upload.start(next.ruleKeys);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      stored = Futures.immediateFailedFuture(e);
+    } catch (RuntimeException e) {
+      LOG.warn(e, "Failed to upload %s.", next.ruleKeys);
+      stored = Futures.immediateFailedFuture(e);
+    }
+    stored.addListener(
+        new Runnable() {
+          @Override
+          public void run() {
+            onUploadFinished(next);
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private synchronized void onUploadFinished(QueuedUpload upload) {
+    bytesInFlight -= upload.estimatedSizeBytes;
+    pendingUploads--;
+    notifyAll();
+  }
+
+  @VisibleForTesting
+  synchronized int getPendingUploads() {
+    return pendingUploads;
+  }
+
+  private static class QueuedUpload implements Comparable<QueuedUpload> {
+    private final ImmutableSet<RuleKey> ruleKeys;
+    private final long estimatedSizeBytes;
+    private final int priority;
+    private final long sequenceNumber;
+    private final Upload upload;
+
+    private QueuedUpload(
+        ImmutableSet<RuleKey> ruleKeys,
+        long estimatedSizeBytes,
+        int priority,
+        long sequenceNumber,
+        Upload upload) {
+      this.ruleKeys = ruleKeys;
+      this.estimatedSizeBytes = estimatedSizeBytes;
+      this.priority = priority;
+      this.sequenceNumber = sequenceNumber;
+      this.upload = upload;
+    }
+
+    @Override
+    public int compareTo(QueuedUpload other) {
+      // Higher priorities first, then first come, first served.
+      if (priority != other.priority) {
+        return priority > other.priority ? -1 : 1;
+      }
+      return Long.compare(sequenceNumber, other.sequenceNumber);
+    }
+  }
+}
@@ -17,12 +17,15 @@
 package com.facebook.buck.rules;
 
 import com.facebook.buck.util.HumanReadableException;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
 import java.util.SortedSet;
+import java.util.TreeMap;
 
 import javax.annotation.Nullable;
 
@@ -51,10 +54,11 @@ public class BuckPyFunction {
     this.argMarshaller = argMarshaller;
   }
 
-  public String toPythonFunction(BuildRuleType type, Object dto) {
-
-    StringBuilder builder = new StringBuilder();
-
+  /**
+   * @return the parameters of the function generated for {@code dto}, other than {@code name}
+   *     and {@code visibility}, in the order they're declared in: mandatory parameters first.
+   */
+  public ImmutableList<ParamInfo> getParameters(Object dto) {
     SortedSet<ParamInfo> mandatory = Sets.newTreeSet();
     SortedSet<ParamInfo> optional = Sets.newTreeSet();
 
@@ -70,6 +74,30 @@ public class BuckPyFunction {
       }
     }
 
+    return ImmutableList.copyOf(Iterables.concat(mandatory, optional));
+  }
+
+  /**
+   * @return the value an optional parameter has in the generated function when it's omitted.
+   */
+  @Nullable
+  public static Object getDefaultValue(ParamInfo param) {
+    Class<?> resultClass = param.getResultClass();
+    if (Map.class.isAssignableFrom(resultClass)) {
+      return new TreeMap<String, Object>();
+    } else if (Collection.class.isAssignableFrom(resultClass)) {
+      return new ArrayList<Object>();
+    } else {
+      return null;
+    }
+  }
+
+  public String toPythonFunction(BuildRuleType type, Object dto) {
+
+    StringBuilder builder = new StringBuilder();
+
+    ImmutableList<ParamInfo> params = getParameters(dto);
+
     @Nullable TargetName defaultName = dto.getClass().getAnnotation(TargetName.class);
 
     builder.append("@provide_for_build\n")
@@ -80,7 +108,7 @@ public class BuckPyFunction {
     }
 
     // Construct the args.
-    for (ParamInfo param : Iterables.concat(mandatory, optional)) {
+    for (ParamInfo param : params) {
       appendPythonParameter(builder, param);
     }
     builder.append("visibility=[], build_env=None):\n")
@@ -97,7 +125,7 @@ public class BuckPyFunction {
     }
 
     // Iterate over args.
-    for (ParamInfo param : Iterables.concat(mandatory, optional)) {
+    for (ParamInfo param : params) {
       builder.append("    '")
           .append(param.getName())
           .append("' : ")
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.rules;
 
+import com.facebook.buck.artifact_cache.ArtifactInfo;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargets;
@@ -75,6 +76,12 @@ public class BuildInfo {
    */
   static final String METADATA_KEY_FOR_TARGET = "TARGET";
 
+  /**
+   * Key for {@link OnDiskBuildInfo} to store how long the rule took to build locally.
+   */
+  static final String METADATA_KEY_FOR_BUILD_DURATION_MILLIS =
+      ArtifactInfo.BUILD_DURATION_MILLIS_METADATA_KEY;
+
   /**
    * Key for {@link OnDiskBuildInfo} to store the cache key of the manifest.
    */
@@ -32,6 +32,7 @@ import com.facebook.buck.model.BuildId;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.cache.FileHashCache;
+import com.facebook.buck.util.concurrent.MoreFutures;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
@@ -292,8 +293,10 @@ public class BuildInfoRecorder {
 
   /**
    * Creates a zip file of the metadata and recorded artifacts and stores it in the artifact cache.
+   *
+   * @return a future which completes once the store finished and the zip file was deleted.
    */
-  public void performUploadToArtifactCache(
+  public ListenableFuture<Void> performUploadToArtifactCache(
       final ImmutableSet<RuleKey> ruleKeys,
       ArtifactCache artifactCache,
       final BuckEventBus eventBus)
@@ -302,7 +305,7 @@ public class BuildInfoRecorder {
     // Skip all of this if caching is disabled. Although artifactCache.store() will be a noop,
     // building up the zip is wasted I/O.
     if (!artifactCache.isStoreSupported()) {
-      return;
+      return Futures.immediateFuture(null);
     }
 
     ArtifactCompressionEvent.Started started = ArtifactCompressionEvent.started(
@@ -325,7 +328,7 @@ public class BuildInfoRecorder {
           buildTarget,
           Joiner.on('\n').join(ImmutableSortedSet.copyOf(pathsToIncludeInZip))));
       e.printStackTrace();
-      return;
+      return Futures.immediateFuture(null);
     } finally {
       eventBus.post(ArtifactCompressionEvent.finished(started));
     }
@@ -334,7 +337,7 @@ public class BuildInfoRecorder {
     ListenableFuture<Void> storeFuture = artifactCache.store(
         ArtifactInfo.builder().setRuleKeys(ruleKeys).setMetadata(buildMetadata).build(),
         BorrowablePath.notBorrowablePath(zip));
-    Futures.addCallback(
+    return MoreFutures.addListenableCallback(
         storeFuture,
         new FutureCallback<Void>() {
           @Override
@@ -20,6 +20,9 @@ import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.CounterRegistry;
+import com.facebook.buck.counters.HistogramCounter;
 import com.facebook.buck.event.ArtifactCompressionEvent;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
@@ -29,6 +32,7 @@ import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.io.MoreFiles;
 import com.facebook.buck.io.PathOrGlobMatcher;
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.io.WrittenFileHashes;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.Pair;
@@ -38,6 +42,7 @@ import com.facebook.buck.rules.keys.DefaultDependencyFileRuleKeyBuilderFactory;
 import com.facebook.buck.rules.keys.DefaultRuleKeyBuilderFactory;
 import com.facebook.buck.rules.keys.DependencyFileEntry;
 import com.facebook.buck.rules.keys.DependencyFileRuleKeyBuilderFactory;
+import com.facebook.buck.rules.keys.IncrementalRuleKeyCache;
 import com.facebook.buck.rules.keys.InputBasedRuleKeyBuilderFactory;
 import com.facebook.buck.rules.keys.SupportsDependencyFileRuleKey;
 import com.facebook.buck.rules.keys.SupportsInputBasedRuleKey;
@@ -59,10 +64,12 @@ import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
 import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -101,6 +108,8 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -120,6 +129,8 @@ public class CachingBuildEngine implements BuildEngine {
 
   private static final Logger LOG = Logger.get(CachingBuildEngine.class);
 
+  private static final String COUNTER_CATEGORY = "buck_build_engine";
+
   /**
    * These are the values returned by {@link #build(BuildContext, BuildRule)}.
    * This must always return the same value for the build of each target.
@@ -143,9 +154,27 @@ public class CachingBuildEngine implements BuildEngine {
   private final ObjectMapper objectMapper;
   private final SourcePathResolver pathResolver;
   private final Optional<Long> artifactCacheSizeLimit;
+  private final Optional<ArtifactUploadPipeline> artifactUploadPipeline;
   private final LoadingCache<ProjectFilesystem, FileHashCache> fileHashCaches;
   private final LoadingCache<ProjectFilesystem, RuleKeyFactories> ruleKeyFactories;
 
+  private final HistogramCounter ruleKeyComputationTimeMicros = new HistogramCounter(
+      COUNTER_CATEGORY,
+      "rule_key_computation_time_micros",
+      ImmutableMap.<String, String>of());
+  private final HistogramCounter cacheFetchTimeMicros = new HistogramCounter(
+      COUNTER_CATEGORY,
+      "cache_fetch_time_micros",
+      ImmutableMap.<String, String>of());
+  private final AtomicBoolean countersRegistered = new AtomicBoolean();
+  private final Set<RuleKeyFactories> ruleKeyFactoriesWithRegisteredCounters =
+      Sets.newConcurrentHashSet();
+
+  // The number of rules in this build depending on each rule, used to prioritize the uploads of
+  // artifacts which other machines are more likely to fetch.
+  private final ConcurrentHashMultiset<BuildTarget> dependentCounts =
+      ConcurrentHashMultiset.create();
+
   public CachingBuildEngine(
       WeightedListeningExecutorService service,
       final FileHashCache fileHashCache,
@@ -157,6 +186,40 @@ public class CachingBuildEngine implements BuildEngine {
       ObjectMapper objectMapper,
       final BuildRuleResolver resolver,
       final int keySeed) {
+    this(
+        service,
+        fileHashCache,
+        buildMode,
+        depFiles,
+        maxDepFileCacheEntries,
+        artifactCacheSizeLimit,
+        inputRuleKeyFileSizeLimit,
+        objectMapper,
+        resolver,
+        keySeed,
+        Optional.<IncrementalRuleKeyCache>absent(),
+        Optional.<ArtifactUploadPipeline>absent());
+  }
+
+  /**
+   * @param incrementalRuleKeyCache if present, default rule keys are reused from and retained in
+   *     this cache across builds.
+   * @param artifactUploadPipeline if present, artifacts are stored through this pipeline rather
+   *     than compressed on the build threads.
+   */
+  public CachingBuildEngine(
+      WeightedListeningExecutorService service,
+      final FileHashCache fileHashCache,
+      BuildMode buildMode,
+      DepFiles depFiles,
+      long maxDepFileCacheEntries,
+      Optional<Long> artifactCacheSizeLimit,
+      final long inputRuleKeyFileSizeLimit,
+      ObjectMapper objectMapper,
+      final BuildRuleResolver resolver,
+      final int keySeed,
+      final Optional<IncrementalRuleKeyCache> incrementalRuleKeyCache,
+      Optional<ArtifactUploadPipeline> artifactUploadPipeline) {
     this.ruleDeps = new RuleDepsCache(service);
     this.unskippedRulesTracker = createUnskippedRulesTracker(buildMode, ruleDeps, service);
 
@@ -165,6 +228,7 @@ public class CachingBuildEngine implements BuildEngine {
     this.depFiles = depFiles;
     this.maxDepFileCacheEntries = maxDepFileCacheEntries;
     this.artifactCacheSizeLimit = artifactCacheSizeLimit;
+    this.artifactUploadPipeline = artifactUploadPipeline;
     this.objectMapper = objectMapper;
     this.pathResolver = new SourcePathResolver(resolver);
 
@@ -177,9 +241,13 @@ public class CachingBuildEngine implements BuildEngine {
                 keySeed,
                 fileHashCaches.get(filesystem),
                 resolver,
-                inputRuleKeyFileSizeLimit);
+                inputRuleKeyFileSizeLimit,
+                incrementalRuleKeyCache);
           }
         });
+    if (incrementalRuleKeyCache.isPresent()) {
+      incrementalRuleKeyCache.get().useFor(resolver, keySeed);
+    }
   }
 
   /**
@@ -203,6 +271,7 @@ public class CachingBuildEngine implements BuildEngine {
     this.depFiles = depFiles;
     this.maxDepFileCacheEntries = maxDepFileCacheEntries;
     this.artifactCacheSizeLimit = artifactCacheSizeLimit;
+    this.artifactUploadPipeline = Optional.absent();
     this.objectMapper = ObjectMappers.newDefaultInstance();
     this.pathResolver = pathResolver;
 
@@ -290,6 +359,7 @@ public class CachingBuildEngine implements BuildEngine {
       final BuildRule rule,
       final BuildContext context,
       final RuleKeyFactories ruleKeyFactory,
+      final BuildInfoRecorder buildInfoRecorder,
       final BuildableContext buildableContext,
       final CacheResult cacheResult) {
     return new AsyncFunction<Optional<BuildResult>, BuildResult>() {
@@ -316,7 +386,13 @@ public class CachingBuildEngine implements BuildEngine {
                     context.getEventBus(),
                     rule,
                     ruleKeyFactory.defaultRuleKeyBuilderFactory)) {
+                  Stopwatch stopwatch = Stopwatch.createStarted();
                   executeCommandsNowThatDepsAreBuilt(rule, context, buildableContext);
+                  // Travels with the artifact, so fetches of it can tell when building locally
+                  // would be quicker than downloading.
+                  buildInfoRecorder.addBuildMetadata(
+                      BuildInfo.METADATA_KEY_FOR_BUILD_DURATION_MILLIS,
+                      String.valueOf(stopwatch.elapsed(TimeUnit.MILLISECONDS)));
                   return BuildResult.success(
                       rule,
                       BuildRuleSuccessType.BUILT_LOCALLY,
@@ -515,7 +591,13 @@ public class CachingBuildEngine implements BuildEngine {
       // 5. Build the current rule locally, if we have to.
       return Futures.transformAsync(
           checkCachesResult,
-          buildLocally(rule, context, ruleKeyFactory, buildableContext, cacheResult),
+          buildLocally(
+              rule,
+              context,
+              ruleKeyFactory,
+              buildInfoRecorder,
+              buildableContext,
+              cacheResult),
           service);
     }
   }
@@ -602,6 +684,16 @@ public class CachingBuildEngine implements BuildEngine {
               for (Path path : buildInfoRecorder.getRecordedPaths()) {
                 fileHashCache.invalidate(rule.getProjectFilesystem().resolve(path));
               }
+
+              // Outputs written locally through the project filesystem were hashed as they were
+              // written, so seed the file hash cache with those hashes rather than have the output
+              // hashes and rule keys below read them back.
+              if (success == BuildRuleSuccessType.BUILT_LOCALLY) {
+                seedWrittenFileHashes(
+                    rule.getProjectFilesystem(),
+                    fileHashCache,
+                    buildInfoRecorder.getOutputPaths());
+              }
             }
 
             // If this rule uses dep files and we built locally, make sure we store the new dep file
@@ -757,7 +849,7 @@ public class CachingBuildEngine implements BuildEngine {
                 }
               }
 
-              private void uploadToCache(BuildRuleSuccessType success) {
+              private void uploadToCache(BuildRuleSuccessType success, long outputSize) {
 
                 // Collect up all the rule keys we have index the artifact in the cache with.
                 Set<RuleKey> ruleKeys = Sets.newHashSet();
@@ -787,13 +879,32 @@ public class CachingBuildEngine implements BuildEngine {
                           BuildInfo.METADATA_KEY_FOR_DEP_FILE_RULE_KEY).asSet());
                 }
 
-                // If we have any rule keys to push to the cache with, do the upload now.
+                // If we have any rule keys to push to the cache with, do the upload now, or hand
+                // it off to the upload pipeline.
                 if (!ruleKeys.isEmpty()) {
                   try {
-                    buildInfoRecorder.performUploadToArtifactCache(
-                        ImmutableSet.copyOf(ruleKeys),
-                        context.getArtifactCache(),
-                        context.getEventBus());
+                    if (artifactUploadPipeline.isPresent() &&
+                        context.getArtifactCache().isStoreSupported()) {
+                      artifactUploadPipeline.get().enqueue(
+                          ImmutableSet.copyOf(ruleKeys),
+                          outputSize,
+                          dependentCounts.count(rule.getBuildTarget()),
+                          new ArtifactUploadPipeline.Upload() {
+                            @Override
+                            public ListenableFuture<Void> start(ImmutableSet<RuleKey> keys)
+                                throws InterruptedException {
+                              return buildInfoRecorder.performUploadToArtifactCache(
+                                  keys,
+                                  context.getArtifactCache(),
+                                  context.getEventBus());
+                            }
+                          });
+                    } else {
+                      buildInfoRecorder.performUploadToArtifactCache(
+                          ImmutableSet.copyOf(ruleKeys),
+                          context.getArtifactCache(),
+                          context.getEventBus());
+                    }
                   } catch (Throwable t) {
                     context.getEventBus().post(
                         ThrowableConsoleEvent.create(
@@ -843,7 +954,7 @@ public class CachingBuildEngine implements BuildEngine {
 
                   // If this rule is cacheable, upload it to the cache.
                   if (outputSize.isPresent() && shouldUploadToCache(rule, outputSize.get())) {
-                    uploadToCache(success);
+                    uploadToCache(success, outputSize.get());
                   }
 
                   // Calculate the hash of outputs that were built locally and are cacheable.
@@ -927,6 +1038,12 @@ public class CachingBuildEngine implements BuildEngine {
       return existingResult;
     }
 
+    if (artifactUploadPipeline.isPresent()) {
+      for (BuildRule dep : rule.getDeps()) {
+        dependentCounts.add(dep.getBuildTarget());
+      }
+    }
+
     // Get the future holding the result for this rule and, if we have no additional runtime deps
     // to attach, return it.
     ListenableFuture<RuleKey> ruleKey = calculateRuleKey(rule, context);
@@ -1054,7 +1171,11 @@ public class CachingBuildEngine implements BuildEngine {
                            context.getEventBus(),
                            rule,
                            keyFactories.defaultRuleKeyBuilderFactory)) {
-                return keyFactories.defaultRuleKeyBuilderFactory.build(rule);
+                long start = System.nanoTime();
+                RuleKey key = keyFactories.defaultRuleKeyBuilderFactory.build(rule);
+                ruleKeyComputationTimeMicros.addSample(
+                    TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                return key;
               }
             }
           },
@@ -1069,6 +1190,18 @@ public class CachingBuildEngine implements BuildEngine {
 
   @Override
   public ListenableFuture<BuildResult> build(BuildContext context, BuildRule rule) {
+    if (countersRegistered.compareAndSet(false, true)) {
+      context.getEventBus().post(
+          new CounterRegistry.AsyncCounterRegistrationEvent(
+              ImmutableSet.<Counter>of(ruleKeyComputationTimeMicros, cacheFetchTimeMicros)));
+    }
+    RuleKeyFactories keyFactories = ruleKeyFactories.getUnchecked(rule.getProjectFilesystem());
+    if (ruleKeyFactoriesWithRegisteredCounters.add(keyFactories) &&
+        !keyFactories.counters.isEmpty()) {
+      context.getEventBus().post(
+          new CounterRegistry.AsyncCounterRegistrationEvent(keyFactories.counters));
+    }
+
     // Keep track of all jobs that run asynchronously with respect to the build dep chain.  We want
     // to make sure we wait for these before calling yielding the final build result.
     final ConcurrentLinkedQueue<ListenableFuture<Void>> asyncCallbacks =
@@ -1208,7 +1341,12 @@ public class CachingBuildEngine implements BuildEngine {
       final ArtifactCache artifactCache,
       final BuildInfoRecorder buildInfoRecorder
   ) throws InterruptedException {
-    return buildInfoRecorder.fetchArtifactForBuildable(ruleKey, lazyZipPath, artifactCache);
+    long start = System.nanoTime();
+    try {
+      return buildInfoRecorder.fetchArtifactForBuildable(ruleKey, lazyZipPath, artifactCache);
+    } finally {
+      cacheFetchTimeMicros.addSample(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+    }
   }
 
 
@@ -1272,6 +1410,35 @@ public class CachingBuildEngine implements BuildEngine {
     LOG.debug("Finished running post-build steps for %s", rule);
   }
 
+  /**
+   * Seeds {@code fileHashCache} with the hashes recorded while the given outputs, or the files
+   * under them, were written.  Files without a recorded hash, which changed since, or which were
+   * written too recently for a later step rewriting them to be noticed, are left to be hashed on
+   * demand.
+   */
+  private void seedWrittenFileHashes(
+      ProjectFilesystem filesystem,
+      FileHashCache fileHashCache,
+      Iterable<Path> outputs)
+      throws IOException {
+    WrittenFileHashes writtenFileHashes = filesystem.getWrittenFileHashes();
+    for (Path output : outputs) {
+      Iterable<Path> files = filesystem.isDirectory(output) ?
+          filesystem.getFilesUnderPath(output) :
+          ImmutableList.of(output);
+      for (Path file : files) {
+        Path resolved = filesystem.resolve(file);
+        if (!fileHashCache.willGet(resolved)) {
+          continue;
+        }
+        Optional<HashCode> hashCode = writtenFileHashes.get(resolved);
+        if (hashCode.isPresent()) {
+          fileHashCache.set(resolved, hashCode.get());
+        }
+      }
+    }
+  }
+
   private <T> void doInitializeFromDisk(
       InitializableFromDisk<T> initializable,
       OnDiskBuildInfo onDiskBuildInfo)
@@ -1701,34 +1868,52 @@ public class CachingBuildEngine implements BuildEngine {
     public final RuleKeyBuilderFactory<Optional<RuleKey>> inputBasedRuleKeyBuilderFactory;
     public final RuleKeyBuilderFactory<RuleKey> abiRuleKeyBuilderFactory;
     public final DependencyFileRuleKeyBuilderFactory depFileRuleKeyBuilderFactory;
+    /** Hit and miss counters of the factories' {@link RuleKeyAppendable} sub-key caches. */
+    public final ImmutableList<Counter> counters;
 
     public static RuleKeyFactories build(
         int seed,
         FileHashCache fileHashCache,
         BuildRuleResolver ruleResolver,
-        long inputRuleKeyFileSizeLimit) {
+        long inputRuleKeyFileSizeLimit,
+        Optional<IncrementalRuleKeyCache> incrementalRuleKeyCache) {
       SourcePathResolver pathResolver = new SourcePathResolver(ruleResolver);
+      // Only default rule keys are retained across builds: the others hash the outputs of deps,
+      // which change as the build goes on.
       DefaultRuleKeyBuilderFactory defaultRuleKeyBuilderFactory = new DefaultRuleKeyBuilderFactory(
           seed,
           fileHashCache,
-          pathResolver);
+          pathResolver,
+          incrementalRuleKeyCache);
 
-      return new RuleKeyFactories(
-          defaultRuleKeyBuilderFactory,
+      InputBasedRuleKeyBuilderFactory inputBasedRuleKeyBuilderFactory =
           new InputBasedRuleKeyBuilderFactory(
               seed,
               fileHashCache,
               pathResolver,
-              inputRuleKeyFileSizeLimit),
-          new AbiRuleKeyBuilderFactory(
-              seed,
-              fileHashCache,
-              pathResolver,
-              defaultRuleKeyBuilderFactory),
+              inputRuleKeyFileSizeLimit);
+      AbiRuleKeyBuilderFactory abiRuleKeyBuilderFactory = new AbiRuleKeyBuilderFactory(
+          seed,
+          fileHashCache,
+          pathResolver,
+          defaultRuleKeyBuilderFactory);
+      DefaultDependencyFileRuleKeyBuilderFactory depFileRuleKeyBuilderFactory =
           new DefaultDependencyFileRuleKeyBuilderFactory(
               seed,
               fileHashCache,
-              pathResolver));
+              pathResolver);
+
+      return new RuleKeyFactories(
+          defaultRuleKeyBuilderFactory,
+          inputBasedRuleKeyBuilderFactory,
+          abiRuleKeyBuilderFactory,
+          depFileRuleKeyBuilderFactory,
+          ImmutableList.<Counter>builder()
+              .addAll(defaultRuleKeyBuilderFactory.getCounters())
+              .addAll(inputBasedRuleKeyBuilderFactory.getCounters())
+              .addAll(abiRuleKeyBuilderFactory.getCounters())
+              .addAll(depFileRuleKeyBuilderFactory.getCounters())
+              .build());
     }
 
     @VisibleForTesting
@@ -1737,10 +1922,25 @@ public class CachingBuildEngine implements BuildEngine {
         RuleKeyBuilderFactory<Optional<RuleKey>> inputBasedRuleKeyBuilderFactory,
         RuleKeyBuilderFactory<RuleKey> abiRuleKeyBuilderFactory,
         DependencyFileRuleKeyBuilderFactory depFileRuleKeyBuilderFactory) {
+      this(
+          defaultRuleKeyBuilderFactory,
+          inputBasedRuleKeyBuilderFactory,
+          abiRuleKeyBuilderFactory,
+          depFileRuleKeyBuilderFactory,
+          ImmutableList.<Counter>of());
+    }
+
+    private RuleKeyFactories(
+        RuleKeyBuilderFactory<RuleKey> defaultRuleKeyBuilderFactory,
+        RuleKeyBuilderFactory<Optional<RuleKey>> inputBasedRuleKeyBuilderFactory,
+        RuleKeyBuilderFactory<RuleKey> abiRuleKeyBuilderFactory,
+        DependencyFileRuleKeyBuilderFactory depFileRuleKeyBuilderFactory,
+        ImmutableList<Counter> counters) {
       this.defaultRuleKeyBuilderFactory = defaultRuleKeyBuilderFactory;
       this.inputBasedRuleKeyBuilderFactory = inputBasedRuleKeyBuilderFactory;
       this.abiRuleKeyBuilderFactory = abiRuleKeyBuilderFactory;
       this.depFileRuleKeyBuilderFactory = depFileRuleKeyBuilderFactory;
+      this.counters = counters;
     }
   }
 }
@@ -25,6 +25,7 @@ import com.facebook.buck.io.ExecutableFinder;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.io.Watchman;
 import com.facebook.buck.json.DefaultProjectBuildFileParserFactory;
+import com.facebook.buck.json.InJvmBuildFileEvaluator;
 import com.facebook.buck.json.ProjectBuildFileParser;
 import com.facebook.buck.json.ProjectBuildFileParserFactory;
 import com.facebook.buck.json.ProjectBuildFileParserOptions;
@@ -318,11 +319,8 @@ public class Cell {
       Console console,
       BuckEventBus eventBus,
       boolean ignoreBuckAutodepsFiles) {
-    ParserConfig parserConfig = new ParserConfig(getBuckConfig());
-    boolean useWatchmanGlob =
-        parserConfig.getGlobHandler() == ParserConfig.GlobHandler.WATCHMAN &&
-        watchman.hasWildmatchGlob();
-    ProjectBuildFileParserFactory factory = createBuildFileParserFactory(useWatchmanGlob);
+    ProjectBuildFileParserFactory factory =
+        createBuildFileParserFactory(useWatchmanGlob(new ParserConfig(getBuckConfig())));
     return factory.createParser(
         marshaller,
         console,
@@ -331,24 +329,53 @@ public class Cell {
         ignoreBuckAutodepsFiles);
   }
 
-  @VisibleForTesting
-  protected ProjectBuildFileParserFactory createBuildFileParserFactory(boolean useWatchmanGlob) {
+  /**
+   * @return an evaluator for the build files of this cell that {@code buck.py} doesn't need to
+   *     parse, or absent if in-JVM evaluation is disabled.
+   */
+  public Optional<InJvmBuildFileEvaluator> createInJvmBuildFileEvaluator(
+      ConstructorArgMarshaller marshaller,
+      BuckEventBus eventBus,
+      boolean ignoreBuckAutodepsFiles) {
     ParserConfig parserConfig = new ParserConfig(getBuckConfig());
+    if (!parserConfig.getEnableInJvmBuildFileEvaluation()) {
+      return Optional.absent();
+    }
+    return Optional.of(
+        new InJvmBuildFileEvaluator(
+            createBuildFileParserOptions(parserConfig, useWatchmanGlob(parserConfig)),
+            marshaller,
+            eventBus,
+            ignoreBuckAutodepsFiles));
+  }
+
+  private boolean useWatchmanGlob(ParserConfig parserConfig) {
+    return parserConfig.getGlobHandler() == ParserConfig.GlobHandler.WATCHMAN &&
+        watchman.hasWildmatchGlob();
+  }
 
+  @VisibleForTesting
+  protected ProjectBuildFileParserFactory createBuildFileParserFactory(boolean useWatchmanGlob) {
     return new DefaultProjectBuildFileParserFactory(
-        ProjectBuildFileParserOptions.builder()
-            .setProjectRoot(getFilesystem().getRootPath())
-            .setPythonInterpreter(pythonInterpreter)
-            .setAllowEmptyGlobs(parserConfig.getAllowEmptyGlobs())
-            .setIgnorePaths(filesystem.getIgnorePaths())
-            .setBuildFileName(getBuildFileName())
-            .setDefaultIncludes(parserConfig.getDefaultIncludes())
-            .setDescriptions(getAllDescriptions())
-            .setUseWatchmanGlob(useWatchmanGlob)
-            .setWatchman(watchman)
-            .setWatchmanQueryTimeoutMs(parserConfig.getWatchmanQueryTimeoutMs())
-            .setRawConfig(getBuckConfig().getRawConfigForParser())
-            .build());
+        createBuildFileParserOptions(new ParserConfig(getBuckConfig()), useWatchmanGlob));
+  }
+
+  private ProjectBuildFileParserOptions createBuildFileParserOptions(
+      ParserConfig parserConfig,
+      boolean useWatchmanGlob) {
+    return ProjectBuildFileParserOptions.builder()
+        .setProjectRoot(getFilesystem().getRootPath())
+        .setPythonInterpreter(pythonInterpreter)
+        .setAllowEmptyGlobs(parserConfig.getAllowEmptyGlobs())
+        .setIgnorePaths(filesystem.getIgnorePaths())
+        .setBuildFileName(getBuildFileName())
+        .setDefaultIncludes(parserConfig.getDefaultIncludes())
+        .setDescriptions(getAllDescriptions())
+        .setUseWatchmanGlob(useWatchmanGlob)
+        .setWatchman(watchman)
+        .setWatchmanQueryTimeoutMs(parserConfig.getWatchmanQueryTimeoutMs())
+        .setRawConfig(getBuckConfig().getRawConfigForParser())
+        .build();
   }
 
   @Override
@@ -22,8 +22,9 @@ import com.facebook.buck.parser.NoSuchBuildTargetException;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
-import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
 
 import java.lang.reflect.Field;
@@ -32,8 +33,6 @@ import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 
 /**
  * Used to derive information from the constructor args returned by {@link Description} instances.
@@ -43,8 +42,8 @@ import java.util.concurrent.ExecutionException;
  */
 public class ConstructorArgMarshaller {
 
-  private final TypeCoercerFactory typeCoercerFactory;
-  private final Cache<Class<?>, ImmutableSet<ParamInfo>> coercedTypes;
+  private final VisibilityPatternParser visibilityPatternParser = new VisibilityPatternParser();
+  private final LoadingCache<Class<?>, ArgClassInfo> argClassInfos;
 
   /**
    * Constructor. {@code pathFromProjectRootToBuildFile} is the path relative to the project root to
@@ -52,9 +51,14 @@ public class ConstructorArgMarshaller {
    * additional paths to ones relative to the project root, and to allow {@link BuildTarget}
    * instances to be fully qualified.
    */
-  public ConstructorArgMarshaller(TypeCoercerFactory typeCoercerFactory) {
-    this.typeCoercerFactory = typeCoercerFactory;
-    this.coercedTypes = CacheBuilder.newBuilder().build();
+  public ConstructorArgMarshaller(final TypeCoercerFactory typeCoercerFactory) {
+    this.argClassInfos = CacheBuilder.newBuilder().build(
+        new CacheLoader<Class<?>, ArgClassInfo>() {
+          @Override
+          public ArgClassInfo load(Class<?> argClass) {
+            return new ArgClassInfo(typeCoercerFactory, argClass);
+          }
+        });
   }
 
   /**
@@ -87,15 +91,16 @@ public class ConstructorArgMarshaller {
       ImmutableSet.Builder<BuildTarget> declaredDeps,
       ImmutableSet.Builder<VisibilityPattern> visibilityPatterns,
       Map<String, ?> instance) throws ConstructorArgMarshalException, NoSuchBuildTargetException {
-    for (ParamInfo info : getAllParamInfo(dto)) {
+    ArgClassInfo argClassInfo = argClassInfos.getUnchecked(dto.getClass());
+    for (ParamInfo info : argClassInfo.params) {
       try {
         info.setFromParams(cellRoots, filesystem, params, dto, instance);
       } catch (ParamInfoException e) {
         throw new ConstructorArgMarshalException(e.getMessage(), e);
       }
-      if (info.getName().equals("deps")) {
-        populateDeclaredDeps(info, declaredDeps, dto);
-      }
+    }
+    if (argClassInfo.declaredDeps.isPresent()) {
+      populateDeclaredDeps(argClassInfo.declaredDeps.get(), declaredDeps, dto);
     }
     populateVisibilityPatterns(cellRoots, visibilityPatterns, instance);
   }
@@ -126,21 +131,17 @@ public class ConstructorArgMarshaller {
       ParamInfo paramInfo,
       final ImmutableSet.Builder<BuildTarget> declaredDeps,
       Object dto) {
-
-    if (paramInfo.isDep()) {
-      paramInfo.traverse(
-          new ParamInfo.Traversal() {
-            @Override
-            public void traverse(Object object) {
-              if (!(object instanceof BuildTarget)) {
-                return;
-              }
-              declaredDeps.add((BuildTarget) object);
+    paramInfo.traverse(
+        new ParamInfo.Traversal() {
+          @Override
+          public void traverse(Object object) {
+            if (!(object instanceof BuildTarget)) {
+              return;
             }
-          },
-          dto);
-
-    }
+            declaredDeps.add((BuildTarget) object);
+          }
+        },
+        dto);
   }
 
   @SuppressWarnings("unchecked")
@@ -155,36 +156,39 @@ public class ConstructorArgMarshaller {
             String.format("Expected an array for visibility but was %s", value));
       }
 
-      VisibilityPatternParser parser = new VisibilityPatternParser();
       for (String visibility : (List<String>) value) {
-        visibilityPatterns.add(parser.parse(cellNames, visibility));
+        visibilityPatterns.add(visibilityPatternParser.parse(cellNames, visibility));
       }
     }
   }
 
   ImmutableSet<ParamInfo> getAllParamInfo(Object dto) {
-    final Class<?> argClass = dto.getClass();
-    try {
-      return coercedTypes.get(argClass, new Callable<ImmutableSet<ParamInfo>>() {
-            @Override
-            public ImmutableSet<ParamInfo> call() {
-              ImmutableSet.Builder<ParamInfo> allInfo = ImmutableSet.builder();
-
-              for (Field field : argClass.getFields()) {
-                if (Modifier.isFinal(field.getModifiers())) {
-                  continue;
-                }
-                allInfo.add(new ParamInfo(typeCoercerFactory, field));
-              }
+    return argClassInfos.getUnchecked(dto.getClass()).params;
+  }
 
-              return allInfo.build();
-            }
-          });
-    } catch (ExecutionException e) {
-      // This gets thrown if we saw an error when loading the value. Nothing sane to do here, and
-      // we (previously, before using a cache), simply allowed a RuntimeException to bubble up.
-      // Maintain that behaviour.
-      throw new RuntimeException(e);
+  /**
+   * Everything needed to populate instances of an arg class, resolved once per class: the fields
+   * to set along with the coercers for their types, and the field holding the declared deps.
+   */
+  private static class ArgClassInfo {
+    private final ImmutableSet<ParamInfo> params;
+    private final Optional<ParamInfo> declaredDeps;
+
+    private ArgClassInfo(TypeCoercerFactory typeCoercerFactory, Class<?> argClass) {
+      ImmutableSet.Builder<ParamInfo> allInfo = ImmutableSet.builder();
+      Optional<ParamInfo> declaredDeps = Optional.absent();
+      for (Field field : argClass.getFields()) {
+        if (Modifier.isFinal(field.getModifiers())) {
+          continue;
+        }
+        ParamInfo info = new ParamInfo(typeCoercerFactory, field);
+        allInfo.add(info);
+        if (info.getName().equals("deps") && info.isDep()) {
+          declaredDeps = Optional.of(info);
+        }
+      }
+      this.params = allInfo.build();
+      this.declaredDeps = declaredDeps;
     }
   }
 }
@@ -529,7 +529,8 @@ public class KnownBuildRuleTypes {
             proGuardConfig,
             ndkCxxPlatforms,
             dxExecutorService,
-            cxxBuckConfig));
+            cxxBuckConfig,
+            androidConfig.getApkWriterMode()));
     builder.register(new AndroidBuildConfigDescription(defaultJavacOptions));
     builder.register(
         new AndroidInstrumentationApkDescription(
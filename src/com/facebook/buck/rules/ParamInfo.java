@@ -24,7 +24,11 @@ import com.facebook.buck.util.Types;
 import com.google.common.base.CaseFormat;
 import com.google.common.base.Optional;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.nio.file.Path;
 import java.util.Map;
 
@@ -43,6 +47,10 @@ public class ParamInfo implements Comparable<ParamInfo> {
   private final boolean isDep;
   private final boolean isInput;
   private final Field field;
+  // Resolved once per field, so that reading and writing values doesn't go through reflection.
+  private final MethodHandle getter;
+  @Nullable
+  private final MethodHandle setter;
 
   public ParamInfo(TypeCoercerFactory typeCoercerFactory, Field field) {
     this.field = field;
@@ -54,6 +62,30 @@ public class ParamInfo implements Comparable<ParamInfo> {
 
     isOptional = Optional.class.isAssignableFrom(field.getType());
     this.typeCoercer = typeCoercerFactory.typeCoercerForType(Types.getFirstNonOptionalType(field));
+
+    // Arg classes are often nested in non-public classes, so bypass access checks like the
+    // reflective accessors did from this package.
+    field.setAccessible(true);
+    try {
+      this.getter = adaptAccessor(field, MethodHandles.lookup().unreflectGetter(field))
+          .asType(MethodType.methodType(Object.class, Object.class));
+      this.setter = Modifier.isFinal(field.getModifiers()) ?
+          null :
+          adaptAccessor(field, MethodHandles.lookup().unreflectSetter(field))
+              .asType(MethodType.methodType(void.class, Object.class, Object.class));
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Makes accessors of static fields take (and ignore) an instance, like those of instance fields.
+   */
+  private static MethodHandle adaptAccessor(Field field, MethodHandle accessor) {
+    if (Modifier.isStatic(field.getModifiers())) {
+      return MethodHandles.dropArguments(accessor, 0, Object.class);
+    }
+    return accessor;
   }
 
   public String getName() {
@@ -102,15 +134,11 @@ public class ParamInfo implements Comparable<ParamInfo> {
   @SuppressWarnings("unchecked")
   private <U> void traverseHelper(TypeCoercer<U> typeCoercer, Traversal traversal, Object dto) {
     U object;
-    try {
-      if (isOptional) {
-        Optional<U> optional = (Optional<U>) field.get(dto);
-        object = optional.orNull();
-      } else {
-        object = (U) field.get(dto);
-      }
-    } catch (ReflectiveOperationException e) {
-      throw new RuntimeException(e);
+    Object value = get(dto);
+    if (isOptional) {
+      object = ((Optional<U>) value).orNull();
+    } else {
+      object = (U) value;
     }
 
     if (object != null) {
@@ -179,10 +207,26 @@ public class ParamInfo implements Comparable<ParamInfo> {
       }
     }
 
+    if (setter == null) {
+      throw new RuntimeException(
+          new IllegalAccessException("Cannot set final field " + field));
+    }
+    try {
+      setter.invokeExact(dto, result);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new RuntimeException(t);
+    }
+  }
+
+  private Object get(Object dto) {
     try {
-      field.set(dto, result);
-    } catch (ReflectiveOperationException e) {
-      throw new RuntimeException(e);
+      return (Object) getter.invokeExact(dto);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new RuntimeException(t);
     }
   }
 
@@ -39,11 +39,12 @@ import com.google.common.primitives.Primitives;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.SortedMap;
-import java.util.Stack;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
@@ -59,7 +60,7 @@ public abstract class RuleKeyBuilder<T> implements RuleKeyObjectSink {
   private final Hasher hasher;
   private final FileHashLoader hashLoader;
   private final RuleKeyLogger ruleKeyLogger;
-  private Stack<String> keyStack;
+  private final Deque<String> keyStack;
 
   public RuleKeyBuilder(
       SourcePathResolver resolver,
@@ -68,7 +69,7 @@ public abstract class RuleKeyBuilder<T> implements RuleKeyObjectSink {
     this.resolver = resolver;
     this.hasher = new AppendingHasher(Hashing.sha1(), /* numHashers */ 2);
     this.hashLoader = hashLoader;
-    this.keyStack = new Stack<>();
+    this.keyStack = new ArrayDeque<>();
     this.ruleKeyLogger = ruleKeyLogger;
   }
 
@@ -247,6 +248,57 @@ public abstract class RuleKeyBuilder<T> implements RuleKeyObjectSink {
     }
   }
 
+  /**
+   * Equivalent to {@link #setReflectively(String, Object)} for a value known to be a
+   * {@link String}, but without dispatching on its runtime type.
+   */
+  public RuleKeyBuilder<T> setString(String key, @Nullable String val) {
+    if (val == null) {
+      return setReflectively(key, null);
+    }
+    keyStack.push(key);
+    try (RuleKeyLogger.Scope keyScope = ruleKeyLogger.pushKey(key)) {
+      ruleKeyLogger.addValue(val);
+      return feed(val.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Equivalent to {@link #setReflectively(String, Object)} for a {@code boolean}, but without
+   * boxing it or dispatching on its runtime type.
+   */
+  public RuleKeyBuilder<T> setBoolean(String key, boolean val) {
+    keyStack.push(key);
+    try (RuleKeyLogger.Scope keyScope = ruleKeyLogger.pushKey(key)) {
+      ruleKeyLogger.addValue(val);
+      return feed((val ? "t" : "f").getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Equivalent to {@link #setReflectively(String, Object)} for an {@code int}, but without
+   * boxing it or dispatching on its runtime type. As there, numbers are hashed without their key.
+   */
+  public RuleKeyBuilder<T> setInt(String key, int val) {
+    try (RuleKeyLogger.Scope keyScope = ruleKeyLogger.pushKey(key)) {
+      ruleKeyLogger.addValue(val);
+      hasher.putInt(val);
+      return this;
+    }
+  }
+
+  /**
+   * Equivalent to {@link #setReflectively(String, Object)} for a {@code long}, but without
+   * boxing it or dispatching on its runtime type. As there, numbers are hashed without their key.
+   */
+  public RuleKeyBuilder<T> setLong(String key, long val) {
+    try (RuleKeyLogger.Scope keyScope = ruleKeyLogger.pushKey(key)) {
+      ruleKeyLogger.addValue(val);
+      hasher.putLong(val);
+      return this;
+    }
+  }
+
   protected RuleKeyBuilder<T> setPath(Path ideallyRelative, HashCode sha1) {
     Path addToKey;
     if (ideallyRelative.isAbsolute()) {
@@ -20,6 +20,10 @@ import com.facebook.buck.model.Flavor;
 import com.facebook.buck.parser.NoSuchBuildTargetException;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.util.ExceptionWithHumanReadableMessage;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Sets;
@@ -29,10 +33,25 @@ import java.lang.reflect.Field;
 import java.nio.file.Path;
 
 public class TargetNodeFactory {
-  private final TypeCoercerFactory typeCoercerFactory;
-
-  public TargetNodeFactory(TypeCoercerFactory typeCoercerFactory) {
-    this.typeCoercerFactory = typeCoercerFactory;
+  // The fields of each arg class which may hold deps or inputs.
+  private final LoadingCache<Class<?>, ImmutableList<ParamInfo>> depAndInputParams;
+
+  public TargetNodeFactory(final TypeCoercerFactory typeCoercerFactory) {
+    this.depAndInputParams = CacheBuilder.newBuilder().build(
+        new CacheLoader<Class<?>, ImmutableList<ParamInfo>>() {
+          @Override
+          public ImmutableList<ParamInfo> load(Class<?> argClass) {
+            ImmutableList.Builder<ParamInfo> params = ImmutableList.builder();
+            for (Field field : argClass.getFields()) {
+              ParamInfo info = new ParamInfo(typeCoercerFactory, field);
+              if (info.isDep() && info.isInput() &&
+                  info.hasElementTypes(BuildTarget.class, SourcePath.class, Path.class)) {
+                params.add(info);
+              }
+            }
+            return params.build();
+          }
+        });
   }
 
   /**
@@ -79,16 +98,12 @@ public class TargetNodeFactory {
 
     // Scan the input to find possible BuildTargets, necessary for loading dependent rules.
     T arg = description.createUnpopulatedConstructorArg();
-    for (Field field : arg.getClass().getFields()) {
-      ParamInfo info = new ParamInfo(typeCoercerFactory, field);
-      if (info.isDep() && info.isInput() &&
-          info.hasElementTypes(BuildTarget.class, SourcePath.class, Path.class)) {
-        detectBuildTargetsAndPathsForConstructorArg(
-            extraDepsBuilder,
-            pathsBuilder,
-            info,
-            constructorArg);
-      }
+    for (ParamInfo info : depAndInputParams.getUnchecked(arg.getClass())) {
+      detectBuildTargetsAndPathsForConstructorArg(
+          extraDepsBuilder,
+          pathsBuilder,
+          info,
+          constructorArg);
     }
 
     if (description instanceof ImplicitDepsInferringDescription) {
@@ -29,6 +29,7 @@ import com.facebook.buck.rules.macros.WorkerMacroExpander;
 import com.facebook.buck.shell.WorkerTool;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
 
 import java.nio.file.Path;
 
@@ -37,6 +38,7 @@ public class WorkerMacroArg extends MacroArg {
   private final WorkerTool workerTool;
   private final ImmutableList<String> startupCommand;
   private final ImmutableMap<String, String> startupEnvironment;
+  private final ImmutableSortedSet<Path> startupInputs;
   private final String jobArgs;
 
   public WorkerMacroArg(
@@ -80,6 +82,8 @@ public class WorkerMacroArg extends MacroArg {
     Tool exe = this.workerTool.getTool();
     startupCommand = exe.getCommandPrefix(pathResolver);
     startupEnvironment = exe.getEnvironment(pathResolver);
+    startupInputs = ImmutableSortedSet.copyOf(
+        pathResolver.getAllAbsolutePaths(exe.getInputs()));
     jobArgs = macroHandler.expand(target, cellNames, resolver, unexpanded).trim();
   }
 
@@ -99,6 +103,14 @@ public class WorkerMacroArg extends MacroArg {
     return workerTool.getArgs();
   }
 
+  public int getMaxWorkers() {
+    return workerTool.getMaxWorkers();
+  }
+
+  public ImmutableSortedSet<Path> getStartupInputs() {
+    return startupInputs;
+  }
+
   public String getJobArgs() {
     return jobArgs;
   }
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules.coercer;
+
+import com.facebook.buck.model.Flavor;
+import com.facebook.buck.rules.Label;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.nio.file.Path;
+
+/**
+ * Shares instances of coerced values which tend to repeat across targets, such as paths, flag
+ * lists and label sets, so that the daemon holds one copy of each rather than one per target.
+ * <p>
+ * Collections are only shared when their elements are plain values, since collections of build
+ * targets or source paths are rarely repeated, and only when their equality takes element order
+ * into account, so that sharing an instance never reorders a collection.
+ */
+final class CoercedValueInterner {
+
+  private static final ImmutableSet<Class<?>> VALUE_CLASSES =
+      ImmutableSet.<Class<?>>of(String.class, Label.class, Flavor.class);
+
+  private static final Interner<Path> PATHS = Interners.newWeakInterner();
+  private static final Interner<ImmutableList<?>> LISTS = Interners.newWeakInterner();
+  private static final Interner<ImmutableSortedSet<?>> SORTED_SETS = Interners.newWeakInterner();
+
+  private CoercedValueInterner() {
+    // Utility class.
+  }
+
+  static boolean isValueClass(Class<?> clazz) {
+    return VALUE_CLASSES.contains(clazz);
+  }
+
+  static Path intern(Path path) {
+    return PATHS.intern(path);
+  }
+
+  @SuppressWarnings("unchecked")
+  static <T> ImmutableList<T> intern(ImmutableList<T> list) {
+    if (list.isEmpty()) {
+      return list;
+    }
+    return (ImmutableList<T>) LISTS.intern(list);
+  }
+
+  @SuppressWarnings("unchecked")
+  static <T> ImmutableSortedSet<T> intern(ImmutableSortedSet<T> set) {
+    if (set.isEmpty()) {
+      return set;
+    }
+    return (ImmutableSortedSet<T>) SORTED_SETS.intern(set);
+  }
+}
@@ -31,6 +31,13 @@ public abstract class CollectionTypeCoercer<C extends ImmutableCollection<T>, T>
     this.elementTypeCoercer = elementTypeCoercer;
   }
 
+  /**
+   * @return whether the elements of the coerced collections are plain values, such as strings.
+   */
+  protected boolean hasValueElements() {
+    return CoercedValueInterner.isValueClass(elementTypeCoercer.getOutputClass());
+  }
+
   @Override
   public boolean hasElementClass(Class<?>... types) {
     return elementTypeCoercer.hasElementClass(types);
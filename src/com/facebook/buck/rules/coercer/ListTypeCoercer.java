@@ -52,6 +52,7 @@ public class ListTypeCoercer<T> extends CollectionTypeCoercer<ImmutableList<T>,
         pathRelativeToProjectRoot,
         builder,
         object);
-    return builder.build();
+    ImmutableList<T> list = builder.build();
+    return hasValueElements() ? CoercedValueInterner.intern(list) : list;
   }
 }
@@ -59,7 +59,7 @@ public class PathTypeCoercer extends LeafTypeCoercer<Path> {
         }
       }
 
-      return normalizedPath;
+      return CoercedValueInterner.intern(normalizedPath);
     } else {
       throw CoerceFailedException.simple(object, getOutputClass());
     }
@@ -87,7 +87,8 @@ public class SortedSetTypeCoercer<T extends Comparable<? super T>>
         pathRelativeToProjectRoot,
         builder,
         object);
-    return ImmutableSortedSet.copyOf(builder);
+    ImmutableSortedSet<T> set = ImmutableSortedSet.copyOf(builder);
+    return hasValueElements() ? CoercedValueInterner.intern(set) : set;
   }
 
 }
@@ -17,8 +17,8 @@
 package com.facebook.buck.rules.keys;
 
 import com.facebook.buck.rules.BuildRule;
-import com.facebook.buck.rules.RuleKeyObjectSink;
+import com.facebook.buck.rules.RuleKeyBuilder;
 
 interface AlterRuleKey {
-  void amendKey(RuleKeyObjectSink sink, BuildRule rule);
+  void amendKey(RuleKeyBuilder<?> builder, BuildRule rule);
 }
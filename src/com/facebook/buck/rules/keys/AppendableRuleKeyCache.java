@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.rules.RuleKeyAppendable;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Memoizes the sub-keys a rule key factory computes for {@link RuleKeyAppendable}s, so that an
+ * appendable shared by many rules (e.g. a toolchain or a set of compiler flags) is only hashed
+ * once per factory.
+ * <p>
+ * Entries are keyed by identity and held weakly, as {@link RuleKeyAppendable}s generally don't
+ * implement {@code equals} and shouldn't be kept alive by the factory.
+ */
+class AppendableRuleKeyCache<V> {
+
+  private static final String COUNTER_CATEGORY = "buck_appendable_rule_key_cache";
+  private static final String CACHE_HIT_COUNTER_NAME = "cache_hit";
+  private static final String CACHE_MISS_COUNTER_NAME = "cache_miss";
+  private static final String FACTORY_TAG = "factory";
+
+  private final LoadingCache<RuleKeyAppendable, V> cache;
+  private final IntegerCounter cacheHitCounter;
+  private final IntegerCounter cacheMissCounter;
+
+  public AppendableRuleKeyCache(String factoryName, CacheLoader<RuleKeyAppendable, V> loader) {
+    this.cache = CacheBuilder.newBuilder().weakKeys().build(loader);
+    this.cacheHitCounter = new IntegerCounter(
+        COUNTER_CATEGORY,
+        CACHE_HIT_COUNTER_NAME,
+        ImmutableMap.of(FACTORY_TAG, factoryName));
+    this.cacheMissCounter = new IntegerCounter(
+        COUNTER_CATEGORY,
+        CACHE_MISS_COUNTER_NAME,
+        ImmutableMap.of(FACTORY_TAG, factoryName));
+  }
+
+  public V get(RuleKeyAppendable appendable) {
+    V value = cache.getIfPresent(appendable);
+    if (value != null) {
+      cacheHitCounter.inc();
+      return value;
+    }
+    // Concurrent misses on the same appendable are both counted, but the loader still only runs
+    // once.
+    cacheMissCounter.inc();
+    return cache.getUnchecked(appendable);
+  }
+
+  public ImmutableList<Counter> getCounters() {
+    return ImmutableList.<Counter>of(cacheHitCounter, cacheMissCounter);
+  }
+}
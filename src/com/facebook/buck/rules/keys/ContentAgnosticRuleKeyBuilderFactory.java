@@ -23,9 +23,7 @@ import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.RuleKeyAppendable;
 import com.facebook.buck.rules.RuleKeyBuilder;
 import com.facebook.buck.rules.SourcePathResolver;
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.common.hash.HashCode;
 
 import java.io.IOException;
@@ -42,14 +40,15 @@ public class ContentAgnosticRuleKeyBuilderFactory
 
   private final FileHashLoader fileHashLoader;
   private final SourcePathResolver pathResolver;
-  private final LoadingCache<RuleKeyAppendable, RuleKey> ruleKeyCache;
+  private final AppendableRuleKeyCache<RuleKey> ruleKeyCache;
 
   public ContentAgnosticRuleKeyBuilderFactory(
       int seed,
       SourcePathResolver pathResolver) {
     super(seed);
     // Build the cache around the sub-rule-keys and their dep lists.
-    ruleKeyCache = CacheBuilder.newBuilder().weakKeys().build(
+    ruleKeyCache = new AppendableRuleKeyCache<>(
+        getClass().getSimpleName(),
         new CacheLoader<RuleKeyAppendable, RuleKey>() {
           @Override
           public RuleKey load(@Nonnull RuleKeyAppendable appendable) throws Exception {
@@ -90,7 +89,7 @@ public class ContentAgnosticRuleKeyBuilderFactory
       public RuleKeyBuilder<RuleKey> setAppendableRuleKey(
           String key,
           RuleKeyAppendable appendable) {
-        RuleKey subKey = ruleKeyCache.getUnchecked(appendable);
+        RuleKey subKey = ruleKeyCache.get(appendable);
         return setAppendableRuleKey(key, subKey);
       }
 
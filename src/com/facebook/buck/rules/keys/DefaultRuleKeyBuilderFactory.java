@@ -16,7 +16,9 @@
 
 package com.facebook.buck.rules.keys;
 
+import com.facebook.buck.counters.Counter;
 import com.facebook.buck.hashing.FileHashLoader;
+import com.facebook.buck.io.ArchiveMemberPath;
 import com.facebook.buck.rules.AbstractBuildRule;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.RuleKey;
@@ -25,9 +27,13 @@ import com.facebook.buck.rules.RuleKeyBuilder;
 import com.facebook.buck.rules.RuleKeyBuilderFactory;
 import com.facebook.buck.rules.RuleKeyObjectSink;
 import com.facebook.buck.rules.SourcePathResolver;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.base.Optional;
 import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.IOException;
+import java.nio.file.Path;
 
 import javax.annotation.Nonnull;
 
@@ -37,52 +43,79 @@ import javax.annotation.Nonnull;
 public class DefaultRuleKeyBuilderFactory
     extends ReflectiveRuleKeyBuilderFactory<RuleKeyBuilder<RuleKey>, RuleKey> {
 
-  protected final LoadingCache<RuleKeyAppendable, RuleKey> ruleKeyCache;
+  private final AppendableRuleKeyCache<SubKey> ruleKeyCache;
   private final FileHashLoader hashLoader;
   private final SourcePathResolver pathResolver;
+  private final Optional<IncrementalRuleKeyCache> incrementalRuleKeyCache;
 
   public DefaultRuleKeyBuilderFactory(
       int seed,
       FileHashLoader hashLoader,
       SourcePathResolver pathResolver) {
+    this(seed, hashLoader, pathResolver, Optional.<IncrementalRuleKeyCache>absent());
+  }
+
+  /**
+   * @param incrementalRuleKeyCache if present, rule keys are looked up in and added to this cache,
+   *     so they can be reused by later builds.
+   */
+  public DefaultRuleKeyBuilderFactory(
+      int seed,
+      FileHashLoader hashLoader,
+      SourcePathResolver pathResolver,
+      Optional<IncrementalRuleKeyCache> incrementalRuleKeyCache) {
     super(seed);
-    this.ruleKeyCache = CacheBuilder.newBuilder().weakKeys().build(
-        new CacheLoader<RuleKeyAppendable, RuleKey>() {
+    this.ruleKeyCache = new AppendableRuleKeyCache<>(
+        getClass().getSimpleName(),
+        new CacheLoader<RuleKeyAppendable, SubKey>() {
           @Override
-          public RuleKey load(@Nonnull RuleKeyAppendable appendable) throws Exception {
-            RuleKeyBuilder<RuleKey> subKeyBuilder = newBuilder();
+          public SubKey load(@Nonnull RuleKeyAppendable appendable) throws Exception {
+            Builder subKeyBuilder = newBuilder();
             appendable.appendToRuleKey(subKeyBuilder);
-            return subKeyBuilder.build();
+            return new SubKey(
+                subKeyBuilder.build(),
+                subKeyBuilder.inputs.build(),
+                subKeyBuilder.deps.build());
           }
         });
     this.hashLoader = hashLoader;
     this.pathResolver = pathResolver;
+    this.incrementalRuleKeyCache = incrementalRuleKeyCache;
+  }
+
+  /**
+   * @return counters tracking how often sub-keys of {@link RuleKeyAppendable}s were reused.
+   */
+  public ImmutableList<Counter> getCounters() {
+    return ruleKeyCache.getCounters();
   }
 
   protected DefaultRuleKeyBuilderFactory getDefaultRuleKeyBuilderFactory() {
     return this;
   }
 
-  private RuleKeyBuilder<RuleKey> newBuilder() {
-    return new RuleKeyBuilder<RuleKey>(pathResolver, hashLoader) {
-      @Override
-      protected RuleKeyBuilder<RuleKey> setBuildRule(BuildRule rule) {
-        return setSingleValue(getDefaultRuleKeyBuilderFactory().build(rule));
-      }
-
-      @Override
-      public RuleKeyBuilder<RuleKey> setAppendableRuleKey(
-          String key,
-          RuleKeyAppendable appendable) {
-        RuleKey subKey = ruleKeyCache.getUnchecked(appendable);
-        return setAppendableRuleKey(key, subKey);
-      }
-
-      @Override
-      public RuleKey build() {
-        return buildRuleKey();
-      }
-    };
+  private Builder newBuilder() {
+    return new Builder();
+  }
+
+  @Override
+  protected RuleKey computeKey(BuildRule buildRule) {
+    if (!incrementalRuleKeyCache.isPresent()) {
+      return super.computeKey(buildRule);
+    }
+    Optional<RuleKey> retainedKey = incrementalRuleKeyCache.get().get(buildRule);
+    if (retainedKey.isPresent()) {
+      return retainedKey.get();
+    }
+    // Our builders are all created by newBuilder().
+    Builder builder = (Builder) newInstance(buildRule);
+    RuleKey ruleKey = builder.build();
+    incrementalRuleKeyCache.get().put(
+        buildRule,
+        ruleKey,
+        builder.inputs.build(),
+        builder.deps.build());
+    return ruleKey;
   }
 
   @Override
@@ -110,4 +143,69 @@ public class DefaultRuleKeyBuilderFactory
     return builder;
   }
 
+  /**
+   * Records the files and rules hashed into the key, so that {@link IncrementalRuleKeyCache} knows
+   * when to drop it.
+   */
+  private class Builder extends RuleKeyBuilder<RuleKey> {
+
+    private final ImmutableSet.Builder<Path> inputs = ImmutableSet.builder();
+    private final ImmutableSet.Builder<BuildRule> deps = ImmutableSet.builder();
+
+    private Builder() {
+      super(pathResolver, hashLoader);
+    }
+
+    @Override
+    protected RuleKeyBuilder<RuleKey> setBuildRule(BuildRule rule) {
+      deps.add(rule);
+      return setSingleValue(getDefaultRuleKeyBuilderFactory().build(rule));
+    }
+
+    @Override
+    public RuleKeyBuilder<RuleKey> setAppendableRuleKey(
+        String key,
+        RuleKeyAppendable appendable) {
+      SubKey subKey = ruleKeyCache.get(appendable);
+      inputs.addAll(subKey.inputs);
+      deps.addAll(subKey.deps);
+      return setAppendableRuleKey(key, subKey.ruleKey);
+    }
+
+    @Override
+    public RuleKeyBuilder<RuleKey> setPath(
+        Path absolutePath,
+        Path ideallyRelative) throws IOException {
+      inputs.add(absolutePath);
+      return super.setPath(absolutePath, ideallyRelative);
+    }
+
+    @Override
+    public RuleKeyBuilder<RuleKey> setArchiveMemberPath(
+        ArchiveMemberPath absoluteArchiveMemberPath,
+        ArchiveMemberPath relativeArchiveMemberPath) throws IOException {
+      inputs.add(absoluteArchiveMemberPath.getArchivePath());
+      return super.setArchiveMemberPath(absoluteArchiveMemberPath, relativeArchiveMemberPath);
+    }
+
+    @Override
+    public RuleKey build() {
+      return buildRuleKey();
+    }
+  }
+
+  /**
+   * The key of a {@link RuleKeyAppendable}, along with the files and rules hashed into it.
+   */
+  private static class SubKey {
+    private final RuleKey ruleKey;
+    private final ImmutableSet<Path> inputs;
+    private final ImmutableSet<BuildRule> deps;
+
+    private SubKey(RuleKey ruleKey, ImmutableSet<Path> inputs, ImmutableSet<BuildRule> deps) {
+      this.ruleKey = ruleKey;
+      this.inputs = inputs;
+      this.deps = deps;
+    }
+  }
 }
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.io.WatchEvents;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.RuleKey;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.eventbus.Subscribe;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Daemon-scoped cache of default {@link RuleKey}s, which lets a build reuse the keys computed by
+ * earlier builds for every rule whose inputs haven't changed since.
+ * <p>
+ * Keys are only valid for the {@link BuildRule} instances they were computed for, so the cache is
+ * bound to a single {@link BuildRuleResolver} and starts over whenever a build uses another one,
+ * i.e. whenever the action graph wasn't reused from the previous command. Each key remembers the
+ * files it hashed and the rules whose keys it included. A watch event for a file drops the keys
+ * which hashed that file or one of its parent directories, along with the keys of every rule which
+ * (transitively) included them. Keys which hashed files that aren't watched, such as tools outside
+ * of the project, are never retained, nor are the keys of the rules depending on them.
+ */
+public class IncrementalRuleKeyCache {
+
+  private static final Logger LOG = Logger.get(IncrementalRuleKeyCache.class);
+
+  private static final String COUNTER_CATEGORY = "buck_incremental_rule_key_cache";
+  private static final String CACHE_HIT_COUNTER_NAME = "cache_hit";
+  private static final String CACHE_MISS_COUNTER_NAME = "cache_miss";
+  private static final String CACHE_INVALIDATION_COUNTER_NAME = "cache_invalidation";
+
+  private final ProjectFilesystem filesystem;
+
+  private final IntegerCounter cacheHitCounter;
+  private final IntegerCounter cacheMissCounter;
+  private final IntegerCounter cacheInvalidationCounter;
+
+  private final ConcurrentMap<BuildRule, RuleKey> ruleKeys = new ConcurrentHashMap<>();
+  // Guarded by this.
+  private final SetMultimap<Path, BuildRule> rulesByInput = HashMultimap.create();
+  // Guarded by this.
+  private final SetMultimap<BuildRule, BuildRule> dependents = HashMultimap.create();
+  @Nullable
+  private BuildRuleResolver resolver;
+  private int seed;
+
+  /**
+   * @param filesystem the filesystem whose (non-ignored) changes are reported to
+   *     {@link #invalidateBasedOn(WatchEvent)}.
+   */
+  public IncrementalRuleKeyCache(ProjectFilesystem filesystem) {
+    this.filesystem = filesystem;
+    this.cacheHitCounter = new IntegerCounter(
+        COUNTER_CATEGORY,
+        CACHE_HIT_COUNTER_NAME,
+        ImmutableMap.<String, String>of());
+    this.cacheMissCounter = new IntegerCounter(
+        COUNTER_CATEGORY,
+        CACHE_MISS_COUNTER_NAME,
+        ImmutableMap.<String, String>of());
+    this.cacheInvalidationCounter = new IntegerCounter(
+        COUNTER_CATEGORY,
+        CACHE_INVALIDATION_COUNTER_NAME,
+        ImmutableMap.<String, String>of());
+  }
+
+  /**
+   * Binds the cache to the rules of {@code resolver}, keyed with {@code seed}, dropping all keys
+   * retained for other rules.
+   */
+  public synchronized void useFor(BuildRuleResolver resolver, int seed) {
+    if (resolver != this.resolver || seed != this.seed) {
+      if (this.resolver != null) {
+        LOG.debug("Action graph or key seed changed, dropping all rule keys.");
+      }
+      invalidateAll();
+      this.resolver = resolver;
+      this.seed = seed;
+    }
+  }
+
+  public Optional<RuleKey> get(BuildRule rule) {
+    RuleKey ruleKey = ruleKeys.get(rule);
+    if (ruleKey == null) {
+      cacheMissCounter.inc();
+      return Optional.absent();
+    }
+    cacheHitCounter.inc();
+    return Optional.of(ruleKey);
+  }
+
+  /**
+   * Retains the key of {@code rule}, if all the files it hashed are watched and the keys of all the
+   * rules it included are retained too.
+   *
+   * @param inputs the absolute paths of the files hashed into the key.
+   * @param deps the rules whose keys were included in the key.
+   */
+  public synchronized void put(
+      BuildRule rule,
+      RuleKey ruleKey,
+      Iterable<Path> inputs,
+      Iterable<BuildRule> deps) {
+    for (Path input : inputs) {
+      if (!isWatched(input)) {
+        LOG.verbose("Not retaining key of %s: %s is not watched.", rule, input);
+        return;
+      }
+    }
+    for (BuildRule dep : deps) {
+      if (!ruleKeys.containsKey(dep)) {
+        LOG.verbose("Not retaining key of %s: key of %s is not retained.", rule, dep);
+        return;
+      }
+    }
+    for (Path input : inputs) {
+      rulesByInput.put(input, rule);
+    }
+    for (BuildRule dep : deps) {
+      dependents.put(dep, rule);
+    }
+    ruleKeys.put(rule, ruleKey);
+  }
+
+  @Subscribe
+  public synchronized void invalidateBasedOn(WatchEvent<?> event) {
+    if (!WatchEvents.isPathChangeEvent(event)) {
+      LOG.debug("Rule key cache invalidation due to non-path event %s.", event);
+      invalidateAll();
+      return;
+    }
+
+    // Directories are hashed by their contents, so a change to a file also affects the keys which
+    // hashed any of its parents.
+    Deque<BuildRule> invalidated = new ArrayDeque<>();
+    for (Path path = filesystem.resolve(((Path) event.context()).normalize());
+         path != null;
+         path = path.getParent()) {
+      invalidated.addAll(rulesByInput.removeAll(path));
+    }
+    while (!invalidated.isEmpty()) {
+      BuildRule rule = invalidated.pop();
+      if (ruleKeys.remove(rule) != null) {
+        cacheInvalidationCounter.inc();
+        invalidated.addAll(dependents.removeAll(rule));
+      }
+    }
+  }
+
+  private boolean isWatched(Path input) {
+    Path root = filesystem.getRootPath();
+    if (!input.startsWith(root)) {
+      return false;
+    }
+    Path relativeInput = root.relativize(input);
+    return !relativeInput.startsWith(filesystem.getBuckPaths().getBuckOut()) &&
+        !filesystem.isIgnored(relativeInput);
+  }
+
+  private void invalidateAll() {
+    cacheInvalidationCounter.inc(ruleKeys.size());
+    ruleKeys.clear();
+    rulesByInput.clear();
+    dependents.clear();
+  }
+
+  public ImmutableList<Counter> getCounters() {
+    return ImmutableList.<Counter>of(
+        cacheHitCounter,
+        cacheMissCounter,
+        cacheInvalidationCounter);
+  }
+
+  @VisibleForTesting
+  int size() {
+    return ruleKeys.size();
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.rules.keys;
 
+import com.facebook.buck.counters.Counter;
 import com.facebook.buck.hashing.FileHashLoader;
 import com.facebook.buck.rules.ArchiveMemberSourcePath;
 import com.facebook.buck.rules.BuildRule;
@@ -27,9 +28,7 @@ import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -55,7 +54,7 @@ public class InputBasedRuleKeyBuilderFactory
   private final SourcePathResolver pathResolver;
   private final ArchiveHandling archiveHandling;
   private final InputHandling inputHandling;
-  private final LoadingCache<RuleKeyAppendable, Result> cache;
+  private final AppendableRuleKeyCache<Result> cache;
   private final long inputSizeLimit;
 
   private long inputSize = 0;
@@ -76,7 +75,8 @@ public class InputBasedRuleKeyBuilderFactory
     this.inputSizeLimit = inputSizeLimit;
 
     // Build the cache around the sub-rule-keys and their dep lists.
-    cache = CacheBuilder.newBuilder().weakKeys().build(
+    cache = new AppendableRuleKeyCache<>(
+        getClass().getSimpleName(),
         new CacheLoader<RuleKeyAppendable, Result>() {
           @Override
           public Result load(
@@ -109,6 +109,13 @@ public class InputBasedRuleKeyBuilderFactory
     this(seed, hashLoader, pathResolver, Long.MAX_VALUE);
   }
 
+  /**
+   * @return counters tracking how often sub-keys of {@link RuleKeyAppendable}s were reused.
+   */
+  public ImmutableList<Counter> getCounters() {
+    return cache.getCounters();
+  }
+
   @Override
   protected Builder newBuilder(final BuildRule rule) {
     final Iterable<DependencyAggregation> aggregatedRules =
@@ -157,7 +164,7 @@ public class InputBasedRuleKeyBuilderFactory
         return this;
       }
 
-      Result result = cache.getUnchecked(appendable);
+      Result result = cache.get(appendable);
       Optional<RuleKey> ruleKey = result.getRuleKey();
       if (!ruleKey.isPresent()) {
         inputSizeLimitExceeded = true;
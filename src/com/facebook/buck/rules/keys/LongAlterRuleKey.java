@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.RuleKeyBuilder;
+
+import java.lang.reflect.Field;
+
+class LongAlterRuleKey extends AbstractAlterRuleKey {
+  public LongAlterRuleKey(Field field) {
+    super(field);
+  }
+
+  @Override
+  public void amendKey(RuleKeyBuilder<?> builder, BuildRule rule) {
+    long value;
+    try {
+      value = field.getLong(rule);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+    builder.setLong(field.getName(), value);
+  }
+}
@@ -57,7 +57,7 @@ class ReflectiveAlterKeyLoader
         if (annotation.stringify()) {
           ark = new StringifyAlterRuleKey(field);
         } else {
-          ark = new DefaultAlterRuleKey(field);
+          ark = createAlterRuleKey(field);
         }
 
         fields.put(field, ark);
@@ -66,4 +66,23 @@ class ReflectiveAlterKeyLoader
     }
     return builder.build();
   }
+
+  /**
+   * Fields whose declared type already tells how they are hashed get an {@link AlterRuleKey}
+   * which writes them straight into the builder, skipping the boxing and runtime type dispatch of
+   * {@link com.facebook.buck.rules.RuleKeyBuilder#setReflectively(String, Object)}.
+   */
+  private static AlterRuleKey createAlterRuleKey(Field field) {
+    Class<?> type = field.getType();
+    if (String.class.equals(type)) {
+      return new StringAlterRuleKey(field);
+    } else if (boolean.class.equals(type)) {
+      return new BooleanAlterRuleKey(field);
+    } else if (int.class.equals(type)) {
+      return new IntAlterRuleKey(field);
+    } else if (long.class.equals(type)) {
+      return new LongAlterRuleKey(field);
+    }
+    return new DefaultAlterRuleKey(field);
+  }
 }
@@ -47,7 +47,7 @@ public abstract class ReflectiveRuleKeyBuilderFactory<T extends RuleKeyBuilder<U
         new CacheLoader<BuildRule, U>() {
           @Override
           public U load(BuildRule key) throws Exception {
-            return newInstance(key).build();
+            return computeKey(key);
           }
         });
   }
@@ -57,18 +57,25 @@ public abstract class ReflectiveRuleKeyBuilderFactory<T extends RuleKeyBuilder<U
    */
   protected abstract T newBuilder(BuildRule rule);
 
+  /**
+   * Computes the key of a rule the first time this factory is asked for it.
+   */
+  protected U computeKey(BuildRule buildRule) {
+    return newInstance(buildRule).build();
+  }
+
   @Override
   public T newInstance(BuildRule buildRule) {
     T builder = newBuilder(buildRule);
-    builder.setReflectively("buck.seed", seed);
-    builder.setReflectively("name", buildRule.getBuildTarget().getFullyQualifiedName());
+    builder.setInt("buck.seed", seed);
+    builder.setString("name", buildRule.getBuildTarget().getFullyQualifiedName());
     // Keyed as "buck.type" rather than "type" in case a build rule has its own "type" argument.
-    builder.setReflectively("buck.type", buildRule.getType());
-    builder.setReflectively("buckVersionUid", BuckVersion.getVersion());
+    builder.setString("buck.type", buildRule.getType());
+    builder.setString("buckVersionUid", BuckVersion.getVersion());
 
     // We currently cache items using their full buck-out path, so make sure this is reflected in
     // the rule key.
-    builder.setReflectively(
+    builder.setString(
         "buckOut",
         buildRule.getProjectFilesystem().getBuckPaths().getConfiguredBuckOut().toString());
 
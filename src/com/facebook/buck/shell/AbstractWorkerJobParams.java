@@ -19,6 +19,7 @@ package com.facebook.buck.shell;
 import com.facebook.buck.util.immutables.BuckStyleTuple;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
 
 import org.immutables.value.Value;
 
@@ -32,4 +33,11 @@ interface AbstractWorkerJobParams {
   String getStartupArgs();
   ImmutableMap<String, String> getStartupEnvironment();
   String getJobArgs();
+  int getMaxWorkers();
+
+  /**
+   * The files the worker was started from. When Buck keeps worker processes alive between builds,
+   * it restarts them once any of these change.
+   */
+  ImmutableSortedSet<Path> getStartupInputs();
 }
@@ -38,17 +38,20 @@ public class DefaultWorkerTool extends NoopBuildRule implements HasRuntimeDeps,
   private final BinaryBuildRule exe;
   private final String args;
   private final ImmutableMap<String, String> env;
+  private final int maxWorkers;
 
   protected DefaultWorkerTool(
       BuildRuleParams ruleParams,
       SourcePathResolver resolver,
       BinaryBuildRule exe,
       String args,
-      ImmutableMap<String, String> env) {
+      ImmutableMap<String, String> env,
+      int maxWorkers) {
     super(ruleParams, resolver);
     this.exe = exe;
     this.args = args;
     this.env = env;
+    this.maxWorkers = maxWorkers;
   }
 
   @Override
@@ -76,6 +79,11 @@ public class DefaultWorkerTool extends NoopBuildRule implements HasRuntimeDeps,
         getProjectFilesystem(), getBuildTarget(), "%s__worker");
   }
 
+  @Override
+  public int getMaxWorkers() {
+    return maxWorkers;
+  }
+
   @Override
   public ImmutableSortedSet<BuildRule> getRuntimeDeps() {
     return getDeps();
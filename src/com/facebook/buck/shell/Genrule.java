@@ -350,7 +350,9 @@ public class Genrule extends AbstractBuildRule
                     workerMacroArg.getStartupCommand(),
                     workerMacroArg.getStartupArgs(),
                     workerMacroArg.getEnvironment(),
-                    workerMacroArg.getJobArgs());
+                    workerMacroArg.getJobArgs(),
+                    workerMacroArg.getMaxWorkers(),
+                    workerMacroArg.getStartupInputs());
               }
             });
   }
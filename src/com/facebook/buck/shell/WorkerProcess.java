@@ -48,9 +48,10 @@ public class WorkerProcess {
   private final ProjectFilesystem filesystem;
   private final Path tmpPath;
   private final AtomicInteger currentMessageID = new AtomicInteger();
+  private final AtomicInteger submittedJobCount = new AtomicInteger();
   private boolean handshakePerformed = false;
   @Nullable
-  private WorkerProcessProtocol protocol;
+  private volatile WorkerProcessProtocol protocol;
   @Nullable
   private ProcessExecutor.LaunchedProcess launchedProcess;
 
@@ -91,11 +92,34 @@ public class WorkerProcess {
     handshakePerformed = true;
   }
 
-  public synchronized WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+  /**
+   * @return whether the process handles several jobs at once, in which case
+   *     {@link #submitAndWaitForJob(String)} may be called concurrently without queueing the
+   *     jobs behind each other.
+   */
+  public boolean supportsConcurrentJobs() {
+    WorkerProcessProtocol protocol = this.protocol;
+    return protocol != null && protocol.supportsConcurrentCommands();
+  }
+
+  public WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+    WorkerProcessProtocol protocol = this.protocol;
     Preconditions.checkState(
         protocol != null,
         "Tried to submit a job to the worker process before the handshake was performed.");
+    if (protocol.supportsConcurrentCommands()) {
+      return submitAndWaitForJob(protocol, jobArgs);
+    }
+    synchronized (this) {
+      return submitAndWaitForJob(protocol, jobArgs);
+    }
+  }
+
+  private WorkerJobResult submitAndWaitForJob(
+      WorkerProcessProtocol protocol,
+      String jobArgs) throws IOException {
 
+    submittedJobCount.incrementAndGet();
     int messageID = currentMessageID.getAndAdd(1);
     Path argsPath = Paths.get(
         tmpPath.toString(),
@@ -133,6 +157,13 @@ public class WorkerProcess {
     return WorkerJobResult.of(exitCode, stdout, stderr);
   }
 
+  /**
+   * @return how many jobs were submitted to this process so far.
+   */
+  public int getSubmittedJobCount() {
+    return submittedJobCount.get();
+  }
+
   public void close() {
     LOG.debug("Closing process %d", this.hashCode());
     try {
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.shell;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.ProcessExecutor;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A bounded set of {@link WorkerProcess}es started from the same command.
+ * <p>
+ * Processes are started on demand, up to {@code maxWorkers} of them. A process that handles a
+ * single job at a time is lent to one borrower until it is returned, so further borrowers wait
+ * once every process is busy. A process speaking the multiplexed protocol is lent to several
+ * borrowers at once: each borrower gets the multiplexed process with the fewest borrowers, unless
+ * every one has some and there is room to start another.
+ * <p>
+ * The pool only holds what the processes are launched from. The {@link ProcessExecutor} is
+ * supplied by each borrower, so a pool kept across builds doesn't hold on to any of them.
+ */
+public abstract class WorkerProcessPool implements Closeable {
+
+  private static final Logger LOG = Logger.get(WorkerProcessPool.class);
+
+  private final int maxWorkers;
+  private final HashCode poolHash;
+  @GuardedBy("this")
+  private final Deque<WorkerProcess> availableWorkers = new ArrayDeque<>();
+  // Multiplexed processes which accept new borrowers, with their number of borrowers.
+  @GuardedBy("this")
+  private final Map<WorkerProcess, Integer> multiplexedWorkers = new LinkedHashMap<>();
+  // Multiplexed processes which failed, and are closed once their last borrower is done.
+  @GuardedBy("this")
+  private final Map<WorkerProcess, Integer> retiringWorkers = new HashMap<>();
+  @GuardedBy("this")
+  private final List<WorkerProcess> workerProcesses = new ArrayList<>();
+  @GuardedBy("this")
+  private int startingOrStartedWorkers = 0;
+  @GuardedBy("this")
+  private boolean closed = false;
+
+  public WorkerProcessPool(int maxWorkers, HashCode poolHash) {
+    Preconditions.checkArgument(maxWorkers > 0, "maxWorkers must be positive.");
+    this.maxWorkers = maxWorkers;
+    this.poolHash = poolHash;
+  }
+
+  /**
+   * Starts a new process with {@code executor} and performs the handshake with it.
+   */
+  protected abstract WorkerProcess startWorkerProcess(ProcessExecutor executor)
+      throws IOException;
+
+  /**
+   * Returns a process ready to accept a job, starting one with {@code executor} if none is
+   * available and the pool has room for it, or else waiting for one to be returned.
+   */
+  public WorkerProcess borrowWorkerProcess(ProcessExecutor executor)
+      throws IOException, InterruptedException {
+    synchronized (this) {
+      while (true) {
+        checkNotClosed();
+        WorkerProcess workerProcess = availableWorkers.pollFirst();
+        if (workerProcess != null) {
+          return workerProcess;
+        }
+        Optional<WorkerProcess> leastBusy = getLeastBusyMultiplexedWorker();
+        boolean canStart = startingOrStartedWorkers < maxWorkers;
+        if (leastBusy.isPresent() && (multiplexedWorkers.get(leastBusy.get()) == 0 || !canStart)) {
+          multiplexedWorkers.put(leastBusy.get(), multiplexedWorkers.get(leastBusy.get()) + 1);
+          return leastBusy.get();
+        }
+        if (canStart) {
+          break;
+        }
+        wait();
+      }
+      startingOrStartedWorkers++;
+    }
+
+    WorkerProcess workerProcess;
+    try {
+      workerProcess = startWorkerProcess(executor);
+    } catch (IOException | RuntimeException e) {
+      synchronized (this) {
+        startingOrStartedWorkers--;
+        notifyAll();
+      }
+      throw e;
+    }
+
+    synchronized (this) {
+      if (!closed) {
+        workerProcesses.add(workerProcess);
+        if (workerProcess.supportsConcurrentJobs()) {
+          multiplexedWorkers.put(workerProcess, 1);
+          notifyAll();
+        }
+        return workerProcess;
+      }
+    }
+    // The pool was closed while the process was starting up, so nobody else would close it.
+    closeWorkerProcess(workerProcess);
+    throw new IllegalStateException("Tried to borrow a process from a closed worker pool.");
+  }
+
+  /**
+   * Hands a process obtained from {@link #borrowWorkerProcess} back once its job finished.
+   */
+  public void returnWorkerProcess(WorkerProcess workerProcess) {
+    synchronized (this) {
+      Integer borrowers = multiplexedWorkers.get(workerProcess);
+      if (borrowers != null) {
+        multiplexedWorkers.put(workerProcess, borrowers - 1);
+        notifyAll();
+        return;
+      } else if (!releaseRetiringWorker(workerProcess)) {
+        if (workerProcesses.contains(workerProcess)) {
+          availableWorkers.addLast(workerProcess);
+          notifyAll();
+        }
+        return;
+      }
+    }
+    closeWorkerProcess(workerProcess);
+  }
+
+  /**
+   * Shuts down a process obtained from {@link #borrowWorkerProcess} whose job failed, so that it
+   * is not handed out again. A multiplexed process is only shut down once the jobs other borrowers
+   * submitted to it finished. The pool may start a replacement for it right away.
+   */
+  public void destroyWorkerProcess(WorkerProcess workerProcess) {
+    synchronized (this) {
+      Integer borrowers = multiplexedWorkers.remove(workerProcess);
+      if (workerProcesses.remove(workerProcess)) {
+        availableWorkers.remove(workerProcess);
+        startingOrStartedWorkers--;
+        notifyAll();
+        if (borrowers != null && borrowers > 1) {
+          retiringWorkers.put(workerProcess, borrowers - 1);
+          return;
+        }
+      } else if (!releaseRetiringWorker(workerProcess)) {
+        // Either another borrower already retired it, or the pool was closed and closed it.
+        return;
+      }
+    }
+    closeWorkerProcess(workerProcess);
+  }
+
+  /**
+   * @return whether {@code workerProcess} was retiring and lost its last borrower, in which case
+   *     the caller must close it.
+   */
+  @GuardedBy("this")
+  private boolean releaseRetiringWorker(WorkerProcess workerProcess) {
+    Integer borrowers = retiringWorkers.get(workerProcess);
+    if (borrowers == null) {
+      return false;
+    }
+    if (borrowers > 1) {
+      retiringWorkers.put(workerProcess, borrowers - 1);
+      return false;
+    }
+    retiringWorkers.remove(workerProcess);
+    return true;
+  }
+
+  @GuardedBy("this")
+  private Optional<WorkerProcess> getLeastBusyMultiplexedWorker() {
+    WorkerProcess leastBusy = null;
+    for (Map.Entry<WorkerProcess, Integer> entry : multiplexedWorkers.entrySet()) {
+      if (leastBusy == null || entry.getValue() < multiplexedWorkers.get(leastBusy)) {
+        leastBusy = entry.getKey();
+      }
+    }
+    return Optional.fromNullable(leastBusy);
+  }
+
+  /**
+   * @return a hash of everything the processes in this pool were started from, used to tell
+   *     whether the pool is still up to date with the worker tool.
+   */
+  public HashCode getPoolHash() {
+    return poolHash;
+  }
+
+  @Override
+  public void close() {
+    ImmutableList<WorkerProcess> processesToClose;
+    synchronized (this) {
+      closed = true;
+      processesToClose = ImmutableList.<WorkerProcess>builder()
+          .addAll(workerProcesses)
+          .addAll(retiringWorkers.keySet())
+          .build();
+      workerProcesses.clear();
+      availableWorkers.clear();
+      multiplexedWorkers.clear();
+      retiringWorkers.clear();
+      notifyAll();
+    }
+    HumanReadableException firstException = null;
+    for (WorkerProcess workerProcess : processesToClose) {
+      try {
+        workerProcess.close();
+      } catch (HumanReadableException e) {
+        if (firstException == null) {
+          firstException = e;
+        }
+      }
+    }
+    if (firstException != null) {
+      throw firstException;
+    }
+  }
+
+  @GuardedBy("this")
+  private void checkNotClosed() {
+    if (closed) {
+      throw new IllegalStateException("Tried to borrow a process from a closed worker pool.");
+    }
+  }
+
+  private static void closeWorkerProcess(WorkerProcess workerProcess) {
+    try {
+      workerProcess.close();
+    } catch (HumanReadableException e) {
+      LOG.debug(e, "Error closing a failed worker process.");
+    }
+  }
+}
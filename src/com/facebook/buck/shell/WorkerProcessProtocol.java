@@ -25,5 +25,10 @@ public interface WorkerProcessProtocol {
   void sendCommand(int messageID, Path argsPath, Path stdoutPath, Path stderrPath)
       throws IOException;
   int receiveCommandResponse(int messageID) throws IOException;
+  /**
+   * @return whether the process agreed during the handshake to accept further commands before
+   *     replying to earlier ones, answering them in any order.
+   */
+  boolean supportsConcurrentCommands();
   void close() throws IOException;
 }
@@ -24,7 +24,21 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Speaks the JSON worker protocol over the process's stdin and stdout.
+ * <p>
+ * Buck always offers protocol version {@code "0"}, in which the process answers each command
+ * before receiving the next one. A process may instead reply to the handshake with version
+ * {@code "1"}, the multiplexed variant of the same messages: Buck may then send several commands
+ * without waiting, and the process answers them in whatever order they finish, matched up by id.
+ */
 public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
 
   private static final String TYPE_HANDSHAKE = "handshake";
@@ -32,11 +46,20 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
   private static final String TYPE_RESULT = "result";
   private static final String TYPE_ERROR = "error";
   private static final String PROTOCOL_VERSION = "0";
+  private static final String MULTIPLEXED_PROTOCOL_VERSION = "1";
 
   private final ProcessExecutor executor;
   private final ProcessExecutor.LaunchedProcess launchedProcess;
   private final JsonWriter processStdinWriter;
   private final JsonReader processStdoutReader;
+  private final Object responseLock = new Object();
+  @GuardedBy("responseLock")
+  private final Set<Integer> pendingCommands = new HashSet<>();
+  @GuardedBy("responseLock")
+  private final Map<Integer, Integer> receivedExitCodes = new HashMap<>();
+  @GuardedBy("responseLock")
+  private boolean readingResponse = false;
+  private volatile boolean multiplexed = false;
 
   public WorkerProcessProtocolZero(
       ProcessExecutor executor,
@@ -127,11 +150,18 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
       throw new HumanReadableException(String.format("Expected handshake response's \"type\" " +
           "to be \"%s\", got \"%s\" instead.", TYPE_HANDSHAKE, type));
     }
-    if (!protocolVersion.equals(PROTOCOL_VERSION)) {
+    if (!protocolVersion.equals(PROTOCOL_VERSION) &&
+        !protocolVersion.equals(MULTIPLEXED_PROTOCOL_VERSION)) {
       throw new HumanReadableException(String.format("Expected handshake response's " +
-          "\"protocol_version\" to be \"%s\", got \"%s\" instead.",
-          PROTOCOL_VERSION, protocolVersion));
+          "\"protocol_version\" to be one of [\"%s\",\"%s\"], got \"%s\" instead.",
+          PROTOCOL_VERSION, MULTIPLEXED_PROTOCOL_VERSION, protocolVersion));
     }
+    multiplexed = protocolVersion.equals(MULTIPLEXED_PROTOCOL_VERSION);
+  }
+
+  @Override
+  public boolean supportsConcurrentCommands() {
+    return multiplexed;
   }
 
   /*
@@ -150,14 +180,19 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
       Path argsPath,
       Path stdoutPath,
       Path stderrPath) throws IOException {
-    processStdinWriter.beginObject();
-    processStdinWriter.name("id").value(messageID);
-    processStdinWriter.name("type").value(TYPE_COMMAND);
-    processStdinWriter.name("args_path").value(argsPath.toString());
-    processStdinWriter.name("stdout_path").value(stdoutPath.toString());
-    processStdinWriter.name("stderr_path").value(stderrPath.toString());
-    processStdinWriter.endObject();
-    processStdinWriter.flush();
+    synchronized (responseLock) {
+      pendingCommands.add(messageID);
+    }
+    synchronized (processStdinWriter) {
+      processStdinWriter.beginObject();
+      processStdinWriter.name("id").value(messageID);
+      processStdinWriter.name("type").value(TYPE_COMMAND);
+      processStdinWriter.name("args_path").value(argsPath.toString());
+      processStdinWriter.name("stdout_path").value(stdoutPath.toString());
+      processStdinWriter.name("stderr_path").value(stderrPath.toString());
+      processStdinWriter.endObject();
+      processStdinWriter.flush();
+    }
   }
 
   /*
@@ -186,6 +221,52 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
   */
   @Override
   public int receiveCommandResponse(int messageID) throws IOException {
+    // Whichever waiting thread gets here first reads responses off stdout on behalf of all of
+    // them, handing over the ones for other commands, until its own response arrives.
+    synchronized (responseLock) {
+      while (true) {
+        Integer exitCode = receivedExitCodes.remove(messageID);
+        if (exitCode != null) {
+          return exitCode;
+        }
+        if (!readingResponse) {
+          readingResponse = true;
+          break;
+        }
+        try {
+          responseLock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException(e);
+        }
+      }
+    }
+
+    try {
+      while (true) {
+        CommandResponse response = readCommandResponse();
+        synchronized (responseLock) {
+          boolean wasPending = pendingCommands.remove(response.id);
+          if (response.id != messageID && !(multiplexed && wasPending)) {
+            throw new HumanReadableException(String.format("Expected response's \"id\" value " +
+                "to be \"%d\", got \"%d\" instead.", messageID, response.id));
+          }
+          if (response.id == messageID) {
+            return response.exitCode;
+          }
+          receivedExitCodes.put(response.id, response.exitCode);
+          responseLock.notifyAll();
+        }
+      }
+    } finally {
+      synchronized (responseLock) {
+        readingResponse = false;
+        responseLock.notifyAll();
+      }
+    }
+  }
+
+  private CommandResponse readCommandResponse() throws IOException {
     int id = -1;
     int exitCode = -1;
     String type = "";
@@ -212,15 +293,11 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
           getStdErrorOutput());
     }
 
-    if (id != messageID) {
-      throw new HumanReadableException(String.format("Expected response's \"id\" value to be " +
-          "\"%d\", got \"%d\" instead.", messageID, id));
-    }
     if (!type.equals(TYPE_RESULT) && !type.equals(TYPE_ERROR)) {
       throw new HumanReadableException(String.format("Expected response's \"type\" " +
           "to be one of [\"%s\",\"%s\"], got \"%s\" instead.", TYPE_RESULT, TYPE_ERROR, type));
     }
-    return exitCode;
+    return new CommandResponse(id, exitCode);
   }
 
   /*
@@ -248,4 +325,14 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
     }
     return sb.toString();
   }
+
+  private static class CommandResponse {
+    private final int id;
+    private final int exitCode;
+
+    private CommandResponse(int id, int exitCode) {
+      this.id = id;
+      this.exitCode = exitCode;
+    }
+  }
 }
@@ -18,11 +18,13 @@ package com.facebook.buck.shell;
 
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.util.Escaper;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.environment.Platform;
@@ -33,14 +35,21 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WorkerShellStep implements Step {
 
+  private static final Logger LOG = Logger.get(WorkerShellStep.class);
+
   private ProjectFilesystem filesystem;
   private Optional<WorkerJobParams> cmdParams;
   private Optional<WorkerJobParams> bashParams;
@@ -62,9 +71,21 @@ public class WorkerShellStep implements Step {
     try {
       // Use the process's startup command as the key.
       String key = Joiner.on(' ').join(getCommand(context.getPlatform()));
-      WorkerProcess process = getWorkerProcessForKey(key, context);
-      process.ensureLaunchAndHandshake();
-      WorkerJobResult result = process.submitAndWaitForJob(getExpandedJobArgs(context));
+      WorkerProcessPool pool = getWorkerProcessPool(key, context);
+      WorkerProcess process = pool.borrowWorkerProcess(context.getProcessExecutor());
+      WorkerJobResult result;
+      boolean jobCompleted = false;
+      try {
+        result = process.submitAndWaitForJob(getExpandedJobArgs(context));
+        jobCompleted = true;
+      } finally {
+        if (jobCompleted) {
+          pool.returnWorkerProcess(process);
+        } else {
+          // The conversation with the process is in an unknown state, so don't reuse it.
+          pool.destroyWorkerProcess(process);
+        }
+      }
       Verbosity verbosity = context.getVerbosity();
       if (result.getStdout().isPresent() && !result.getStdout().get().isEmpty() &&
           verbosity.shouldPrintOutput()) {
@@ -81,36 +102,128 @@ public class WorkerShellStep implements Step {
   }
 
   /**
-   * Returns an existing WorkerProcess for the given key if one exists, else creates a new one.
+   * Returns the pool of WorkerProcesses used for the given key during this build, creating or
+   * refreshing it first if this is the build's first job for the key.
    */
-  private WorkerProcess getWorkerProcessForKey(
+  @VisibleForTesting
+  WorkerProcessPool getWorkerProcessPool(
       String key,
       ExecutionContext context) throws IOException {
-    ConcurrentMap<String, WorkerProcess> processMap = context.getWorkerProcesses();
-    WorkerProcess process = processMap.get(key);
-    if (process != null) {
-      return process;
+    ConcurrentMap<String, WorkerProcessPool> poolMap = context.getWorkerProcessPools();
+    WorkerProcessPool pool = poolMap.get(key);
+    if (pool != null) {
+      return pool;
     }
 
-    Path tmpDir = getWorkerJobParamsToUse(context.getPlatform()).getTempDir();
+    Optional<ConcurrentMap<String, WorkerProcessPool>> persistentPools =
+        context.getPersistentWorkerPools();
+    HashCode workerHash = computeWorkerHash(context.getPlatform(), persistentPools.isPresent());
+    WorkerProcessPool newPool = persistentPools.isPresent() ?
+        getPersistentWorkerProcessPool(key, workerHash, persistentPools.get(), context) :
+        createWorkerProcessPool(workerHash, context);
+
+    WorkerProcessPool previousValue = poolMap.putIfAbsent(key, newPool);
+    // If putIfAbsent does not return null, then that means another thread beat this thread
+    // into putting a WorkerProcessPool in the map for this key. If that's the case, then we should
+    // ignore newPool and return the existing one. A build-scoped pool has not started any
+    // processes yet, so closing it is free.
+    if (previousValue == null) {
+      return newPool;
+    }
+    if (!persistentPools.isPresent()) {
+      newPool.close();
+    }
+    return previousValue;
+  }
+
+  /**
+   * Returns the daemon's pool for the given key, replacing it first if the worker tool changed
+   * since the processes in it were started.
+   */
+  private WorkerProcessPool getPersistentWorkerProcessPool(
+      String key,
+      HashCode workerHash,
+      ConcurrentMap<String, WorkerProcessPool> persistentPools,
+      ExecutionContext context) throws IOException {
+    while (true) {
+      WorkerProcessPool existingPool = persistentPools.get(key);
+      if (existingPool != null && existingPool.getPoolHash().equals(workerHash)) {
+        return existingPool;
+      }
+      WorkerProcessPool newPool = createWorkerProcessPool(workerHash, context);
+      boolean installed = existingPool == null ?
+          persistentPools.putIfAbsent(key, newPool) == null :
+          persistentPools.replace(key, existingPool, newPool);
+      if (installed) {
+        if (existingPool != null) {
+          LOG.info("Restarting the worker processes for '%s' as the worker tool changed.", key);
+          existingPool.close();
+        }
+        return newPool;
+      }
+      newPool.close();
+    }
+  }
+
+  private WorkerProcessPool createWorkerProcessPool(
+      HashCode workerHash,
+      ExecutionContext context) throws IOException {
+    final WorkerJobParams paramsToUse = getWorkerJobParamsToUse(context.getPlatform());
+    final Path tmpDir = paramsToUse.getTempDir();
     filesystem.mkdirs(tmpDir);
 
-    ProcessExecutorParams processParams = ProcessExecutorParams.builder()
+    final ProcessExecutorParams processParams = ProcessExecutorParams.builder()
         .setCommand(getCommand(context.getPlatform()))
         .setEnvironment(getEnvironmentForProcess(context))
         .setDirectory(filesystem.getRootPath().toFile())
         .build();
-    WorkerProcess newProcess = new WorkerProcess(
-        context.getProcessExecutor(),
-        processParams,
-        filesystem,
-        tmpDir);
+    final AtomicInteger processCount = new AtomicInteger();
+    // A persistent pool outlives this build, so it keeps only what its processes are launched
+    // from and takes the executor from each build borrowing from it.
+    return new WorkerProcessPool(paramsToUse.getMaxWorkers(), workerHash) {
+      @Override
+      protected WorkerProcess startWorkerProcess(ProcessExecutor executor) throws IOException {
+        // Each process numbers its jobs from zero, so give each one its own directory for the
+        // files it exchanges with Buck.
+        Path processTmpDir = tmpDir;
+        if (paramsToUse.getMaxWorkers() > 1) {
+          processTmpDir = tmpDir.resolve(String.valueOf(processCount.getAndIncrement()));
+          filesystem.mkdirs(processTmpDir);
+        }
+        WorkerProcess process = new WorkerProcess(
+            executor,
+            processParams,
+            filesystem,
+            processTmpDir);
+        process.ensureLaunchAndHandshake();
+        return process;
+      }
+    };
+  }
 
-    WorkerProcess previousValue = processMap.putIfAbsent(key, newProcess);
-    // If putIfAbsent does not return null, then that means another thread beat this thread
-    // into putting an WorkerProcess in the map for this key. If that's the case, then we should
-    // ignore newProcess and return the existing one.
-    return previousValue == null ? newProcess : previousValue;
+  /**
+   * Hashes what the worker processes are started from. The contents of the worker tool's inputs
+   * are only hashed when the pool may outlive the build.
+   */
+  @VisibleForTesting
+  HashCode computeWorkerHash(Platform platform, boolean hashInputs) throws IOException {
+    WorkerJobParams paramsToUse = getWorkerJobParamsToUse(platform);
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putString(Joiner.on(' ').join(getCommand(platform)), StandardCharsets.UTF_8);
+    for (Map.Entry<String, String> entry : paramsToUse.getStartupEnvironment().entrySet()) {
+      hasher.putString(entry.getKey(), StandardCharsets.UTF_8);
+      hasher.putString(entry.getValue(), StandardCharsets.UTF_8);
+    }
+    hasher.putInt(paramsToUse.getMaxWorkers());
+    if (hashInputs) {
+      for (Path input : paramsToUse.getStartupInputs()) {
+        hasher.putString(input.toString(), StandardCharsets.UTF_8);
+        if (filesystem.isFile(input)) {
+          hasher.putString(filesystem.computeSha1(input), StandardCharsets.UTF_8);
+        }
+      }
+    }
+    return hasher.hash();
   }
 
   @VisibleForTesting
@@ -24,4 +24,5 @@ public interface WorkerTool {
   Tool getTool();
   String getArgs();
   Path getTempDir();
+  int getMaxWorkers();
 }
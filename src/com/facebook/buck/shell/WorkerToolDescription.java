@@ -114,12 +114,21 @@ public class WorkerToolDescription implements Description<WorkerToolDescription.
               }
             }));
 
+    int maxWorkers = args.maxWorkers.or(1);
+    if (maxWorkers < 1) {
+      throw new HumanReadableException(
+          "%s: max_workers must be at least 1, got %d.",
+          params.getBuildTarget(),
+          maxWorkers);
+    }
+
     return new DefaultWorkerTool(
         params,
         new SourcePathResolver(resolver),
         (BinaryBuildRule) rule,
         expandedStartupArgs,
-        expandedEnv);
+        expandedEnv,
+        maxWorkers);
   }
 
   @Override
@@ -151,5 +160,6 @@ public class WorkerToolDescription implements Description<WorkerToolDescription.
     public Optional<ImmutableMap<String, String>> env;
     public Optional<String> args;
     public BuildTarget exe;
+    public Optional<Integer> maxWorkers;
   }
 }
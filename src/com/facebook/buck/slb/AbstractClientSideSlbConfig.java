@@ -43,6 +43,7 @@ abstract class AbstractClientSideSlbConfig {
   public static final int LATENCY_CHECK_TIME_RANGE_MILLIS =
       ERROR_CHECK_TIME_RANGE_MILLIS;
   public static final int MAX_ACCEPTABLE_LATENCY_MILLIS = (int) TimeUnit.SECONDS.toMillis(1);
+  public static final float HEDGE_PERCENTILE = 0.95f;
 
   public abstract Clock getClock();
   public abstract ScheduledExecutorService getSchedulerService();
@@ -83,4 +84,9 @@ abstract class AbstractClientSideSlbConfig {
   public float getMaxErrorPercentage() {
     return MAX_ERROR_PERCENTAGE;
   }
+
+  @Value.Default
+  public float getHedgePercentile() {
+    return HEDGE_PERCENTILE;
+  }
 }
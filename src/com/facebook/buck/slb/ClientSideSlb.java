@@ -19,6 +19,7 @@ package com.facebook.buck.slb;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.timing.Clock;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
@@ -68,6 +69,7 @@ public class ClientSideSlb implements HttpLoadBalancer {
         config.getMaxErrorPercentage(),
         config.getLatencyCheckTimeRangeMillis(),
         config.getMaxAcceptableLatencyMillis(),
+        config.getHedgePercentile(),
         config.getEventBus());
     this.pingClient = pingClient;
 
@@ -89,6 +91,26 @@ public class ClientSideSlb implements HttpLoadBalancer {
     return healthManager.getBestServer(clock.currentTimeMillis());
   }
 
+  @Override
+  public ImmutableList<URI> getHealthyServers() throws NoHealthyServersException {
+    return healthManager.getHealthyServers(clock.currentTimeMillis());
+  }
+
+  @Override
+  public Optional<Long> getHedgeDelayMillis(URI server) {
+    return healthManager.getHedgeDelayMillis(server, clock.currentTimeMillis());
+  }
+
+  @Override
+  public void reportRequestLatency(URI server, long latencyMillis) {
+    healthManager.reportRequestLatency(server, clock.currentTimeMillis(), latencyMillis);
+  }
+
+  @Override
+  public ImmutableList<URI> getServersForKey(String key) throws NoHealthyServersException {
+    return healthManager.getServersForKey(key, clock.currentTimeMillis());
+  }
+
   @Override
   public void reportRequestSuccess(URI server) {
     healthManager.reportRequestSuccess(server, clock.currentTimeMillis());
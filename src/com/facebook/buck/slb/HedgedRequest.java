@@ -0,0 +1,234 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.slb;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Sends a request to the first of a list of candidate servers and, if no response headers arrive
+ * within the hedge delay of that server, sends a duplicate to the next one. Whichever response
+ * arrives first is returned and the other call is cancelled. A candidate failing outright is
+ * replaced by the next one straight away.
+ * <p>
+ * This bounds the latency a single slow server or a GC pause adds to a request, at the cost of
+ * duplicating the slowest few percent of requests.
+ */
+final class HedgedRequest {
+  private static final Logger LOG = Logger.get(HedgedRequest.class);
+
+  // The primary request plus at most one duplicate.
+  private static final int MAX_ATTEMPTS = 2;
+
+  private final ImmutableList<URI> candidates;
+  private final String path;
+  private final Request.Builder requestBuilder;
+  private final HttpLoadBalancer slb;
+  private final OkHttpClient client;
+  private final BuckEventBus eventBus;
+
+  private final Object lock = new Object();
+  private final BlockingQueue<Attempt> finishedAttempts = new LinkedBlockingQueue<>();
+  private final List<Attempt> attempts = Lists.newArrayList();
+  private boolean settled = false;
+
+  HedgedRequest(
+      ImmutableList<URI> candidates,
+      String path,
+      Request.Builder requestBuilder,
+      HttpLoadBalancer slb,
+      OkHttpClient client,
+      BuckEventBus eventBus) {
+    Preconditions.checkArgument(!candidates.isEmpty(), "No servers to send [%s] to.", path);
+    this.candidates = candidates;
+    this.path = path;
+    this.requestBuilder = requestBuilder;
+    this.slb = slb;
+    this.client = client;
+    this.eventBus = eventBus;
+  }
+
+  public HttpResponse execute() throws IOException {
+    int maxAttempts = Math.min(MAX_ATTEMPTS, candidates.size());
+    Attempt winner = null;
+    try {
+      start(candidates.get(0));
+      Optional<Long> hedgeDelayMillis = slb.getHedgeDelayMillis(candidates.get(0));
+      int outstanding = 1;
+      IOException lastException = null;
+      while (outstanding > 0) {
+        Attempt finished;
+        if (attempts.size() < maxAttempts && hedgeDelayMillis.isPresent()) {
+          finished = finishedAttempts.poll(hedgeDelayMillis.get(), TimeUnit.MILLISECONDS);
+          if (finished == null) {
+            URI hedge = candidates.get(attempts.size());
+            LOG.debug(
+                "No response from [%s] after %dms, hedging with [%s].",
+                candidates.get(0),
+                hedgeDelayMillis.get(),
+                hedge);
+            start(hedge);
+            ++outstanding;
+            continue;
+          }
+        } else {
+          finished = finishedAttempts.take();
+        }
+        --outstanding;
+
+        if (finished.response != null) {
+          winner = finished;
+          return finished.response;
+        }
+
+        lastException = Preconditions.checkNotNull(finished.exception);
+        if (attempts.size() < maxAttempts) {
+          start(candidates.get(attempts.size()));
+          ++outstanding;
+        }
+      }
+      throw Preconditions.checkNotNull(lastException);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException interrupted = new InterruptedIOException();
+      interrupted.initCause(e);
+      throw interrupted;
+    } finally {
+      settle(winner);
+    }
+  }
+
+  private void start(URI server) throws IOException {
+    requestBuilder.url(SingleUriService.getFullUrl(server, path));
+    Request request = requestBuilder.build();
+    Attempt attempt = new Attempt(server, client.newCall(request));
+    attempts.add(attempt);
+    attempt.call.enqueue(attempt);
+  }
+
+  /**
+   * Stops waiting for the attempts other than {@code winner}: they are cancelled and any response
+   * they still produce is closed.
+   */
+  private void settle(@Nullable Attempt winner) {
+    List<Attempt> unclaimed = Lists.newArrayList();
+    synchronized (lock) {
+      settled = true;
+      finishedAttempts.drainTo(unclaimed);
+    }
+    for (Attempt attempt : attempts) {
+      if (attempt != winner && !attempt.done) {
+        attempt.call.cancel();
+      }
+    }
+    for (Attempt attempt : unclaimed) {
+      attempt.discard();
+    }
+  }
+
+  private class Attempt implements Callback {
+    private final URI server;
+    private final Call call;
+    private final Stopwatch stopwatch;
+    private volatile boolean done;
+    private HttpResponse response;
+    private IOException exception;
+
+    private Attempt(URI server, Call call) {
+      this.server = server;
+      this.call = call;
+      this.stopwatch = Stopwatch.createStarted();
+    }
+
+    @Override
+    public void onResponse(Call call, Response rawResponse) throws IOException {
+      done = true;
+      slb.reportRequestLatency(server, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+      LoadBalancedServiceEventData.Builder data = LoadBalancedServiceEventData.builder()
+          .setServer(server)
+          .setResponseCode(rawResponse.code());
+      response = new LoadBalancedHttpResponse(server, slb, rawResponse);
+      if (response.contentLength() != -1) {
+        data.setResponseSizeBytes(response.contentLength());
+      }
+      eventBus.post(new LoadBalancedServiceEvent(data.build()));
+      finish();
+    }
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+      done = true;
+      exception = e;
+      synchronized (lock) {
+        if (settled) {
+          // Cancelled because another attempt won, which says nothing about this server.
+          return;
+        }
+      }
+      slb.reportRequestException(server);
+      eventBus.post(new LoadBalancedServiceEvent(
+          LoadBalancedServiceEventData.builder()
+              .setServer(server)
+              .setException(e)
+              .build()));
+      finish();
+    }
+
+    private void finish() {
+      synchronized (lock) {
+        if (!settled) {
+          finishedAttempts.add(this);
+          return;
+        }
+      }
+      discard();
+    }
+
+    private void discard() {
+      if (response == null) {
+        return;
+      }
+      try {
+        response.close();
+      } catch (IOException e) {
+        LOG.debug(e, "Failed to close the losing response from [%s].", server);
+      }
+    }
+  }
+}
@@ -16,11 +16,36 @@
 
 package com.facebook.buck.slb;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
 import java.net.URI;
 
 public interface HttpLoadBalancer extends AutoCloseable {
   URI getBestServer() throws NoHealthyServersException;
 
+  /**
+   * @return the healthy servers, best first.
+   */
+  ImmutableList<URI> getHealthyServers() throws NoHealthyServersException;
+
+  /**
+   * @return how long a request to {@code server} may go without response headers before it is
+   *     worth hedging with a duplicate to another server, if known.
+   */
+  Optional<Long> getHedgeDelayMillis(URI server);
+
+  /**
+   * @return the healthy servers ordered by their affinity to {@code key}: the owner of the key
+   *     first, followed by its replicas.
+   */
+  ImmutableList<URI> getServersForKey(String key) throws NoHealthyServersException;
+
+  /**
+   * Records how long a fetch took to get a response from {@code server}, from which
+   * {@link #getHedgeDelayMillis(URI)} is derived.
+   */
+  void reportRequestLatency(URI server, long latencyMillis);
   void reportRequestSuccess(URI server);
   void reportRequestException(URI server);
 
@@ -16,6 +16,8 @@
 
 package com.facebook.buck.slb;
 
+import com.google.common.base.Optional;
+
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
@@ -38,6 +40,11 @@ public interface HttpResponse extends Closeable {
    */
   InputStream getBody() throws IOException;
 
+  /**
+   * @return The value of the response header called {@code name}, if there is one.
+   */
+  Optional<String> getHeader(String name);
+
   /**
    * @return The full URL of the request that generated this response.
    */
@@ -17,28 +17,64 @@
 package com.facebook.buck.slb;
 
 import com.facebook.buck.event.BuckEventBus;
+import com.google.common.base.Stopwatch;
 import okhttp3.Call;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.Response;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.concurrent.TimeUnit;
 
 public class LoadBalancedService implements HttpService {
   private final HttpLoadBalancer slb;
   private final OkHttpClient client;
   private final BuckEventBus eventBus;
+  private final boolean hedgeRequests;
 
   public LoadBalancedService(HttpLoadBalancer slb, OkHttpClient client, BuckEventBus eventBus) {
+    this(slb, client, eventBus, /* hedgeRequests */ false);
+  }
+
+  /**
+   * @param hedgeRequests whether to duplicate requests that are slow to get a response to the
+   *     next best server. Only suitable for idempotent requests.
+   */
+  public LoadBalancedService(
+      HttpLoadBalancer slb,
+      OkHttpClient client,
+      BuckEventBus eventBus,
+      boolean hedgeRequests) {
     this.slb = slb;
     this.client = client;
     this.eventBus = eventBus;
+    this.hedgeRequests = hedgeRequests;
   }
 
   @Override
   public HttpResponse makeRequest(
       String path, Request.Builder requestBuilder) throws IOException {
+    if (hedgeRequests) {
+      return new HedgedRequest(
+          slb.getHealthyServers(),
+          path,
+          requestBuilder,
+          slb,
+          client,
+          eventBus).execute();
+    }
     URI server = slb.getBestServer();
+    return makeRequest(server, path, requestBuilder, slb, client, eventBus);
+  }
+
+  static HttpResponse makeRequest(
+      URI server,
+      String path,
+      Request.Builder requestBuilder,
+      HttpLoadBalancer slb,
+      OkHttpClient client,
+      BuckEventBus eventBus) throws IOException {
     LoadBalancedServiceEventData.Builder data = LoadBalancedServiceEventData.builder()
         .setServer(server);
     requestBuilder.url(SingleUriService.getFullUrl(server, path));
@@ -48,7 +84,15 @@ public class LoadBalancedService implements HttpService {
     }
     Call call = client.newCall(request);
     try {
-      HttpResponse response = new LoadBalancedHttpResponse(server, slb, call.execute());
+      Stopwatch stopwatch = Stopwatch.createStarted();
+      Response rawResponse = call.execute();
+      // Stores upload whole artifacts, so their latencies would inflate the hedge delay of
+      // fetches, which are the only requests ever hedged.
+      if (request.method().equals("GET")) {
+        slb.reportRequestLatency(server, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+      }
+      HttpResponse response = new LoadBalancedHttpResponse(server, slb, rawResponse);
+      data.setResponseCode(response.code());
       if (response.contentLength() != -1) {
         data.setResponseSizeBytes(response.contentLength());
       }
@@ -54,5 +54,6 @@ public class LoadBalancedServiceEvent extends AbstractBuckEvent {
     Optional<Exception> getException();
     Optional<Long> getRequestSizeBytes();
     Optional<Long> getResponseSizeBytes();
+    Optional<Integer> getResponseCode();
   }
 }
@@ -16,6 +16,8 @@
 
 package com.facebook.buck.slb;
 
+import com.google.common.base.Optional;
+
 import okhttp3.Response;
 
 import java.io.IOException;
@@ -43,6 +45,11 @@ public class OkHttpResponseWrapper implements HttpResponse {
     return response.body().byteStream();
   }
 
+  @Override
+  public Optional<String> getHeader(String name) {
+    return Optional.fromNullable(response.header(name));
+  }
+
   @Override
   public String requestUrl() {
     return response.request().url().toString();
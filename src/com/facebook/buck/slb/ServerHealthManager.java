@@ -20,11 +20,13 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.model.Pair;
 import com.google.common.base.Functions;
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
 
 import java.net.URI;
 import java.util.Collections;
@@ -44,12 +46,26 @@ public class ServerHealthManager {
         }
       };
 
+  private static final Comparator<Pair<URI, Long>> WEIGHT_COMPARATOR =
+      new Comparator<Pair<URI, Long>>() {
+        @Override
+        public int compare(
+            Pair<URI, Long> o1, Pair<URI, Long> o2) {
+          int result = Long.compare(o2.getSecond(), o1.getSecond());
+          return result != 0 ? result : o1.getFirst().compareTo(o2.getFirst());
+        }
+      };
+
+  // Hedging on a handful of samples would mostly measure noise.
+  private static final int MIN_HEDGE_DELAY_SAMPLES = 10;
+
   // TODO(ruibm): It could be useful to preserve this state across runs in the local fs.
   private final ConcurrentHashMap<URI, ServerHealthState> servers;
   private final int maxAcceptableLatencyMillis;
   private final int latencyCheckTimeRangeMillis;
   private final float maxErrorPercentage;
   private final int errorCheckTimeRangeMillis;
+  private final float hedgePercentile;
   private final BuckEventBus eventBus;
 
   public ServerHealthManager(
@@ -59,6 +75,29 @@ public class ServerHealthManager {
       int latencyCheckTimeRangeMillis,
       int maxAcceptableLatencyMillis,
       BuckEventBus eventBus) {
+    this(
+        servers,
+        errorCheckTimeRangeMillis,
+        maxErrorPercentage,
+        latencyCheckTimeRangeMillis,
+        maxAcceptableLatencyMillis,
+        AbstractClientSideSlbConfig.HEDGE_PERCENTILE,
+        eventBus);
+  }
+
+  public ServerHealthManager(
+      ImmutableList<URI> servers,
+      int errorCheckTimeRangeMillis,
+      float maxErrorPercentage,
+      int latencyCheckTimeRangeMillis,
+      int maxAcceptableLatencyMillis,
+      float hedgePercentile,
+      BuckEventBus eventBus) {
+    Preconditions.checkArgument(
+        hedgePercentile > 0 && hedgePercentile <= 1,
+        "The hedge percentile must be in (0, 1] instead of [%s].",
+        hedgePercentile);
+    this.hedgePercentile = hedgePercentile;
     this.errorCheckTimeRangeMillis = errorCheckTimeRangeMillis;
     this.maxErrorPercentage = maxErrorPercentage;
     this.latencyCheckTimeRangeMillis = latencyCheckTimeRangeMillis;
@@ -75,6 +114,11 @@ public class ServerHealthManager {
     servers.get(server).reportPingLatency(epochMillis, latencyMillis);
   }
 
+  public void reportRequestLatency(URI server, long epochMillis, long latencyMillis) {
+    Preconditions.checkState(servers.containsKey(server), "Unknown server [%s]", server);
+    servers.get(server).reportRequestLatency(epochMillis, latencyMillis);
+  }
+
   public void reportRequestError(URI server, long epochMillis) {
     Preconditions.checkState(servers.containsKey(server), "Unknown server [%s]", server);
     servers.get(server).reportRequestError(epochMillis);
@@ -92,39 +136,130 @@ public class ServerHealthManager {
       // TODO(ruibm): Computations in this method could be cached and only refreshed
       // every 10 seconds to avoid call bursts causing unnecessary CPU consumption.
 
-      List<Pair<URI, Long>> serverLatencies = Lists.newArrayList();
-      for (ServerHealthState state : servers.values()) {
-        URI server = state.getServer();
-        PerServerData.Builder perServerData = PerServerData.builder().setServer(server);
-        allPerServerData.put(server, perServerData);
-
-        float errorPercentage = state.getErrorPercentage(epochMillis, errorCheckTimeRangeMillis);
-        long latencyMillis = state.getPingLatencyMillis(epochMillis, latencyCheckTimeRangeMillis);
-        if (errorPercentage <= maxErrorPercentage && latencyMillis <= maxAcceptableLatencyMillis) {
-          serverLatencies.add(new Pair<>(state.getServer(), latencyMillis));
-        } else {
-          perServerData.setServerUnhealthy(true);
-        }
-      }
-
-      if (serverLatencies.size() == 0) {
-        data.setNoHealthyServersAvailable(true);
-        throw new NoHealthyServersException(String.format(
-            "No servers available. Too many errors reported by all servers in the pool: [%s]",
-            Joiner.on(", ").join(FluentIterable.from(servers.keySet()).transform(
-                Functions.toStringFunction()))));
-      }
-
+      List<Pair<URI, Long>> serverLatencies =
+          getHealthyServerLatencies(epochMillis, data, allPerServerData);
       Collections.sort(serverLatencies, LATENCY_COMPARATOR);
       URI bestServer = serverLatencies.get(0).getFirst();
       Preconditions.checkNotNull(allPerServerData.get(bestServer)).setBestServer(true);
       return bestServer;
     } finally {
-      for (PerServerData.Builder builder : allPerServerData.values()) {
-        data.addPerServerData(builder.build());
+      postEvent(data, allPerServerData);
+    }
+  }
+
+  /**
+   * @return the healthy servers, fastest first.
+   */
+  public ImmutableList<URI> getHealthyServers(long epochMillis) throws NoHealthyServersException {
+    ServerHealthManagerEventData.Builder data = ServerHealthManagerEventData.builder();
+    Map<URI, PerServerData.Builder> allPerServerData = Maps.newHashMap();
+    try {
+      List<Pair<URI, Long>> serverLatencies =
+          getHealthyServerLatencies(epochMillis, data, allPerServerData);
+      Collections.sort(serverLatencies, LATENCY_COMPARATOR);
+      ImmutableList.Builder<URI> healthyServers = ImmutableList.builder();
+      for (Pair<URI, Long> serverLatency : serverLatencies) {
+        healthyServers.add(serverLatency.getFirst());
+      }
+      URI bestServer = serverLatencies.get(0).getFirst();
+      Preconditions.checkNotNull(allPerServerData.get(bestServer)).setBestServer(true);
+      return healthyServers.build();
+    } finally {
+      postEvent(data, allPerServerData);
+    }
+  }
+
+  /**
+   * @return how long to wait for the response headers of a request to {@code server} before
+   *     sending a duplicate to another server: the configured percentile of its recent request
+   *     latencies, or absent if there are too few samples to tell.
+   */
+  public Optional<Long> getHedgeDelayMillis(URI server, long epochMillis) {
+    Preconditions.checkState(servers.containsKey(server), "Unknown server [%s]", server);
+    long delayMillis = servers.get(server).getRequestLatencyPercentileMillis(
+        epochMillis,
+        latencyCheckTimeRangeMillis,
+        hedgePercentile,
+        MIN_HEDGE_DELAY_SAMPLES);
+    return delayMillis < 0 ? Optional.<Long>absent() : Optional.of(delayMillis);
+  }
+
+  /**
+   * Ranks the healthy servers by their rendezvous (highest random weight) hash with {@code key}.
+   * The first server is the owner of the key and the following ones are its replicas, so every
+   * client agrees on the owners of a key and only the keys owned by a server move when it becomes
+   * unhealthy or leaves the pool.
+   */
+  public ImmutableList<URI> getServersForKey(final String key, long epochMillis)
+      throws NoHealthyServersException {
+    ServerHealthManagerEventData.Builder data = ServerHealthManagerEventData.builder();
+    Map<URI, PerServerData.Builder> allPerServerData = Maps.newHashMap();
+    try {
+      List<Pair<URI, Long>> serverLatencies =
+          getHealthyServerLatencies(epochMillis, data, allPerServerData);
+      List<Pair<URI, Long>> serverWeights = Lists.newArrayListWithCapacity(serverLatencies.size());
+      for (Pair<URI, Long> serverLatency : serverLatencies) {
+        URI server = serverLatency.getFirst();
+        serverWeights.add(new Pair<>(server, getRendezvousWeight(server, key)));
+      }
+      Collections.sort(serverWeights, WEIGHT_COMPARATOR);
+      ImmutableList.Builder<URI> rankedServers = ImmutableList.builder();
+      for (Pair<URI, Long> serverWeight : serverWeights) {
+        rankedServers.add(serverWeight.getFirst());
+      }
+      URI owner = serverWeights.get(0).getFirst();
+      Preconditions.checkNotNull(allPerServerData.get(owner)).setBestServer(true);
+      return rankedServers.build();
+    } finally {
+      postEvent(data, allPerServerData);
+    }
+  }
+
+  private List<Pair<URI, Long>> getHealthyServerLatencies(
+      long epochMillis,
+      ServerHealthManagerEventData.Builder data,
+      Map<URI, PerServerData.Builder> allPerServerData) throws NoHealthyServersException {
+    List<Pair<URI, Long>> serverLatencies = Lists.newArrayList();
+    for (ServerHealthState state : servers.values()) {
+      URI server = state.getServer();
+      PerServerData.Builder perServerData = PerServerData.builder().setServer(server);
+      allPerServerData.put(server, perServerData);
+
+      float errorPercentage = state.getErrorPercentage(epochMillis, errorCheckTimeRangeMillis);
+      long latencyMillis = state.getPingLatencyMillis(epochMillis, latencyCheckTimeRangeMillis);
+      if (errorPercentage <= maxErrorPercentage && latencyMillis <= maxAcceptableLatencyMillis) {
+        serverLatencies.add(new Pair<>(state.getServer(), latencyMillis));
+      } else {
+        perServerData.setServerUnhealthy(true);
       }
-      eventBus.post(new ServerHealthManagerEvent(data.build()));
     }
+
+    if (serverLatencies.size() == 0) {
+      data.setNoHealthyServersAvailable(true);
+      throw new NoHealthyServersException(String.format(
+          "No servers available. Too many errors reported by all servers in the pool: [%s]",
+          Joiner.on(", ").join(FluentIterable.from(servers.keySet()).transform(
+              Functions.toStringFunction()))));
+    }
+
+    return serverLatencies;
+  }
+
+  private void postEvent(
+      ServerHealthManagerEventData.Builder data,
+      Map<URI, PerServerData.Builder> allPerServerData) {
+    for (PerServerData.Builder builder : allPerServerData.values()) {
+      data.addPerServerData(builder.build());
+    }
+    eventBus.post(new ServerHealthManagerEvent(data.build()));
+  }
+
+  private static long getRendezvousWeight(URI server, String key) {
+    return Hashing.murmur3_128().newHasher()
+        .putUnencodedChars(server.toString())
+        .putUnencodedChars(key)
+        .hash()
+        .asLong();
   }
 
   public String toString(long epochMillis) {
@@ -20,6 +20,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 
 import java.net.URI;
+import java.util.Collections;
 import java.util.List;
 import java.util.ListIterator;
 
@@ -30,6 +31,7 @@ public class ServerHealthState {
   private final URI server;
   private final List<LatencySample> pingLatencies;
   private final List<RequestSample> requests;
+  private final List<LatencySample> requestLatencies;
 
   public ServerHealthState(URI server) {
     this(server, MAX_STORED_SAMPLES);
@@ -44,6 +46,7 @@ public class ServerHealthState {
     this.server = server;
     this.pingLatencies = Lists.newLinkedList();
     this.requests = Lists.newLinkedList();
+    this.requestLatencies = Lists.newLinkedList();
   }
 
   /**
@@ -58,6 +61,19 @@ public class ServerHealthState {
     }
   }
 
+  /**
+   * Records how long a request took to receive the response headers from the server.
+   * NOTE: Assumes nowMillis is roughly non-decreasing in consecutive calls.
+   * @param nowMillis
+   * @param latencyMillis
+   */
+  public void reportRequestLatency(long nowMillis, long latencyMillis) {
+    synchronized (requestLatencies) {
+      requestLatencies.add(new LatencySample(nowMillis, latencyMillis));
+      keepWithinSizeLimit(requestLatencies);
+    }
+  }
+
   /**
    * NOTE: Assumes nowMillis is roughly non-decreasing in consecutive calls.
    * @param nowMillis
@@ -159,6 +175,36 @@ public class ServerHealthState {
     }
   }
 
+  /**
+   * @param percentile Value in the interval (0.0, 1.0].
+   *
+   * @return the request latency below which {@code percentile} of the requests in the time range
+   *     received their response headers, or -1 if there are fewer than {@code minSamples} samples.
+   */
+  public long getRequestLatencyPercentileMillis(
+      long nowMillis,
+      int timeRangeMillis,
+      float percentile,
+      int minSamples) {
+    List<Long> latencies = Lists.newArrayList();
+    long initialMillis = nowMillis - timeRangeMillis;
+    synchronized (requestLatencies) {
+      for (LatencySample sample : requestLatencies) {
+        if (sample.getEpochMillis() >= initialMillis &&
+            sample.getEpochMillis() <= nowMillis) {
+          latencies.add(sample.getLatencyMillis());
+        }
+      }
+    }
+
+    if (latencies.isEmpty() || latencies.size() < minSamples) {
+      return -1;
+    }
+    Collections.sort(latencies);
+    int index = (int) Math.ceil(percentile * latencies.size()) - 1;
+    return latencies.get(Math.max(0, Math.min(index, latencies.size() - 1)));
+  }
+
   public String toString(long nowMillis, int timeRangeMillis) {
     return "ServerHealthState{" +
         "server=" + server +
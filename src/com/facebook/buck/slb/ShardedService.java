@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.slb;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Set;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+/**
+ * Routes each request to the servers owning its routing keys instead of the lowest-latency
+ * server, so that every server in the pool holds a distinct slice of the keys and total capacity
+ * grows with the size of the pool.
+ * <p>
+ * Ownership is decided by {@link HttpLoadBalancer#getServersForKey(String)}. Requests with a body
+ * (stores) are sent to the first {@code replicas} healthy owners of every routing key. Requests
+ * without one (fetches) go to the first healthy owner and fail over to the next replica if the
+ * request cannot be made, or, when hedging, when the owner is slow to respond.
+ */
+public class ShardedService implements HttpService {
+  private static final Logger LOG = Logger.get(ShardedService.class);
+  private static final HttpUrl PLACEHOLDER_URL = HttpUrl.parse("http://localhost/");
+
+  private final HttpLoadBalancer slb;
+  private final OkHttpClient client;
+  private final BuckEventBus eventBus;
+  private final int replicas;
+  private final boolean hedgeFetches;
+
+  public ShardedService(
+      HttpLoadBalancer slb,
+      OkHttpClient client,
+      BuckEventBus eventBus,
+      int replicas) {
+    this(slb, client, eventBus, replicas, /* hedgeFetches */ false);
+  }
+
+  public ShardedService(
+      HttpLoadBalancer slb,
+      OkHttpClient client,
+      BuckEventBus eventBus,
+      int replicas,
+      boolean hedgeFetches) {
+    Preconditions.checkArgument(replicas > 0, "Need at least one replica instead of: %d", replicas);
+    this.slb = slb;
+    this.client = client;
+    this.eventBus = eventBus;
+    this.replicas = replicas;
+    this.hedgeFetches = hedgeFetches;
+  }
+
+  /**
+   * Sets the keys {@code requestBuilder} is routed by. Requests without routing keys are routed
+   * by their path.
+   */
+  public static Request.Builder setRoutingKeys(
+      Request.Builder requestBuilder,
+      Iterable<String> routingKeys) {
+    return requestBuilder.tag(new RoutingKeys(ImmutableList.copyOf(routingKeys)));
+  }
+
+  @Override
+  public HttpResponse makeRequest(String path, Request.Builder requestBuilder) throws IOException {
+    // The url is only needed to inspect the request and is replaced once a server is chosen.
+    Request request = requestBuilder.url(PLACEHOLDER_URL).build();
+    ImmutableList<String> routingKeys = request.tag() instanceof RoutingKeys ?
+        ((RoutingKeys) request.tag()).keys :
+        ImmutableList.of(path);
+    Preconditions.checkArgument(!routingKeys.isEmpty(), "No routing keys for [%s].", path);
+
+    if (request.body() == null) {
+      ImmutableList<URI> owners = ImmutableList.copyOf(
+          Iterables.limit(slb.getServersForKey(routingKeys.get(0)), replicas));
+      if (hedgeFetches) {
+        return new HedgedRequest(owners, path, requestBuilder, slb, client, eventBus).execute();
+      }
+      return makeRequestWithFailover(owners, path, requestBuilder);
+    }
+
+    Set<URI> owners = Sets.newLinkedHashSet();
+    for (String routingKey : routingKeys) {
+      Iterables.addAll(owners, Iterables.limit(slb.getServersForKey(routingKey), replicas));
+    }
+    return makeRequestToAll(owners, path, requestBuilder);
+  }
+
+  private HttpResponse makeRequestWithFailover(
+      Iterable<URI> servers,
+      String path,
+      Request.Builder requestBuilder) throws IOException {
+    IOException lastException = null;
+    for (URI server : servers) {
+      try {
+        return LoadBalancedService.makeRequest(
+            server,
+            path,
+            requestBuilder,
+            slb,
+            client,
+            eventBus);
+      } catch (IOException e) {
+        LOG.debug(e, "Request to [%s] failed, trying the next replica.", server);
+        slb.reportRequestException(server);
+        lastException = e;
+      }
+    }
+    throw Preconditions.checkNotNull(lastException);
+  }
+
+  private HttpResponse makeRequestToAll(
+      Iterable<URI> servers,
+      String path,
+      Request.Builder requestBuilder) throws IOException {
+    HttpResponse firstResponse = null;
+    IOException lastException = null;
+    for (URI server : servers) {
+      try {
+        HttpResponse response = LoadBalancedService.makeRequest(
+            server,
+            path,
+            requestBuilder,
+            slb,
+            client,
+            eventBus);
+        if (firstResponse == null) {
+          firstResponse = response;
+        } else {
+          response.close();
+        }
+      } catch (IOException e) {
+        LOG.debug(e, "Request to replica [%s] failed.", server);
+        slb.reportRequestException(server);
+        lastException = e;
+      }
+    }
+    if (firstResponse == null) {
+      throw Preconditions.checkNotNull(lastException);
+    }
+    return firstResponse;
+  }
+
+  @Override
+  public void close() {
+    slb.close();
+  }
+
+  private static class RoutingKeys {
+    private final ImmutableList<String> keys;
+
+    private RoutingKeys(ImmutableList<String> keys) {
+      this.keys = keys;
+    }
+  }
+}
@@ -23,7 +23,7 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ThrowableConsoleEvent;
 import com.facebook.buck.jvm.core.JavaPackageFinder;
 import com.facebook.buck.model.BuildId;
-import com.facebook.buck.shell.WorkerProcess;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.util.Ansi;
 import com.facebook.buck.util.ClassLoaderCache;
 import com.facebook.buck.util.Console;
@@ -36,6 +36,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ListeningExecutorService;
 
@@ -44,6 +45,7 @@ import org.immutables.value.Value;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -117,11 +119,20 @@ abstract class AbstractExecutionContext implements Closeable {
     return false;
   }
 
+  /**
+   * The worker process pools used during this build, keyed by the command starting the workers.
+   */
   @Value.Default
-  public ConcurrentMap<String, WorkerProcess> getWorkerProcesses() {
+  public ConcurrentMap<String, WorkerProcessPool> getWorkerProcessPools() {
     return new ConcurrentHashMap<>();
   }
 
+  /**
+   * Worker process pools kept alive by the daemon between builds, if any. Pools taken from here
+   * are not closed along with this context.
+   */
+  public abstract Optional<ConcurrentMap<String, WorkerProcessPool>> getPersistentWorkerPools();
+
   @Value.Default
   public ConcurrencyLimit getConcurrencyLimit() {
     return new ConcurrencyLimit(
@@ -212,19 +223,24 @@ abstract class AbstractExecutionContext implements Closeable {
         .setConsole(console)
         .setProcessExecutor(new ProcessExecutor(console))
         .setClassLoaderCache(getClassLoaderCache().addRef())
-        .setWorkerProcesses(new ConcurrentHashMap<String, WorkerProcess>())
+        .setWorkerProcessPools(new ConcurrentHashMap<String, WorkerProcessPool>())
         .build();
   }
 
   @Override
   public void close() throws IOException {
     getClassLoaderCache().close();
+    Collection<WorkerProcessPool> persistentPools = getPersistentWorkerPools().isPresent() ?
+        getPersistentWorkerPools().get().values() :
+        ImmutableList.<WorkerProcessPool>of();
     try {
-      for (WorkerProcess process : getWorkerProcesses().values()) {
-        process.close();
+      for (WorkerProcessPool pool : getWorkerProcessPools().values()) {
+        if (!persistentPools.contains(pool)) {
+          pool.close();
+        }
       }
     } finally {
-      getWorkerProcesses().clear();
+      getWorkerProcessPools().clear();
     }
   }
 }
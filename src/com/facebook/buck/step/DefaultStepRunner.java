@@ -16,6 +16,9 @@
 
 package com.facebook.buck.step;
 
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.CounterRegistry;
+import com.facebook.buck.counters.HistogramCounter;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.util.concurrent.MoreFutures;
@@ -23,6 +26,8 @@ import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -33,15 +38,24 @@ import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public final class DefaultStepRunner implements StepRunner {
 
   private static final Logger LOG = Logger.get(DefaultStepRunner.class);
 
   private final ExecutionContext context;
+  private final HistogramCounter stepExecutionTimeMicros;
+  private final AtomicBoolean counterRegistered;
 
   public DefaultStepRunner(ExecutionContext executionContext) {
     this.context = executionContext;
+    this.stepExecutionTimeMicros = new HistogramCounter(
+        "buck_step_runner",
+        "step_execution_time_micros",
+        ImmutableMap.<String, String>of());
+    this.counterRegistered = new AtomicBoolean();
   }
 
   @Override
@@ -58,12 +72,19 @@ public final class DefaultStepRunner implements StepRunner {
     StepEvent.Started started = StepEvent.started(stepShortName, stepDescription, stepUuid);
     context.getBuckEventBus().logDebugAndPost(
         LOG, started);
+    if (counterRegistered.compareAndSet(false, true)) {
+      context.getBuckEventBus().post(
+          new CounterRegistry.AsyncCounterRegistrationEvent(
+              ImmutableSet.<Counter>of(stepExecutionTimeMicros)));
+    }
     StepExecutionResult executionResult = StepExecutionResult.ERROR;
+    long start = System.nanoTime();
     try {
       executionResult = step.execute(context);
     } catch (IOException | RuntimeException e) {
       throw StepFailedException.createForFailingStepWithException(step, e, buildTarget);
     } finally {
+      stepExecutionTimeMicros.addSample(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
       context.getBuckEventBus().logDebugAndPost(
           LOG, StepEvent.finished(started, executionResult.getExitCode()));
     }
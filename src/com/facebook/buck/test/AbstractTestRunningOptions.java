@@ -67,6 +67,29 @@ abstract class AbstractTestRunningOptions {
     return false;
   }
 
+  /**
+   * @return whether to only run the test classes affected by changes since they last ran, where
+   *     that is known.
+   */
+  @Value.Default
+  public boolean isRunningImpactedTestsOnly() {
+    return false;
+  }
+
+  /**
+   * @return how many test rules a warm JVM runs before it is replaced, or 0 to start a fresh JVM
+   *     for every test rule.
+   */
+  @Value.Default
+  public int getWarmJvmMaxRuns() {
+    return 0;
+  }
+
+  /**
+   * @return how many processes to split the test classes of a rule with the given label across.
+   */
+  public abstract ImmutableMap<String, Integer> getShardCountsByLabel();
+
   public abstract Optional<String> getPathToXmlTestOutput();
 
   public abstract Optional<String> getPathToJavaAgent();
@@ -57,6 +57,8 @@ public abstract class BaseRunner {
   protected long defaultTestTimeoutMillis;
   protected TestSelectorList testSelectorList;
   protected boolean isDryRun;
+  /* @Nullable */
+  protected File classUsageOutput;
   protected Set<TestDescription> seenDescriptions = new HashSet<>();
 
   public abstract void run() throws Throwable;
@@ -164,6 +166,7 @@ public abstract class BaseRunner {
    *   <li>(string) output directory
    *   <li>(long) default timeout in milliseconds (0 for no timeout)
    *   <li>(string) newline separated list of test selectors
+   *   <li>(string) optional file to record the classes used by each test class to
    *   <li>(string...) fully-qualified names of test classes
    * </ul>
    */
@@ -172,6 +175,7 @@ public abstract class BaseRunner {
     long defaultTestTimeoutMillis = Long.MAX_VALUE;
     TestSelectorList testSelectorList = TestSelectorList.empty();
     boolean isDryRun = false;
+    File classUsageOutput = null;
 
     List<String> testClassNames = new ArrayList<>();
 
@@ -189,6 +193,9 @@ public abstract class BaseRunner {
         case "--dry-run":
           isDryRun = true;
           break;
+        case "--class-usage-output":
+          classUsageOutput = new File(args[++i]);
+          break;
         case "--output":
           outputDirectory = new File(args[++i]);
           if (!outputDirectory.exists()) {
@@ -209,6 +216,7 @@ public abstract class BaseRunner {
     this.outputDirectory = outputDirectory;
     this.defaultTestTimeoutMillis = defaultTestTimeoutMillis;
     this.isDryRun = isDryRun;
+    this.classUsageOutput = classUsageOutput;
     this.testClassNames = testClassNames;
     this.testSelectorList = testSelectorList;
   }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.testrunner;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Records which classes the JVM loaded by the time each test class finished running, for Buck to
+ * tell which test classes a change can affect.
+ * <p>
+ * The output lists each test class on a {@code test <name>} line, followed by the classes that
+ * were first loaded since the previous test class finished. Every class a test class used was
+ * therefore loaded by the end of its own section, though earlier sections may have loaded it.
+ * <p>
+ * There is no public API to list the classes a {@link ClassLoader} loaded without an agent, so
+ * this reads the loader's private list of them. If that list can't be read, no output is written
+ * at all, which Buck treats as having no usage data.
+ * <p>
+ * IMPORTANT! This class limits itself to types that are available in both the JDK and Android
+ * Java API. The objective is to limit the set of files added to the ClassLoader that runs the test,
+ * as not to interfere with the results of the test.
+ */
+class ClassUsageRecorder implements Closeable {
+
+  private final Field classesField;
+  private final Writer writer;
+  private final Map<ClassLoader, Integer> reportedClassCounts = new IdentityHashMap<>();
+
+  private ClassUsageRecorder(Field classesField, Writer writer) {
+    this.classesField = classesField;
+    this.writer = writer;
+  }
+
+  /**
+   * @return a recorder writing to {@code output}, or null if this JVM doesn't let us see which
+   *     classes were loaded.
+   */
+  /* @Nullable */
+  static ClassUsageRecorder create(File output) throws IOException {
+    Field classesField;
+    try {
+      classesField = ClassLoader.class.getDeclaredField("classes");
+      classesField.setAccessible(true);
+    } catch (NoSuchFieldException | RuntimeException e) {
+      return null;
+    }
+    return new ClassUsageRecorder(
+        classesField,
+        new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(output), BaseRunner.ENCODING)));
+  }
+
+  /**
+   * Records that {@code testClassName} finished running, along with the classes loaded since the
+   * previous call.
+   */
+  void recordTestClass(String testClassName) throws IOException {
+    writer.write("test " + testClassName + "\n");
+    for (ClassLoader loader = Thread.currentThread().getContextClassLoader();
+         loader != null;
+         loader = loader.getParent()) {
+      List<Class<?>> loadedClasses = getLoadedClasses(loader);
+      Integer reportedClassCount = reportedClassCounts.get(loader);
+      // Class loaders only ever add to their list, so anything past what we reported is new.
+      for (int i = reportedClassCount == null ? 0 : reportedClassCount;
+           i < loadedClasses.size();
+           i++) {
+        writer.write(loadedClasses.get(i).getName());
+        writer.write('\n');
+      }
+      reportedClassCounts.put(loader, loadedClasses.size());
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Class<?>> getLoadedClasses(ClassLoader loader) throws IOException {
+    Vector<Class<?>> classes;
+    try {
+      classes = (Vector<Class<?>>) classesField.get(loader);
+    } catch (IllegalAccessException e) {
+      throw new IOException(e);
+    }
+    synchronized (classes) {
+      return new ArrayList<>(classes);
+    }
+  }
+}
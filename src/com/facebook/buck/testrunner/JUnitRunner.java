@@ -112,8 +112,27 @@ public final class JUnitRunner extends BaseRunner {
       }
     };
 
+    ClassUsageRecorder classUsageRecorder =
+        classUsageOutput == null ? null : ClassUsageRecorder.create(classUsageOutput);
+    try {
+      runTestClasses(filter, stdOutLogLevel, stdErrLogLevel, classUsageRecorder);
+    } finally {
+      if (classUsageRecorder != null) {
+        classUsageRecorder.close();
+      }
+    }
+  }
+
+  private void runTestClasses(
+      Filter filter,
+      Level stdOutLogLevel,
+      Level stdErrLogLevel,
+      /* @Nullable */ ClassUsageRecorder classUsageRecorder) throws Throwable {
     for (String className : testClassNames) {
-      final Class<?> testClass = Class.forName(className);
+      // Load through the context class loader, which JUnitServerMain points at the test's own
+      // classpath when running in a warm JVM.
+      final Class<?> testClass =
+          Class.forName(className, true, Thread.currentThread().getContextClassLoader());
       Ignore ignore = testClass.getAnnotation(Ignore.class);
       boolean isTestClassIgnored = (ignore != null || !isTestClass(testClass));
       boolean isTestClassAbstract = Modifier.isAbstract(testClass.getModifiers());
@@ -139,6 +158,9 @@ public final class JUnitRunner extends BaseRunner {
       if (results != null) {
         writeResult(className, results);
       }
+      if (classUsageRecorder != null) {
+        classUsageRecorder.recordTestClass(className);
+      }
     }
   }
 
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.testrunner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Long-lived launcher for JUnit, used to run several {@code java_test} targets in one warm JVM.
+ * <p>
+ * The server speaks version "0" of the worker protocol (see {@code WorkerProcessProtocolZero}) on
+ * stdin and stdout. The JVM's own classpath holds the jars shared by every test run in it; each
+ * command names an args file listing the per-run system properties, the remaining classpath
+ * entries and the {@link JUnitRunner} arguments, one escaped entry per line:
+ * <ul>
+ *   <li>{@code property:<key>=<value>}
+ *   <li>{@code classpath:<path>}
+ *   <li>{@code arg:<runner argument>}
+ * </ul>
+ * Each run gets a fresh child {@link ClassLoader} over its own classpath entries, so only the
+ * shared jars stay loaded between runs.
+ * <p>
+ * IMPORTANT! This class limits itself to types that are available in both the JDK and Android
+ * Java API. The objective is to limit the set of files added to the ClassLoader that runs the test,
+ * as not to interfere with the results of the test.
+ */
+public class JUnitServerMain {
+
+  static final String PROPERTY_PREFIX = "property:";
+  static final String CLASSPATH_PREFIX = "classpath:";
+  static final String ARG_PREFIX = "arg:";
+
+  private static final PrintStream DISCARDING_STREAM = new PrintStream(
+      new OutputStream() {
+        @Override
+        public void write(int b) {
+          // Output written between runs has nowhere to go.
+        }
+      });
+
+  private JUnitServerMain() {
+    // Launcher class.
+  }
+
+  public static void main(String[] args) throws Throwable {
+    // Ensure that both junit and hamcrest are on the classpath
+    CheckDependency.isPresent("junit", "org.junit.Test");
+    CheckDependency.isPresent("hamcrest", "org.hamcrest.Description");
+
+    // stdout carries the protocol, so keep everything else the tests print off it.
+    Writer protocolOut = new OutputStreamWriter(
+        new FileOutputStream(FileDescriptor.out),
+        BaseRunner.ENCODING);
+    System.setOut(DISCARDING_STREAM);
+    System.setErr(DISCARDING_STREAM);
+
+    MessageReader in = new MessageReader(
+        new BufferedReader(new InputStreamReader(System.in, BaseRunner.ENCODING)));
+    Map<String, String> handshake = in.nextMessage();
+    if (handshake == null) {
+      System.exit(1);
+    }
+    protocolOut.write(
+        "[{\"id\":" + handshake.get("id") + ",\"type\":\"handshake\"," +
+            "\"protocol_version\":\"0\",\"capabilities\":[]}");
+    protocolOut.flush();
+
+    Map<String, String> message;
+    while ((message = in.nextMessage()) != null) {
+      String responseType;
+      int exitCode;
+      if ("command".equals(message.get("type"))) {
+        responseType = "result";
+        exitCode = runJob(
+            message.get("args_path"),
+            message.get("stdout_path"),
+            message.get("stderr_path"));
+      } else {
+        responseType = "error";
+        exitCode = 1;
+      }
+      protocolOut.write(
+          ",{\"id\":" + message.get("id") + ",\"type\":\"" + responseType + "\"," +
+              "\"exit_code\":" + exitCode + "}");
+      protocolOut.flush();
+    }
+    protocolOut.write("]");
+    protocolOut.flush();
+
+    // Tests may have left non-daemon threads behind, see BaseRunner#runAndExit().
+    System.exit(0);
+  }
+
+  private static int runJob(String argsPath, String stdoutPath, String stderrPath)
+      throws IOException {
+    Properties properties = new Properties();
+    List<URL> classpath = new ArrayList<>();
+    List<String> runnerArgs = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(argsPath), BaseRunner.ENCODING))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        String entry = unescape(line);
+        if (entry.startsWith(PROPERTY_PREFIX)) {
+          String property = entry.substring(PROPERTY_PREFIX.length());
+          int equals = property.indexOf('=');
+          properties.setProperty(property.substring(0, equals), property.substring(equals + 1));
+        } else if (entry.startsWith(CLASSPATH_PREFIX)) {
+          classpath.add(new File(entry.substring(CLASSPATH_PREFIX.length())).toURI().toURL());
+        } else if (entry.startsWith(ARG_PREFIX)) {
+          runnerArgs.add(entry.substring(ARG_PREFIX.length()));
+        } else {
+          throw new IOException("Unexpected entry in " + argsPath + ": " + entry);
+        }
+      }
+    }
+
+    Properties originalProperties = new Properties();
+    originalProperties.putAll(System.getProperties());
+    Thread thread = Thread.currentThread();
+    ClassLoader originalClassLoader = thread.getContextClassLoader();
+    URLClassLoader testClassLoader = new URLClassLoader(
+        classpath.toArray(new URL[classpath.size()]),
+        JUnitServerMain.class.getClassLoader());
+
+    try (PrintStream stdout = new PrintStream(new FileOutputStream(stdoutPath), true);
+         PrintStream stderr = new PrintStream(new FileOutputStream(stderrPath), true)) {
+      System.setOut(stdout);
+      System.setErr(stderr);
+      System.getProperties().putAll(properties);
+      thread.setContextClassLoader(testClassLoader);
+      try {
+        JUnitRunner runner = new JUnitRunner();
+        runner.parseArgs(runnerArgs.toArray(new String[runnerArgs.size()]));
+        runner.run();
+        return 0;
+      } catch (Throwable e) {
+        e.printStackTrace();
+        return 1;
+      } finally {
+        thread.setContextClassLoader(originalClassLoader);
+        System.setProperties(originalProperties);
+        System.setOut(DISCARDING_STREAM);
+        System.setErr(DISCARDING_STREAM);
+        testClassLoader.close();
+      }
+    }
+  }
+
+  static String escape(String entry) {
+    return entry.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+  }
+
+  static String unescape(String line) {
+    StringBuilder entry = new StringBuilder(line.length());
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '\\' && i + 1 < line.length()) {
+        char next = line.charAt(++i);
+        entry.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+      } else {
+        entry.append(c);
+      }
+    }
+    return entry.toString();
+  }
+
+  /**
+   * Reads the flat JSON objects of the worker protocol's message array. Nested values are skipped,
+   * which is all the handshake and command messages need.
+   */
+  static class MessageReader {
+    private final Reader reader;
+
+    MessageReader(Reader reader) {
+      this.reader = reader;
+    }
+
+    /**
+     * @return the next message's fields as strings, or null once the array (or stream) ends.
+     */
+    Map<String, String> nextMessage() throws IOException {
+      int c = nextNonWhitespace();
+      if (c != '[' && c != ',') {
+        return null;
+      }
+      expect('{', nextNonWhitespace());
+      Map<String, String> message = new HashMap<>();
+      c = nextNonWhitespace();
+      while (c != '}') {
+        expect('"', c);
+        String key = readString();
+        expect(':', nextNonWhitespace());
+        c = nextNonWhitespace();
+        StringBuilder value = new StringBuilder();
+        if (c == '"') {
+          value.append(readString());
+          c = nextNonWhitespace();
+        } else if (c == '[' || c == '{') {
+          skipNested();
+          c = nextNonWhitespace();
+        } else {
+          while (c != ',' && c != '}' && c != -1 && !Character.isWhitespace(c)) {
+            value.append((char) c);
+            c = reader.read();
+          }
+          if (Character.isWhitespace(c)) {
+            c = nextNonWhitespace();
+          }
+        }
+        message.put(key, value.toString());
+        if (c == ',') {
+          c = nextNonWhitespace();
+        } else {
+          expect('}', c);
+        }
+      }
+      return message;
+    }
+
+    private String readString() throws IOException {
+      StringBuilder string = new StringBuilder();
+      int c;
+      while ((c = reader.read()) != '"') {
+        if (c == -1) {
+          throw new IOException("Unterminated string in worker protocol message.");
+        }
+        if (c == '\\') {
+          c = reader.read();
+          switch (c) {
+            case 'n':
+              c = '\n';
+              break;
+            case 'r':
+              c = '\r';
+              break;
+            case 't':
+              c = '\t';
+              break;
+            case 'b':
+              c = '\b';
+              break;
+            case 'f':
+              c = '\f';
+              break;
+            case 'u':
+              char[] hex = new char[4];
+              for (int i = 0; i < hex.length; i++) {
+                hex[i] = (char) reader.read();
+              }
+              c = Integer.parseInt(new String(hex), 16);
+              break;
+            default:
+              // '"', '\\' and '/' stand for themselves.
+              break;
+          }
+        }
+        string.append((char) c);
+      }
+      return string.toString();
+    }
+
+    private void skipNested() throws IOException {
+      int depth = 1;
+      while (depth > 0) {
+        int c = reader.read();
+        if (c == -1) {
+          throw new IOException("Unterminated value in worker protocol message.");
+        } else if (c == '"') {
+          readString();
+        } else if (c == '[' || c == '{') {
+          depth++;
+        } else if (c == ']' || c == '}') {
+          depth--;
+        }
+      }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+      int c;
+      do {
+        c = reader.read();
+      } while (c != -1 && Character.isWhitespace(c));
+      return c;
+    }
+
+    private static void expect(char expected, int actual) throws IOException {
+      if (actual != expected) {
+        throw new IOException(
+            String.format(
+                "Expected '%c' in worker protocol message but got %s.",
+                expected,
+                actual == -1 ? "end of stream" : "'" + (char) actual + "'"));
+      }
+    }
+  }
+}
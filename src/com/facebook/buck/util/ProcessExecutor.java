@@ -26,6 +26,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -33,9 +34,13 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Executes a {@link Process} and blocks until it is finished.
@@ -101,6 +106,17 @@ public class ProcessExecutor {
     }
   }
 
+  /**
+   * Threads draining the output of, and waiting with a timeout on, child processes. They are
+   * shared by all executors, so a build running thousands of short-lived processes reuses a
+   * handful of threads instead of creating and destroying a few for every process.
+   */
+  private static final ExecutorService PROCESS_THREADS = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setNameFormat(ProcessExecutor.class.getSimpleName() + "-%d")
+          .setDaemon(true)
+          .build());
+
   private final PrintStream stdOutStream;
   private final PrintStream stdErrStream;
   private final Ansi ansi;
@@ -226,38 +242,15 @@ public class ProcessExecutor {
     long millis,
     final Optional<Function<Process, Void>> timeOutHandler) throws InterruptedException {
       Preconditions.checkState(launchedProcess instanceof LaunchedProcessImpl);
-      final Process process = ((LaunchedProcessImpl) launchedProcess).process;
-      final AtomicBoolean timedOut = new AtomicBoolean(false);
-      Thread waiter =
-          new Thread(
-              new Runnable() {
-                @Override
-                public void run() {
-                  try {
-                    process.waitFor();
-                  } catch (InterruptedException e) {
-                    timedOut.set(true);
-                    if (timeOutHandler.isPresent()) {
-                      try {
-                        timeOutHandler.get().apply(process);
-                      } catch (RuntimeException e2) {
-                        LOG.error(e2, "timeOutHandler threw an Exception!");
-                      }
-                    }
-                  }
-                }
-              });
-      waiter.start();
-      waiter.join(millis);
-      waiter.interrupt();
-      waiter.join();
+      Process process = ((LaunchedProcessImpl) launchedProcess).process;
+      boolean timedOut = waitForTimeout(process, millis, timeOutHandler);
       int exitCode = 1;
-      if (!timedOut.get()) {
+      if (!timedOut) {
         exitCode = process.exitValue();
       }
       return new Result(
           exitCode,
-          timedOut.get(),
+          timedOut,
           Optional.<String>absent(),
           Optional.<String>absent()
       );
@@ -296,32 +289,32 @@ public class ProcessExecutor {
   private boolean waitForTimeout(
       final Process process,
       long millis,
-      final Optional<Function<Process, Void>> timeOutHandler) throws InterruptedException {
-    final AtomicBoolean timedOut = new AtomicBoolean(false);
-    Thread waiter =
-        new Thread(
-            new Runnable() {
-              @Override
-              public void run() {
-                try {
-                  process.waitFor();
-                } catch (InterruptedException e) {
-                  timedOut.set(true);
-                  if (timeOutHandler.isPresent()) {
-                    try {
-                      timeOutHandler.get().apply(process);
-                    } catch (RuntimeException e2) {
-                      LOG.error(e2, "timeOutHandler threw an Exception!");
-                    }
-                  }
-                }
-              }
-            });
-    waiter.start();
-    waiter.join(millis);
-    waiter.interrupt();
-    waiter.join();
-    return timedOut.get();
+      Optional<Function<Process, Void>> timeOutHandler) throws InterruptedException {
+    Future<Integer> exitCode = PROCESS_THREADS.submit(
+        new Callable<Integer>() {
+          @Override
+          public Integer call() throws InterruptedException {
+            return process.waitFor();
+          }
+        });
+    try {
+      exitCode.get(millis, TimeUnit.MILLISECONDS);
+      return false;
+    } catch (TimeoutException e) {
+      if (timeOutHandler.isPresent()) {
+        try {
+          timeOutHandler.get().apply(process);
+        } catch (RuntimeException e2) {
+          LOG.error(e2, "timeOutHandler threw an Exception!");
+        }
+      }
+      return true;
+    } catch (ExecutionException e) {
+      // Waiting for a process can only fail by being interrupted, which we do below.
+      throw new IllegalStateException(e);
+    } finally {
+      exitCode.cancel(/* mayInterruptIfRunning */ true);
+    }
   }
 
   /**
@@ -368,17 +361,8 @@ public class ProcessExecutor {
             ansi));
 
     // Consume the streams so they do not deadlock.
-    FutureTask<Void> stdOutTerminationFuture = new FutureTask<>(stdOut);
-    Thread stdOutConsumer = Threads.namedThread(
-        "ProcessExecutor (stdOut)",
-        stdOutTerminationFuture);
-    stdOutConsumer.start();
-
-    FutureTask<Void> stdErrTerminationFuture = new FutureTask<>(stdErr);
-    Thread stdErrConsumer = Threads.namedThread(
-        "ProcessExecutor (stdErr)",
-        stdErrTerminationFuture);
-    stdErrConsumer.start();
+    Future<Void> stdOutTerminationFuture = PROCESS_THREADS.submit(stdOut);
+    Future<Void> stdErrTerminationFuture = PROCESS_THREADS.submit(stdErr);
 
     boolean timedOut = false;
 
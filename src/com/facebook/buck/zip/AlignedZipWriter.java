@@ -0,0 +1,511 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a zip file in a single pass, padding the local header of every stored entry so that its
+ * data starts at a multiple of a given alignment. This is the layout {@code zipalign} produces,
+ * without having to write the whole file a second time.
+ * <p>
+ * Entries are collected by the {@code put} methods and written, in the order they were put, by
+ * {@link #write()}. All timestamps are set to {@link ZipConstants#DOS_FAKE_TIME}.
+ * <p>
+ * When updating in place, an entry the caller vouched for with {@link #keepPreviousEntry} keeps
+ * the bytes of the entry of the same name in the existing file, as long as both are compressed the
+ * same way and have the same size. Every other entry is
+ * appended after the existing entries, followed by a new central directory, so the bytes of
+ * replaced entries are left behind unreferenced. Once they would outweigh the entries still in
+ * use, the file is written from scratch instead.
+ */
+public class AlignedZipWriter {
+
+  private static final Logger LOG = Logger.get(AlignedZipWriter.class);
+
+  private static final int VERSION_STORED = 10;
+  private static final int VERSION_DEFLATED = 20;
+  private static final int FLAG_UTF8 = 1 << 11;
+  private static final long MAX_ZIP_SIZE = 0xffffffffL;
+  private static final int MAX_ENTRY_COUNT = 0xffff;
+
+  private final Path path;
+  private final int alignment;
+  private final ZipCompressionLevel compressionLevel;
+  private final Map<String, Entry> entries;
+  private final Set<String> keptEntries;
+  private final ImmutableMap<String, RawZipEntry> previousEntries;
+  private final long previousEntriesEnd;
+
+  /**
+   * @param path the zip file to write.
+   * @param alignment the alignment, in bytes, of the data of stored entries.
+   * @param compressionLevel the level to deflate compressed entries with.
+   * @param updateInPlace whether to reuse the entries of an existing zip file at {@code path}.
+   */
+  public AlignedZipWriter(
+      Path path,
+      int alignment,
+      ZipCompressionLevel compressionLevel,
+      boolean updateInPlace) throws IOException {
+    Preconditions.checkArgument(alignment > 0, "Alignment must be positive, was %s", alignment);
+    this.path = path;
+    this.alignment = alignment;
+    this.compressionLevel = compressionLevel;
+    this.entries = new LinkedHashMap<>();
+    this.keptEntries = new HashSet<>();
+
+    Map<String, RawZipEntry> previousEntries = new HashMap<>();
+    long previousEntriesEnd = 0;
+    if (updateInPlace && Files.isRegularFile(path)) {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        for (RawZipEntry entry : RawZipEntry.readAll(path, channel)) {
+          previousEntries.put(entry.getName(), entry);
+        }
+        previousEntriesEnd = RawZipEntry.readCentralDirectoryOffset(path, channel);
+      } catch (ZipException e) {
+        LOG.warn(e, "Cannot update %s in place, it will be rewritten.", path);
+        previousEntries.clear();
+      }
+    }
+    this.previousEntries = ImmutableMap.copyOf(previousEntries);
+    this.previousEntriesEnd = previousEntriesEnd;
+  }
+
+  /**
+   * Adds the contents of {@code file} as {@code name}, deflated if {@code compress} is set and
+   * stored otherwise.
+   */
+  public void putFile(String name, Path file, boolean compress) throws ZipException {
+    put(new ContentEntry(name, com.google.common.io.Files.asByteSource(file.toFile()), compress));
+  }
+
+  /**
+   * Adds {@code bytes} as {@code name}, deflated if {@code compress} is set and stored otherwise.
+   */
+  public void putBytes(String name, byte[] bytes, boolean compress) throws ZipException {
+    put(new ContentEntry(name, ByteSource.wrap(bytes), compress));
+  }
+
+  /**
+   * Adds an entry of another zip file under the same name, copying its compressed data as it is.
+   *
+   * @param compress whether to deflate the entry if it is stored in its zip file.
+   */
+  public void putEntry(final RawZipEntry entry, boolean compress) throws ZipException {
+    if (compress && entry.getMethod() == ZipEntry.STORED) {
+      ByteSource content = new ByteSource() {
+        @Override
+        public InputStream openStream() throws IOException {
+          return entry.openStream();
+        }
+      };
+      put(new ContentEntry(entry.getName(), content, /* compress */ true));
+    } else {
+      put(new RawEntry(entry));
+    }
+  }
+
+  private void put(Entry entry) throws ZipException {
+    if (entries.containsKey(entry.name)) {
+      throw new ZipException(String.format("%s: duplicate entry %s", path, entry.name));
+    }
+    entries.put(entry.name, entry);
+  }
+
+  /**
+   * @return the entry called {@code name} in the file being updated, if any.
+   */
+  public Optional<RawZipEntry> getPreviousEntry(String name) {
+    return Optional.fromNullable(previousEntries.get(name));
+  }
+
+  /**
+   * Lets the entry put as {@code name} keep the bytes of the entry of the same name in the file
+   * being updated. The caller must have established that both have the same contents, e.g. by
+   * comparing their digests: a checksum this writer could compare on its own is too weak for that.
+   */
+  public void keepPreviousEntry(String name) {
+    keptEntries.add(name);
+  }
+
+  /**
+   * @return whether the entry put as {@code name} is identical to the one in the file being
+   *     updated, so that its bytes can be left where they are.
+   */
+  public boolean isUnchanged(String name) throws IOException {
+    Entry entry = entries.get(name);
+    RawZipEntry previous = previousEntries.get(name);
+    return entry != null &&
+        previous != null &&
+        keptEntries.contains(name) &&
+        entry.getMethod() == previous.getMethod() &&
+        entry.getSize() == previous.getSize();
+  }
+
+  /**
+   * Writes every entry put so far, followed by the central directory.
+   */
+  public void write() throws IOException {
+    if (entries.size() > MAX_ENTRY_COUNT) {
+      throw new ZipException(String.format("%s: too many entries for a zip file", path));
+    }
+
+    boolean update = shouldUpdateInPlace();
+    try (FileChannel channel = update ?
+        FileChannel.open(path, StandardOpenOption.WRITE) :
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      long position = update ? previousEntriesEnd : 0;
+      ImmutableList.Builder<Record> records = ImmutableList.builder();
+      int reused = 0;
+      for (Entry entry : entries.values()) {
+        if (update && isUnchanged(entry.name)) {
+          records.add(new Record(previousEntries.get(entry.name)));
+          reused++;
+        } else {
+          Record record = writeEntry(channel, position, entry);
+          records.add(record);
+          position = channel.position();
+        }
+      }
+      position += writeCentralDirectory(channel, position, records.build());
+      if (position > MAX_ZIP_SIZE) {
+        throw new ZipException(String.format("%s: too large for a zip file", path));
+      }
+      channel.truncate(position);
+      LOG.debug(
+          "Wrote %s: %d entries, %d of them left in place.",
+          path,
+          entries.size(),
+          reused);
+    }
+  }
+
+  /**
+   * @return whether updating the existing file leaves no more unreferenced bytes in it than there
+   *     are bytes of entries left in place.
+   */
+  private boolean shouldUpdateInPlace() throws IOException {
+    if (previousEntries.isEmpty()) {
+      return false;
+    }
+    long reusedBytes = 0;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      for (Entry entry : entries.values()) {
+        if (isUnchanged(entry.name)) {
+          RawZipEntry previous = previousEntries.get(entry.name);
+          reusedBytes += previous.getDataOffset(channel) + previous.getCompressedSize() -
+              previous.getLocalHeaderOffset();
+        }
+      }
+    } catch (ZipException e) {
+      LOG.warn(e, "Cannot update %s in place, it will be rewritten.", path);
+      return false;
+    }
+    return reusedBytes > 0 && previousEntriesEnd - reusedBytes <= reusedBytes;
+  }
+
+  private Record writeEntry(FileChannel channel, long offset, Entry entry) throws IOException {
+    byte[] name = entry.name.getBytes(Charsets.UTF_8);
+    int method = entry.getMethod();
+    int padding = 0;
+    if (method == ZipEntry.STORED) {
+      long dataOffset = offset + ZipEntry.LOCHDR + name.length;
+      padding = (int) ((alignment - dataOffset % alignment) % alignment);
+    }
+
+    // The CRC and sizes are filled in once the data has been written.
+    ByteArrayOutputStream header = new ByteArrayOutputStream(ZipEntry.LOCHDR + name.length);
+    ByteIo.writeInt(header, ZipEntry.LOCSIG);
+    ByteIo.writeShort(header, getRequiredExtractVersion(method));
+    ByteIo.writeShort(header, FLAG_UTF8);
+    ByteIo.writeShort(header, method);
+    ByteIo.writeInt(header, ZipConstants.DOS_FAKE_TIME);
+    ByteIo.writeInt(header, 0);  // CRC.
+    ByteIo.writeInt(header, 0);  // Compressed size.
+    ByteIo.writeInt(header, 0);  // Uncompressed size.
+    ByteIo.writeShort(header, name.length);
+    ByteIo.writeShort(header, padding);  // Length of extra data, which pads the entry data.
+    header.write(name);
+    header.write(new byte[padding]);
+    writeFully(channel, offset, ByteBuffer.wrap(header.toByteArray()));
+
+    long dataOffset = offset + header.size();
+    channel.position(dataOffset);
+    Record record = entry.writeData(channel, offset, compressionLevel);
+    Preconditions.checkState(channel.position() - dataOffset == record.compressedSize);
+
+    ByteBuffer sizes = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+    sizes.putInt((int) record.crc);
+    sizes.putInt((int) record.compressedSize);
+    sizes.putInt((int) record.size);
+    sizes.flip();
+    writeFully(channel, offset + ZipEntry.LOCCRC, sizes);
+    return record;
+  }
+
+  private long writeCentralDirectory(
+      FileChannel channel,
+      long offset,
+      ImmutableList<Record> records) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (Record record : records) {
+      byte[] name = record.name.getBytes(Charsets.UTF_8);
+      ByteIo.writeInt(out, ZipEntry.CENSIG);
+      ByteIo.writeShort(out, getRequiredExtractVersion(record.method));  // Version made by.
+      ByteIo.writeShort(out, getRequiredExtractVersion(record.method));  // Version to extract.
+      ByteIo.writeShort(out, FLAG_UTF8);
+      ByteIo.writeShort(out, record.method);
+      ByteIo.writeInt(out, ZipConstants.DOS_FAKE_TIME);
+      ByteIo.writeInt(out, record.crc);
+      ByteIo.writeInt(out, record.compressedSize);
+      ByteIo.writeInt(out, record.size);
+      ByteIo.writeShort(out, name.length);
+      ByteIo.writeShort(out, 0);  // Length of extra data.
+      ByteIo.writeShort(out, 0);  // Length of file comment.
+      ByteIo.writeShort(out, 0);  // Disk on which file starts.
+      ByteIo.writeShort(out, 0);  // Internal file attributes.
+      ByteIo.writeInt(out, 0);    // External file attributes.
+      ByteIo.writeInt(out, record.offset);
+      out.write(name);
+    }
+    int directorySize = out.size();
+
+    ByteIo.writeInt(out, ZipEntry.ENDSIG);
+    ByteIo.writeShort(out, 0);  // Number of this disk.
+    ByteIo.writeShort(out, 0);  // Number of disk on which central directory starts.
+    ByteIo.writeShort(out, records.size());  // Number of central directory entries in this disk.
+    ByteIo.writeShort(out, records.size());  // Number of central directory entries.
+    ByteIo.writeInt(out, directorySize);
+    ByteIo.writeInt(out, offset);
+    ByteIo.writeShort(out, 0);  // Length of comment.
+
+    writeFully(channel, offset, ByteBuffer.wrap(out.toByteArray()));
+    return out.size();
+  }
+
+  private static int getRequiredExtractVersion(int method) {
+    return method == ZipEntry.STORED ? VERSION_STORED : VERSION_DEFLATED;
+  }
+
+  private static void writeFully(
+      FileChannel channel,
+      long position,
+      ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position());
+    }
+  }
+
+  /** What the central directory records about an entry. */
+  private static class Record {
+    private final String name;
+    private final int method;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long offset;
+
+    private Record(
+        String name,
+        int method,
+        long crc,
+        long compressedSize,
+        long size,
+        long offset) {
+      this.name = name;
+      this.method = method;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.offset = offset;
+    }
+
+    private Record(RawZipEntry entry) {
+      this(
+          entry.getName(),
+          entry.getMethod(),
+          entry.getCrc(),
+          entry.getCompressedSize(),
+          entry.getSize(),
+          entry.getLocalHeaderOffset());
+    }
+  }
+
+  private abstract static class Entry {
+    protected final String name;
+
+    protected Entry(String name) {
+      this.name = name;
+    }
+
+    abstract int getMethod();
+
+    abstract long getSize() throws IOException;
+
+    /**
+     * Writes the data of the entry at the current position of {@code channel}.
+     *
+     * @param offset the offset of the local header of the entry.
+     */
+    abstract Record writeData(
+        FileChannel channel,
+        long offset,
+        ZipCompressionLevel compressionLevel) throws IOException;
+  }
+
+  /** An entry copied as it is from another zip file. */
+  private static class RawEntry extends Entry {
+    private final RawZipEntry source;
+
+    private RawEntry(RawZipEntry source) {
+      super(source.getName());
+      this.source = source;
+    }
+
+    @Override
+    int getMethod() {
+      return source.getMethod();
+    }
+
+    @Override
+    long getSize() {
+      return source.getSize();
+    }
+
+    @Override
+    Record writeData(
+        FileChannel channel,
+        long offset,
+        ZipCompressionLevel compressionLevel) throws IOException {
+      source.copyCompressedDataTo(channel);
+      return new Record(
+          name,
+          source.getMethod(),
+          source.getCrc(),
+          source.getCompressedSize(),
+          source.getSize(),
+          offset);
+    }
+  }
+
+  /** An entry whose uncompressed contents are stored or deflated as they are written. */
+  private static class ContentEntry extends Entry {
+    private final ByteSource content;
+    private final boolean compress;
+    private Optional<Long> size;
+
+    private ContentEntry(String name, ByteSource content, boolean compress) {
+      super(name);
+      this.content = content;
+      this.compress = compress;
+      this.size = Optional.absent();
+    }
+
+    @Override
+    int getMethod() {
+      return compress ? ZipEntry.DEFLATED : ZipEntry.STORED;
+    }
+
+    @Override
+    long getSize() throws IOException {
+      if (!size.isPresent()) {
+        size = Optional.of(content.size());
+      }
+      return size.get();
+    }
+
+    @Override
+    Record writeData(
+        FileChannel channel,
+        long offset,
+        ZipCompressionLevel compressionLevel) throws IOException {
+      // The channel must stay open for the following entries.
+      CountingOutputStream compressed = new CountingOutputStream(
+          new FilterOutputStream(Channels.newOutputStream(channel)) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+              out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+              flush();
+            }
+          });
+      Deflater deflater = null;
+      OutputStream out = compressed;
+      if (compress) {
+        deflater = new Deflater(compressionLevel.getValue(), /* nowrap */ true);
+        out = new DeflaterOutputStream(compressed, deflater);
+      }
+      CheckedOutputStream checked = new CheckedOutputStream(out, new CRC32());
+      long written;
+      try (InputStream in = content.openStream()) {
+        written = ByteStreams.copy(in, checked);
+        checked.close();
+      } finally {
+        if (deflater != null) {
+          deflater.end();
+        }
+      }
+      return new Record(
+          name,
+          getMethod(),
+          checked.getChecksum().getValue(),
+          compressed.getCount(),
+          written,
+          offset);
+    }
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * An entry of an existing zip file, as described by its central directory. The compressed bytes of
+ * the entry can be copied into another zip as they are, without inflating and deflating them again.
+ */
+public class RawZipEntry {
+
+  /** The largest comment a zip file can have, which bounds the search for its end record. */
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+
+  private final Path zip;
+  private final String name;
+  private final int method;
+  private final long crc;
+  private final long compressedSize;
+  private final long size;
+  private final long localHeaderOffset;
+
+  private RawZipEntry(
+      Path zip,
+      String name,
+      int method,
+      long crc,
+      long compressedSize,
+      long size,
+      long localHeaderOffset) {
+    this.zip = zip;
+    this.name = name;
+    this.method = method;
+    this.crc = crc;
+    this.compressedSize = compressedSize;
+    this.size = size;
+    this.localHeaderOffset = localHeaderOffset;
+  }
+
+  /**
+   * @return the entries of {@code zip}, in the order of its central directory.
+   * @throws ZipException if {@code zip} is not a zip file, or needs zip64 extensions.
+   */
+  public static ImmutableList<RawZipEntry> readAll(Path zip) throws IOException {
+    try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ)) {
+      return readAll(zip, channel);
+    }
+  }
+
+  static ImmutableList<RawZipEntry> readAll(Path zip, FileChannel channel) throws IOException {
+    ByteBuffer end = readEndOfCentralDirectory(zip, channel);
+    int entryCount = end.getShort(ZipEntry.ENDTOT) & 0xffff;
+    long centralDirectorySize = end.getInt(ZipEntry.ENDSIZ) & 0xffffffffL;
+    long centralDirectoryOffset = end.getInt(ZipEntry.ENDOFF) & 0xffffffffL;
+    if (entryCount == 0xffff || centralDirectoryOffset == 0xffffffffL) {
+      throw new ZipException(String.format("%s: zip64 files are not supported", zip));
+    }
+
+    ByteBuffer directory = read(channel, centralDirectoryOffset, (int) centralDirectorySize);
+    ImmutableList.Builder<RawZipEntry> entries = ImmutableList.builder();
+    for (int i = 0; i < entryCount; i++) {
+      if (directory.remaining() < ZipEntry.CENHDR ||
+          directory.getInt(directory.position()) != ZipEntry.CENSIG) {
+        throw new ZipException(String.format("%s: malformed central directory", zip));
+      }
+      int start = directory.position();
+      int nameLength = directory.getShort(start + ZipEntry.CENNAM) & 0xffff;
+      int extraLength = directory.getShort(start + ZipEntry.CENEXT) & 0xffff;
+      int commentLength = directory.getShort(start + ZipEntry.CENCOM) & 0xffff;
+      byte[] nameBytes = new byte[nameLength];
+      directory.position(start + ZipEntry.CENHDR);
+      directory.get(nameBytes);
+      entries.add(
+          new RawZipEntry(
+              zip,
+              new String(nameBytes, Charsets.UTF_8),
+              directory.getShort(start + ZipEntry.CENHOW) & 0xffff,
+              directory.getInt(start + ZipEntry.CENCRC) & 0xffffffffL,
+              directory.getInt(start + ZipEntry.CENSIZ) & 0xffffffffL,
+              directory.getInt(start + ZipEntry.CENLEN) & 0xffffffffL,
+              directory.getInt(start + ZipEntry.CENOFF) & 0xffffffffL));
+      directory.position(directory.position() + extraLength + commentLength);
+    }
+    return entries.build();
+  }
+
+  /**
+   * @return the offset of the central directory of {@code zip}, which is where its entry data
+   *     ends.
+   */
+  static long readCentralDirectoryOffset(Path zip, FileChannel channel) throws IOException {
+    return readEndOfCentralDirectory(zip, channel).getInt(ZipEntry.ENDOFF) & 0xffffffffL;
+  }
+
+  private static ByteBuffer readEndOfCentralDirectory(
+      Path zip,
+      FileChannel channel) throws IOException {
+    long fileSize = channel.size();
+    if (fileSize < ZipEntry.ENDHDR) {
+      throw new ZipException(String.format("%s: not a zip file", zip));
+    }
+
+    // Search backwards from the end of the file for the end of central directory signature,
+    // skipping over a comment if there is one.
+    int tailSize = (int) Math.min(fileSize, ZipEntry.ENDHDR + MAX_COMMENT_SIZE);
+    ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+    for (int position = tailSize - ZipEntry.ENDHDR; position >= 0; position--) {
+      if (tail.getInt(position) == ZipEntry.ENDSIG) {
+        tail.position(position);
+        return tail.slice().order(ByteOrder.LITTLE_ENDIAN);
+      }
+    }
+    throw new ZipException(String.format("%s: not a zip file", zip));
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new ZipException("unexpected end of zip file");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getMethod() {
+    return method;
+  }
+
+  public long getCrc() {
+    return crc;
+  }
+
+  public long getCompressedSize() {
+    return compressedSize;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public boolean isDirectory() {
+    return name.endsWith("/");
+  }
+
+  public long getLocalHeaderOffset() {
+    return localHeaderOffset;
+  }
+
+  /**
+   * @return the offset of the entry's data in the zip file, which follows its local header.
+   */
+  long getDataOffset(FileChannel channel) throws IOException {
+    ByteBuffer header = read(channel, localHeaderOffset, ZipEntry.LOCHDR);
+    if (header.getInt(0) != ZipEntry.LOCSIG) {
+      throw new ZipException(String.format("%s: bad local header for %s", zip, name));
+    }
+    return localHeaderOffset + ZipEntry.LOCHDR +
+        (header.getShort(ZipEntry.LOCNAM) & 0xffff) +
+        (header.getShort(ZipEntry.LOCEXT) & 0xffff);
+  }
+
+  /**
+   * Copies the compressed data of this entry into {@code target}, starting at its current
+   * position.
+   */
+  void copyCompressedDataTo(FileChannel target) throws IOException {
+    try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ)) {
+      long position = getDataOffset(channel);
+      long remaining = compressedSize;
+      while (remaining > 0) {
+        long copied = channel.transferTo(position, remaining, target);
+        if (copied <= 0) {
+          throw new ZipException(String.format("%s: truncated data for %s", zip, name));
+        }
+        position += copied;
+        remaining -= copied;
+      }
+    }
+  }
+
+  /**
+   * @return a stream of the uncompressed contents of this entry. The caller must close it.
+   */
+  public InputStream openStream() throws IOException {
+    FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ);
+    try {
+      channel.position(getDataOffset(channel));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    InputStream data = ByteStreams.limit(Channels.newInputStream(channel), compressedSize);
+    switch (method) {
+      case ZipEntry.STORED:
+        return data;
+      case ZipEntry.DEFLATED:
+        return new InflaterInputStream(data, new Inflater(/* nowrap */ true)) {
+          @Override
+          public void close() throws IOException {
+            try {
+              super.close();
+            } finally {
+              inf.end();
+            }
+          }
+        };
+      default:
+        data.close();
+        throw new ZipException(
+            String.format("%s: unsupported compression method %d for %s", zip, method, name));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return zip + "!" + name;
+  }
+}
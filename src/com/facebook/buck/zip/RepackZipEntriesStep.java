@@ -91,11 +91,11 @@ public class RepackZipEntriesStep implements Step {
   @Override
   public StepExecutionResult execute(ExecutionContext context) {
     Path inputFile = filesystem.getPathForRelativePath(inputPath);
-    Path outputFile = filesystem.getPathForRelativePath(outputPath);
     try (
         ZipInputStream in =
             new ZipInputStream(new BufferedInputStream(Files.newInputStream(inputFile)));
-        CustomZipOutputStream out = ZipOutputStreams.newOutputStream(outputFile)) {
+        CustomZipOutputStream out =
+            ZipOutputStreams.newOutputStream(filesystem.newFileOutputStream(outputPath))) {
       for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
         CustomZipEntry customEntry = new CustomZipEntry(entry);
         if (entries.contains(customEntry.getName())) {
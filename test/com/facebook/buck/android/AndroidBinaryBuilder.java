@@ -38,6 +38,10 @@ import java.util.Set;
 public class AndroidBinaryBuilder extends AbstractNodeBuilder<AndroidBinaryDescription.Arg> {
 
   private AndroidBinaryBuilder(BuildTarget target) {
+    this(target, ApkWriterMode.APKBUILDER);
+  }
+
+  private AndroidBinaryBuilder(BuildTarget target, ApkWriterMode apkWriterMode) {
     super(
         new AndroidBinaryDescription(
             DEFAULT_JAVA_OPTIONS,
@@ -45,7 +49,8 @@ public class AndroidBinaryBuilder extends AbstractNodeBuilder<AndroidBinaryDescr
             new ProGuardConfig(FakeBuckConfig.builder().build()),
             ImmutableMap.<NdkCxxPlatforms.TargetCpuType, NdkCxxPlatform>of(),
             MoreExecutors.newDirectExecutorService(),
-            CxxPlatformUtils.DEFAULT_CONFIG),
+            CxxPlatformUtils.DEFAULT_CONFIG,
+            apkWriterMode),
         target);
   }
 
@@ -53,6 +58,12 @@ public class AndroidBinaryBuilder extends AbstractNodeBuilder<AndroidBinaryDescr
     return new AndroidBinaryBuilder(buildTarget);
   }
 
+  public static AndroidBinaryBuilder createBuilder(
+      BuildTarget buildTarget,
+      ApkWriterMode apkWriterMode) {
+    return new AndroidBinaryBuilder(buildTarget, apkWriterMode);
+  }
+
   public AndroidBinaryBuilder setManifest(SourcePath manifest) {
     arg.manifest = manifest;
     return this;
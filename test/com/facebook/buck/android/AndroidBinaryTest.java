@@ -17,6 +17,7 @@
 package com.facebook.buck.android;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -284,6 +285,29 @@ public class AndroidBinaryTest {
         proguardDir);
   }
 
+  @Test
+  public void testApksUpdatedInPlaceAreNotCached() throws Exception {
+    BuildRuleResolver ruleResolver =
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    Keystore keystore = addKeystoreRule(ruleResolver);
+
+    AndroidBinary singlePassRule = (AndroidBinary) AndroidBinaryBuilder.createBuilder(
+        BuildTargetFactory.newInstance("//:single_pass"),
+        ApkWriterMode.SINGLE_PASS)
+        .setManifest(new FakeSourcePath("AndroidManifest.xml"))
+        .setKeystore(keystore.getBuildTarget())
+        .build(ruleResolver);
+    assertTrue(singlePassRule.isCacheable());
+
+    AndroidBinary incrementalRule = (AndroidBinary) AndroidBinaryBuilder.createBuilder(
+        BuildTargetFactory.newInstance("//:incremental"),
+        ApkWriterMode.INCREMENTAL)
+        .setManifest(new FakeSourcePath("AndroidManifest.xml"))
+        .setKeystore(keystore.getBuildTarget())
+        .build(ruleResolver);
+    assertFalse(incrementalRule.isCacheable());
+  }
+
   private void assertCommandsInOrder(List<Step> steps, List<Class<?>> expectedCommands)
       throws Exception {
     Iterable<Class<?>> filteredObservedCommands = FluentIterable
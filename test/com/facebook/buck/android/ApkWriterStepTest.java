@@ -0,0 +1,267 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.facebook.buck.testutil.integration.TestDataHelper;
+import com.facebook.buck.zip.RawZipEntry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class ApkWriterStepTest {
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private Path keystore;
+  private Path keystoreProperties;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+    Path keystores = TestDataHelper.getTestDataDirectory(this)
+        .resolve("android_project/keystores")
+        .toAbsolutePath();
+    keystore = keystores.resolve("debug.keystore");
+    keystoreProperties = keystores.resolve("debug.keystore.properties");
+
+    try (ZipOutputStream out =
+             new ZipOutputStream(Files.newOutputStream(tmp.getRoot().resolve("resources.apk")))) {
+      out.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+      out.write("<manifest/>".getBytes(UTF_8));
+      out.closeEntry();
+      byte[] resources = "resources".getBytes(UTF_8);
+      ZipEntry entry = new ZipEntry("resources.arsc");
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(resources.length);
+      CRC32 crc = new CRC32();
+      crc.update(resources);
+      entry.setCrc(crc.getValue());
+      out.putNextEntry(entry);
+      out.write(resources);
+      out.closeEntry();
+      byte[] raw = "raw".getBytes(UTF_8);
+      entry = new ZipEntry("res/raw/raw.bin");
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(raw.length);
+      crc.reset();
+      crc.update(raw);
+      entry.setCrc(crc.getValue());
+      out.putNextEntry(entry);
+      out.write(raw);
+      out.closeEntry();
+      out.putNextEntry(new ZipEntry("META-INF/OLD.SF"));
+      out.closeEntry();
+    }
+    filesystem.writeContentsToPath("dex", Paths.get("classes.dex"));
+    filesystem.mkdirs(Paths.get("assets/assets/dir"));
+    filesystem.writeContentsToPath("asset", Paths.get("assets/assets/dir/asset.txt"));
+    byte[] largeAsset = new byte[64 * 1024];
+    new Random(0).nextBytes(largeAsset);
+    filesystem.writeBytesToPath(largeAsset, Paths.get("assets/assets/large.bin"));
+    filesystem.writeContentsToPath("hidden", Paths.get("assets/assets/.hidden"));
+    filesystem.mkdirs(Paths.get("libs/armeabi"));
+    filesystem.writeContentsToPath("library", Paths.get("libs/armeabi/libfoo.so"));
+    filesystem.writeContentsToPath("readme", Paths.get("libs/armeabi/README"));
+  }
+
+  @Test
+  public void apkIsSignedAndAligned() throws Exception {
+    assertEquals(0, createStep(false).execute(createContext()).getExitCode());
+
+    Path apk = tmp.getRoot().resolve("out.apk");
+    assertEquals(
+        ImmutableList.of(
+            "AndroidManifest.xml",
+            "resources.arsc",
+            "res/raw/raw.bin",
+            "classes.dex",
+            "assets/dir/asset.txt",
+            "assets/large.bin",
+            "lib/armeabi/libfoo.so",
+            "META-INF/MANIFEST.MF",
+            "META-INF/CERT.SF",
+            "META-INF/CERT.RSA"),
+        assertSignedEntries(apk).keySet().asList());
+    for (RawZipEntry entry : RawZipEntry.readAll(apk)) {
+      if (entry.getName().equals("resources.arsc")) {
+        assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+      }
+      if (entry.getName().equals("res/raw/raw.bin")) {
+        assertEquals(ZipEntry.STORED, entry.getMethod());
+      }
+    }
+    assertStoredEntriesAreAligned(apk);
+  }
+
+  @Test
+  public void updatedApkIsSigned() throws Exception {
+    Path apk = tmp.getRoot().resolve("out.apk");
+    assertEquals(0, createStep(true).execute(createContext()).getExitCode());
+    long largeAssetOffset = getLocalHeaderOffset(apk, "assets/large.bin");
+    filesystem.writeContentsToPath("new dex", Paths.get("classes.dex"));
+    assertEquals(0, createStep(true).execute(createContext()).getExitCode());
+
+    assertEquals(largeAssetOffset, getLocalHeaderOffset(apk, "assets/large.bin"));
+    ImmutableMap<String, byte[]> entries = assertSignedEntries(apk);
+    assertArrayEquals("new dex".getBytes(UTF_8), entries.get("classes.dex"));
+    assertArrayEquals("asset".getBytes(UTF_8), entries.get("assets/dir/asset.txt"));
+    assertStoredEntriesAreAligned(apk);
+  }
+
+  private ApkWriterStep createStep(boolean updateInPlace) {
+    return new ApkWriterStep(
+        filesystem,
+        Paths.get("resources.apk"),
+        Paths.get("out.apk"),
+        Paths.get("classes.dex"),
+        ImmutableSet.of(Paths.get("assets")),
+        ImmutableSet.of(Paths.get("libs")),
+        ImmutableSet.<Path>of(),
+        ImmutableSet.<Path>of(),
+        keystore,
+        keystoreProperties,
+        ImmutableSet.of("resources.arsc"),
+        updateInPlace);
+  }
+
+  private ExecutionContext createContext() {
+    return TestExecutionContext.newInstance();
+  }
+
+  /**
+   * Reads every entry of {@code apk}, checking the manifest digest of each one outside
+   * {@code META-INF} and the signature of the signature file. This does the checks of
+   * {@link java.util.jar.JarFile} by hand, since it ignores SHA-1 signatures on recent JDKs.
+   */
+  private static ImmutableMap<String, byte[]> assertSignedEntries(Path apk) throws Exception {
+    ImmutableMap.Builder<String, byte[]> builder = ImmutableMap.builder();
+    try (ZipFile zip = new ZipFile(apk.toFile())) {
+      for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+        ZipEntry entry = entries.nextElement();
+        try (InputStream in = zip.getInputStream(entry)) {
+          builder.put(entry.getName(), ByteStreams.toByteArray(in));
+        }
+      }
+    }
+    ImmutableMap<String, byte[]> contents = builder.build();
+
+    byte[] manifestBytes = contents.get("META-INF/MANIFEST.MF");
+    Manifest manifest = new Manifest(new ByteArrayInputStream(manifestBytes));
+    for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+      if (!entry.getKey().startsWith("META-INF/")) {
+        assertEquals(
+            entry.getKey(),
+            sha1(entry.getValue()),
+            manifest.getAttributes(entry.getKey()).getValue("SHA1-Digest"));
+      }
+    }
+
+    byte[] signatureFileBytes = contents.get("META-INF/CERT.SF");
+    Manifest signatureFile = new Manifest(new ByteArrayInputStream(signatureFileBytes));
+    assertEquals(
+        sha1(manifestBytes),
+        signatureFile.getMainAttributes().getValue("SHA1-Digest-Manifest"));
+
+    // The signature is the last element of the signature block.
+    byte[] block = contents.get("META-INF/CERT.RSA");
+    Certificate certificate = CertificateFactory.getInstance("X.509")
+        .generateCertificates(new ByteArrayInputStream(block))
+        .iterator()
+        .next();
+    int signatureLength =
+        (((RSAPublicKey) certificate.getPublicKey()).getModulus().bitLength() + 7) / 8;
+    Signature signature = Signature.getInstance("SHA1withRSA");
+    signature.initVerify(certificate);
+    signature.update(signatureFileBytes);
+    assertTrue(
+        signature.verify(
+            Arrays.copyOfRange(block, block.length - signatureLength, block.length)));
+
+    return contents;
+  }
+
+  private static void assertStoredEntriesAreAligned(Path apk) throws IOException {
+    try (FileChannel channel = FileChannel.open(apk, StandardOpenOption.READ)) {
+      for (RawZipEntry entry : RawZipEntry.readAll(apk)) {
+        if (entry.getMethod() != ZipEntry.STORED) {
+          continue;
+        }
+        // The data follows the local header, the name and the extra field padding it.
+        ByteBuffer lengths = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(lengths, entry.getLocalHeaderOffset() + ZipEntry.LOCNAM);
+        long dataOffset = entry.getLocalHeaderOffset() + ZipEntry.LOCHDR +
+            (lengths.getShort(0) & 0xffff) + (lengths.getShort(2) & 0xffff);
+        assertEquals(entry.getName(), 0, dataOffset % 4);
+      }
+    }
+  }
+
+  private static long getLocalHeaderOffset(Path zip, String name) throws IOException {
+    for (RawZipEntry entry : RawZipEntry.readAll(zip)) {
+      if (entry.getName().equals(name)) {
+        return entry.getLocalHeaderOffset();
+      }
+    }
+    throw new AssertionError(name + " not found in " + zip);
+  }
+
+  private static String sha1(byte[] bytes) {
+    return BaseEncoding.base64().encode(Hashing.sha1().hashBytes(bytes).asBytes());
+  }
+}
@@ -81,6 +81,9 @@ public class AbstractNetworkCacheTest {
             .setHttpWriteExecutorService(service)
             .setErrorTextTemplate("super error message")
             .setMaxStoreSizeBytes(maxArtifactSizeBytes)
+            .setAbandonSlowFetches(false)
+            .setFetchResumeAttempts(0)
+            .setParallelFetchConnections(1)
             .build()) {
       @Override
       protected CacheResult fetchImpl(
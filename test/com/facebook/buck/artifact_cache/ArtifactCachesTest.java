@@ -105,6 +105,11 @@ public class ArtifactCachesTest {
           (TwoLevelArtifactCacheDecorator) artifactCache;
       return stripDecorators(cacheDecorator.getDelegate());
     }
+    if (artifactCache instanceof ChunkedArtifactCacheDecorator) {
+      ChunkedArtifactCacheDecorator cacheDecorator =
+          (ChunkedArtifactCacheDecorator) artifactCache;
+      return stripDecorators(cacheDecorator.getDelegate());
+    }
     return artifactCache;
   }
 }
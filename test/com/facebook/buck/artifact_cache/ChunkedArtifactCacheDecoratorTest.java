@@ -0,0 +1,289 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.io.BorrowablePath;
+import com.facebook.buck.io.LazyPath;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+public class ChunkedArtifactCacheDecoratorTest {
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final RuleKey dummyRuleKey =
+      new RuleKey("76b1c1beae69428db2d1befb31cf743ac8ce90df");
+  private static final RuleKey dummyRuleKey2 =
+      new RuleKey("1111111111111111111111111111111111111111");
+
+  @Test
+  public void smallArtifactsAreStoredWhole() throws InterruptedException, IOException {
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+         ChunkedArtifactCacheDecorator chunkedCache = newChunkedCache(inMemoryArtifactCache)) {
+      Path artifact = writeArtifact(randomBytes(1024, 0));
+
+      chunkedCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+          BorrowablePath.notBorrowablePath(artifact));
+      assertEquals(1, inMemoryArtifactCache.getArtifactCount());
+    }
+  }
+
+  @Test
+  public void largeArtifactsRoundTripThroughChunks() throws InterruptedException, IOException {
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+         ChunkedArtifactCacheDecorator chunkedCache = newChunkedCache(inMemoryArtifactCache)) {
+      byte[] contents = randomBytes(1024 * 1024, 0);
+      chunkedCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+          BorrowablePath.notBorrowablePath(writeArtifact(contents)));
+      assertThat(inMemoryArtifactCache.getArtifactCount(), Matchers.greaterThan(2));
+
+      // Fetch from an empty local chunk store, as another machine would.
+      deleteChunkStore();
+      Path fetched = tmp.newFile();
+      CacheResult result = chunkedCache.fetch(dummyRuleKey, LazyPath.ofInstance(fetched));
+      assertEquals(CacheResultType.HIT, result.getType());
+      assertArrayEquals(contents, Files.readAllBytes(fetched));
+    }
+  }
+
+  @Test
+  public void similarArtifactsShareMostChunks() throws InterruptedException, IOException {
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+         ChunkedArtifactCacheDecorator chunkedCache = newChunkedCache(inMemoryArtifactCache)) {
+      byte[] contents = randomBytes(1024 * 1024, 0);
+      chunkedCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+          BorrowablePath.notBorrowablePath(writeArtifact(contents)));
+      int artifactCount = inMemoryArtifactCache.getArtifactCount();
+
+      // Insert a few bytes in the middle, shifting everything after them.
+      byte[] edited = new byte[contents.length + 3];
+      System.arraycopy(contents, 0, edited, 0, contents.length / 2);
+      System.arraycopy(
+          contents,
+          contents.length / 2,
+          edited,
+          contents.length / 2 + 3,
+          contents.length - contents.length / 2);
+      chunkedCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey2).build(),
+          BorrowablePath.notBorrowablePath(writeArtifact(edited)));
+
+      // One manifest plus the one or two chunks around the edit.
+      assertThat(
+          inMemoryArtifactCache.getArtifactCount() - artifactCount,
+          Matchers.lessThanOrEqualTo(3));
+
+      Path fetched = tmp.newFile();
+      assertEquals(
+          CacheResultType.HIT,
+          chunkedCache.fetch(dummyRuleKey2, LazyPath.ofInstance(fetched)).getType());
+      assertArrayEquals(edited, Files.readAllBytes(fetched));
+    }
+  }
+
+  @Test
+  public void missingChunkIsAMiss() throws InterruptedException, IOException {
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+         ChunkedArtifactCacheDecorator chunkedCache = newChunkedCache(inMemoryArtifactCache)) {
+      chunkedCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+          BorrowablePath.notBorrowablePath(writeArtifact(randomBytes(1024 * 1024, 0))));
+      deleteChunkStore();
+
+      // Copy only the manifest into another cache.
+      try (InMemoryArtifactCache manifestsOnly = new InMemoryArtifactCache();
+           ChunkedArtifactCacheDecorator cacheMissingChunks = newChunkedCache(manifestsOnly)) {
+        Path manifest = tmp.newFile();
+        CacheResult manifestResult =
+            inMemoryArtifactCache.fetch(dummyRuleKey, LazyPath.ofInstance(manifest));
+        manifestsOnly.store(
+            ArtifactInfo.builder()
+                .addRuleKeys(dummyRuleKey)
+                .setMetadata(manifestResult.getMetadata())
+                .build(),
+            BorrowablePath.notBorrowablePath(manifest));
+
+        assertEquals(
+            CacheResultType.MISS,
+            cacheMissingChunks.fetch(dummyRuleKey, LazyPath.ofInstance(tmp.newFile())).getType());
+      }
+    }
+  }
+
+  @Test
+  public void chunksInTheLocalChunkStoreAreStillStored() throws InterruptedException, IOException {
+    byte[] contents = randomBytes(1024 * 1024, 0);
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+         ChunkedArtifactCacheDecorator chunkedCache = newChunkedCache(inMemoryArtifactCache)) {
+      chunkedCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+          BorrowablePath.notBorrowablePath(writeArtifact(contents)));
+    }
+
+    // The local chunk store is left over, but this cache has never seen any of its chunks.
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+         ChunkedArtifactCacheDecorator chunkedCache = newChunkedCache(inMemoryArtifactCache)) {
+      chunkedCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey2).build(),
+          BorrowablePath.notBorrowablePath(writeArtifact(contents)));
+
+      deleteChunkStore();
+      Path fetched = tmp.newFile();
+      assertEquals(
+          CacheResultType.HIT,
+          chunkedCache.fetch(dummyRuleKey2, LazyPath.ofInstance(fetched)).getType());
+      assertArrayEquals(contents, Files.readAllBytes(fetched));
+    }
+  }
+
+  @Test
+  public void localChunkStoreIsTrimmedOnClose() throws InterruptedException, IOException {
+    long maximumLocalChunkStoreSize = 256 * 1024L;
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+         ChunkedArtifactCacheDecorator chunkedCache =
+             newChunkedCache(inMemoryArtifactCache, maximumLocalChunkStoreSize)) {
+      chunkedCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+          BorrowablePath.notBorrowablePath(writeArtifact(randomBytes(1024 * 1024, 0))));
+      assertThat(getChunkStoreSize(), Matchers.greaterThan(maximumLocalChunkStoreSize));
+    }
+    assertThat(getChunkStoreSize(), Matchers.lessThanOrEqualTo(maximumLocalChunkStoreSize));
+    assertThat(getChunkStoreSize(), Matchers.greaterThan(0L));
+  }
+
+  @Test
+  public void chunksAreOnlyStoredInTheChunkDelegate() throws InterruptedException, IOException {
+    byte[] contents = randomBytes(1024 * 1024, 0);
+    try (InMemoryArtifactCache manifests = new InMemoryArtifactCache();
+         InMemoryArtifactCache chunks = new InMemoryArtifactCache();
+         ChunkedArtifactCacheDecorator chunkedCache =
+             newChunkedCache(manifests, chunks, Long.MAX_VALUE)) {
+      chunkedCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+          BorrowablePath.notBorrowablePath(writeArtifact(contents)));
+      assertEquals(1, manifests.getArtifactCount());
+      assertThat(chunks.getArtifactCount(), Matchers.greaterThan(1));
+
+      deleteChunkStore();
+      Path fetched = tmp.newFile();
+      assertEquals(
+          CacheResultType.HIT,
+          chunkedCache.fetch(dummyRuleKey, LazyPath.ofInstance(fetched)).getType());
+      assertArrayEquals(contents, Files.readAllBytes(fetched));
+    }
+  }
+
+  @Test
+  public void manifestIsStoredOnceAllChunksAre() throws InterruptedException, IOException {
+    final SettableFuture<Void> chunksStored = SettableFuture.create();
+    try (InMemoryArtifactCache manifests = new InMemoryArtifactCache();
+         InMemoryArtifactCache chunks = new InMemoryArtifactCache() {
+           @Override
+           public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
+             super.store(info, output);
+             return chunksStored;
+           }
+         };
+         ChunkedArtifactCacheDecorator chunkedCache =
+             newChunkedCache(manifests, chunks, Long.MAX_VALUE)) {
+      ListenableFuture<Void> stored = chunkedCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+          BorrowablePath.notBorrowablePath(writeArtifact(randomBytes(1024 * 1024, 0))));
+      assertFalse(manifests.hasArtifact(dummyRuleKey));
+      assertFalse(stored.isDone());
+
+      chunksStored.set(null);
+      assertTrue(manifests.hasArtifact(dummyRuleKey));
+      assertTrue(stored.isDone());
+    }
+  }
+
+  private ChunkedArtifactCacheDecorator newChunkedCache(ArtifactCache delegate) {
+    return newChunkedCache(delegate, Long.MAX_VALUE);
+  }
+
+  private ChunkedArtifactCacheDecorator newChunkedCache(
+      ArtifactCache delegate,
+      long maximumLocalChunkStoreSize) {
+    return newChunkedCache(delegate, delegate, maximumLocalChunkStoreSize);
+  }
+
+  private ChunkedArtifactCacheDecorator newChunkedCache(
+      ArtifactCache delegate,
+      ArtifactCache chunkDelegate,
+      long maximumLocalChunkStoreSize) {
+    return new ChunkedArtifactCacheDecorator(
+        delegate,
+        chunkDelegate,
+        new ProjectFilesystem(tmp.getRoot()),
+        BuckEventBusFactory.newInstance(),
+        /* performChunkedStores */ true,
+        /* minimumChunkedStoredArtifactSize */ 512 * 1024L,
+        maximumLocalChunkStoreSize);
+  }
+
+  private long getChunkStoreSize() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot());
+    long size = 0;
+    for (Path path : filesystem.getDirectoryContents(
+        filesystem.getBuckPaths().getChunkCacheDir())) {
+      size += filesystem.getFileSize(path);
+    }
+    return size;
+  }
+
+  private Path writeArtifact(byte[] contents) throws IOException {
+    Path artifact = tmp.newFile();
+    Files.write(artifact, contents);
+    return artifact;
+  }
+
+  private void deleteChunkStore() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot());
+    filesystem.deleteRecursivelyIfExists(filesystem.getBuckPaths().getChunkCacheDir());
+  }
+
+  private static byte[] randomBytes(int size, long seed) {
+    byte[] bytes = new byte[size];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+}
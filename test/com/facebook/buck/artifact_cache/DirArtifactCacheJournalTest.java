@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+public class DirArtifactCacheJournalTest {
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void replaysRecordsFromOtherWritersInOrder() throws IOException {
+    Path journalPath = tmp.getRoot().resolve("journal");
+    try (DirArtifactCacheJournal first = new DirArtifactCacheJournal(journalPath, tmp.getRoot());
+         DirArtifactCacheJournal second = new DirArtifactCacheJournal(journalPath, tmp.getRoot())) {
+      first.recordStore("aa/aa/aaaa", 10);
+      second.recordStore("bb/bb/bbbb", 20);
+      first.recordStore("cc/cc/cccc", 30);
+      second.recordAccess("aa/aa/aaaa");
+      first.catchUp();
+      first.recordEviction("bb/bb/bbbb");
+
+      second.catchUp();
+      assertEquals(40, second.getTotalBytes());
+      assertEquals(2, second.size());
+      assertEquals("cc/cc/cccc", second.getLeastRecentlyUsed().get().getKey());
+    }
+  }
+
+  @Test
+  public void ignoresIncompleteAndMalformedRecords() throws IOException {
+    Path journalPath = tmp.getRoot().resolve("journal");
+    try (DirArtifactCacheJournal journal =
+             new DirArtifactCacheJournal(journalPath, tmp.getRoot())) {
+      journal.recordStore("aa/aa/aaaa", 10);
+      Files.write(
+          journalPath,
+          "S\tbb/bb/bbbb\tlots\nX\tcc\nS\tdd/dd/dddd\t4".getBytes(Charsets.UTF_8),
+          StandardOpenOption.APPEND);
+      journal.catchUp();
+      assertEquals(10, journal.getTotalBytes());
+
+      // The last record is picked up once it is completed.
+      Files.write(journalPath, "0\n".getBytes(Charsets.UTF_8), StandardOpenOption.APPEND);
+      journal.catchUp();
+      assertEquals(50, journal.getTotalBytes());
+    }
+  }
+
+  @Test
+  public void compactionKeepsRecordsNotReplayedYet() throws IOException {
+    Path journalPath = tmp.getRoot().resolve("journal");
+    try (DirArtifactCacheJournal first = new DirArtifactCacheJournal(journalPath, tmp.getRoot());
+         DirArtifactCacheJournal second = new DirArtifactCacheJournal(journalPath, tmp.getRoot())) {
+      first.recordStore("aa/aa/aaaa", 10);
+      second.recordStore("bb/bb/bbbb", 20);
+      first.compact();
+    }
+
+    try (DirArtifactCacheJournal reader =
+             new DirArtifactCacheJournal(journalPath, tmp.getRoot())) {
+      reader.catchUp();
+      assertEquals(30, reader.getTotalBytes());
+      assertEquals(2, reader.size());
+    }
+  }
+
+  @Test
+  public void compactionIsPickedUpByOtherWriters() throws IOException {
+    Path journalPath = tmp.getRoot().resolve("journal");
+    try (DirArtifactCacheJournal first = new DirArtifactCacheJournal(journalPath, tmp.getRoot());
+         DirArtifactCacheJournal second = new DirArtifactCacheJournal(journalPath, tmp.getRoot())) {
+      first.recordStore("aa/aa/aaaa", 10);
+      first.recordStore("bb/bb/bbbb", 20);
+      first.recordAccess("aa/aa/aaaa");
+      second.catchUp();
+      first.catchUp();
+      assertFalse(first.isSeeded());
+      first.compact();
+
+      // Both writers append to the compacted journal.
+      second.catchUp();
+      second.recordStore("cc/cc/cccc", 30);
+      first.recordStore("dd/dd/dddd", 40);
+      second.catchUp();
+
+      assertEquals(100, second.getTotalBytes());
+      Optional<Map.Entry<String, Long>> leastRecentlyUsed = second.getLeastRecentlyUsed();
+      assertEquals("bb/bb/bbbb", leastRecentlyUsed.get().getKey());
+      // The seeded marker, the two compacted entries and the two appended ones.
+      assertEquals(5, Files.readAllLines(journalPath, Charsets.UTF_8).size());
+      assertTrue(second.isSeeded());
+    }
+  }
+}
@@ -20,7 +20,9 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
+import com.facebook.buck.counters.IntegerCounter;
 import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.io.ProjectFilesystem;
@@ -48,6 +50,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import org.hamcrest.Matchers;
 import org.junit.After;
@@ -520,7 +523,7 @@ public class DirArtifactCacheTest {
     Files.setAttribute(fileY, "lastAccessTime", FileTime.fromMillis(1000));
     Files.setAttribute(fileZ, "lastAccessTime", FileTime.fromMillis(2000));
 
-    assertEquals(4, cacheDir.toFile().listFiles().length);
+    assertEquals(4, dirArtifactCache.getAllFilesInCache().length);
 
     dirArtifactCache.deleteOldFiles();
 
@@ -537,6 +540,44 @@ public class DirArtifactCacheTest {
             .toSet());
   }
 
+  @Test
+  public void testJournalCreatedWithoutStoresIsStillSeeded() throws IOException {
+    Path cacheDir = tmpDir.newFolder();
+    Path fileX = cacheDir.resolve("11").resolve("11").resolve("x");
+    Path fileY = cacheDir.resolve("22").resolve("22").resolve("y");
+    Files.createDirectories(fileX.getParent());
+    Files.createDirectories(fileY.getParent());
+    Files.write(fileX, "x".getBytes(UTF_8));
+    Files.write(fileY, "y".getBytes(UTF_8));
+    Files.setAttribute(fileX, "lastAccessTime", FileTime.fromMillis(0));
+    Files.setAttribute(fileY, "lastAccessTime", FileTime.fromMillis(1000));
+
+    // A run that only fetches creates the journal without ever seeding it.
+    DirArtifactCache fetchOnlyCache = new DirArtifactCache(
+        "dir",
+        new ProjectFilesystem(cacheDir),
+        Paths.get("."),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(1L),
+        MoreExecutors.newDirectExecutorService());
+    assertEquals(
+        CacheResultType.MISS,
+        fetchOnlyCache.fetch(new RuleKey("aaaa"), LazyPath.ofInstance(fileX)).getType());
+    fetchOnlyCache.close();
+
+    dirArtifactCache = new DirArtifactCache(
+        "dir",
+        new ProjectFilesystem(cacheDir),
+        Paths.get("."),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(1L),
+        MoreExecutors.newDirectExecutorService());
+    dirArtifactCache.deleteOldFiles();
+
+    assertFalse(Files.exists(fileX));
+    assertFalse(Files.exists(fileY));
+  }
+
   @Test
   public void testDeleteAfterStoreIfFull() throws IOException {
     Path cacheDir = tmpDir.newFolder();
@@ -559,7 +600,8 @@ public class DirArtifactCacheTest {
         new ProjectFilesystem(cacheDir),
         cacheDir,
         /* doStore */ true,
-        /* maxCacheSizeBytes */ Optional.of(9L));
+        /* maxCacheSizeBytes */ Optional.of(9L),
+        MoreExecutors.newDirectExecutorService());
 
     Files.write(fileX, "x".getBytes(UTF_8));
     Files.write(fileY, "y".getBytes(UTF_8));
@@ -590,15 +632,6 @@ public class DirArtifactCacheTest {
             ruleKeyX,
             LazyPath.ofInstance(fileX)).getType());
 
-    Files.setAttribute(
-        dirArtifactCache.getPathForRuleKey(ruleKeyX, Optional.<String>absent()),
-        "lastAccessTime",
-        FileTime.fromMillis(0));
-    Files.setAttribute(
-        dirArtifactCache.getPathForRuleKey(ruleKeyX, Optional.of(".metadata")),
-        "lastAccessTime",
-        FileTime.fromMillis(0));
-
     dirArtifactCache.store(
         ArtifactInfo.builder().addRuleKeys(ruleKeyY).build(),
         BorrowablePath.notBorrowablePath(fileY));
@@ -609,15 +642,6 @@ public class DirArtifactCacheTest {
             ruleKeyY,
             LazyPath.ofInstance(fileY)).getType());
 
-    Files.setAttribute(
-        dirArtifactCache.getPathForRuleKey(ruleKeyY, Optional.<String>absent()),
-        "lastAccessTime",
-        FileTime.fromMillis(1000));
-    Files.setAttribute(
-        dirArtifactCache.getPathForRuleKey(ruleKeyY, Optional.of(".metadata")),
-        "lastAccessTime",
-        FileTime.fromMillis(1000));
-
     dirArtifactCache.store(
         ArtifactInfo.builder().addRuleKeys(ruleKeyZ).build(),
         BorrowablePath.notBorrowablePath(fileZ));
@@ -633,6 +657,143 @@ public class DirArtifactCacheTest {
             LazyPath.ofInstance(fileZ)).getType());
   }
 
+  @Test
+  public void testEvictionOrderIsRestoredFromJournal() throws IOException {
+    Path cacheDir = tmpDir.newFolder();
+    Path fileX = tmpDir.newFile("x");
+    Files.write(fileX, new byte[100]);
+    RuleKey ruleKeyA = new RuleKey("aaaa");
+    RuleKey ruleKeyB = new RuleKey("bbbb");
+
+    DirArtifactCache cache = new DirArtifactCache(
+        "dir",
+        new ProjectFilesystem(cacheDir),
+        Paths.get("."),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(1024L),
+        MoreExecutors.newDirectExecutorService());
+    cache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyA).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+    cache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyB).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+    cache.close();
+
+    // Access times must not matter.
+    Path artifactA = cacheDir.resolve(cache.getPathForRuleKey(ruleKeyA, Optional.<String>absent()));
+    Path artifactB = cacheDir.resolve(cache.getPathForRuleKey(ruleKeyB, Optional.<String>absent()));
+    Files.setAttribute(artifactA, "lastAccessTime", FileTime.fromMillis(0));
+    Files.setAttribute(
+        artifactB,
+        "lastAccessTime",
+        FileTime.fromMillis(System.currentTimeMillis()));
+    long sizeOfB = Files.size(artifactB) +
+        Files.size(cacheDir.resolve(cache.getPathForRuleKey(ruleKeyB, Optional.of(".metadata"))));
+
+    // Each entry is a bit over 100 bytes, so trimming to 2/3 of 160 bytes leaves one of them.
+    dirArtifactCache = new DirArtifactCache(
+        "dir",
+        new ProjectFilesystem(cacheDir),
+        Paths.get("."),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(160L),
+        MoreExecutors.newDirectExecutorService());
+    assertEquals(
+        CacheResultType.HIT,
+        dirArtifactCache.fetch(ruleKeyA, LazyPath.ofInstance(fileX)).getType());
+    dirArtifactCache.deleteOldFiles();
+
+    assertEquals(
+        CacheResultType.HIT,
+        dirArtifactCache.fetch(ruleKeyA, LazyPath.ofInstance(fileX)).getType());
+    assertEquals(
+        CacheResultType.MISS,
+        dirArtifactCache.fetch(ruleKeyB, LazyPath.ofInstance(fileX)).getType());
+    assertEquals(
+        sizeOfB,
+        ((IntegerCounter) dirArtifactCache.getCounters().get(0)).get());
+  }
+
+  @Test
+  public void testReadOnlyCacheRecordsAccesses() throws IOException {
+    Path cacheDir = tmpDir.newFolder();
+    Path fileX = tmpDir.newFile("x");
+    Files.write(fileX, new byte[100]);
+    RuleKey ruleKeyA = new RuleKey("aaaa");
+    RuleKey ruleKeyB = new RuleKey("bbbb");
+
+    DirArtifactCache cache = new DirArtifactCache(
+        "dir",
+        new ProjectFilesystem(cacheDir),
+        Paths.get("."),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(1024L),
+        MoreExecutors.newDirectExecutorService());
+    cache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyA).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+    cache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyB).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+    cache.close();
+
+    DirArtifactCache readOnlyCache = new DirArtifactCache(
+        "dir",
+        new ProjectFilesystem(cacheDir),
+        Paths.get("."),
+        /* doStore */ false,
+        /* maxCacheSizeBytes */ Optional.of(1024L),
+        MoreExecutors.newDirectExecutorService());
+    assertEquals(
+        CacheResultType.HIT,
+        readOnlyCache.fetch(ruleKeyA, LazyPath.ofInstance(fileX)).getType());
+    readOnlyCache.close();
+
+    // Each entry is a bit over 100 bytes, so trimming to 2/3 of 160 bytes leaves one of them.
+    dirArtifactCache = new DirArtifactCache(
+        "dir",
+        new ProjectFilesystem(cacheDir),
+        Paths.get("."),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(160L),
+        MoreExecutors.newDirectExecutorService());
+    dirArtifactCache.deleteOldFiles();
+
+    assertEquals(
+        CacheResultType.HIT,
+        dirArtifactCache.fetch(ruleKeyA, LazyPath.ofInstance(fileX)).getType());
+    assertEquals(
+        CacheResultType.MISS,
+        dirArtifactCache.fetch(ruleKeyB, LazyPath.ofInstance(fileX)).getType());
+  }
+
+  @Test
+  public void testJournalIsCompactedWhileUnderMaxSize() throws IOException {
+    Path cacheDir = tmpDir.newFolder();
+    Path fileX = tmpDir.newFile("x");
+    Files.write(fileX, new byte[100]);
+    RuleKey ruleKey = new RuleKey("aaaa");
+
+    dirArtifactCache = new DirArtifactCache(
+        "dir",
+        new ProjectFilesystem(cacheDir),
+        Paths.get("."),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(1024L * 1024L),
+        MoreExecutors.newDirectExecutorService());
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+        BorrowablePath.notBorrowablePath(fileX));
+    for (int i = 0; i < 12000; i++) {
+      assertTrue(dirArtifactCache.fetchMetadata(ruleKey).isPresent());
+    }
+
+    assertThat(
+        Files.readAllLines(cacheDir.resolve("journal"), UTF_8).size(),
+        Matchers.lessThan(5000));
+  }
+
   @Test
   public void testCacheStoreMultipleKeys() throws IOException {
     Path cacheDir = tmpDir.newFolder();
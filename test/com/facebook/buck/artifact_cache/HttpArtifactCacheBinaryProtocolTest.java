@@ -20,6 +20,7 @@ import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.rules.RuleKey;
 import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
@@ -144,6 +145,35 @@ public class HttpArtifactCacheBinaryProtocolTest {
     }
   }
 
+  @Test
+  public void testReadFetchResponsePayloadInPieces() throws IOException {
+    final String base64EncodedData =
+        "AAAALgAAAAEAIDAwMDAwMDAwMDEwMDAwMDAwMDAwMDA4MDAwMDAwMDAwAAAAANcwdr5kYXRh";
+    byte[] response = BaseEncoding.base64().decode(base64EncodedData);
+
+    HttpArtifactCacheBinaryProtocol.PayloadReader reader =
+        HttpArtifactCacheBinaryProtocol.readFetchResponseMetadata(
+            new DataInputStream(new ByteArrayInputStream(response, 0, response.length - 2)),
+            Optional.<HttpArtifactCacheBinaryProtocol.MetadataListener>absent());
+    assertThat(reader.getPayloadOffset(), Matchers.equalTo(response.length - 4L));
+
+    // The payload arrives from two different streams, e.g. because the download was resumed.
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    reader.readPayload(
+        new ByteArrayInputStream(response, response.length - 4, 2),
+        outputStream);
+    assertThat(reader.getPayloadBytesRead(), Matchers.equalTo(2L));
+    reader.readPayload(
+        new ByteArrayInputStream(response, response.length - 2, 2),
+        outputStream);
+
+    FetchResponseReadResult result = reader.getFetchResponseReadResult();
+    assertThat(outputStream.toByteArray(), Matchers.equalTo("data".getBytes(Charsets.UTF_8)));
+    assertThat(result.getActualHashCode(), Matchers.equalTo(HashCode.fromString("d73076be")));
+    assertThat(result.getExpectedHashCode(), Matchers.equalTo(HashCode.fromString("d73076be")));
+    assertThat(result.getResponseSizeBytes(), Matchers.equalTo(4L));
+  }
+
   @Test
   public void testMassiveMetadataHeaderWrite() throws IOException {
     ImmutableMap.Builder<String, String> metadataBuilder = ImmutableMap.builder();
@@ -25,15 +25,19 @@ import com.facebook.buck.event.BuckEvent;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.LazyPath;
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.slb.HttpResponse;
 import com.facebook.buck.slb.HttpService;
 import com.facebook.buck.slb.OkHttpResponseWrapper;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.facebook.buck.timing.IncrementingFakeClock;
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
@@ -50,6 +54,7 @@ import okhttp3.ResponseBody;
 import org.easymock.EasyMock;
 import org.hamcrest.Matchers;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
@@ -60,14 +65,20 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import okio.Buffer;
 
 public class HttpArtifactCacheTest {
 
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
   private static final String SERVER = "http://localhost";
 
   private static final BuckEventBus BUCK_EVENT_BUS =
@@ -124,7 +135,10 @@ public class HttpArtifactCacheTest {
         .setProjectFilesystem(new FakeProjectFilesystem())
         .setBuckEventBus(BUCK_EVENT_BUS)
         .setHttpWriteExecutorService(DIRECT_EXECUTOR_SERVICE)
-        .setErrorTextTemplate(ERROR_TEXT_TEMPLATE);
+        .setErrorTextTemplate(ERROR_TEXT_TEMPLATE)
+        .setAbandonSlowFetches(false)
+        .setFetchResumeAttempts(0)
+        .setParallelFetchConnections(1);
   }
 
   @Test
@@ -562,6 +576,154 @@ public class HttpArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testFetchResumesBrokenDownload() throws Exception {
+    Path output = Paths.get("output/file");
+    final String data = "resumed artifact contents";
+    final RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    final byte[] body = createResponseBody(
+        ImmutableSet.of(ruleKey),
+        ImmutableMap.<String, String>of(),
+        ByteSource.wrap(data.getBytes(Charsets.UTF_8)),
+        data).bytes();
+    final int brokenAt = body.length - 5;
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    final List<String> ranges = Lists.newArrayList();
+    argsBuilder.setProjectFilesystem(filesystem);
+    argsBuilder.setFetchResumeAttempts(1);
+    HttpArtifactCache cache =
+        new HttpArtifactCache(argsBuilder.build()) {
+          @Override
+          protected HttpResponse fetchCall(String path, Request.Builder requestBuilder)
+              throws IOException {
+            Request request = requestBuilder.url(SERVER + path).build();
+            if (request.header("Range") == null) {
+              // The connection drops before the end of the response.
+              return new OkHttpResponseWrapper(
+                  new Response.Builder()
+                      .request(request)
+                      .protocol(Protocol.HTTP_1_1)
+                      .code(HttpURLConnection.HTTP_OK)
+                      .body(
+                          ResponseBody.create(
+                              OCTET_STREAM,
+                              body.length,
+                              new Buffer().write(body, 0, brokenAt)))
+                      .build());
+            }
+            ranges.add(request.header("Range"));
+            return new OkHttpResponseWrapper(createRangeResponse(request, body));
+          }
+        };
+    CacheResult result = cache.fetch(ruleKey, LazyPath.ofInstance(output));
+    assertEquals(result.cacheError().or(""), CacheResultType.HIT, result.getType());
+    assertEquals(Optional.of(data), filesystem.readFileIfItExists(output));
+    assertEquals(
+        ImmutableList.of(String.format("bytes=%d-%d", brokenAt, body.length - 1)),
+        ranges);
+    cache.close();
+  }
+
+  @Test
+  public void testFetchInParallel() throws Exception {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot());
+    Path output = Paths.get("output/file");
+    final String data = Strings.repeat("0123456789", 10000);
+    final RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    final byte[] body = createResponseBody(
+        ImmutableSet.of(ruleKey),
+        ImmutableMap.<String, String>of(),
+        ByteSource.wrap(data.getBytes(Charsets.UTF_8)),
+        data).bytes();
+    final Set<String> ranges = Sets.newConcurrentHashSet();
+    argsBuilder.setProjectFilesystem(filesystem);
+    argsBuilder.setParallelFetchMinimumSize(1L);
+    argsBuilder.setParallelFetchConnections(4);
+    HttpArtifactCache cache =
+        new HttpArtifactCache(argsBuilder.build()) {
+          @Override
+          protected HttpResponse fetchCall(String path, Request.Builder requestBuilder)
+              throws IOException {
+            Request request = requestBuilder.url(SERVER + path).build();
+            if (request.header("Range") != null) {
+              ranges.add(request.header("Range"));
+            }
+            return new OkHttpResponseWrapper(createRangeResponse(request, body));
+          }
+        };
+    CacheResult result = cache.fetch(ruleKey, LazyPath.ofInstance(output));
+    assertEquals(result.cacheError().or(""), CacheResultType.HIT, result.getType());
+    assertEquals(Optional.of(data), filesystem.readFileIfItExists(output));
+    // The initial request only asks for the start of the response.
+    assertTrue(ranges.toString(), ranges.contains("bytes=0-65535"));
+    assertEquals(4, ranges.size());
+    cache.close();
+  }
+
+  @Test
+  public void testSmallArtifactIsFetchedWithTheInitialRange() throws Exception {
+    FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path output = Paths.get("output/file");
+    final String data = Strings.repeat("0123456789", 100);
+    final RuleKey ruleKey = new RuleKey("00000000000000000000000000000000");
+    final byte[] body = createResponseBody(
+        ImmutableSet.of(ruleKey),
+        ImmutableMap.<String, String>of(),
+        ByteSource.wrap(data.getBytes(Charsets.UTF_8)),
+        data).bytes();
+    final List<String> ranges = Lists.newArrayList();
+    argsBuilder.setProjectFilesystem(filesystem);
+    argsBuilder.setParallelFetchMinimumSize(1L);
+    argsBuilder.setParallelFetchConnections(4);
+    HttpArtifactCache cache =
+        new HttpArtifactCache(argsBuilder.build()) {
+          @Override
+          protected HttpResponse fetchCall(String path, Request.Builder requestBuilder)
+              throws IOException {
+            Request request = requestBuilder.url(SERVER + path).build();
+            ranges.add(request.header("Range"));
+            return new OkHttpResponseWrapper(createRangeResponse(request, body));
+          }
+        };
+    CacheResult result = cache.fetch(ruleKey, LazyPath.ofInstance(output));
+    assertEquals(result.cacheError().or(""), CacheResultType.HIT, result.getType());
+    assertEquals(Optional.of(data), filesystem.readFileIfItExists(output));
+    assertEquals(ImmutableList.of("bytes=0-65535"), ranges);
+    cache.close();
+  }
+
+  /**
+   * Answers {@code request} like a cache server supporting single byte range requests would.
+   */
+  private static Response createRangeResponse(Request request, byte[] body) {
+    Response.Builder response =
+        new Response.Builder()
+            .request(request)
+            .protocol(Protocol.HTTP_1_1);
+    String range = request.header("Range");
+    if (range == null) {
+      return response
+          .code(HttpURLConnection.HTTP_OK)
+          .body(ResponseBody.create(OCTET_STREAM, body))
+          .build();
+    }
+    Matcher matcher = Pattern.compile("bytes=(\\d+)-(\\d+)").matcher(range);
+    assertTrue(range, matcher.matches());
+    int start = Integer.parseInt(matcher.group(1));
+    int end = Math.min(body.length, Integer.parseInt(matcher.group(2)) + 1);
+    if (end - start == body.length) {
+      return response
+          .code(HttpURLConnection.HTTP_OK)
+          .body(ResponseBody.create(OCTET_STREAM, body))
+          .build();
+    }
+    return response
+        .code(HttpURLConnection.HTTP_PARTIAL)
+        .header("Content-Range", String.format("bytes %d-%d/%d", start, end - 1, body.length))
+        .body(ResponseBody.create(OCTET_STREAM, Arrays.copyOfRange(body, start, end)))
+        .build();
+  }
+
   private static ResponseBody createDummyBody() {
     return ResponseBody.create(MediaType.parse("text/plain"), "SUCCESS");
   }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.artifact_cache;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.timing.SettableFakeClock;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class SlowFetchAbandoningInputStreamTest {
+
+  private static final int CONTENT_LENGTH = 100;
+
+  private SettableFakeClock clock;
+  private SlowFetchAbandoningInputStream stream;
+
+  @Before
+  public void setUp() {
+    clock = new SettableFakeClock(0, 0);
+    InputStream body = new ByteArrayInputStream(new byte[CONTENT_LENGTH]);
+    stream = new SlowFetchAbandoningInputStream(body, clock, CONTENT_LENGTH);
+  }
+
+  @Test
+  public void slowFetchIsReadFullyWithoutLocalBuildTime() throws IOException {
+    readChunk();
+    clock.setCurrentTimeMillis(SlowFetchAbandoningInputStream.MIN_ELAPSED_MILLIS * 100);
+    assertEquals(CONTENT_LENGTH - 10, ByteStreams.toByteArray(stream).length);
+  }
+
+  @Test
+  public void fetchFasterThanLocalBuildIsReadFully() throws IOException {
+    stream.setLocalBuildMillis(10000);
+    readChunk();
+    // 20 bytes a second leaves 4 seconds to go.
+    clock.setCurrentTimeMillis(1000);
+    readChunk();
+    assertEquals(CONTENT_LENGTH - 20, ByteStreams.toByteArray(stream).length);
+  }
+
+  @Test(expected = SlowFetchAbandoningInputStream.FetchAbandonedException.class)
+  public void fetchSlowerThanLocalBuildIsAbandoned() throws IOException {
+    stream.setLocalBuildMillis(1000);
+    readChunk();
+    clock.setCurrentTimeMillis(1000);
+    readChunk();
+  }
+
+  @Test
+  public void abandonedFetchIsNotResumed() throws IOException {
+    stream.setLocalBuildMillis(1000);
+    clock.setCurrentTimeMillis(1000);
+    try {
+      readChunk();
+    } catch (SlowFetchAbandoningInputStream.FetchAbandonedException e) {
+      // Expected.
+    }
+    try {
+      stream.read();
+    } catch (SlowFetchAbandoningInputStream.FetchAbandonedException e) {
+      return;
+    }
+    throw new AssertionError("Expected the fetch to stay abandoned.");
+  }
+
+  private void readChunk() throws IOException {
+    ByteStreams.readFully(stream, new byte[10]);
+  }
+}
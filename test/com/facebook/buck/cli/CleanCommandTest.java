@@ -25,11 +25,14 @@ import com.facebook.buck.event.BuckEventBusFactory;
 import com.facebook.buck.httpserver.WebServer;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.jvm.java.FakeJavaPackageFinder;
+import com.facebook.buck.jvm.java.intellij.IjModuleCache;
 import com.facebook.buck.jvm.java.intellij.Project;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.rules.ActionGraphCache;
 import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.TestCellBuilder;
+import com.facebook.buck.rules.keys.IncrementalRuleKeyCache;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.TestConsole;
@@ -50,6 +53,7 @@ import org.kohsuke.args4j.CmdLineException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Unit test for {@link CleanCommand}.
@@ -131,7 +135,11 @@ public class CleanCommandTest extends EasyMockSupport {
         new NullFileHashCache(),
         new HashMap<ExecutionContext.ExecutorPool, ListeningExecutorService>(),
         CommandRunnerParamsForTesting.BUILD_ENVIRONMENT_DESCRIPTION,
-        new ActionGraphCache());
+        new ActionGraphCache(),
+        new QueryResultCache(),
+        new IjModuleCache(),
+        Optional.<IncrementalRuleKeyCache>absent(),
+        Optional.<ConcurrentMap<String, WorkerProcessPool>>absent());
   }
 
 }
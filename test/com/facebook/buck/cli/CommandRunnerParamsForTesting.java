@@ -26,6 +26,7 @@ import com.facebook.buck.event.BuckEventBusFactory;
 import com.facebook.buck.httpserver.WebServer;
 import com.facebook.buck.jvm.core.JavaPackageFinder;
 import com.facebook.buck.jvm.java.FakeJavaPackageFinder;
+import com.facebook.buck.jvm.java.intellij.IjModuleCache;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserConfig;
 import com.facebook.buck.rules.ActionGraphCache;
@@ -33,6 +34,8 @@ import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.ConstructorArgMarshaller;
 import com.facebook.buck.rules.TestCellBuilder;
 import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
+import com.facebook.buck.rules.keys.IncrementalRuleKeyCache;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.timing.DefaultClock;
@@ -50,6 +53,7 @@ import com.google.common.util.concurrent.MoreExecutors;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentMap;
 
 public class CommandRunnerParamsForTesting {
 
@@ -110,7 +114,11 @@ public class CommandRunnerParamsForTesting {
             ExecutionContext.ExecutorPool.PROJECT,
             MoreExecutors.newDirectExecutorService()),
         BUILD_ENVIRONMENT_DESCRIPTION,
-        new ActionGraphCache());
+        new ActionGraphCache(),
+        new QueryResultCache(),
+        new IjModuleCache(),
+        Optional.<IncrementalRuleKeyCache>absent(),
+        Optional.<ConcurrentMap<String, WorkerProcessPool>>absent());
   }
 
   public static Builder builder() {
@@ -123,28 +123,29 @@ public class MainIntegrationTest {
         "  buck command --help",
         "  buck command [command-options]",
         "available commands:",
-        "  audit       lists the inputs for the specified target",
-        "  autodeps    auto-generates dependencies for build rules, where possible",
-        "  build       builds the specified target",
-        "  cache       makes calls to the artifact cache",
-        "  clean       deletes any generated files",
-        "  fetch       downloads remote resources to your local machine",
-        "  install     builds and installs an application",
-        "  machoutils  provides some utils for Mach O binary files",
-        "  project     generates project configuration files for an IDE",
-        "  publish     builds and publishes a library to a central repository",
-        "  query       provides facilities to query information about the target nodes graph",
-        "  quickstart  generates a default project directory",
-        "  rage        create a defect report",
-        "  repl        a shell for interactive experimentation with buck internals",
-        "  root        prints the absolute path to the root of the current buck project",
-        "  run         runs a target as a command",
-        "  server      query and control the http server",
-        "  simulate    timed simulation of a build without running the steps",
-        "  suggest     suggests a refactoring for the specified build target",
-        "  targets     prints the list of buildable targets",
-        "  test        builds and runs the tests for the specified target",
-        "  uninstall   uninstalls an APK",
+        "  audit         lists the inputs for the specified target",
+        "  autodeps      auto-generates dependencies for build rules, where possible",
+        "  build         builds the specified target",
+        "  cache         makes calls to the artifact cache",
+        "  cache-server  serves the dir cache to other machines",
+        "  clean         deletes any generated files",
+        "  fetch         downloads remote resources to your local machine",
+        "  install       builds and installs an application",
+        "  machoutils    provides some utils for Mach O binary files",
+        "  project       generates project configuration files for an IDE",
+        "  publish       builds and publishes a library to a central repository",
+        "  query         provides facilities to query information about the target nodes graph",
+        "  quickstart    generates a default project directory",
+        "  rage          create a defect report",
+        "  repl          a shell for interactive experimentation with buck internals",
+        "  root          prints the absolute path to the root of the current buck project",
+        "  run           runs a target as a command",
+        "  server        query and control the http server",
+        "  simulate      timed simulation of a build without running the steps",
+        "  suggest       suggests a refactoring for the specified build target",
+        "  targets       prints the list of buildable targets",
+        "  test          builds and runs the tests for the specified target",
+        "  uninstall     uninstalls an APK",
         "options:",
         " --help (-h)    : Shows this screen and exits.",
         " --version (-V) : Show version number.",
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.parser.Parser;
+import com.facebook.buck.query.QueryBuildTarget;
+import com.facebook.buck.query.QueryExpression;
+import com.facebook.buck.query.QueryTarget;
+import com.facebook.buck.query.TargetLiteral;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.TestCellBuilder;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.testutil.WatchEventsForTests;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.Map;
+
+public class QueryResultCacheTest {
+
+  private static final int CACHE_HIT_COUNTER_INDEX = 0;
+  private static final int CACHE_MISS_COUNTER_INDEX = 1;
+
+  private Cell cell;
+  private Path buildFile;
+  private QueryExpression expr;
+  private ImmutableSet<QueryTarget> result;
+  private ImmutableList<Map<String, Object>> rawNodes;
+
+  @Before
+  public void setUp() throws IOException, InterruptedException {
+    cell = new TestCellBuilder().setFilesystem(new FakeProjectFilesystem()).build();
+    buildFile = cell.getFilesystem().resolve("foo").resolve(cell.getBuildFileName());
+    expr = new TargetLiteral("//foo:bar");
+    result = ImmutableSet.<QueryTarget>of(
+        QueryBuildTarget.of(BuildTargetFactory.newInstance("//foo:bar")));
+    rawNodes = ImmutableList.<Map<String, Object>>of(
+        ImmutableMap.<String, Object>of("name", "bar"));
+  }
+
+  @Test
+  public void resultIsReusedWhileBuildFilesAreUnchanged() {
+    Parser parser = createParserReturning(rawNodes, rawNodes);
+    QueryResultCache cache = new QueryResultCache();
+
+    assertFalse(cache.lookup(parser, cell, expr).isPresent());
+    cache.put(parser, cell, expr, result, ImmutableSetMultimap.of(cell.getRoot(), buildFile));
+    assertEquals(Optional.of(result), cache.lookup(parser, cell, expr));
+
+    assertEquals(1, getCounterValue(cache, CACHE_HIT_COUNTER_INDEX));
+    assertEquals(1, getCounterValue(cache, CACHE_MISS_COUNTER_INDEX));
+    EasyMock.verify(parser);
+  }
+
+  @Test
+  public void resultIsDroppedOnceParserReparsesBuildFile() {
+    ImmutableList<Map<String, Object>> reparsedRawNodes =
+        ImmutableList.<Map<String, Object>>builder().addAll(rawNodes).build();
+    Parser parser = createParserReturning(rawNodes, reparsedRawNodes);
+    QueryResultCache cache = new QueryResultCache();
+
+    cache.put(parser, cell, expr, result, ImmutableSetMultimap.of(cell.getRoot(), buildFile));
+    assertFalse(cache.lookup(parser, cell, expr).isPresent());
+    assertEquals(0, cache.size());
+    EasyMock.verify(parser);
+  }
+
+  @Test
+  public void resultIsNotCachedIfBuildFileIsNotParsed() {
+    Parser parser = EasyMock.createMock(Parser.class);
+    EasyMock.expect(
+        parser.lookupCachedRawNodes(EasyMock.anyObject(Cell.class), EasyMock.eq(buildFile)))
+        .andReturn(Optional.<ImmutableList<Map<String, Object>>>absent());
+    EasyMock.replay(parser);
+    QueryResultCache cache = new QueryResultCache();
+
+    cache.put(parser, cell, expr, result, ImmutableSetMultimap.of(cell.getRoot(), buildFile));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void buildFileSharedByTwoCellsIsSnapshottedOnce() {
+    Parser parser = createParserReturning(rawNodes);
+    QueryResultCache cache = new QueryResultCache();
+
+    cache.put(
+        parser,
+        cell,
+        expr,
+        result,
+        ImmutableSetMultimap.of(
+            cell.getRoot(), buildFile,
+            cell.getRoot().resolve("other"), buildFile));
+    assertEquals(1, cache.size());
+    EasyMock.verify(parser);
+  }
+
+  @Test
+  public void buildFileChangeInvalidatesAllResults() {
+    QueryResultCache cache = createCacheWithOneResult();
+
+    cache.invalidateBasedOn(
+        WatchEventsForTests.createPathEvent(
+            Paths.get("bar").resolve(cell.getBuildFileName()),
+            StandardWatchEventKinds.ENTRY_MODIFY));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void sourceFileChangeDoesNotInvalidateResults() {
+    QueryResultCache cache = createCacheWithOneResult();
+
+    cache.invalidateBasedOn(
+        WatchEventsForTests.createPathEvent(
+            Paths.get("foo/Bar.java"),
+            StandardWatchEventKinds.ENTRY_CREATE));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void overflowInvalidatesAllResults() {
+    QueryResultCache cache = createCacheWithOneResult();
+
+    cache.invalidateBasedOn(WatchEventsForTests.createOverflowEvent());
+    assertEquals(0, cache.size());
+  }
+
+  private QueryResultCache createCacheWithOneResult() {
+    Parser parser = createParserReturning(rawNodes);
+    QueryResultCache cache = new QueryResultCache();
+    cache.put(parser, cell, expr, result, ImmutableSetMultimap.of(cell.getRoot(), buildFile));
+    assertEquals(1, cache.size());
+    return cache;
+  }
+
+  @SafeVarargs
+  private final Parser createParserReturning(ImmutableList<Map<String, Object>>... results) {
+    Parser parser = EasyMock.createMock(Parser.class);
+    for (ImmutableList<Map<String, Object>> rawNodesResult : results) {
+      EasyMock.expect(
+          parser.lookupCachedRawNodes(EasyMock.anyObject(Cell.class), EasyMock.eq(buildFile)))
+          .andReturn(Optional.of(rawNodesResult));
+    }
+    EasyMock.replay(parser);
+    return parser;
+  }
+
+  private static long getCounterValue(QueryResultCache cache, int index) {
+    Counter counter = cache.getCounters().get(index);
+    return ((IntegerCounter) counter).get();
+  }
+}
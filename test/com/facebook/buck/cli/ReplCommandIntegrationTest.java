@@ -24,7 +24,10 @@ import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assume.assumeTrue;
 
+import com.facebook.buck.jvm.java.intellij.IjModuleCache;
 import com.facebook.buck.rules.ActionGraphCache;
+import com.facebook.buck.rules.keys.IncrementalRuleKeyCache;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
 
 import org.junit.Rule;
@@ -61,6 +64,7 @@ import org.easymock.EasyMock;
 import java.io.InputStream;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Unit test for {@link ReplCommand}.
@@ -133,6 +137,10 @@ public class ReplCommandIntegrationTest {
         new NullFileHashCache(),
         new HashMap<ExecutionContext.ExecutorPool, ListeningExecutorService>(),
         CommandRunnerParamsForTesting.BUILD_ENVIRONMENT_DESCRIPTION,
-        new ActionGraphCache());
+        new ActionGraphCache(),
+        new QueryResultCache(),
+        new IjModuleCache(),
+        Optional.<IncrementalRuleKeyCache>absent(),
+        Optional.<ConcurrentMap<String, WorkerProcessPool>>absent());
   }
 }
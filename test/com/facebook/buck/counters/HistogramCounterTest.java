@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.counters;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+public class HistogramCounterTest {
+
+  private static final String CATEGORY = "Counter_Category";
+  private static final String NAME = "Counter_Name";
+  private static final ImmutableMap<String, String> TAGS = ImmutableMap.of(
+      "My super Tag Key", "And the according value!"
+  );
+
+  @Test
+  public void testSmallValuesAreExact() {
+    HistogramCounter counter = createCounter();
+    for (int i = 1; i <= 10; i++) {
+      counter.addSample(i);
+    }
+    Assert.assertEquals(10, counter.getCount());
+    Assert.assertEquals(5, counter.getPercentile(50));
+    Assert.assertEquals(9, counter.getPercentile(90));
+    Assert.assertEquals(10, counter.getPercentile(100));
+  }
+
+  @Test
+  public void testLargeValuesAreWithinBucketPrecision() {
+    HistogramCounter counter = createCounter();
+    for (int i = 1; i <= 1000; i++) {
+      counter.addSample(i * 1000L);
+    }
+    assertWithinPrecision(500_000, counter.getPercentile(50));
+    assertWithinPrecision(990_000, counter.getPercentile(99));
+    Assert.assertEquals(1_000_000, counter.getPercentile(100));
+  }
+
+  @Test
+  public void testBucketBoundariesAreContiguous() {
+    long previousHighest = -1;
+    for (int i = 0; i < 1000; i++) {
+      long lowest = HistogramCounter.lowestEquivalentValue(i);
+      Assert.assertEquals(previousHighest + 1, lowest);
+      Assert.assertEquals(i, HistogramCounter.bucketIndex(lowest));
+      previousHighest = HistogramCounter.highestEquivalentValue(i);
+      Assert.assertEquals(i, HistogramCounter.bucketIndex(previousHighest));
+    }
+    Assert.assertEquals(
+        Long.MAX_VALUE,
+        HistogramCounter.highestEquivalentValue(HistogramCounter.bucketIndex(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void testSnapshot() {
+    HistogramCounter counter = createCounter();
+    counter.addSample(10);
+    counter.addSample(20);
+    counter.addSample(30);
+    counter.addSample(1000);
+    Optional<CounterSnapshot> snapshot = counter.flush();
+    Assert.assertTrue(snapshot.isPresent());
+    Map<String, Long> values = snapshot.get().getValues();
+    Assert.assertEquals(4, (long) values.get(NAME + "_count"));
+    Assert.assertEquals(265, (long) values.get(NAME + "_avg"));
+    Assert.assertEquals(10, (long) values.get(NAME + "_min"));
+    Assert.assertEquals(20, (long) values.get(NAME + "_p50"));
+    Assert.assertEquals(1000, (long) values.get(NAME + "_p90"));
+    Assert.assertEquals(1000, (long) values.get(NAME + "_p99"));
+    Assert.assertEquals(1000, (long) values.get(NAME + "_max"));
+    Assert.assertEquals(TAGS, snapshot.get().getTags());
+    Assert.assertEquals(CATEGORY, snapshot.get().getCategory());
+
+    Assert.assertEquals(0, counter.getCount());
+    Assert.assertFalse(counter.flush().isPresent());
+  }
+
+  @Test
+  public void testConcurrentSamplesAreAllCounted() throws InterruptedException {
+    final HistogramCounter counter = createCounter();
+    final IntegerCounter integerCounter = new IntegerCounter(CATEGORY, NAME, TAGS);
+    final int threadCount = 8;
+    final int samplesPerThread = 10000;
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int j = 0; j < samplesPerThread; j++) {
+            counter.addSample(j);
+            integerCounter.inc();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(threadCount * samplesPerThread, counter.getCount());
+    Assert.assertEquals(threadCount * samplesPerThread, integerCounter.get());
+    Map<String, Long> values = counter.flush().get().getValues();
+    Assert.assertEquals(0, (long) values.get(NAME + "_min"));
+    Assert.assertEquals(samplesPerThread - 1, (long) values.get(NAME + "_max"));
+  }
+
+  private static void assertWithinPrecision(long expected, long actual) {
+    Assert.assertTrue(
+        String.format("Expected %d to be within 1/32 of %d", actual, expected),
+        Math.abs(expected - actual) <= expected / 32);
+  }
+
+  private HistogramCounter createCounter() {
+    return new HistogramCounter(CATEGORY, NAME, TAGS);
+  }
+}
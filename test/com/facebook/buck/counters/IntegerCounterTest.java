@@ -22,6 +22,8 @@ import com.google.common.collect.ImmutableMap;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.concurrent.CountDownLatch;
+
 public class IntegerCounterTest {
 
   private static final String CATEGORY = "Counter_Category";
@@ -60,6 +62,38 @@ public class IntegerCounterTest {
     Assert.assertFalse(counter.flush().isPresent());
   }
 
+  @Test
+  public void testConcurrentIncrementsAreNotDroppedByFlush() throws InterruptedException {
+    final IntegerCounter counter = createCounter();
+    final int threadCount = 4;
+    final int incrementsPerThread = 100000;
+    final CountDownLatch done = new CountDownLatch(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      new Thread(
+          new Runnable() {
+            @Override
+            public void run() {
+              for (int j = 0; j < incrementsPerThread; j++) {
+                counter.inc();
+              }
+              done.countDown();
+            }
+          }).start();
+    }
+
+    long flushed = 0;
+    while (done.getCount() > 0) {
+      flushed += sumOf(counter.flush());
+    }
+    flushed += sumOf(counter.flush());
+    Assert.assertEquals((long) threadCount * incrementsPerThread, flushed);
+    Assert.assertEquals(0, counter.get());
+  }
+
+  private static long sumOf(Optional<CounterSnapshot> snapshot) {
+    return snapshot.isPresent() ? snapshot.get().getValues().get(NAME) : 0;
+  }
+
   private void checkSnapshot(CounterSnapshot snapshot, long expectedValue) {
     Assert.assertEquals(1, snapshot.getValues().size());
     Assert.assertTrue(snapshot.getValues().containsKey(NAME));
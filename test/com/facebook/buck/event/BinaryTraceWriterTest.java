@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+public class BinaryTraceWriterTest {
+
+  @Test
+  public void eventsRoundTrip() throws IOException {
+    ChromeTraceEvent first = new ChromeTraceEvent(
+        "buck",
+        "build",
+        ChromeTraceEvent.Phase.BEGIN,
+        0,
+        12,
+        1000,
+        ImmutableMap.of("target", "//foo:bar", "cache", "miss"));
+    ChromeTraceEvent second = new ChromeTraceEvent(
+        "buck",
+        "build",
+        ChromeTraceEvent.Phase.END,
+        0,
+        12,
+        // Events from different threads can arrive out of order.
+        500,
+        ImmutableMap.of("target", "//foo:bar"));
+
+    ImmutableList<ChromeTraceEvent> events = readAll(write(ImmutableList.of(first, second)));
+
+    assertEquals(2, events.size());
+    assertEventEquals(first, events.get(0));
+    assertEventEquals(second, events.get(1));
+  }
+
+  @Test
+  public void eventsBeyondRingCapacityAreKept() throws IOException {
+    ImmutableList.Builder<ChromeTraceEvent> events = ImmutableList.builder();
+    for (int i = 0; i < 10000; i++) {
+      events.add(
+          new ChromeTraceEvent(
+              "buck",
+              "step_" + (i % 10),
+              ChromeTraceEvent.Phase.IMMEDIATE,
+              0,
+              1,
+              i,
+              ImmutableMap.<String, String>of()));
+    }
+
+    ImmutableList<ChromeTraceEvent> read = readAll(write(events.build()));
+
+    assertEquals(10000, read.size());
+    for (int i = 0; i < read.size(); i++) {
+      assertEquals(i, read.get(i).getMicroTime());
+      assertEquals("step_" + (i % 10), read.get(i).getName());
+    }
+  }
+
+  @Test
+  public void truncatedTraceYieldsCompleteEvents() throws IOException {
+    byte[] trace = write(
+        ImmutableList.of(
+            new ChromeTraceEvent(
+                "buck",
+                "build",
+                ChromeTraceEvent.Phase.BEGIN,
+                0,
+                1,
+                10,
+                ImmutableMap.<String, String>of())));
+
+    // Drop the end record.
+    ImmutableList<ChromeTraceEvent> events = readAll(Arrays.copyOf(trace, trace.length - 1));
+
+    assertEquals(1, events.size());
+    assertEquals("build", events.get(0).getName());
+  }
+
+  @Test
+  public void detectsBinaryTraces() throws IOException {
+    InputStream binary = new BufferedInputStream(
+        new ByteArrayInputStream(write(ImmutableList.<ChromeTraceEvent>of())));
+    assertTrue(BinaryTraceReader.isBinaryTrace(binary));
+    // The header must not have been consumed.
+    assertTrue(BinaryTraceReader.isBinaryTrace(binary));
+
+    InputStream json = new BufferedInputStream(
+        new ByteArrayInputStream("[{\"ph\":\"M\"}]".getBytes(Charsets.UTF_8)));
+    assertFalse(BinaryTraceReader.isBinaryTrace(json));
+  }
+
+  private static byte[] write(List<ChromeTraceEvent> events) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (BinaryTraceWriter writer = new BinaryTraceWriter(out)) {
+      for (ChromeTraceEvent event : events) {
+        writer.record(event);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private static ImmutableList<ChromeTraceEvent> readAll(byte[] trace) throws IOException {
+    ImmutableList.Builder<ChromeTraceEvent> events = ImmutableList.builder();
+    try (BinaryTraceReader reader = new BinaryTraceReader(new ByteArrayInputStream(trace))) {
+      for (Optional<ChromeTraceEvent> event = reader.next();
+           event.isPresent();
+           event = reader.next()) {
+        events.add(event.get());
+      }
+    }
+    return events.build();
+  }
+
+  private static void assertEventEquals(ChromeTraceEvent expected, ChromeTraceEvent actual) {
+    assertEquals(expected.getCategory(), actual.getCategory());
+    assertEquals(expected.getName(), actual.getName());
+    assertEquals(expected.getPhase(), actual.getPhase());
+    assertEquals(expected.getProcessId(), actual.getProcessId());
+    assertEquals(expected.getThreadId(), actual.getThreadId());
+    assertEquals(expected.getMicroTime(), actual.getMicroTime());
+    assertEquals(expected.getArgs(), actual.getArgs());
+  }
+}
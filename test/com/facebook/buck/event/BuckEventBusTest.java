@@ -19,16 +19,23 @@ package com.facebook.buck.event;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
 import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.timing.SettableFakeClock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.Subscribe;
 
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 public class BuckEventBusTest {
@@ -123,6 +130,74 @@ public class BuckEventBusTest {
     assertEquals(event.getNanoTime(), 64738);
   }
 
+  @Test
+  public void asyncEventsAreDeliveredInOrderToEachSubscriber() throws IOException {
+    BuckEventBus eb = new BuckEventBus(
+        new DefaultClock(),
+        true,
+        BuckEventBusFactory.BUILD_ID_FOR_TEST,
+        timeoutMillis);
+    RecordingSubscriber first = new RecordingSubscriber();
+    RecordingSubscriber second = new RecordingSubscriber();
+    eb.register(first);
+    eb.register(second);
+    ImmutableList.Builder<Integer> expected = ImmutableList.builder();
+    for (int i = 0; i < 1000; i++) {
+      eb.post(new NumberedEvent(i));
+      expected.add(i);
+    }
+    eb.close();
+    assertEquals(expected.build(), first.getNumbers());
+    assertEquals(expected.build(), second.getNumbers());
+  }
+
+  @Test
+  public void slowSubscriberDoesNotDelayOtherSubscribers() throws Exception {
+    BuckEventBus eb = new BuckEventBus(
+        new DefaultClock(),
+        true,
+        BuckEventBusFactory.BUILD_ID_FOR_TEST,
+        timeoutMillis);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch delivered = new CountDownLatch(1);
+    eb.register(new BlockingSubscriber(release));
+    eb.register(new CountingDownSubscriber(delivered));
+    eb.post(new NumberedEvent(0));
+    try {
+      assertTrue(
+          "The fast subscriber should get the event while the slow one is still busy.",
+          delivered.await(timeoutMillis, TimeUnit.MILLISECONDS));
+    } finally {
+      release.countDown();
+      eb.close();
+    }
+  }
+
+  @Test
+  public void coalescedEventsOnlyDeliverTheLatestPendingEvent() throws Exception {
+    BuckEventBus eb = new BuckEventBus(
+        new DefaultClock(),
+        true,
+        BuckEventBusFactory.BUILD_ID_FOR_TEST,
+        timeoutMillis);
+    CoalescingSubscriber coalescing = new CoalescingSubscriber();
+    RecordingSubscriber recording = new RecordingSubscriber();
+    eb.register(coalescing);
+    eb.register(recording);
+    eb.post(new SleepEvent(timeoutMillis / 5));
+    for (int i = 0; i < 10; i++) {
+      eb.post(new NumberedEvent(i));
+    }
+    eb.close();
+
+    // The subscriber is busy sleeping while the updates are posted, so they're coalesced.
+    List<Integer> coalesced = coalescing.getNumbers();
+    assertThat(coalesced.size(), lessThanOrEqualTo(2));
+    assertEquals(9, (int) coalesced.get(coalesced.size() - 1));
+    assertEquals(10, recording.getNumbers().size());
+    assertTrue(eb.getAndResetDispatchStats().get().getEventsCoalesced() >= 8);
+  }
+
   private static class SleepEvent extends AbstractBuckEvent {
     public final long milliseconds;
 
@@ -149,6 +224,79 @@ public class BuckEventBusTest {
     }
   }
 
+  private static class NumberedEvent extends AbstractBuckEvent {
+    public final int number;
+
+    private NumberedEvent(int number) {
+      super(EventKey.unique());
+      this.number = number;
+    }
+
+    @Override
+    protected String getValueString() {
+      return String.valueOf(number);
+    }
+
+    @Override
+    public String getEventName() {
+      return "NumberedEvent";
+    }
+  }
+
+  private static class RecordingSubscriber {
+    private final List<Integer> numbers = Collections.synchronizedList(new ArrayList<Integer>());
+
+    @Subscribe
+    public void record(NumberedEvent event) {
+      numbers.add(event.number);
+    }
+
+    public ImmutableList<Integer> getNumbers() {
+      synchronized (numbers) {
+        return ImmutableList.copyOf(numbers);
+      }
+    }
+  }
+
+  private static class CoalescingSubscriber
+      extends RecordingSubscriber implements CoalescingEventListener {
+    @Subscribe
+    public void sleep(SleepEvent event) throws InterruptedException {
+      Thread.sleep(event.milliseconds);
+    }
+
+    @Override
+    public ImmutableSet<Class<? extends BuckEvent>> getCoalescedEventTypes() {
+      return ImmutableSet.<Class<? extends BuckEvent>>of(NumberedEvent.class);
+    }
+  }
+
+  private static class BlockingSubscriber {
+    private final CountDownLatch release;
+
+    private BlockingSubscriber(CountDownLatch release) {
+      this.release = release;
+    }
+
+    @Subscribe
+    public void block(NumberedEvent event) throws InterruptedException {
+      release.await();
+    }
+  }
+
+  private static class CountingDownSubscriber {
+    private final CountDownLatch latch;
+
+    private CountingDownSubscriber(CountDownLatch latch) {
+      this.latch = latch;
+    }
+
+    @Subscribe
+    public void countDown(NumberedEvent event) {
+      latch.countDown();
+    }
+  }
+
   private static class TestEvent extends AbstractBuckEvent {
 
     public TestEvent() {
@@ -18,6 +18,7 @@ package com.facebook.buck.event.listener;
 
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -28,6 +29,7 @@ import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.HttpArtifactCacheEvent;
 import com.facebook.buck.cli.CommandEvent;
 import com.facebook.buck.event.ArtifactCompressionEvent;
+import com.facebook.buck.event.BinaryTraceReader;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventBusFactory;
 import com.facebook.buck.event.ChromeTraceEvent;
@@ -140,6 +142,7 @@ public class ChromeTraceBuildListenerTest {
         Locale.US,
         TimeZone.getTimeZone("America/Los_Angeles"),
         /* tracesToKeep */ 3,
+        false,
         false);
 
     listener.outputTrace(invocationInfo.getBuildId());
@@ -184,6 +187,7 @@ public class ChromeTraceBuildListenerTest {
         Locale.US,
         TimeZone.getTimeZone("America/Los_Angeles"),
         /* tracesToKeep */ 42,
+        false,
         false);
 
     BuildTarget target = BuildTargetFactory.newInstance("//fake:rule");
@@ -524,6 +528,7 @@ public class ChromeTraceBuildListenerTest {
           Locale.US,
           TimeZone.getTimeZone("America/Los_Angeles"),
         /* tracesToKeep */ 3,
+          false,
           false);
       listener.outputTrace(invocationInfo.getBuildId());
       fail("Expected an exception.");
@@ -549,6 +554,7 @@ public class ChromeTraceBuildListenerTest {
         Locale.US,
         TimeZone.getTimeZone("America/Los_Angeles"),
         /* tracesToKeep */ 1,
+        false,
         false);
     listener.outputTrace(invocationInfo.getBuildId());
     assertTrue(
@@ -568,7 +574,8 @@ public class ChromeTraceBuildListenerTest {
         Locale.US,
         TimeZone.getTimeZone("America/Los_Angeles"),
         /* tracesToKeep */ 1,
-        true);
+        true,
+        false);
     listener.outputTrace(invocationInfo.getBuildId());
 
     Path tracePath = Paths.get(EXPECTED_DIR + "build.2014-09-02.16-55-51.BUILD_ID.trace.gz");
@@ -582,4 +589,33 @@ public class ChromeTraceBuildListenerTest {
     List<?> elements = new Gson().fromJson(reader, List.class);
     assertThat(elements, notNullValue());
   }
+
+  @Test
+  public void canWriteBinaryTraces() throws IOException {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+
+    ChromeTraceBuildListener listener = new ChromeTraceBuildListener(
+        projectFilesystem,
+        invocationInfo,
+        new FakeClock(TIMESTAMP_NANOS),
+        ObjectMappers.newDefaultInstance(),
+        Locale.US,
+        TimeZone.getTimeZone("America/Los_Angeles"),
+        /* tracesToKeep */ 1,
+        true,
+        true);
+    listener.outputTrace(invocationInfo.getBuildId());
+
+    Path tracePath = Paths.get(EXPECTED_DIR + "build.2014-09-02.16-55-51.BUILD_ID.bintrace");
+
+    assertTrue(projectFilesystem.exists(tracePath));
+
+    try (BinaryTraceReader reader =
+             new BinaryTraceReader(projectFilesystem.newFileInputStream(tracePath))) {
+      Optional<ChromeTraceEvent> event = reader.next();
+      assertTrue(event.isPresent());
+      assertEquals("process_name", event.get().getName());
+      assertFalse(reader.next().isPresent());
+    }
+  }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.httpserver;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Range;
+
+import org.junit.Test;
+
+public class ArtifactCacheHandlerTest {
+
+  private static final long LENGTH = 100;
+  private static final Optional<Range<Long>> ALL = Optional.of(Range.closedOpen(0L, LENGTH));
+
+  @Test
+  public void testWholeResponseWithoutRange() {
+    assertEquals(ALL, ArtifactCacheHandler.parseRange(null, LENGTH));
+  }
+
+  @Test
+  public void testSingleByteRanges() {
+    assertEquals(
+        Optional.of(Range.closedOpen(10L, 21L)),
+        ArtifactCacheHandler.parseRange("bytes=10-20", LENGTH));
+    assertEquals(
+        Optional.of(Range.closedOpen(90L, LENGTH)),
+        ArtifactCacheHandler.parseRange("bytes=90-", LENGTH));
+    assertEquals(
+        Optional.of(Range.closedOpen(90L, LENGTH)),
+        ArtifactCacheHandler.parseRange("bytes=90-200", LENGTH));
+    assertEquals(
+        Optional.of(Range.closedOpen(70L, LENGTH)),
+        ArtifactCacheHandler.parseRange("bytes=-30", LENGTH));
+  }
+
+  @Test
+  public void testInvalidRangesAreIgnored() {
+    assertEquals(ALL, ArtifactCacheHandler.parseRange("bytes=20-10", LENGTH));
+    assertEquals(ALL, ArtifactCacheHandler.parseRange("bytes=-", LENGTH));
+    assertEquals(ALL, ArtifactCacheHandler.parseRange("bytes=0-10,20-30", LENGTH));
+    assertEquals(ALL, ArtifactCacheHandler.parseRange("items=0-10", LENGTH));
+  }
+
+  @Test
+  public void testPositionsTooLargeToRepresent() {
+    String tooLarge = "99999999999999999999999";
+    assertEquals(
+        Optional.of(Range.closedOpen(10L, LENGTH)),
+        ArtifactCacheHandler.parseRange("bytes=10-" + tooLarge, LENGTH));
+    assertEquals(ALL, ArtifactCacheHandler.parseRange("bytes=-" + tooLarge, LENGTH));
+    assertEquals(
+        Optional.<Range<Long>>absent(),
+        ArtifactCacheHandler.parseRange("bytes=" + tooLarge + "-", LENGTH));
+  }
+
+  @Test
+  public void testRangesOutsideOfTheResponseAreUnsatisfiable() {
+    assertEquals(
+        Optional.<Range<Long>>absent(),
+        ArtifactCacheHandler.parseRange("bytes=100-200", LENGTH));
+    assertEquals(
+        Optional.<Range<Long>>absent(),
+        ArtifactCacheHandler.parseRange("bytes=-0", LENGTH));
+  }
+}
@@ -26,6 +26,7 @@ import com.facebook.buck.artifact_cache.ArtifactCaches;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.DirArtifactCache;
 import com.facebook.buck.artifact_cache.DirArtifactCacheTestUtil;
 import com.facebook.buck.artifact_cache.TestArtifactCaches;
 import com.facebook.buck.cli.BuckConfig;
@@ -74,6 +75,7 @@ public class ServedCacheIntegrationTest {
 
   private ProjectFilesystem projectFilesystem;
   private WebServer webServer = null;
+  private CacheServer cacheServer = null;
   private BuckEventBus buckEventBus;
   private ArtifactCache dirCache;
   public static final ImmutableMap<String, String> A_FILE_METADATA = ImmutableMap.of(
@@ -105,6 +107,9 @@ public class ServedCacheIntegrationTest {
     if (webServer != null) {
       webServer.stop();
     }
+    if (cacheServer != null) {
+      cacheServer.stop();
+    }
   }
 
   private ArtifactCacheBuckConfig createMockLocalConfig(
@@ -159,6 +164,38 @@ public class ServedCacheIntegrationTest {
         Matchers.equalTo(A_FILE_DATA));
   }
 
+  @Test
+  public void testParallelRangeFetchFromServedDircache() throws Exception {
+    webServer = new WebServer(
+        /* port */ 0,
+        projectFilesystem,
+        "/static/",
+        MAPPER);
+    webServer.updateAndStartIfNeeded(Optional.of(dirCache));
+
+    ArtifactCache serverBackedCache = ArtifactCaches.newInstance(
+        createMockLocalConfig(
+            "[cache]",
+            "mode = http",
+            String.format("http_url = http://127.0.0.1:%d/", webServer.getPort().get()),
+            "http_parallel_fetch_minimum_size = 1B",
+            "http_parallel_fetch_connections = 3"),
+        buckEventBus,
+        projectFilesystem,
+        Optional.<String>absent(),
+        DIRECT_EXECUTOR_SERVICE);
+
+    Path fetchedContents = tmpDir.newFile();
+    CacheResult cacheResult = serverBackedCache.fetch(
+        A_FILE_RULE_KEY,
+        LazyPath.ofInstance(fetchedContents));
+    assertThat(cacheResult.getType().isSuccess(), Matchers.is(true));
+    assertThat(cacheResult.getMetadata(), Matchers.equalTo(A_FILE_METADATA));
+    assertThat(
+        projectFilesystem.readFileIfItExists(fetchedContents).get(),
+        Matchers.equalTo(A_FILE_DATA));
+  }
+
   private static class ThrowAfterXBytesStream extends FilterInputStream {
     private final long bytesToThrowAfter;
     private long bytesRead = 0L;
@@ -597,6 +634,48 @@ public class ServedCacheIntegrationTest {
     assertTrue(containsKey(serverBackedDirCache, ruleKey));
   }
 
+  @Test
+  public void testCacheServerStoresAndServesDircache() throws Exception {
+    DirArtifactCache servedCache = ArtifactCaches.newCacheServerCache(
+        createMockLocalConfig(
+            "[cache]",
+            "mode = dir",
+            "dir = test-cache",
+            "served_local_cache_mode = readwrite"),
+        buckEventBus,
+        projectFilesystem);
+    cacheServer = new CacheServer(/* port */ 0, /* maxThreads */ 8, projectFilesystem, servedCache);
+    cacheServer.start();
+
+    ArtifactCache serverBackedCache = ArtifactCaches.newInstance(
+        createMockLocalHttpCacheConfig(cacheServer.getPort()),
+        buckEventBus,
+        projectFilesystem,
+        Optional.<String>absent(),
+        DIRECT_EXECUTOR_SERVICE);
+
+    Path fetchedContents = tmpDir.newFile();
+    CacheResult cacheResult = serverBackedCache.fetch(
+        A_FILE_RULE_KEY,
+        LazyPath.ofInstance(fetchedContents));
+    assertThat(cacheResult.getType(), Matchers.equalTo(CacheResultType.HIT));
+    assertThat(cacheResult.getMetadata(), Matchers.equalTo(A_FILE_METADATA));
+    assertThat(
+        projectFilesystem.readFileIfItExists(fetchedContents).get(),
+        Matchers.equalTo(A_FILE_DATA));
+
+    RuleKey ruleKey = new RuleKey("00111222333444");
+    Path originalDataPath = tmpDir.newFile();
+    projectFilesystem.writeContentsToPath("some other data", originalDataPath);
+    serverBackedCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+        BorrowablePath.borrowablePath(originalDataPath)).get();
+
+    assertTrue(containsKey(servedCache, ruleKey));
+    assertTrue(containsKey(serverBackedCache, ruleKey));
+    assertFalse(containsKey(serverBackedCache, new RuleKey("ffff")));
+  }
+
   private boolean containsKey(ArtifactCache cache, RuleKey ruleKey) throws Exception {
     Path fetchedContents = tmpDir.newFile();
     CacheResult cacheResult = cache.fetch(
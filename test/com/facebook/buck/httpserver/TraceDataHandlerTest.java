@@ -21,13 +21,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import com.facebook.buck.event.BinaryTraceWriter;
+import com.facebook.buck.event.ChromeTraceEvent;
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
 
 import org.easymock.EasyMockSupport;
 import org.eclipse.jetty.server.Request;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
@@ -61,6 +65,7 @@ public class TraceDataHandlerTest extends EasyMockSupport {
     Request baseRequest = createMock(Request.class);
     expect(baseRequest.getMethod()).andReturn("GET");
     expect(baseRequest.getPathInfo()).andReturn("/abcdef");
+    expectNoFilterParameters(baseRequest);
     expect(baseRequest.getParameter("callback")).andReturn(null);
     baseRequest.setHandled(true);
     HttpServletRequest request = createMock(HttpServletRequest.class);
@@ -95,6 +100,7 @@ public class TraceDataHandlerTest extends EasyMockSupport {
     Request baseRequest = createMock(Request.class);
     expect(baseRequest.getMethod()).andReturn("GET");
     expect(baseRequest.getPathInfo()).andReturn("/abcdef");
+    expectNoFilterParameters(baseRequest);
     expect(baseRequest.getParameter("callback")).andReturn(null);
     baseRequest.setHandled(true);
     HttpServletRequest request = createMock(HttpServletRequest.class);
@@ -132,6 +138,7 @@ public class TraceDataHandlerTest extends EasyMockSupport {
     Request baseRequest = createMock(Request.class);
     expect(baseRequest.getMethod()).andReturn("GET");
     expect(baseRequest.getPathInfo()).andReturn("/abcdef");
+    expectNoFilterParameters(baseRequest);
     expect(baseRequest.getParameter("callback")).andReturn("my.callback");
     baseRequest.setHandled(true);
     HttpServletRequest request = createMock(HttpServletRequest.class);
@@ -166,6 +173,7 @@ public class TraceDataHandlerTest extends EasyMockSupport {
     Request baseRequest = createMock(Request.class);
     expect(baseRequest.getMethod()).andReturn("GET");
     expect(baseRequest.getPathInfo()).andReturn("/abcdef");
+    expectNoFilterParameters(baseRequest);
     expect(baseRequest.getParameter("callback")).andReturn("my.callback");
     baseRequest.setHandled(true);
     HttpServletRequest request = createMock(HttpServletRequest.class);
@@ -197,4 +205,116 @@ public class TraceDataHandlerTest extends EasyMockSupport {
         "my.callback([{\"foo\":\"bar\"},{\"baz\":\"blech\"}]);\n",
         stringWriter.toString());
   }
+
+  @Test
+  public void testHandleGetConvertsAndFiltersBinaryTrace() throws IOException, ServletException {
+    Request baseRequest = createMock(Request.class);
+    expect(baseRequest.getMethod()).andReturn("GET");
+    expect(baseRequest.getPathInfo()).andReturn("/abcdef");
+    expect(baseRequest.getParameter("start")).andReturn("100");
+    expect(baseRequest.getParameter("end")).andReturn("200");
+    expect(baseRequest.getParameter("tid")).andReturn("1");
+    expect(baseRequest.getParameter("callback")).andReturn(null);
+    baseRequest.setHandled(true);
+    HttpServletRequest request = createMock(HttpServletRequest.class);
+
+    HttpServletResponse response = createMock(HttpServletResponse.class);
+    response.setStatus(200);
+    response.setContentType("application/javascript; charset=utf-8");
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter printWriter = new PrintWriter(stringWriter);
+    expect(response.getWriter()).andReturn(printWriter);
+    response.flushBuffer();
+
+    ByteArrayOutputStream binaryTrace = new ByteArrayOutputStream();
+    try (BinaryTraceWriter writer = new BinaryTraceWriter(binaryTrace)) {
+      writer.record(createEvent("process_name", ChromeTraceEvent.Phase.METADATA, 0, 0));
+      writer.record(createEvent("too_early", ChromeTraceEvent.Phase.BEGIN, 1, 50));
+      writer.record(createEvent("in_window", ChromeTraceEvent.Phase.BEGIN, 1, 150));
+      writer.record(createEvent("other_thread", ChromeTraceEvent.Phase.BEGIN, 2, 150));
+      writer.record(createEvent("too_late", ChromeTraceEvent.Phase.END, 1, 250));
+    }
+    TracesHelper tracesHelper = createMock(TracesHelper.class);
+    Iterable<InputStream> traces = Arrays.<InputStream>asList(
+        new ByteArrayInputStream(binaryTrace.toByteArray()));
+    expect(tracesHelper.getInputsForTraces("abcdef")).andReturn(traces);
+    TraceDataHandler traceDataHandler = new TraceDataHandler(tracesHelper);
+
+    replayAll();
+    traceDataHandler.handle("/trace/abcdef?start=100&end=200&tid=1",
+        baseRequest,
+        request,
+        response);
+    verifyAll();
+
+    assertEquals(
+        "[[" +
+            "{\"cat\":\"buck\",\"name\":\"process_name\",\"ph\":\"M\",\"pid\":0," +
+            "\"tid\":0,\"ts\":0,\"args\":{\"name\":\"buck\"}}," +
+            "{\"cat\":\"buck\",\"name\":\"in_window\",\"ph\":\"B\",\"pid\":0," +
+            "\"tid\":1,\"ts\":150,\"args\":{\"name\":\"buck\"}}" +
+            "]]",
+        stringWriter.toString());
+  }
+
+  @Test
+  public void testHandleGetFiltersJsonTrace() throws IOException, ServletException {
+    Request baseRequest = createMock(Request.class);
+    expect(baseRequest.getMethod()).andReturn("GET");
+    expect(baseRequest.getPathInfo()).andReturn("/abcdef");
+    expect(baseRequest.getParameter("start")).andReturn(null);
+    expect(baseRequest.getParameter("end")).andReturn(null);
+    expect(baseRequest.getParameter("tid")).andReturn("2");
+    expect(baseRequest.getParameter("callback")).andReturn(null);
+    baseRequest.setHandled(true);
+    HttpServletRequest request = createMock(HttpServletRequest.class);
+
+    HttpServletResponse response = createMock(HttpServletResponse.class);
+    response.setStatus(200);
+    response.setContentType("application/javascript; charset=utf-8");
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter printWriter = new PrintWriter(stringWriter);
+    expect(response.getWriter()).andReturn(printWriter);
+    response.flushBuffer();
+
+    TracesHelper tracesHelper = createMock(TracesHelper.class);
+    Iterable<InputStream> traces = Arrays.<InputStream>asList(
+        new ByteArrayInputStream(
+            ("[{\"ph\":\"M\",\"tid\":0},{\"ph\":\"B\",\"tid\":1}," +
+                "{\"ph\":\"B\",\"tid\":2}]").getBytes(Charsets.UTF_8)));
+    expect(tracesHelper.getInputsForTraces("abcdef")).andReturn(traces);
+    TraceDataHandler traceDataHandler = new TraceDataHandler(tracesHelper);
+
+    replayAll();
+    traceDataHandler.handle("/trace/abcdef?tid=2",
+        baseRequest,
+        request,
+        response);
+    verifyAll();
+
+    assertEquals(
+        "[[{\"ph\":\"M\",\"tid\":0},{\"ph\":\"B\",\"tid\":2}]]",
+        stringWriter.toString());
+  }
+
+  private static void expectNoFilterParameters(Request baseRequest) {
+    expect(baseRequest.getParameter("start")).andReturn(null);
+    expect(baseRequest.getParameter("end")).andReturn(null);
+    expect(baseRequest.getParameter("tid")).andReturn(null);
+  }
+
+  private static ChromeTraceEvent createEvent(
+      String name,
+      ChromeTraceEvent.Phase phase,
+      long threadId,
+      long microTime) {
+    return new ChromeTraceEvent(
+        "buck",
+        name,
+        phase,
+        0,
+        threadId,
+        microTime,
+        ImmutableMap.of("name", "buck"));
+  }
 }
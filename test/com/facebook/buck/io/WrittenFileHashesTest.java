@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.facebook.buck.timing.SettableFakeClock;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.hash.HashCode;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+public class WrittenFileHashesTest {
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private WrittenFileHashes writtenFileHashes;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+    filesystem.mkdirs(filesystem.getBuckPaths().getGenDir());
+    writtenFileHashes = filesystem.getWrittenFileHashes();
+  }
+
+  @Test
+  public void hashOfFileWrittenUnderBuckOutIsRecorded() throws IOException {
+    Path output = filesystem.getBuckPaths().getGenDir().resolve("out.txt");
+    filesystem.writeContentsToPath("hello", output);
+
+    assertEquals(1, writtenFileHashes.size());
+  }
+
+  @Test
+  public void hashIsHandedOutOnceFileIsOlderThanTimestampGranularity() throws IOException {
+    Path output = filesystem.resolve(filesystem.getBuckPaths().getGenDir().resolve("out.txt"));
+    SettableFakeClock clock = new SettableFakeClock(0, 0);
+    WrittenFileHashes hashes = new WrittenFileHashes(clock);
+    clock.setCurrentTimeMillis(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1));
+    writeRecorded(hashes, output, "hello");
+
+    assertEquals(
+        Optional.of(HashCode.fromString(filesystem.computeSha1(output))),
+        hashes.get(output));
+  }
+
+  @Test
+  public void hashOfFileModifiedWhenRecordedIsNotHandedOut() throws IOException {
+    Path output = filesystem.resolve(filesystem.getBuckPaths().getGenDir().resolve("out.txt"));
+    WrittenFileHashes hashes =
+        new WrittenFileHashes(new SettableFakeClock(System.currentTimeMillis(), 0));
+    writeRecorded(hashes, output, "hello");
+
+    // Rewriting the file with the same size in the same timestamp tick would go unnoticed.
+    FileTime modified = Files.getLastModifiedTime(output);
+    Files.write(output, "HELLO".getBytes(Charsets.UTF_8));
+    Files.setLastModifiedTime(output, modified);
+
+    assertFalse(hashes.get(output).isPresent());
+  }
+
+  @Test
+  public void hashIsDroppedOnceFileChangesBehindOurBack() throws IOException {
+    Path output = filesystem.getBuckPaths().getGenDir().resolve("out.txt");
+    filesystem.writeContentsToPath("hello", output);
+    Files.write(filesystem.resolve(output), "hello, world".getBytes(Charsets.UTF_8));
+
+    assertFalse(writtenFileHashes.get(filesystem.resolve(output)).isPresent());
+    assertEquals(0, writtenFileHashes.size());
+  }
+
+  @Test
+  public void filesOutsideBuckOutAreNotRecorded() throws IOException {
+    Path source = Paths.get("Source.java");
+    filesystem.writeContentsToPath("class Source {}", source);
+
+    assertFalse(writtenFileHashes.get(filesystem.resolve(source)).isPresent());
+  }
+
+  @Test
+  public void copyReusesHashOfSource() throws IOException {
+    Path output = filesystem.resolve(filesystem.getBuckPaths().getGenDir().resolve("out.txt"));
+    Path copy = filesystem.resolve(filesystem.getBuckPaths().getGenDir().resolve("copy.txt"));
+    SettableFakeClock clock = new SettableFakeClock(0, 0);
+    WrittenFileHashes hashes = new WrittenFileHashes(clock);
+    clock.setCurrentTimeMillis(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1));
+    writeRecorded(hashes, output, "hello");
+    Files.copy(output, copy);
+    hashes.recordCopy(output, copy);
+
+    assertEquals(
+        Optional.of(HashCode.fromString(filesystem.computeSha1(copy))),
+        hashes.get(copy));
+  }
+
+  private static void writeRecorded(WrittenFileHashes hashes, Path path, String contents)
+      throws IOException {
+    try (OutputStream out = hashes.newRecordingOutputStream(path, Files.newOutputStream(path))) {
+      out.write(contents.getBytes(Charsets.UTF_8));
+    }
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.io.PathOrGlobMatcher;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The same cases as the {@code glob_internal} tests of {@code buck_test.py}, on a real directory
+ * tree.
+ */
+public class BuildFileGlobberTest {
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void includesAreSorted() throws Exception {
+    touch("foo/A.java", "foo/E.java", "foo/D.java", "foo/C.java", "foo/B.java", "foo/F.txt");
+    assertGlob(
+        ImmutableList.of("A.java", "B.java", "C.java", "D.java", "E.java"),
+        ImmutableList.of("*.java"),
+        ImmutableList.<String>of());
+  }
+
+  @Test
+  public void multipleIncludes() throws Exception {
+    touch("foo/bar/A.java", "foo/bar/B.java", "foo/baz/C.java", "foo/baz/D.java");
+    assertGlob(
+        ImmutableList.of("bar/A.java", "bar/B.java", "baz/C.java", "baz/D.java"),
+        ImmutableList.of("bar/*.java", "baz/*.java"),
+        ImmutableList.<String>of());
+  }
+
+  @Test
+  public void excludesWithDoubleStar() throws Exception {
+    touch("foo/A.java", "foo/B.java", "foo/Test.java", "foo/bar/CTest.java");
+    assertGlob(
+        ImmutableList.of("A.java", "B.java"),
+        ImmutableList.of("**/*.java"),
+        ImmutableList.of("**/*Test.java"));
+  }
+
+  @Test
+  public void excludesWithCharacterClasses() throws Exception {
+    touch("foo/bar/A.java", "foo/bar/B.java", "foo/baz/C.java", "foo/baz/D.java");
+    assertGlob(
+        ImmutableList.of("bar/B.java", "baz/D.java"),
+        ImmutableList.of("bar/*.java", "baz/*.java"),
+        ImmutableList.of("*/[AC].java"));
+  }
+
+  @Test
+  public void excludesMatchWholePaths() throws Exception {
+    touch("foo/foo/A.java", "foo/foo/bar/B.java", "foo/bar/C.java");
+    assertGlob(
+        ImmutableList.of("foo/A.java", "foo/bar/B.java"),
+        ImmutableList.of("**/*.java"),
+        ImmutableList.of("bar/*.java"));
+  }
+
+  @Test
+  public void explicitExcludesWithSeparators() throws Exception {
+    touch("foo/java/Include.java", "foo/java/Exclude.java");
+    assertGlob(
+        ImmutableList.of("java/Include.java"),
+        ImmutableList.of("java/**/*.java"),
+        ImmutableList.of("java/Exclude.java"));
+  }
+
+  @Test
+  public void ignoredPathsAreRelativeToTheProjectRoot() throws Exception {
+    touch("foo/foo/A.java", "foo/foo/bar/B.java", "foo/bar/C.java");
+    BuildFileGlobber globber = new BuildFileGlobber(
+        tmp.getRoot(),
+        ImmutableSet.of(new PathOrGlobMatcher("foo/foo/**")));
+    assertEquals(
+        ImmutableList.of("bar/C.java"),
+        globber.glob(
+            tmp.getRoot().resolve("foo"),
+            ImmutableList.of("**/*.java"),
+            ImmutableList.<String>of(),
+            false).asList());
+  }
+
+  @Test
+  public void dotfilesAreOnlyIncludedWhenAskedFor() throws Exception {
+    touch("foo/A.java", "foo/.B.java");
+    assertGlob(
+        ImmutableList.of("A.java"),
+        ImmutableList.of("*.java"),
+        ImmutableList.<String>of());
+    assertEquals(
+        ImmutableList.of(".B.java", "A.java"),
+        createGlobber().glob(
+            tmp.getRoot().resolve("foo"),
+            ImmutableList.of("*.java"),
+            ImmutableList.<String>of(),
+            true).asList());
+  }
+
+  @Test
+  public void doubleStarOnlyMatchesFiles() throws Exception {
+    touch(
+        "foo/b/a/c/a/A.java",
+        "foo/b/a/c/a/B.java",
+        "foo/b/a/c/a/Test.java",
+        "foo/b/a/c/a/.tmp.java");
+    Files.createDirectories(tmp.getRoot().resolve("foo/b/a/c/a/NotAFile.java"));
+    assertGlob(
+        ImmutableList.of("b/a/c/a/A.java", "b/a/c/a/B.java"),
+        ImmutableList.of("b/a/**/*.java"),
+        ImmutableList.of("**/*Test.java"));
+  }
+
+  @Test
+  public void caseIsPreserved() throws Exception {
+    touch("foo/java/Main.java");
+    assertGlob(
+        ImmutableList.of("java/Main.java"),
+        ImmutableList.of("java/Main.java"),
+        ImmutableList.<String>of());
+  }
+
+  @Test
+  public void patternsLeavingThePackageAreRejected() throws Exception {
+    touch("foo/A.java", "bar/B.java");
+    assertRejected("../bar/*.java");
+    assertRejected("/bar/*.java");
+    assertRejected("**.java");
+    assertRejected(".");
+  }
+
+  private void assertGlob(
+      List<String> expected,
+      List<String> includes,
+      List<String> excludes) throws Exception {
+    assertEquals(
+        expected,
+        createGlobber().glob(tmp.getRoot().resolve("foo"), includes, excludes, false).asList());
+  }
+
+  private void assertRejected(String include) throws IOException {
+    try {
+      createGlobber().glob(
+          tmp.getRoot().resolve("foo"),
+          ImmutableList.of(include),
+          ImmutableList.<String>of(),
+          false);
+      fail(include + " should have been rejected");
+    } catch (UnsupportedBuildFileException e) {
+      // Expected.
+    }
+  }
+
+  private BuildFileGlobber createGlobber() {
+    return new BuildFileGlobber(tmp.getRoot(), ImmutableSet.<PathOrGlobMatcher>of());
+  }
+
+  private void touch(String... paths) throws IOException {
+    for (String path : paths) {
+      Path file = tmp.getRoot().resolve(path);
+      Files.createDirectories(file.getParent());
+      Files.createFile(file);
+    }
+  }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.io.FakeWatchmanClient;
+import com.facebook.buck.io.PathOrGlobMatcher;
+import com.facebook.buck.io.Watchman;
+import com.facebook.buck.io.WatchmanClient;
+import com.facebook.buck.rules.ConstructorArgMarshaller;
+import com.facebook.buck.rules.Description;
+import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
+import com.facebook.buck.shell.ExportFileDescription;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.facebook.buck.util.ObjectMappers;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.Subscribe;
+
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class InJvmBuildFileEvaluatorTest {
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  private BuckEventBus buckEventBus;
+  private InJvmBuildFileEvaluator evaluator;
+
+  @Before
+  public void setUp() {
+    buckEventBus = BuckEventBusFactory.newInstance();
+    evaluator = createEvaluator(/* useWatchmanGlob */ false, Watchman.NULL_WATCHMAN);
+  }
+
+  @Test
+  public void evaluatesRuleCallsLikeBuckPy() throws IOException {
+    write("DEFS", "OUT = 'out' + '.txt'", "_PRIVATE = 1");
+    Path buildFile = write(
+        "foo/BUCK",
+        "include_defs('//DEFS')",
+        "# A comment.",
+        "export_file(",
+        "  name = 'a',",
+        "  out = OUT,",
+        "  visibility = [",
+        "    'PUBLIC',",
+        "  ],",
+        ")",
+        "export_file('b', src = \"b.txt\")");
+
+    List<Map<String, Object>> values = evaluator.getAllRulesAndMetaRules(buildFile).get();
+
+    assertEquals(4, values.size());
+    Map<String, Object> a = values.get(0);
+    assertEquals("export_file", a.get("buck.type"));
+    assertEquals("a", a.get("name"));
+    assertEquals("foo", a.get("buck.base_path"));
+    assertEquals("out.txt", a.get("out"));
+    assertNull(a.get("src"));
+    assertEquals(ImmutableList.of("PUBLIC"), a.get("visibility"));
+    Map<String, Object> b = values.get(1);
+    assertEquals("b", b.get("name"));
+    assertEquals("b.txt", b.get("src"));
+    assertEquals(Collections.emptyList(), b.get("visibility"));
+    assertEquals(
+        ImmutableMap.of(
+            "__includes",
+            ImmutableList.of(buildFile.toString(), tmp.getRoot().resolve("DEFS").toString())),
+        values.get(2));
+    assertEquals(ImmutableMap.of("__configs", ImmutableMap.of()), values.get(3));
+  }
+
+  @Test
+  public void readConfigIsRecordedInConfigsMetaRule() throws IOException {
+    Path buildFile = write(
+        "BUCK",
+        "export_file(name = read_config('section', 'field'))",
+        "export_file(name = read_config('section', 'missing', 'default'))");
+
+    List<Map<String, Object>> values = evaluator.getAllRulesAndMetaRules(buildFile).get();
+
+    assertEquals("value", values.get(0).get("name"));
+    assertEquals("default", values.get(1).get("name"));
+    assertEquals("", values.get(0).get("buck.base_path"));
+    Map<?, ?> configs = (Map<?, ?>) values.get(3).get("__configs");
+    Map<?, ?> section = (Map<?, ?>) configs.get("section");
+    assertEquals("value", section.get("field"));
+    assertTrue(section.containsKey("missing"));
+    assertNull(section.get("missing"));
+  }
+
+  @Test
+  public void globMatchesLikeBuckPy() throws IOException {
+    write("foo/a.txt");
+    write("foo/.hidden.txt");
+    write("foo/bar/b.txt");
+    write("foo/bar/c.txt");
+    write("foo/bar/baz/d.txt");
+    write("foo/ignored/e.txt");
+    write("foo/f.java");
+    Path buildFile = write(
+        "foo/BUCK",
+        "export_file(",
+        "  name = 'a',",
+        "  src = glob(['**/*.txt'], excludes = ['bar/c.txt', 'bar/baz/*']),",
+        ")",
+        "export_file(name = 'b', src = glob(['*.txt'], include_dotfiles = True))",
+        "export_file(name = 'c', src = subdir_glob([('bar', '**/*.txt')], prefix = 'p'))");
+
+    List<Map<String, Object>> values = evaluator.getAllRulesAndMetaRules(buildFile).get();
+
+    assertEquals(ImmutableList.of("a.txt", "bar/b.txt"), values.get(0).get("src"));
+    assertEquals(ImmutableList.of(".hidden.txt", "a.txt"), values.get(1).get("src"));
+    assertEquals(
+        ImmutableMap.of(
+            "p/b.txt", "bar/b.txt",
+            "p/baz/d.txt", "bar/baz/d.txt",
+            "p/c.txt", "bar/c.txt"),
+        values.get(2).get("src"));
+  }
+
+  @Test
+  public void unsupportedBuildFilesAreLeftToBuckPy() throws IOException {
+    write("DEFS", "def macro():", "  pass");
+    assertNotEvaluated("include_defs('//DEFS')");
+    assertNotEvaluated("if True:", "  export_file(name = 'a')");
+    assertNotEvaluated("export_file(name = 'a'.upper())");
+    assertNotEvaluated("export_file(name = '%s' % 'a')");
+    assertNotEvaluated("unknown_rule(name = 'a')");
+    assertNotEvaluated("export_file(name = 'a', srcs = [x for x in ['b']])");
+  }
+
+  @Test
+  public void brokenBuildFilesAreLeftToBuckPy() throws IOException {
+    assertNotEvaluated("export_file(name = 'a')", "export_file(name = 'a')");
+    assertNotEvaluated("export_file(src = 'a')");
+    assertNotEvaluated("export_file(name = 'a', unknown = 'b')");
+    assertNotEvaluated("export_file(name = 'a', src = glob(['*.none']))");
+    assertNotEvaluated("export_file(name = 'a'");
+  }
+
+  @Test
+  public void buildFilesWithAutodepsAreLeftToBuckPy() throws IOException {
+    write("foo/BUCK.autodeps", "{}");
+    Path buildFile = write("foo/BUCK", "export_file(name = 'a')");
+    assertFalse(evaluator.getAllRulesAndMetaRules(buildFile).isPresent());
+  }
+
+  @Test
+  public void globQueriesWatchmanWhenItIsTheGlobHandler() throws IOException {
+    Path buildFile = write(
+        "foo/BUCK",
+        "export_file(name = 'a', src = glob(['**/*.txt'], excludes = ['*.bak.txt']))");
+    FakeWatchmanClient client = new FakeWatchmanClient(
+        0,
+        ImmutableMap.of(
+            ImmutableList.of(
+                "query",
+                tmp.getRoot().toString(),
+                ImmutableMap.of(
+                    "relative_root", "foo",
+                    "path", ImmutableList.of(""),
+                    "fields", ImmutableList.of("name"),
+                    "expression", ImmutableList.of(
+                        "allof",
+                        "exists",
+                        ImmutableList.of(
+                            "anyof",
+                            ImmutableList.of("type", "f"),
+                            ImmutableList.of("type", "l")),
+                        ImmutableList.of(
+                            "anyof",
+                            ImmutableList.of(
+                                "match", "**/*.txt", "wholename", ImmutableMap.of())),
+                        ImmutableList.of(
+                            "not",
+                            ImmutableList.of(
+                                "anyof",
+                                ImmutableList.of(
+                                    "match", "*.bak.txt", "wholename", ImmutableMap.of())))))),
+            ImmutableMap.of("files", ImmutableList.of("b/c.txt", "a.txt"))));
+    evaluator = createEvaluator(/* useWatchmanGlob */ true, createWatchman(client));
+
+    List<Map<String, Object>> values = evaluator.getAllRulesAndMetaRules(buildFile).get();
+
+    assertEquals(ImmutableList.of("a.txt", "b/c.txt"), values.get(0).get("src"));
+  }
+
+  @Test
+  public void globFallsBackToTheFilesystemOnceWatchmanFails() throws IOException {
+    write("a.txt");
+    Path buildFile = write(
+        "BUCK",
+        "export_file(name = 'a', src = glob(['*.txt']))",
+        "export_file(name = 'b', src = glob(['*.txt']))");
+    // Only the first query is known, any other would fail the test.
+    FakeWatchmanClient client = new FakeWatchmanClient(
+        0,
+        ImmutableMap.of(
+            ImmutableList.of(
+                "query",
+                tmp.getRoot().toString(),
+                ImmutableMap.of(
+                    "path", ImmutableList.of(""),
+                    "fields", ImmutableList.of("name"),
+                    "expression", ImmutableList.of(
+                        "allof",
+                        "exists",
+                        ImmutableList.of(
+                            "anyof",
+                            ImmutableList.of("type", "f"),
+                            ImmutableList.of("type", "l")),
+                        ImmutableList.of(
+                            "anyof",
+                            ImmutableList.of(
+                                "match", "*.txt", "wholename", ImmutableMap.of()))))),
+            ImmutableMap.<String, Object>of()),
+        new IOException("watchman is gone"));
+    evaluator = createEvaluator(/* useWatchmanGlob */ true, createWatchman(client));
+
+    List<Map<String, Object>> values = evaluator.getAllRulesAndMetaRules(buildFile).get();
+
+    assertEquals(ImmutableList.of("a.txt"), values.get(0).get("src"));
+    assertEquals(ImmutableList.of("a.txt"), values.get(1).get("src"));
+  }
+
+  @Test
+  public void parseEventsAreOnlyPostedForEvaluatedBuildFiles() throws IOException {
+    final List<ParseBuckFileEvent> events = new ArrayList<>();
+    class EventListener {
+      @Subscribe
+      public void onParseBuckFileEvent(ParseBuckFileEvent event) {
+        events.add(event);
+      }
+    }
+    buckEventBus.register(new EventListener());
+
+    assertNotEvaluated("if True:", "  export_file(name = 'a')");
+    assertEquals(ImmutableList.of(), events);
+
+    Path buildFile = write("foo/BUCK", "export_file(name = 'a')");
+    evaluator.getAllRulesAndMetaRules(buildFile).get();
+    assertEquals(2, events.size());
+    assertThat(events.get(0), Matchers.instanceOf(ParseBuckFileEvent.Started.class));
+    assertThat(events.get(1), Matchers.instanceOf(ParseBuckFileEvent.Finished.class));
+    assertTrue(events.get(1).isRelatedTo(events.get(0)));
+  }
+
+  private InJvmBuildFileEvaluator createEvaluator(boolean useWatchmanGlob, Watchman watchman) {
+    return new InJvmBuildFileEvaluator(
+        ProjectBuildFileParserOptions.builder()
+            .setProjectRoot(tmp.getRoot())
+            .setPythonInterpreter("python")
+            .setAllowEmptyGlobs(false)
+            .setIgnorePaths(ImmutableSet.of(new PathOrGlobMatcher("foo/ignored/**")))
+            .setBuildFileName("BUCK")
+            .setDefaultIncludes(ImmutableList.<String>of())
+            .setDescriptions(ImmutableSet.<Description<?>>of(new ExportFileDescription()))
+            .setRawConfig(
+                ImmutableMap.of("section", ImmutableMap.of("field", "value")))
+            .setUseWatchmanGlob(useWatchmanGlob)
+            .setWatchman(watchman)
+            .build(),
+        new ConstructorArgMarshaller(
+            new DefaultTypeCoercerFactory(ObjectMappers.newDefaultInstance())),
+        buckEventBus,
+        /* ignoreBuckAutodepsFiles */ false);
+  }
+
+  private Watchman createWatchman(WatchmanClient client) {
+    return new Watchman(
+        Optional.of("4.7.0"),
+        Optional.<String>absent(),
+        Optional.of(tmp.getRoot().toString()),
+        ImmutableSet.of(Watchman.Capability.WILDMATCH_GLOB),
+        Optional.<Path>absent(),
+        Optional.of(client));
+  }
+
+  private void assertNotEvaluated(String... lines) throws IOException {
+    Path buildFile = write("BUCK", lines);
+    assertEquals(
+        Joiner.on('\n').join(lines),
+        Optional.absent(),
+        evaluator.getAllRulesAndMetaRules(buildFile));
+  }
+
+  private Path write(String path, String... lines) throws IOException {
+    Path file = tmp.getRoot().resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, Joiner.on('\n').join(lines).getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.json.RestrictedBuildFileParser.Assignment;
+import com.facebook.buck.json.RestrictedBuildFileParser.Call;
+import com.facebook.buck.json.RestrictedBuildFileParser.DictLiteral;
+import com.facebook.buck.json.RestrictedBuildFileParser.ExpressionStatement;
+import com.facebook.buck.json.RestrictedBuildFileParser.ListLiteral;
+import com.facebook.buck.json.RestrictedBuildFileParser.Literal;
+import com.facebook.buck.json.RestrictedBuildFileParser.Name;
+import com.facebook.buck.json.RestrictedBuildFileParser.Statement;
+import com.facebook.buck.json.RestrictedBuildFileParser.Sum;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+public class RestrictedBuildFileParserTest {
+
+  @Test
+  public void parsesAssignmentsAndCalls() throws Exception {
+    ImmutableList<Statement> statements = parse(
+        "# A comment.",
+        "SRCS = ['a.c', 'b' 'c.c'] + EXTRA_SRCS",
+        "",
+        "cxx_library(",
+        "  'lib',",
+        "  srcs = SRCS,",
+        "  flags = ('-O', -2, True, None),",
+        "  headers = {'a.h': \"\"\"b.h\"\"\"},",
+        ")");
+
+    assertEquals(2, statements.size());
+
+    Assignment assignment = (Assignment) statements.get(0);
+    assertEquals(2, assignment.line);
+    assertEquals("SRCS", assignment.name);
+    Sum sum = (Sum) assignment.value;
+    ListLiteral srcs = (ListLiteral) sum.left;
+    assertFalse(srcs.isTuple);
+    assertEquals("a.c", ((Literal) srcs.elements.get(0)).value);
+    assertEquals("bc.c", ((Literal) srcs.elements.get(1)).value);
+    assertEquals("EXTRA_SRCS", ((Name) sum.right).name);
+
+    Call call = (Call) ((ExpressionStatement) statements.get(1)).expression;
+    assertEquals(4, call.line);
+    assertEquals("cxx_library", call.function);
+    assertEquals("lib", ((Literal) call.args.get(0)).value);
+    assertEquals(ImmutableList.of("srcs", "flags", "headers"), call.kwargs.keySet().asList());
+    ListLiteral flags = (ListLiteral) call.kwargs.get("flags");
+    assertTrue(flags.isTuple);
+    assertEquals("-O", ((Literal) flags.elements.get(0)).value);
+    assertEquals(-2L, ((Literal) flags.elements.get(1)).value);
+    assertEquals(true, ((Literal) flags.elements.get(2)).value);
+    assertNull(((Literal) flags.elements.get(3)).value);
+    DictLiteral headers = (DictLiteral) call.kwargs.get("headers");
+    assertEquals("a.h", ((Literal) headers.keys.get(0)).value);
+    assertEquals("b.h", ((Literal) headers.values.get(0)).value);
+  }
+
+  @Test
+  public void compoundStatementsAreRejected() {
+    assertRejected("def macro():", "  pass");
+    assertRejected("if True:", "  export_file(name = 'a')");
+    assertRejected("for name in ['a', 'b']:", "  export_file(name = name)");
+    assertRejected("with open('a') as f:", "  pass");
+    assertRejected("import os");
+    assertRejected("from os import path");
+    assertRejected("  export_file(name = 'a')");
+  }
+
+  @Test
+  public void unsupportedExpressionsAreRejected() {
+    assertRejected("export_file(name = 'a'.upper())");
+    assertRejected("export_file(name = '%s' % 'a')");
+    assertRejected("export_file(name = 2 * 'a')");
+    assertRejected("export_file(name = NAMES[0])");
+    assertRejected("export_file(name = 'a' if True else 'b')");
+    assertRejected("export_file(name = NAME == 'a')");
+    assertRejected("export_file(name = (lambda: 'a')())");
+    assertRejected("export_file(srcs = [x for x in ['a']])");
+    assertRejected("export_file(name = 1.5)");
+    assertRejected("export_file(**ARGS)");
+  }
+
+  @Test
+  public void syntaxErrorsAreRejected() {
+    assertRejected("export_file(name = 'a'");
+    assertRejected("export_file(name = 'a)");
+    assertRejected("export_file(name = 'a' 'b' = 'c')");
+    assertRejected("export_file(name = 'a', 'b')");
+    assertRejected("export_file(name = 'a', name = 'b')");
+  }
+
+  private static ImmutableList<Statement> parse(String... lines)
+      throws UnsupportedBuildFileException {
+    return RestrictedBuildFileParser.parse(Joiner.on('\n').join(lines));
+  }
+
+  private static void assertRejected(String... lines) {
+    try {
+      parse(lines);
+      fail(Joiner.on('\n').join(lines) + " should have been rejected");
+    } catch (UnsupportedBuildFileException e) {
+      // Expected.
+    }
+  }
+}
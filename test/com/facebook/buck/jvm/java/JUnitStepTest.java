@@ -17,6 +17,8 @@
 package com.facebook.buck.jvm.java;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.io.ProjectFilesystem;
@@ -24,11 +26,13 @@ import com.facebook.buck.jvm.java.runner.FileClassPathRunner;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.test.selectors.TestSelectorList;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.MoreAsserts;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.util.Verbosity;
 import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -199,4 +203,68 @@ public class JUnitStepTest {
     assertEquals("Debugging. Suspending JVM. Connect a JDWP debugger to port 5005 to proceed.",
         console.getTextWrittenToStdErr().trim());
   }
+
+  @Test
+  public void warmJvmCommandKeepsPerRunSettingsInTheJob() {
+    BuildId pretendBuildId = new BuildId("pretend-build-id");
+    Path modulePath = Paths.get("module/submodule");
+    Path directoryForTestResults = Paths.get("buck-out/gen/theresults/");
+    Path directoryForTemp = Paths.get("buck-out/gen/thetmp/");
+    Path testRunnerClasspath = Paths.get("build/classes/junit");
+    ProjectFilesystem filesystem = FakeProjectFilesystem.createJavaOnlyFilesystem();
+
+    JUnitJvmArgs args = JUnitJvmArgs.builder()
+        .setTmpDirectory(directoryForTemp)
+        .setBuildId(pretendBuildId)
+        .setBuckModuleBaseSourceCodePath(modulePath)
+        .setClasspathFile(filesystem.resolve("foo"))
+        .setTestRunnerClasspath(testRunnerClasspath)
+        .setExtraJvmArgs(ImmutableList.of("-Xmx1g"))
+        .setTestType(TestType.JUNIT)
+        .setDirectoryForTestResults(directoryForTestResults)
+        .setTestSelectorList(
+            TestSelectorList.builder()
+                .addRawSelectors("com.example.FooTest", "com.example.BarTest#testBar")
+                .build())
+        .addTestClasses("com.example.FooTest")
+        .setWarmJvmMaxRuns(10)
+        .build();
+    assertTrue(args.canRunInWarmJvm());
+    assertFalse(JUnitJvmArgs.copyOf(args).withDebugEnabled(true).canRunInWarmJvm());
+    assertFalse(JUnitJvmArgs.copyOf(args).withWarmJvmMaxRuns(0).canRunInWarmJvm());
+
+    Path sharedJar = Paths.get("/repo/third-party/guava.jar");
+    ImmutableList.Builder<String> command = ImmutableList.builder();
+    args.formatWarmJvmCommandLineArgsToList(
+        command,
+        Paths.get("/repo/buck-out/tmp"),
+        ImmutableList.of(sharedJar),
+        Verbosity.STANDARD_INFORMATION);
+    MoreAsserts.assertListEquals(
+        ImmutableList.of(
+            "-Djava.io.tmpdir=" + Paths.get("/repo/buck-out/tmp"),
+            "-Dbuck.testrunner_classes=" + testRunnerClasspath,
+            "-Xmx1g",
+            "-classpath",
+            sharedJar + File.pathSeparator + testRunnerClasspath,
+            "com.facebook.buck.testrunner.JUnitServerMain"),
+        command.build());
+
+    Path testJar = Paths.get("/repo/buck-out/gen/foo.jar");
+    assertEquals(
+        ImmutableList.of(
+            "property:java.io.tmpdir=" + filesystem.resolve(directoryForTemp),
+            "property:com.facebook.buck.buildId=" + pretendBuildId,
+            "property:com.facebook.buck.moduleBasePath=" + modulePath,
+            "classpath:" + testJar,
+            "arg:--output",
+            "arg:" + directoryForTestResults,
+            "arg:--default-test-timeout",
+            "arg:5000",
+            "arg:--test-selectors",
+            "arg:com.example.FooTest$#\\ncom.example.BarTest$#testBar$\\n",
+            "arg:com.example.FooTest"),
+        Splitter.on('\n').omitEmptyStrings().splitToList(
+            args.formatWarmJvmJobArgs(filesystem, ImmutableList.of(testJar), 5000L)));
+  }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+public class ShardedJUnitStepTest {
+
+  @Test
+  public void slowClassesAreSpreadAcrossShards() {
+    assertEquals(
+        ImmutableList.of(
+            ImmutableList.of("A", "D"),
+            ImmutableList.of("B", "C", "E")),
+        ShardedJUnitStep.shardTestClasses(
+            ImmutableList.of("A", "B", "C", "D", "E"),
+            ImmutableMap.of("A", 100L, "B", 60L, "C", 30L, "D", 10L, "E", 20L),
+            2));
+  }
+
+  @Test
+  public void classesWithoutHistoryCountAsAverage() {
+    // C and D take as long as the average recorded class (40ms), so each shard gets 80ms of work.
+    assertEquals(
+        ImmutableList.of(
+            ImmutableList.of("A", "C"),
+            ImmutableList.of("B", "D")),
+        ShardedJUnitStep.shardTestClasses(
+            ImmutableList.of("A", "B", "C", "D"),
+            ImmutableMap.of("A", 40L, "B", 40L),
+            2));
+  }
+
+  @Test
+  public void withoutAnyHistoryClassesAreDealtOutEvenly() {
+    assertEquals(
+        ImmutableList.of(
+            ImmutableList.of("A", "D"),
+            ImmutableList.of("B", "E"),
+            ImmutableList.of("C")),
+        ShardedJUnitStep.shardTestClasses(
+            ImmutableList.of("A", "B", "C", "D", "E"),
+            ImmutableMap.<String, Long>of(),
+            3));
+  }
+
+  @Test
+  public void neverCreatesEmptyShards() {
+    assertEquals(
+        ImmutableList.of(ImmutableList.of("A"), ImmutableList.of("B")),
+        ShardedJUnitStep.shardTestClasses(
+            ImmutableList.of("A", "B"),
+            ImmutableMap.<String, Long>of(),
+            8));
+  }
+}
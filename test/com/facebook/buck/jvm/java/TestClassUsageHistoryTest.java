@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.jvm.java;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class TestClassUsageHistoryTest {
+
+  private static final Optional<TestClassUsageHistory> NO_HISTORY = Optional.absent();
+
+  private static final ImmutableSet<String> TEST_CLASSES = ImmutableSet.of("ATest", "BTest");
+
+  private static final ClasspathSnapshot SNAPSHOT = new ClasspathSnapshot(
+      ImmutableMap.of("A", "1", "B", "1", "ATest", "1", "BTest", "1"),
+      "fingerprint");
+
+  private static final ImmutableList<List<String>> RECORDED_RUNS = ImmutableList.<List<String>>of(
+      ImmutableList.of("test ATest", "ATest", "A", "java.lang.Object", "test BTest", "BTest", "B"));
+
+  @Test
+  public void onlyTestClassesUsingChangedClassesAreImpacted() {
+    TestClassUsageHistory history =
+        TestClassUsageHistory.update(NO_HISTORY, SNAPSHOT, RECORDED_RUNS);
+
+    assertEquals(
+        ImmutableSet.of(),
+        history.getImpactedTestClasses(SNAPSHOT, TEST_CLASSES));
+    assertEquals(
+        ImmutableSet.of("BTest"),
+        history.getImpactedTestClasses(withClassHash("B", "2"), TEST_CLASSES));
+  }
+
+  @Test
+  public void classesLoadedByEarlierTestClassesCountForLaterOnes() {
+    TestClassUsageHistory history =
+        TestClassUsageHistory.update(NO_HISTORY, SNAPSHOT, RECORDED_RUNS);
+
+    assertEquals(
+        TEST_CLASSES,
+        history.getImpactedTestClasses(withClassHash("A", "2"), TEST_CLASSES));
+  }
+
+  @Test
+  public void newTestClassesAndChangedFingerprintsAreImpacted() {
+    TestClassUsageHistory history =
+        TestClassUsageHistory.update(NO_HISTORY, SNAPSHOT, RECORDED_RUNS);
+
+    assertEquals(
+        ImmutableSet.of("CTest"),
+        history.getImpactedTestClasses(SNAPSHOT, ImmutableSet.of("ATest", "CTest")));
+    assertEquals(
+        TEST_CLASSES,
+        history.getImpactedTestClasses(
+            new ClasspathSnapshot(SNAPSHOT.getClassHashes(), "other"),
+            TEST_CLASSES));
+  }
+
+  @Test
+  public void laterRunsOverrideEarlierOnesAndSurviveRoundTrip() {
+    TestClassUsageHistory first = TestClassUsageHistory.update(NO_HISTORY, SNAPSHOT, RECORDED_RUNS);
+    ClasspathSnapshot changed = withClassHash("A", "2");
+    TestClassUsageHistory second = TestClassUsageHistory.update(
+        Optional.of(first),
+        changed,
+        ImmutableList.<List<String>>of(ImmutableList.of("test ATest", "ATest", "A")));
+
+    Optional<TestClassUsageHistory> reread = TestClassUsageHistory.fromLines(second.toLines());
+    assertTrue(reread.isPresent());
+    // BTest used A only because ATest loaded it first in the earlier run, so it stays impacted
+    // until it runs again.
+    assertEquals(
+        ImmutableSet.of("BTest"),
+        reread.get().getImpactedTestClasses(changed, TEST_CLASSES));
+  }
+
+  @Test
+  public void malformedHistoryIsIgnored() {
+    assertFalse(TestClassUsageHistory.fromLines(ImmutableList.of("garbage")).isPresent());
+    assertFalse(TestClassUsageHistory.fromLines(ImmutableList.<String>of()).isPresent());
+  }
+
+  private static ClasspathSnapshot withClassHash(String className, String hash) {
+    ImmutableMap.Builder<String, String> classHashes = ImmutableMap.builder();
+    for (String name : SNAPSHOT.getClassHashes().keySet()) {
+      if (!name.equals(className)) {
+        classHashes.put(name, SNAPSHOT.getClassHashes().get(name));
+      }
+    }
+    classHashes.put(className, hash);
+    return new ClasspathSnapshot(classHashes.build(), SNAPSHOT.getFingerprint());
+  }
+}
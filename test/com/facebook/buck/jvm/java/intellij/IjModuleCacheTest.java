@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.jvm.java.intellij;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.android.AndroidBinaryDescription;
+import com.facebook.buck.android.AndroidResourceDescription;
+import com.facebook.buck.jvm.java.JavaLibraryBuilder;
+import com.facebook.buck.jvm.java.JvmLibraryArg;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.TargetNode;
+import com.facebook.buck.testutil.TargetGraphFactory;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class IjModuleCacheTest {
+
+  private static final BuildTarget REQUIRED_TARGET =
+      BuildTargetFactory.newInstance("//java/com/example/gen:gen");
+
+  private IjModuleCache cache;
+  private IjModuleFactory moduleFactory;
+  private TargetNode<?> guava;
+  private TargetNode<?> base;
+
+  @Before
+  public void setUp() {
+    cache = new IjModuleCache();
+    moduleFactory = createModuleFactory(cache);
+    guava = createLibrary("//third_party/guava:guava");
+    base = createLibrary("//java/com/example/base:base", guava.getBuildTarget());
+  }
+
+  @Test
+  public void modulesAreReusedWhileTargetsAreUnchanged() {
+    cache.update(TargetGraphFactory.newInstance(guava, base), false);
+    IjModule baseModule = getOrCreate(base);
+
+    cache.update(TargetGraphFactory.newInstance(guava, base), false);
+    assertSame(baseModule, getOrCreate(base));
+    assertEquals(
+        ImmutableSet.of(REQUIRED_TARGET),
+        cache.getRequiredBuildTargets(ImmutableSet.of(baseModule)));
+  }
+
+  @Test
+  public void changedDependencyInvalidatesDependentModules() {
+    cache.update(TargetGraphFactory.newInstance(guava, base), false);
+    IjModule guavaModule = getOrCreate(guava);
+    IjModule baseModule = getOrCreate(base);
+
+    TargetNode<?> newGuava = createLibrary("//third_party/guava:guava");
+    cache.update(TargetGraphFactory.newInstance(newGuava, base), false);
+    assertEquals(0, cache.size());
+    assertNotSame(guavaModule, getOrCreate(newGuava));
+    assertNotSame(baseModule, getOrCreate(base));
+  }
+
+  @Test
+  public void unchangedDependenciesAreKeptWhenDependentsChange() {
+    cache.update(TargetGraphFactory.newInstance(guava, base), false);
+    IjModule guavaModule = getOrCreate(guava);
+    getOrCreate(base);
+
+    TargetNode<?> newBase = createLibrary("//java/com/example/base:base", guava.getBuildTarget());
+    cache.update(TargetGraphFactory.newInstance(guava, newBase), false);
+    assertEquals(1, cache.size());
+    assertSame(guavaModule, getOrCreate(guava));
+  }
+
+  @Test
+  public void modulesOutsideOfTheGraphAndSettingChangesAreDropped() {
+    cache.update(TargetGraphFactory.newInstance(guava, base), false);
+    getOrCreate(guava);
+    getOrCreate(base);
+
+    cache.update(TargetGraphFactory.newInstance(guava), false);
+    assertEquals(1, cache.size());
+    cache.update(TargetGraphFactory.newInstance(guava), true);
+    assertEquals(0, cache.size());
+  }
+
+  private IjModule getOrCreate(TargetNode<?> targetNode) {
+    return cache.getOrCreate(
+        targetNode.getBuildTarget().getBasePath(),
+        ImmutableSet.<TargetNode<?>>of(targetNode),
+        moduleFactory);
+  }
+
+  private static TargetNode<?> createLibrary(String target, BuildTarget... deps) {
+    BuildTarget buildTarget = BuildTargetFactory.newInstance(target);
+    JavaLibraryBuilder builder = JavaLibraryBuilder.createBuilder(buildTarget)
+        .addSrc(buildTarget.getBasePath().resolve("File.java"));
+    for (BuildTarget dep : deps) {
+      builder.addDep(dep);
+    }
+    return builder.build();
+  }
+
+  private static IjModuleFactory createModuleFactory(final IjModuleCache cache) {
+    return new IjModuleFactory(
+        new IjModuleFactory.IjModuleFactoryResolver() {
+          @Override
+          public Optional<Path> getDummyRDotJavaPath(TargetNode<?> targetNode) {
+            return Optional.absent();
+          }
+
+          @Override
+          public Path getAndroidManifestPath(
+              TargetNode<AndroidBinaryDescription.Arg> targetNode) {
+            return Paths.get("AndroidManifest.xml");
+          }
+
+          @Override
+          public Optional<Path> getProguardConfigPath(
+              TargetNode<AndroidBinaryDescription.Arg> targetNode) {
+            return Optional.absent();
+          }
+
+          @Override
+          public Optional<Path> getAndroidResourcePath(
+              TargetNode<AndroidResourceDescription.Arg> targetNode) {
+            return Optional.absent();
+          }
+
+          @Override
+          public Optional<Path> getAssetsPath(
+              TargetNode<AndroidResourceDescription.Arg> targetNode) {
+            return Optional.absent();
+          }
+
+          @Override
+          public Optional<Path> getAnnotationOutputPath(
+              TargetNode<? extends JvmLibraryArg> targetNode) {
+            cache.recordRequiredBuildTarget(REQUIRED_TARGET);
+            return Optional.absent();
+          }
+        },
+        false);
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.cli.BuckConfig;
+import com.facebook.buck.cli.FakeBuckConfig;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.ConstructorArgMarshaller;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.rules.TestCellBuilder;
+import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.facebook.buck.util.ObjectMappers;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import com.google.caliper.api.Macrobenchmark;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+
+/**
+ * Parses a synthetic repository whose targets repeat the same flags, labels and paths, the way
+ * targets in large repositories do, and reports how much heap the parser retains per target.
+ */
+public class ParserHeapFootprintBenchmark {
+  private static final int TARGETS_PER_PACKAGE = 2;
+
+  @Param({"100", "1000", "5000"})
+  private int packageCount = 10;
+
+  public DebuggableTemporaryFolder tempDir = new DebuggableTemporaryFolder();
+
+  private BuckConfig config;
+  private Cell cell;
+  private BuckEventBus eventBus;
+  private ListeningExecutorService executorService;
+
+  // Held in fields so that they stay reachable while the heap is measured.
+  private Parser parser;
+  private TargetGraph targetGraph;
+
+  @Before
+  public void setUpTest() throws Exception {
+    packageCount = 10;
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    tempDir.create();
+    Path root = tempDir.getRootPath();
+    ProjectFilesystem filesystem = new ProjectFilesystem(root);
+
+    for (int i = 0; i < packageCount; i++) {
+      Path packageRoot = root.resolve(String.format("java/com/example/package_%d", i));
+      Files.createDirectories(packageRoot.resolve("res"));
+      Files.write(
+          packageRoot.resolve("BUCK"),
+          ("java_library(\n" +
+              "  name = 'lib',\n" +
+              "  srcs = ['A.java'],\n" +
+              "  resources = ['res/strings.xml'],\n" +
+              "  extra_arguments = ['-Xlint:all', '-Werror', '-encoding', 'UTF-8'],\n" +
+              "  source = '7',\n" +
+              "  target = '7',\n" +
+              ")\n" +
+              "java_test(\n" +
+              "  name = 'test',\n" +
+              "  srcs = ['ATest.java'],\n" +
+              "  deps = [':lib'],\n" +
+              "  labels = ['synthetic', 'unit'],\n" +
+              "  extra_arguments = ['-Xlint:all', '-Werror', '-encoding', 'UTF-8'],\n" +
+              "  vm_args = ['-Xmx512m', '-Dfile.encoding=UTF-8'],\n" +
+              ")\n").getBytes("UTF-8"));
+      Files.createFile(packageRoot.resolve("A.java"));
+      Files.createFile(packageRoot.resolve("ATest.java"));
+      Files.createFile(packageRoot.resolve("res/strings.xml"));
+    }
+
+    config = FakeBuckConfig.builder().setFilesystem(filesystem).build();
+    cell = new TestCellBuilder()
+        .setFilesystem(filesystem)
+        .setBuckConfig(config)
+        .build();
+    eventBus = BuckEventBusFactory.newInstance();
+    executorService = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+  }
+
+  @After
+  @AfterExperiment
+  public void cleanup() {
+    parser = null;
+    targetGraph = null;
+    tempDir.delete();
+    executorService.shutdown();
+  }
+
+  @Test
+  public void parseCorrectness() throws Exception {
+    // Only checks the parse itself: forcing garbage collections and printing the footprint
+    // would just slow the test down.
+    assertEquals(packageCount * TARGETS_PER_PACKAGE, parse());
+  }
+
+  @Macrobenchmark
+  public int parseAndMeasureRetainedHeap() throws Exception {
+    long usedBefore = getUsedHeapAfterGc();
+    int targetCount = parse();
+    long retainedBytes = getUsedHeapAfterGc() - usedBefore;
+    System.out.printf(
+        "Parser retained %d bytes for %d targets, %d bytes per target.%n",
+        retainedBytes,
+        targetCount,
+        retainedBytes / targetCount);
+    return targetCount;
+  }
+
+  /**
+   * @return how many targets were parsed.
+   */
+  private int parse() throws Exception {
+    // A fresh parser per run, so that all of its state is attributed to this run.
+    DefaultTypeCoercerFactory typeCoercerFactory = new DefaultTypeCoercerFactory(
+        ObjectMappers.newDefaultInstance());
+    parser = new Parser(
+        new ParserConfig(config),
+        typeCoercerFactory,
+        new ConstructorArgMarshaller(typeCoercerFactory));
+    targetGraph = parser.buildTargetGraphForTargetNodeSpecs(
+        eventBus,
+        cell,
+        /* enableProfiling */ false,
+        executorService,
+        ImmutableList.of(
+            TargetNodePredicateSpec.of(
+                Predicates.alwaysTrue(),
+                BuildFileSpec.fromRecursivePath(
+                    Paths.get(""),
+                    cell.getRoot()))),
+        /* ignoreBuckAutodepsFiles */ false).getTargetGraph();
+    return targetGraph.getNodes().size();
+  }
+
+  private static long getUsedHeapAfterGc() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
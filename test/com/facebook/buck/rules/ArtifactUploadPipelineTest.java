@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ArtifactUploadPipelineTest {
+
+  private static final RuleKey KEY_A = new RuleKey("aa");
+  private static final RuleKey KEY_B = new RuleKey("bb");
+  private static final RuleKey KEY_C = new RuleKey("cc");
+
+  @Test
+  public void ruleKeysAreOnlyStoredOnce() throws InterruptedException {
+    ArtifactUploadPipeline pipeline = new ArtifactUploadPipeline(1, 10, Long.MAX_VALUE);
+    RecordingUpload upload = new RecordingUpload();
+
+    assertTrue(pipeline.enqueue(ImmutableSet.of(KEY_A), 1, 0, upload));
+    assertFalse(pipeline.enqueue(ImmutableSet.of(KEY_A), 1, 0, upload));
+    assertTrue(pipeline.enqueue(ImmutableSet.of(KEY_A, KEY_B), 1, 0, upload));
+    assertTrue(pipeline.drain(10, TimeUnit.SECONDS));
+
+    assertEquals(
+        ImmutableList.of(ImmutableSet.of(KEY_A), ImmutableSet.of(KEY_B)),
+        upload.getStarted());
+  }
+
+  @Test
+  public void uploadsEnqueuedOnceDrainingStartedAreSkipped() throws InterruptedException {
+    ArtifactUploadPipeline pipeline = new ArtifactUploadPipeline(1, 10, Long.MAX_VALUE);
+    RecordingUpload upload = new RecordingUpload();
+
+    assertTrue(pipeline.enqueue(ImmutableSet.of(KEY_A), 1, 0, upload));
+    assertTrue(pipeline.drain(10, TimeUnit.SECONDS));
+    assertFalse(pipeline.enqueue(ImmutableSet.of(KEY_B), 1, 0, upload));
+
+    assertEquals(ImmutableList.of(ImmutableSet.of(KEY_A)), upload.getStarted());
+    assertEquals(0, pipeline.getPendingUploads());
+  }
+
+  @Test
+  public void uploadsWithHigherPriorityStartFirstOnceTheDiskBudgetAllows()
+      throws InterruptedException {
+    ArtifactUploadPipeline pipeline = new ArtifactUploadPipeline(3, 10, 10);
+    SettableFuture<Void> first = SettableFuture.create();
+    RecordingUpload upload = new RecordingUpload(first);
+
+    pipeline.enqueue(ImmutableSet.of(KEY_A), 10, 0, upload);
+    upload.awaitFirstStarted();
+    pipeline.enqueue(ImmutableSet.of(KEY_B), 10, 0, upload);
+    pipeline.enqueue(ImmutableSet.of(KEY_C), 10, 5, upload);
+    assertEquals(1, upload.getStarted().size());
+
+    first.set(null);
+    assertTrue(pipeline.drain(10, TimeUnit.SECONDS));
+    assertEquals(
+        ImmutableList.of(ImmutableSet.of(KEY_A), ImmutableSet.of(KEY_C), ImmutableSet.of(KEY_B)),
+        upload.getStarted());
+  }
+
+  @Test
+  public void drainGivesUpOnUploadsWhichHaveNotStartedByTheDeadline()
+      throws InterruptedException {
+    ArtifactUploadPipeline pipeline = new ArtifactUploadPipeline(2, 10, 10);
+    RecordingUpload upload = new RecordingUpload(SettableFuture.<Void>create());
+
+    pipeline.enqueue(ImmutableSet.of(KEY_A), 10, 0, upload);
+    upload.awaitFirstStarted();
+    pipeline.enqueue(ImmutableSet.of(KEY_B), 10, 0, upload);
+
+    assertFalse(pipeline.drain(10, TimeUnit.MILLISECONDS));
+    assertEquals(1, pipeline.getPendingUploads());
+    assertEquals(ImmutableList.of(ImmutableSet.of(KEY_A)), upload.getStarted());
+  }
+
+  private static class RecordingUpload implements ArtifactUploadPipeline.Upload {
+    private final List<ImmutableSet<RuleKey>> started =
+        Collections.synchronizedList(new ArrayList<ImmutableSet<RuleKey>>());
+    private final CountDownLatch firstStarted = new CountDownLatch(1);
+    private final ListenableFuture<Void> firstResult;
+
+    private RecordingUpload() {
+      this(Futures.<Void>immediateFuture(null));
+    }
+
+    private RecordingUpload(ListenableFuture<Void> firstResult) {
+      this.firstResult = firstResult;
+    }
+
+    @Override
+    public ListenableFuture<Void> start(ImmutableSet<RuleKey> ruleKeys) {
+      started.add(ruleKeys);
+      if (started.size() == 1) {
+        firstStarted.countDown();
+        return firstResult;
+      }
+      return Futures.immediateFuture(null);
+    }
+
+    public void awaitFirstStarted() throws InterruptedException {
+      assertTrue(firstStarted.await(10, TimeUnit.SECONDS));
+    }
+
+    public ImmutableList<ImmutableSet<RuleKey>> getStarted() {
+      synchronized (started) {
+        return ImmutableList.copyOf(started);
+      }
+    }
+  }
+}
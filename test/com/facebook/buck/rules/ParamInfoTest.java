@@ -25,12 +25,15 @@ import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.util.ObjectMappers;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 
 import org.junit.Test;
 
 import java.lang.reflect.Field;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ParamInfoTest {
 
@@ -127,4 +130,24 @@ public class ParamInfoTest {
     info.set(createCellRoots(filesystem), filesystem, testPath, example, "foo");
     assertEquals(Optional.of("foo"), example.field);
   }
+
+  @Test
+  public void traverseVisitsTheValueOfTheField() throws NoSuchFieldException {
+    class Example {
+      public Optional<ImmutableList<String>> field = Optional.of(ImmutableList.of("a", "b"));
+    }
+    final List<Object> visited = new ArrayList<>();
+
+    ParamInfo info = new ParamInfo(typeCoercerFactory, Example.class.getField("field"));
+    info.traverse(
+        new ParamInfo.Traversal() {
+          @Override
+          public void traverse(Object object) {
+            visited.add(object);
+          }
+        },
+        new Example());
+
+    assertEquals(ImmutableList.<Object>of(ImmutableList.of("a", "b"), "a", "b"), visited);
+  }
 }
@@ -128,6 +128,30 @@ public class RuleKeyTest {
     assertEquals(manual, reflective);
   }
 
+  @Test
+  public void typedSettersHashLikeSetReflectively() {
+    SourcePathResolver resolver = new SourcePathResolver(
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer())
+     );
+    RuleKey reflective = createEmptyRuleKey(resolver)
+        .setReflectively("string", "cheese")
+        .setReflectively("nullString", null)
+        .setReflectively("boolean", false)
+        .setReflectively("int", 42)
+        .setReflectively("long", 43L)
+        .build();
+
+    RuleKey typed = createEmptyRuleKey(resolver)
+        .setString("string", "cheese")
+        .setString("nullString", null)
+        .setBoolean("boolean", false)
+        .setInt("int", 42)
+        .setLong("long", 43L)
+        .build();
+
+    assertEquals(reflective, typed);
+  }
+
   @Test
   public void ensureTwoListsOfSameRuleKeyAppendablesHaveSameRuleKey() {
     ImmutableList<TestRuleKeyAppendable> ruleKeyAppendableList =
@@ -18,6 +18,7 @@ package com.facebook.buck.rules.coercer;
 
 import static com.facebook.buck.rules.TestCellBuilder.createCellRoots;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 import com.facebook.buck.io.ProjectFilesystem;
@@ -84,4 +85,20 @@ public class PathTypeCoercerTest {
         missingPath);
   }
 
+  @Test
+  public void equalPathsAreShared() throws Exception {
+    PathTypeCoercer coercer =
+        new PathTypeCoercer(PathTypeCoercer.PathExistenceVerificationMode.DO_NOT_VERIFY);
+    Path first = coercer.coerce(
+        createCellRoots(filesystem),
+        filesystem,
+        Paths.get("foo"),
+        "bar/Baz.java");
+    Path second = coercer.coerce(
+        createCellRoots(filesystem),
+        filesystem,
+        Paths.get("foo/bar"),
+        "Baz.java");
+    assertSame(first, second);
+  }
 }
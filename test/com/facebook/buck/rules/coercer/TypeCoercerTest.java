@@ -456,6 +456,32 @@ public class TypeCoercerTest {
     assertEquals(expected, result);
   }
 
+  @Test
+  public void equalLabelSetsAndFlagListsAreShared()
+      throws NoSuchFieldException, CoerceFailedException {
+    TypeCoercer<?> labelsCoercer = typeCoercerFactory.typeCoercerForType(
+        TestFields.class.getField("labels").getGenericType());
+    TypeCoercer<?> flagsCoercer = typeCoercerFactory.typeCoercerForType(
+        TestFields.class.getField("listOfStrings").getGenericType());
+
+    assertThat(
+        labelsCoercer.coerce(cellRoots, filesystem, Paths.get(""), ImmutableList.of("a", "b")),
+        sameInstance(
+            labelsCoercer.coerce(
+                cellRoots,
+                filesystem,
+                Paths.get(""),
+                Lists.newArrayList("b", "a"))));
+    assertThat(
+        flagsCoercer.coerce(cellRoots, filesystem, Paths.get(""), ImmutableList.of("-g", "-O2")),
+        sameInstance(
+            flagsCoercer.coerce(
+                cellRoots,
+                filesystem,
+                Paths.get(""),
+                Lists.newArrayList("-g", "-O2"))));
+  }
+
   @Test
   public void coerceToNeededCoverageSpec()
       throws NoSuchFieldException, CoerceFailedException {
@@ -19,6 +19,8 @@ package com.facebook.buck.rules.keys;
 import static com.facebook.buck.rules.BuildableProperties.Kind.LIBRARY;
 import static org.junit.Assert.assertEquals;
 
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.IntegerCounter;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetFactory;
@@ -53,6 +55,9 @@ import javax.annotation.Nullable;
 @SuppressWarnings("unused")
 public class DefaultRuleKeyBuilderFactoryTest {
 
+  private static final int CACHE_HIT_COUNTER_INDEX = 0;
+  private static final int CACHE_MISS_COUNTER_INDEX = 1;
+
   @Test
   public void shouldNotAddUnannotatedFieldsToRuleKey() {
     BuildTarget target = BuildTargetFactory.newInstance("//cheese:peas");
@@ -111,6 +116,54 @@ public class DefaultRuleKeyBuilderFactoryTest {
 
 
 
+  @Test
+  public void fieldsOfPrimitiveAndStringTypesAreHashedLikeReflectivelySetValues() {
+    BuildTarget target = BuildTargetFactory.newInstance("//cheese:peas");
+    SourcePathResolver pathResolver = new SourcePathResolver(
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer())
+    );
+    BuildRule rule = new EmptyRule(target);
+
+    DefaultRuleKeyBuilderFactory factory =
+        new DefaultRuleKeyBuilderFactory(0, new NullFileHashCache(), pathResolver);
+    RuleKeyBuilder<RuleKey> builder = factory.newInstance(rule);
+
+    // Fields are added in alphabetical order.
+    builder.setReflectively("alpha", true);
+    builder.setReflectively("beta", 7);
+    builder.setReflectively("delta", null);
+    builder.setReflectively("epsilon", "cake-walk");
+    builder.setReflectively("gamma", 8L);
+    RuleKey expected = builder.build();
+
+    class TypedFields extends EmptyRule {
+
+      @AddToRuleKey
+      private boolean alpha = true;
+
+      @AddToRuleKey
+      private int beta = 7;
+
+      @AddToRuleKey
+      @Nullable
+      private String delta = null;
+
+      @AddToRuleKey
+      private String epsilon = "cake-walk";
+
+      @AddToRuleKey
+      private long gamma = 8L;
+
+      public TypedFields(BuildTarget target) {
+        super(target);
+      }
+    }
+
+    RuleKey seen = factory.build(new TypedFields(target));
+
+    assertEquals(expected, seen);
+  }
+
   @Test
   public void shouldAllowAFieldToBeStringified() {
     BuildTarget target = BuildTargetFactory.newInstance("//cheese:peas");
@@ -184,6 +237,44 @@ public class DefaultRuleKeyBuilderFactoryTest {
     assertEquals(expected, seen);
   }
 
+  @Test
+  public void sharedRuleKeyAppendablesAreOnlyAppendedOnce() {
+    SourcePathResolver pathResolver = new SourcePathResolver(
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer())
+    );
+    final CountingAppender appender = new CountingAppender();
+
+    class SharingField extends EmptyRule {
+
+      @AddToRuleKey
+      private CountingAppender field = appender;
+
+      public SharingField(BuildTarget target) {
+        super(target);
+      }
+    }
+
+    BuildRule first = new SharingField(BuildTargetFactory.newInstance("//cheese:peas"));
+    BuildRule second = new SharingField(BuildTargetFactory.newInstance("//cheese:beans"));
+
+    DefaultRuleKeyBuilderFactory factory =
+        new DefaultRuleKeyBuilderFactory(0, new NullFileHashCache(), pathResolver);
+    RuleKey firstKey = factory.build(first);
+    RuleKey secondKey = factory.build(second);
+
+    assertEquals(1, appender.appendCount);
+    assertEquals(1, getCounterValue(factory, CACHE_HIT_COUNTER_INDEX));
+    assertEquals(1, getCounterValue(factory, CACHE_MISS_COUNTER_INDEX));
+
+    // Memoized sub-keys must not change the rule keys they are part of.
+    assertEquals(
+        firstKey,
+        new DefaultRuleKeyBuilderFactory(0, new NullFileHashCache(), pathResolver).build(first));
+    assertEquals(
+        secondKey,
+        new DefaultRuleKeyBuilderFactory(0, new NullFileHashCache(), pathResolver).build(second));
+  }
+
   @Test
   public void annotatedAppendableBuildRulesIncludeTheirRuleKey() {
     BuildTarget target = BuildTargetFactory.newInstance("//cheese:peas");
@@ -384,6 +475,21 @@ public class DefaultRuleKeyBuilderFactoryTest {
     assertEquals(expected, seen);
   }
 
+  private static long getCounterValue(DefaultRuleKeyBuilderFactory factory, int index) {
+    Counter counter = factory.getCounters().get(index);
+    return ((IntegerCounter) counter).get();
+  }
+
+  private static class CountingAppender implements RuleKeyAppendable {
+    private int appendCount = 0;
+
+    @Override
+    public void appendToRuleKey(RuleKeyObjectSink sink) {
+      appendCount++;
+      sink.setReflectively("cheese", "brie");
+    }
+  }
+
   private static class Appender implements RuleKeyAppendable {
     @Override
     public void appendToRuleKey(RuleKeyObjectSink sink) {
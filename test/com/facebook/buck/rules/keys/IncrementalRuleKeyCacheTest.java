@@ -0,0 +1,196 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.facebook.buck.counters.Counter;
+import com.facebook.buck.counters.IntegerCounter;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.AddToRuleKey;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.rules.PathSourcePath;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.testutil.WatchEventsForTests;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+
+public class IncrementalRuleKeyCacheTest {
+
+  private static final int CACHE_HIT_COUNTER_INDEX = 0;
+  private static final int CACHE_MISS_COUNTER_INDEX = 1;
+
+  private ProjectFilesystem filesystem;
+  private BuildRuleResolver resolver;
+  private SourcePathResolver pathResolver;
+  private IncrementalRuleKeyCache cache;
+
+  @Before
+  public void setUp() {
+    filesystem = new FakeProjectFilesystem();
+    resolver =
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    pathResolver = new SourcePathResolver(resolver);
+    cache = new IncrementalRuleKeyCache(filesystem);
+    cache.useFor(resolver, 0);
+  }
+
+  @Test
+  public void onlyKeysDependingOnChangedFilesAreRecomputed() {
+    BuildRule library = new InputRule("//:library", "library.txt");
+    BuildRule binary = new InputRule("//:binary", "binary.txt", library);
+    BuildRule other = new InputRule("//:other", "other.txt");
+    ImmutableList<BuildRule> rules = ImmutableList.of(library, binary, other);
+
+    FakeFileHashCache hashes = createHashCache("aa", "bb", "cc");
+    ImmutableList<RuleKey> firstKeys = buildKeys(rules, hashes, Optional.of(cache));
+    assertEquals(firstKeys, buildKeys(rules, hashes, Optional.<IncrementalRuleKeyCache>absent()));
+    assertEquals(3, cache.size());
+
+    cache.invalidateBasedOn(
+        WatchEventsForTests.createPathEvent(
+            Paths.get("library.txt"),
+            StandardWatchEventKinds.ENTRY_MODIFY));
+    assertEquals(1, cache.size());
+
+    long hitsBefore = getCounterValue(CACHE_HIT_COUNTER_INDEX);
+    long missesBefore = getCounterValue(CACHE_MISS_COUNTER_INDEX);
+    FakeFileHashCache changedHashes = createHashCache("dd", "bb", "cc");
+    ImmutableList<RuleKey> secondKeys = buildKeys(rules, changedHashes, Optional.of(cache));
+    assertEquals(
+        secondKeys,
+        buildKeys(rules, changedHashes, Optional.<IncrementalRuleKeyCache>absent()));
+    assertNotEquals(firstKeys.get(0), secondKeys.get(0));
+    assertNotEquals(firstKeys.get(1), secondKeys.get(1));
+    assertEquals(firstKeys.get(2), secondKeys.get(2));
+    assertEquals(1, getCounterValue(CACHE_HIT_COUNTER_INDEX) - hitsBefore);
+    assertEquals(2, getCounterValue(CACHE_MISS_COUNTER_INDEX) - missesBefore);
+    assertEquals(3, cache.size());
+  }
+
+  @Test
+  public void changesToParentDirectoriesInvalidateKeys() {
+    BuildRule rule = new InputRule("//:rule", "dir");
+    buildKeys(
+        ImmutableList.of(rule),
+        new FakeFileHashCache(
+            ImmutableMap.of(filesystem.resolve("dir"), HashCode.fromInt(1))),
+        Optional.of(cache));
+    assertEquals(1, cache.size());
+
+    cache.invalidateBasedOn(
+        WatchEventsForTests.createPathEvent(
+            Paths.get("dir/file.txt"),
+            StandardWatchEventKinds.ENTRY_MODIFY));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void keysOfUnwatchedFilesAndTheirDependentsAreNotRetained() {
+    BuildRule tool = new InputRule("//:tool", "tool");
+    BuildRule user = new InputRule("//:user", "user.txt", tool);
+
+    cache.put(tool, new RuleKey("aa"), ImmutableSet.of(Paths.get("/usr/bin/tool")),
+        ImmutableSet.<BuildRule>of());
+    cache.put(user, new RuleKey("bb"), ImmutableSet.of(filesystem.resolve("user.txt")),
+        ImmutableSet.of(tool));
+    cache.put(
+        new InputRule("//:generated", "generated"),
+        new RuleKey("cc"),
+        ImmutableSet.of(
+            filesystem.resolve(filesystem.getBuckPaths().getGenDir()).resolve("generated")),
+        ImmutableSet.<BuildRule>of());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void overflowAndNewActionGraphsDropAllKeys() {
+    BuildRule rule = new InputRule("//:rule", "rule.txt");
+    cache.put(rule, new RuleKey("aa"), ImmutableSet.of(filesystem.resolve("rule.txt")),
+        ImmutableSet.<BuildRule>of());
+    assertEquals(1, cache.size());
+    cache.invalidateBasedOn(WatchEventsForTests.createOverflowEvent());
+    assertEquals(0, cache.size());
+
+    cache.put(rule, new RuleKey("aa"), ImmutableSet.of(filesystem.resolve("rule.txt")),
+        ImmutableSet.<BuildRule>of());
+    cache.useFor(resolver, 0);
+    assertEquals(1, cache.size());
+    cache.useFor(
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer()),
+        0);
+    assertEquals(0, cache.size());
+  }
+
+  private ImmutableList<RuleKey> buildKeys(
+      ImmutableList<BuildRule> rules,
+      FakeFileHashCache hashes,
+      Optional<IncrementalRuleKeyCache> incrementalRuleKeyCache) {
+    DefaultRuleKeyBuilderFactory factory =
+        new DefaultRuleKeyBuilderFactory(0, hashes, pathResolver, incrementalRuleKeyCache);
+    ImmutableList.Builder<RuleKey> keys = ImmutableList.builder();
+    for (BuildRule rule : rules) {
+      keys.add(factory.build(rule));
+    }
+    return keys.build();
+  }
+
+  private FakeFileHashCache createHashCache(String library, String binary, String other) {
+    return FakeFileHashCache.createFromStrings(
+        ImmutableMap.of(
+            filesystem.resolve("library.txt").toString(), library,
+            filesystem.resolve("binary.txt").toString(), binary,
+            filesystem.resolve("other.txt").toString(), other));
+  }
+
+  private long getCounterValue(int index) {
+    Counter counter = cache.getCounters().get(index);
+    return ((IntegerCounter) counter).get();
+  }
+
+  private class InputRule extends FakeBuildRule {
+
+    @AddToRuleKey
+    private final SourcePath input;
+
+    public InputRule(String target, String input, BuildRule... deps) {
+      super(BuildTargetFactory.newInstance(target), filesystem, pathResolver, deps);
+      this.input = new PathSourcePath(filesystem, Paths.get(input));
+    }
+  }
+}
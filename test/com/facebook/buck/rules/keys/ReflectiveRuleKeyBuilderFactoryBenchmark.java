@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.AddToRuleKey;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.util.cache.NullFileHashCache;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import com.google.caliper.api.Macrobenchmark;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares computing rule keys for fields whose declared types let them be written straight into
+ * the hasher against the same values declared as {@link Object}, which go through
+ * {@link com.facebook.buck.rules.RuleKeyBuilder#setReflectively(String, Object)}.
+ */
+@SuppressWarnings("unused") // Fields are only read reflectively.
+public class ReflectiveRuleKeyBuilderFactoryBenchmark {
+  private static final int RULE_KEY_COUNT = 10000;
+
+  @Param({"true", "false"})
+  private boolean typedFields = true;
+
+  private DefaultRuleKeyBuilderFactory factory;
+  private BuildRule rule;
+
+  @Before
+  public void setUpTest() {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() {
+    SourcePathResolver resolver = new SourcePathResolver(
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer()));
+    factory = new DefaultRuleKeyBuilderFactory(0, new NullFileHashCache(), resolver);
+    BuildTarget target = BuildTargetFactory.newInstance("//cheese:peas");
+    rule = typedFields ?
+        new TypedFieldsRule(target, resolver) :
+        new ObjectFieldsRule(target, resolver);
+  }
+
+  @Test
+  public void computeRuleKeysCorrectness() {
+    computeRuleKeys();
+  }
+
+  @Macrobenchmark
+  public RuleKey computeRuleKeys() {
+    RuleKey ruleKey = null;
+    for (int i = 0; i < RULE_KEY_COUNT; i++) {
+      // Skip the factory's cache of computed keys so every iteration walks the fields.
+      ruleKey = factory.newInstance(rule).build();
+    }
+    return ruleKey;
+  }
+
+  private static class TypedFieldsRule extends FakeBuildRule {
+    @AddToRuleKey
+    private final String compiler = "/usr/bin/cc";
+    @AddToRuleKey
+    private final String flavor = "default";
+    @AddToRuleKey
+    private final boolean debug = true;
+    @AddToRuleKey
+    private final boolean optimize = false;
+    @AddToRuleKey
+    private final int jobs = 8;
+    @AddToRuleKey
+    private final long timeout = 60000L;
+
+    public TypedFieldsRule(BuildTarget target, SourcePathResolver resolver) {
+      super(target, resolver);
+    }
+  }
+
+  private static class ObjectFieldsRule extends FakeBuildRule {
+    @AddToRuleKey
+    private final Object compiler = "/usr/bin/cc";
+    @AddToRuleKey
+    private final Object flavor = "default";
+    @AddToRuleKey
+    private final Object debug = true;
+    @AddToRuleKey
+    private final Object optimize = false;
+    @AddToRuleKey
+    private final Object jobs = 8;
+    @AddToRuleKey
+    private final Object timeout = 60000L;
+
+    public ObjectFieldsRule(BuildTarget target, SourcePathResolver resolver) {
+      super(target, resolver);
+    }
+  }
+}
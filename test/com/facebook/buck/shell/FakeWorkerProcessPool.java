@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.shell;
+
+import com.facebook.buck.util.ProcessExecutor;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * A {@link WorkerProcessPool} that hands out the given processes instead of starting new ones.
+ */
+public class FakeWorkerProcessPool extends WorkerProcessPool {
+
+  private final Iterator<WorkerProcess> processesToStart;
+  private boolean isClosed = false;
+
+  public FakeWorkerProcessPool(ImmutableList<WorkerProcess> processes) {
+    this(processes, HashCode.fromInt(0));
+  }
+
+  public FakeWorkerProcessPool(ImmutableList<WorkerProcess> processes, HashCode poolHash) {
+    super(Math.max(processes.size(), 1), poolHash);
+    this.processesToStart = processes.iterator();
+  }
+
+  @Override
+  protected WorkerProcess startWorkerProcess(ProcessExecutor executor) throws IOException {
+    return processesToStart.next();
+  }
+
+  @Override
+  public void close() {
+    isClosed = true;
+    super.close();
+  }
+
+  public boolean isClosed() {
+    return isClosed;
+  }
+}
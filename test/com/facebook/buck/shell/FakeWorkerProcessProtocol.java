@@ -37,6 +37,11 @@ public class FakeWorkerProcessProtocol implements WorkerProcessProtocol {
     return 0;
   }
 
+  @Override
+  public boolean supportsConcurrentCommands() {
+    return false;
+  }
+
   @Override
   public void close() throws IOException {
     isClosed = true;
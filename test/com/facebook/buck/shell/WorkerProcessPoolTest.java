@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.shell;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.util.FakeProcessExecutor;
+import com.facebook.buck.util.ProcessExecutor;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class WorkerProcessPoolTest {
+
+  private static final ProcessExecutor EXECUTOR = new FakeProcessExecutor();
+
+  @Test
+  public void testProcessesAreStartedUpToTheLimit() throws Exception {
+    WorkerProcess first = new FakeWorkerProcess(ImmutableMap.<String, WorkerJobResult>of());
+    WorkerProcess second = new FakeWorkerProcess(ImmutableMap.<String, WorkerJobResult>of());
+    final WorkerProcessPool pool = new FakeWorkerProcessPool(ImmutableList.of(first, second));
+
+    assertSame(first, pool.borrowWorkerProcess(EXECUTOR));
+    assertSame(second, pool.borrowWorkerProcess(EXECUTOR));
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<WorkerProcess> third = executor.submit(
+          new Callable<WorkerProcess>() {
+            @Override
+            public WorkerProcess call() throws Exception {
+              return pool.borrowWorkerProcess(EXECUTOR);
+            }
+          });
+      try {
+        third.get(100, TimeUnit.MILLISECONDS);
+        throw new AssertionError("Borrowing should wait while every process is busy.");
+      } catch (TimeoutException e) {
+        // Expected.
+      }
+      pool.returnWorkerProcess(second);
+      assertSame(second, third.get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testMultiplexedProcessIsSharedBetweenBorrowers() throws Exception {
+    WorkerProcess multiplexed = new MultiplexedFakeWorkerProcess();
+    WorkerProcessPool pool = new FakeWorkerProcessPool(ImmutableList.of(multiplexed));
+
+    assertSame(multiplexed, pool.borrowWorkerProcess(EXECUTOR));
+    assertSame(multiplexed, pool.borrowWorkerProcess(EXECUTOR));
+  }
+
+  @Test
+  public void testMultiplexedProcessesAreStartedUpToTheLimit() throws Exception {
+    WorkerProcess first = new MultiplexedFakeWorkerProcess();
+    WorkerProcess second = new MultiplexedFakeWorkerProcess();
+    WorkerProcessPool pool = new FakeWorkerProcessPool(ImmutableList.of(first, second));
+
+    assertSame(first, pool.borrowWorkerProcess(EXECUTOR));
+    assertSame(second, pool.borrowWorkerProcess(EXECUTOR));
+    assertSame(first, pool.borrowWorkerProcess(EXECUTOR));
+    pool.returnWorkerProcess(second);
+    assertSame(second, pool.borrowWorkerProcess(EXECUTOR));
+  }
+
+  @Test
+  public void testFailedJobDoesNotCloseMultiplexedProcessOthersStillUse() throws Exception {
+    ClosingFakeWorkerProcess failed = new ClosingMultiplexedFakeWorkerProcess();
+    WorkerProcess other = new MultiplexedFakeWorkerProcess();
+    WorkerProcessPool pool = new FakeWorkerProcessPool(ImmutableList.of(failed, other));
+
+    assertSame(failed, pool.borrowWorkerProcess(EXECUTOR));
+    assertSame(other, pool.borrowWorkerProcess(EXECUTOR));
+    assertSame(failed, pool.borrowWorkerProcess(EXECUTOR));
+    pool.destroyWorkerProcess(failed);
+    assertFalse(failed.isClosed);
+    pool.returnWorkerProcess(failed);
+    assertTrue(failed.isClosed);
+  }
+
+  @Test
+  public void testDestroyedProcessIsReplaced() throws Exception {
+    WorkerProcessPool pool = new FakeWorkerProcessPool(
+        ImmutableList.<WorkerProcess>of(
+            new FakeWorkerProcess(ImmutableMap.<String, WorkerJobResult>of()),
+            new FakeWorkerProcess(ImmutableMap.<String, WorkerJobResult>of())));
+    WorkerProcess failed = pool.borrowWorkerProcess(EXECUTOR);
+    pool.destroyWorkerProcess(failed);
+    WorkerProcess replacement = pool.borrowWorkerProcess(EXECUTOR);
+    pool.returnWorkerProcess(replacement);
+
+    assertNotSame(failed, replacement);
+    assertSame(replacement, pool.borrowWorkerProcess(EXECUTOR));
+  }
+
+  @Test
+  public void testCloseClosesStartedProcesses() throws Exception {
+    ClosingFakeWorkerProcess process = new ClosingFakeWorkerProcess();
+    FakeWorkerProcessPool pool =
+        new FakeWorkerProcessPool(ImmutableList.<WorkerProcess>of(process));
+
+    pool.returnWorkerProcess(pool.borrowWorkerProcess(EXECUTOR));
+    assertFalse(process.isClosed);
+    pool.close();
+    assertTrue(process.isClosed);
+  }
+
+  private static class MultiplexedFakeWorkerProcess extends FakeWorkerProcess {
+    public MultiplexedFakeWorkerProcess() throws IOException {
+      super(ImmutableMap.<String, WorkerJobResult>of());
+    }
+
+    @Override
+    public boolean supportsConcurrentJobs() {
+      return true;
+    }
+  }
+
+  private static class ClosingMultiplexedFakeWorkerProcess extends ClosingFakeWorkerProcess {
+    public ClosingMultiplexedFakeWorkerProcess() throws IOException {
+    }
+
+    @Override
+    public boolean supportsConcurrentJobs() {
+      return true;
+    }
+  }
+
+  private static class ClosingFakeWorkerProcess extends FakeWorkerProcess {
+    private boolean isClosed = false;
+
+    public ClosingFakeWorkerProcess() throws IOException {
+      super(ImmutableMap.<String, WorkerJobResult>of());
+    }
+
+    @Override
+    public void close() {
+      isClosed = true;
+    }
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.shell;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -211,10 +212,46 @@ public class WorkerProcessProtocolZeroTest {
       assertThat(
           e.getMessage(),
           Matchers.containsString(
-              "Expected handshake response's \"protocol_version\" to be \"0\""));
+              "Expected handshake response's \"protocol_version\" to be one of"));
     }
   }
 
+  @Test
+  public void testReceiveHandshakeWithMultiplexedProtocolVersion() throws IOException {
+    int handshakeID = 123;
+    JsonReader jsonReader = createMockJsonReaderForReceiveHandshake(handshakeID, "handshake", "1");
+
+    WorkerProcessProtocol protocol = new WorkerProcessProtocolZero(
+        fakeProcessExecutor,
+        fakeLaunchedProcess,
+        dummyJsonWriter,
+        jsonReader);
+
+    protocol.receiveHandshake(handshakeID);
+    assertTrue(protocol.supportsConcurrentCommands());
+  }
+
+  @Test
+  public void testMultiplexedResponsesAreMatchedByID() throws IOException {
+    String jsonToBeRead =
+        "[{\"id\":0,\"type\":\"handshake\",\"protocol_version\":\"1\",\"capabilities\":[]}," +
+        "{\"id\":2,\"type\":\"result\",\"exit_code\":0}," +
+        "{\"id\":1,\"type\":\"error\",\"exit_code\":2}";
+
+    WorkerProcessProtocol protocol = new WorkerProcessProtocolZero(
+        fakeProcessExecutor,
+        fakeLaunchedProcess,
+        new JsonWriter(new StringWriter()),
+        new JsonReader(new StringReader(jsonToBeRead)));
+
+    protocol.sendHandshake(0);
+    protocol.receiveHandshake(0);
+    protocol.sendCommand(1, Paths.get("1.args"), Paths.get("1.out"), Paths.get("1.err"));
+    protocol.sendCommand(2, Paths.get("2.args"), Paths.get("2.out"), Paths.get("2.err"));
+    assertEquals(2, protocol.receiveCommandResponse(1));
+    assertEquals(0, protocol.receiveCommandResponse(2));
+  }
+
   private JsonReader createMockJsonReaderForReceiveCommandResponse(
       int messageID,
       String type,
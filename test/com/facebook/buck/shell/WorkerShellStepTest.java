@@ -16,6 +16,9 @@
 
 package com.facebook.buck.shell;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -35,15 +38,19 @@ import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
 
 import org.hamcrest.Matchers;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 
 import javax.annotation.Nullable;
@@ -79,7 +86,9 @@ public class WorkerShellStepTest {
         startupCommand,
         startupArgs,
         startupEnv,
-        jobArgs);
+        jobArgs,
+        /* maxWorkers */ 1,
+        ImmutableSortedSet.<Path>of());
   }
 
   @Test
@@ -207,8 +216,10 @@ public class WorkerShellStepTest {
         Optional.of("my stderr"));
     WorkerProcess workerProcess = new FakeWorkerProcess(ImmutableMap.of("myJobArgs", jobResult));
 
-    ConcurrentHashMap<String, WorkerProcess> workerProcessMap = new ConcurrentHashMap<>();
-    workerProcessMap.put("/bin/bash -e -c startupCommand startupArgs", workerProcess);
+    ConcurrentHashMap<String, WorkerProcessPool> workerProcessMap = new ConcurrentHashMap<>();
+    workerProcessMap.put(
+        "/bin/bash -e -c startupCommand startupArgs",
+        new FakeWorkerProcessPool(ImmutableList.of(workerProcess)));
 
     BuckEventBus eventBus = BuckEventBusFactory.newInstance();
     FakeBuckEventListener listener = new FakeBuckEventListener();
@@ -218,7 +229,7 @@ public class WorkerShellStepTest {
     ExecutionContext context = TestExecutionContext
         .newBuilder()
         .setPlatform(Platform.LINUX)
-        .setWorkerProcesses(workerProcessMap)
+        .setWorkerProcessPools(workerProcessMap)
         .setConsole(console)
         .setBuckEventBus(eventBus)
         .build();
@@ -237,6 +248,67 @@ public class WorkerShellStepTest {
     assertThat(((ConsoleEvent) secondEvent).getMessage(), Matchers.is("my stderr"));
   }
 
+  @Test
+  public void testPersistentPoolIsReusedWhileWorkerIsUnchanged()
+      throws IOException {
+    WorkerShellStep step = createXargsShellStep(
+        createJobParams(
+            ImmutableList.of("startupCommand"),
+            "startupArgs",
+            ImmutableMap.<String, String>of(),
+            "myJobArgs"),
+        null,
+        null);
+    String key = "/bin/bash -e -c startupCommand startupArgs";
+    FakeWorkerProcessPool pool = new FakeWorkerProcessPool(
+        ImmutableList.<WorkerProcess>of(),
+        step.computeWorkerHash(Platform.LINUX, true));
+    ConcurrentHashMap<String, WorkerProcessPool> persistentPools = new ConcurrentHashMap<>();
+    persistentPools.put(key, pool);
+
+    ExecutionContext context = TestExecutionContext
+        .newBuilder()
+        .setPlatform(Platform.LINUX)
+        .setPersistentWorkerPools(
+            Optional.<ConcurrentMap<String, WorkerProcessPool>>of(persistentPools))
+        .build();
+
+    assertSame(pool, step.getWorkerProcessPool(key, context));
+    context.close();
+    assertFalse(pool.isClosed());
+  }
+
+  @Test
+  public void testPersistentPoolIsRestartedWhenWorkerChanges()
+      throws IOException {
+    WorkerShellStep step = createXargsShellStep(
+        createJobParams(
+            ImmutableList.of("startupCommand"),
+            "startupArgs",
+            ImmutableMap.<String, String>of(),
+            "myJobArgs"),
+        null,
+        null);
+    String key = "/bin/bash -e -c startupCommand startupArgs";
+    FakeWorkerProcessPool stalePool = new FakeWorkerProcessPool(
+        ImmutableList.<WorkerProcess>of(),
+        HashCode.fromInt(0));
+    ConcurrentHashMap<String, WorkerProcessPool> persistentPools = new ConcurrentHashMap<>();
+    persistentPools.put(key, stalePool);
+
+    ExecutionContext context = TestExecutionContext
+        .newBuilder()
+        .setPlatform(Platform.LINUX)
+        .setPersistentWorkerPools(
+            Optional.<ConcurrentMap<String, WorkerProcessPool>>of(persistentPools))
+        .build();
+
+    WorkerProcessPool pool = step.getWorkerProcessPool(key, context);
+    assertNotSame(stalePool, pool);
+    assertSame(pool, persistentPools.get(key));
+    assertTrue(stalePool.isClosed());
+  }
+
   @Test
   public void testGetEnvironmentForProcess() {
     WorkerShellStep step = new WorkerShellStep(
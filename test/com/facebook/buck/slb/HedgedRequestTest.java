@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.slb;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import org.easymock.EasyMock;
+import org.easymock.EasyMockSupport;
+import org.easymock.IAnswer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+
+public class HedgedRequestTest extends EasyMockSupport {
+  private static final URI PRIMARY = URI.create("http://localhost:4242");
+  private static final URI HEDGE = URI.create("http://localhost:8484");
+  private static final ImmutableList<URI> SERVERS = ImmutableList.of(PRIMARY, HEDGE);
+
+  private HttpLoadBalancer mockSlb;
+  private OkHttpClient mockClient;
+  private BuckEventBus mockBus;
+
+  @Before
+  public void setUp() {
+    mockSlb = createNiceMock(HttpLoadBalancer.class);
+    mockClient = createMock(OkHttpClient.class);
+    mockBus = createNiceMock(BuckEventBus.class);
+  }
+
+  @Test
+  public void testFastResponseIsNotHedged() throws IOException {
+    EasyMock.expect(mockSlb.getHedgeDelayMillis(PRIMARY)).andReturn(Optional.of(60000L));
+    expectCall(PRIMARY, Outcome.RESPOND);
+    replayAll();
+
+    try (HttpResponse response = newRequest().execute()) {
+      Assert.assertEquals(200, response.code());
+    }
+
+    verifyAll();
+  }
+
+  @Test
+  public void testSlowResponseIsHedgedAndCancelled() throws IOException {
+    EasyMock.expect(mockSlb.getHedgeDelayMillis(PRIMARY)).andReturn(Optional.of(1L));
+    Call primaryCall = expectCall(PRIMARY, Outcome.HANG);
+    primaryCall.cancel();
+    EasyMock.expectLastCall().once();
+    expectCall(HEDGE, Outcome.RESPOND);
+    replayAll();
+
+    try (HttpResponse response = newRequest().execute()) {
+      Assert.assertEquals(200, response.code());
+      Assert.assertEquals(
+          SingleUriService.getFullUrl(HEDGE, "/path").toString(),
+          response.requestUrl());
+    }
+
+    verifyAll();
+  }
+
+  @Test
+  public void testFailedRequestFailsOverWithoutHedgeDelay() throws IOException {
+    EasyMock.expect(mockSlb.getHedgeDelayMillis(PRIMARY)).andReturn(Optional.<Long>absent());
+    expectCall(PRIMARY, Outcome.FAIL);
+    mockSlb.reportRequestException(PRIMARY);
+    EasyMock.expectLastCall().once();
+    expectCall(HEDGE, Outcome.RESPOND);
+    replayAll();
+
+    try (HttpResponse response = newRequest().execute()) {
+      Assert.assertEquals(200, response.code());
+    }
+
+    verifyAll();
+  }
+
+  @Test(expected = IOException.class)
+  public void testAllFailuresAreReported() throws IOException {
+    EasyMock.expect(mockSlb.getHedgeDelayMillis(PRIMARY)).andReturn(Optional.<Long>absent());
+    expectCall(PRIMARY, Outcome.FAIL);
+    expectCall(HEDGE, Outcome.FAIL);
+    replayAll();
+
+    newRequest().execute();
+  }
+
+  private HedgedRequest newRequest() {
+    return new HedgedRequest(
+        SERVERS,
+        "/path",
+        new Request.Builder().get(),
+        mockSlb,
+        mockClient,
+        mockBus);
+  }
+
+  private enum Outcome {
+    RESPOND,
+    FAIL,
+    HANG,
+  }
+
+  private Call expectCall(final URI server, final Outcome outcome) throws IOException {
+    final Call mockCall = createMock(Call.class);
+    final Request request = new Request.Builder()
+        .url(SingleUriService.getFullUrl(server, "/path"))
+        .build();
+    mockCall.enqueue(EasyMock.anyObject(Callback.class));
+    EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+      @Override
+      public Object answer() throws Throwable {
+        Callback callback = (Callback) EasyMock.getCurrentArguments()[0];
+        if (outcome == Outcome.RESPOND) {
+          callback.onResponse(mockCall, new Response.Builder()
+              .body(ResponseBody.create(MediaType.parse("text/plain"), "The Body."))
+              .code(200)
+              .protocol(Protocol.HTTP_1_1)
+              .request(request)
+              .build());
+        } else if (outcome == Outcome.FAIL) {
+          callback.onFailure(mockCall, new IOException("Connection refused."));
+        }
+        return null;
+      }
+    });
+    EasyMock.expect(mockClient.newCall(EasyMock.anyObject(Request.class))).andReturn(mockCall);
+    return mockCall;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.slb;
+
+import com.facebook.buck.event.BuckEventBus;
+
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import org.easymock.EasyMock;
+import org.easymock.EasyMockSupport;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+
+public class LoadBalancedServiceTest extends EasyMockSupport {
+  private static final URI SERVER = URI.create("http://localhost:4242");
+
+  private HttpLoadBalancer mockSlb;
+  private OkHttpClient mockClient;
+  private BuckEventBus mockBus;
+
+  @Before
+  public void setUp() {
+    mockSlb = createMock(HttpLoadBalancer.class);
+    mockClient = createMock(OkHttpClient.class);
+    mockBus = createNiceMock(BuckEventBus.class);
+  }
+
+  @Test
+  public void testFetchLatencyIsReported() throws IOException {
+    expectCall();
+    mockSlb.reportRequestLatency(EasyMock.eq(SERVER), EasyMock.anyLong());
+    EasyMock.expectLastCall().once();
+    replayAll();
+
+    LoadBalancedService.makeRequest(
+        SERVER,
+        "/path",
+        new Request.Builder().get(),
+        mockSlb,
+        mockClient,
+        mockBus).close();
+
+    verifyAll();
+  }
+
+  @Test
+  public void testStoreLatencyIsNotReported() throws IOException {
+    expectCall();
+    replayAll();
+
+    LoadBalancedService.makeRequest(
+        SERVER,
+        "/path",
+        new Request.Builder().post(
+            RequestBody.create(MediaType.parse("application/octet-stream"), new byte[1024])),
+        mockSlb,
+        mockClient,
+        mockBus).close();
+
+    verifyAll();
+  }
+
+  private void expectCall() throws IOException {
+    Call mockCall = createMock(Call.class);
+    EasyMock.expect(mockCall.execute()).andReturn(
+        new Response.Builder()
+            .body(ResponseBody.create(MediaType.parse("text/plain"), "The Body."))
+            .code(200)
+            .protocol(Protocol.HTTP_1_1)
+            .request(
+                new Request.Builder().url(SingleUriService.getFullUrl(SERVER, "/path")).build())
+            .build());
+    EasyMock.expect(mockClient.newCall(EasyMock.anyObject(Request.class))).andReturn(mockCall);
+    mockSlb.reportRequestSuccess(SERVER);
+    EasyMock.expectLastCall().anyTimes();
+  }
+}
@@ -18,6 +18,8 @@ package com.facebook.buck.slb;
 
 import com.facebook.buck.event.BuckEventBus;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 
 import org.easymock.EasyMock;
 import org.junit.Assert;
@@ -26,6 +28,7 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.Set;
 
 public class ServerHealthManagerTest {
   private static final ImmutableList<URI> SERVERS = ImmutableList.of(
@@ -80,6 +83,31 @@ public class ServerHealthManagerTest {
     Assert.assertEquals(SERVERS.get(0), server);
   }
 
+  @Test
+  public void testKeyOwnershipIsStableAndFailsOverToReplica() throws IOException {
+    ServerHealthManager manager = newServerHealthManager();
+    ImmutableList<URI> rankedServers = manager.getServersForKey("key", NOW_MILLIS);
+    Assert.assertEquals(ImmutableSet.copyOf(SERVERS), ImmutableSet.copyOf(rankedServers));
+    Assert.assertEquals(
+        rankedServers,
+        newServerHealthManager().getServersForKey("key", NOW_MILLIS));
+
+    manager.reportRequestError(rankedServers.get(0), NOW_MILLIS);
+    Assert.assertEquals(
+        rankedServers.subList(1, rankedServers.size()),
+        manager.getServersForKey("key", NOW_MILLIS));
+  }
+
+  @Test
+  public void testKeysAreSpreadAcrossServers() throws IOException {
+    ServerHealthManager manager = newServerHealthManager();
+    Set<URI> owners = Sets.newHashSet();
+    for (int i = 0; i < 100; ++i) {
+      owners.add(manager.getServersForKey("key" + i, NOW_MILLIS).get(0));
+    }
+    Assert.assertEquals(ImmutableSet.copyOf(SERVERS), owners);
+  }
+
   private void reportLatencyToAll(ServerHealthManager manager, int latencyMillis) {
     for (URI server : SERVERS) {
       manager.reportPingLatency(server, NOW_MILLIS, latencyMillis);
@@ -54,6 +54,28 @@ public class ServerHealthStateTest {
         DELTA);
   }
 
+  @Test
+  public void testRequestLatencyPercentile() {
+    ServerHealthState state = new ServerHealthState(SERVER);
+    Assert.assertEquals(
+        -1,
+        state.getRequestLatencyPercentileMillis(NOW_MILLIS, RANGE_MILLIS, 0.9f, 1));
+    for (int latency = 1; latency <= 10; ++latency) {
+      state.reportRequestLatency(NOW_MILLIS, latency);
+    }
+    state.reportRequestLatency(NOW_MILLIS - RANGE_MILLIS - 1, 1000);
+
+    Assert.assertEquals(
+        9,
+        state.getRequestLatencyPercentileMillis(NOW_MILLIS, RANGE_MILLIS, 0.9f, 1));
+    Assert.assertEquals(
+        10,
+        state.getRequestLatencyPercentileMillis(NOW_MILLIS, RANGE_MILLIS, 1f, 1));
+    Assert.assertEquals(
+        -1,
+        state.getRequestLatencyPercentileMillis(NOW_MILLIS, RANGE_MILLIS, 0.9f, 11));
+  }
+
   @Test
   public void testAgainstMemoryLeak() {
     int maxSamples = 42;
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.slb;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.google.common.collect.ImmutableList;
+
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.EasyMock;
+import org.easymock.EasyMockSupport;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+
+public class ShardedServiceTest extends EasyMockSupport {
+  private static final URI OWNER = URI.create("http://localhost:4242");
+  private static final URI REPLICA = URI.create("http://localhost:8484");
+  private static final URI OTHER = URI.create("http://localhost:2121");
+  private static final ImmutableList<URI> RANKED_SERVERS = ImmutableList.of(OWNER, REPLICA, OTHER);
+
+  private HttpLoadBalancer mockSlb;
+  private OkHttpClient mockClient;
+  private BuckEventBus mockBus;
+  private Capture<Request> requests;
+
+  @Before
+  public void setUp() throws IOException {
+    mockSlb = createNiceMock(HttpLoadBalancer.class);
+    mockClient = createMock(OkHttpClient.class);
+    mockBus = createNiceMock(BuckEventBus.class);
+    requests = EasyMock.newCapture(CaptureType.ALL);
+    EasyMock.expect(mockSlb.getServersForKey("key")).andReturn(RANKED_SERVERS).anyTimes();
+  }
+
+  @Test
+  public void testFetchGoesToOwner() throws IOException {
+    expectCall(false);
+    replayAll();
+
+    try (HttpResponse response = newService().makeRequest("/path", newFetchBuilder())) {
+      Assert.assertEquals(200, response.code());
+    }
+
+    verifyAll();
+    Assert.assertEquals(4242, requests.getValue().url().port());
+  }
+
+  @Test
+  public void testFetchFailsOverToReplica() throws IOException {
+    expectCall(true);
+    expectCall(false);
+    mockSlb.reportRequestException(OWNER);
+    EasyMock.expectLastCall().once();
+    replayAll();
+
+    try (HttpResponse response = newService().makeRequest("/path", newFetchBuilder())) {
+      Assert.assertEquals(200, response.code());
+    }
+
+    verifyAll();
+    Assert.assertEquals(8484, requests.getValues().get(1).url().port());
+  }
+
+  @Test(expected = IOException.class)
+  public void testFetchDoesNotGoPastReplicas() throws IOException {
+    expectCall(true);
+    expectCall(true);
+    replayAll();
+
+    newService().makeRequest("/path", newFetchBuilder());
+  }
+
+  @Test
+  public void testStoreGoesToAllReplicas() throws IOException {
+    expectCall(false);
+    expectCall(false);
+    replayAll();
+
+    Request.Builder builder = new Request.Builder()
+        .put(RequestBody.create(MediaType.parse("text/plain"), "artifact"));
+    ShardedService.setRoutingKeys(builder, ImmutableList.of("key"));
+    try (HttpResponse response = newService().makeRequest("/path", builder)) {
+      Assert.assertEquals(200, response.code());
+    }
+
+    verifyAll();
+    Assert.assertEquals(4242, requests.getValues().get(0).url().port());
+    Assert.assertEquals(8484, requests.getValues().get(1).url().port());
+  }
+
+  private ShardedService newService() {
+    return new ShardedService(mockSlb, mockClient, mockBus, 2);
+  }
+
+  private static Request.Builder newFetchBuilder() {
+    return ShardedService.setRoutingKeys(new Request.Builder().get(), ImmutableList.of("key"));
+  }
+
+  private void expectCall(boolean fail) throws IOException {
+    Call mockCall = createMock(Call.class);
+    if (fail) {
+      EasyMock.expect(mockCall.execute()).andThrow(new IOException("Connection refused."));
+    } else {
+      EasyMock.expect(mockCall.execute()).andReturn(new Response.Builder()
+          .body(ResponseBody.create(MediaType.parse("text/plain"), "The Body."))
+          .code(200)
+          .protocol(Protocol.HTTP_1_1)
+          .request(new Request.Builder().url("http://dummy.url").build())
+          .build());
+    }
+    EasyMock.expect(mockClient.newCall(EasyMock.capture(requests))).andReturn(mockCall);
+  }
+}
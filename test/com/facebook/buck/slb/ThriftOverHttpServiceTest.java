@@ -19,6 +19,7 @@ package com.facebook.buck.slb;
 import com.facebook.buck.distributed.thrift.FrontendRequest;
 import com.facebook.buck.distributed.thrift.FrontendRequestType;
 import com.facebook.buck.distributed.thrift.FrontendResponse;
+import com.google.common.base.Optional;
 import okhttp3.Request;
 
 import org.apache.thrift.TException;
@@ -108,6 +109,11 @@ public class ThriftOverHttpServiceTest {
         return new ByteArrayInputStream(responseBuffer);
       }
 
+      @Override
+      public Optional<String> getHeader(String name) {
+        return Optional.absent();
+      }
+
       @Override
       public String requestUrl() {
         return "super url";
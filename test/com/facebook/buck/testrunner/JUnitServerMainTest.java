@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.testrunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+public class JUnitServerMainTest {
+
+  @Test
+  public void readsFlatMessagesUntilTheArrayEnds() throws IOException {
+    JUnitServerMain.MessageReader reader = new JUnitServerMain.MessageReader(
+        new StringReader(
+            "[{\"id\":0,\"type\":\"handshake\",\"protocol_version\":\"0\",\"capabilities\":[]}," +
+                "{ \"id\" : 12 , \"type\":\"command\",\"args_path\":\"/tmp/a \\\"b\\\"\\u0021\"}" +
+                "]"));
+
+    assertEquals(
+        ImmutableMap.of(
+            "id", "0",
+            "type", "handshake",
+            "protocol_version", "0",
+            "capabilities", ""),
+        reader.nextMessage());
+    assertEquals(
+        ImmutableMap.of(
+            "id", "12",
+            "type", "command",
+            "args_path", "/tmp/a \"b\"!"),
+        reader.nextMessage());
+    assertNull(reader.nextMessage());
+  }
+
+  @Test
+  public void escapedEntriesSurviveLineBreaks() {
+    String entry = "arg:com.example.FooTest$#\ncom.example.BarTest\\#testBar$\r\n";
+    String line = JUnitServerMain.escape(entry);
+    assertEquals(-1, line.indexOf('\n'));
+    assertEquals(-1, line.indexOf('\r'));
+    assertEquals(entry, JUnitServerMain.unescape(line));
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.util;
+
+import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.util.environment.Platform;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import com.google.caliper.api.Macrobenchmark;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures how many short-lived processes {@link ProcessExecutor} can run with a given number of
+ * threads launching them, as a parallel build running compilers and genrules would.
+ */
+public class ProcessExecutorBenchmark {
+  private static final int PROCESS_COUNT = 96;
+
+  @Param({"1", "8", "48"})
+  private int threadCount = 1;
+
+  private ProcessExecutor executor;
+  private ProcessExecutorParams params;
+  private ListeningExecutorService executorService;
+
+  @Before
+  public void setUpTest() {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() {
+    executor = new ProcessExecutor(new TestConsole());
+    params = Platform.detect() == Platform.WINDOWS ?
+        ProcessExecutorParams.ofCommand("cmd.exe", "/c", "echo", "Hello") :
+        ProcessExecutorParams.ofCommand("echo", "Hello");
+    executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threadCount));
+  }
+
+  @After
+  @AfterExperiment
+  public void cleanup() {
+    executorService.shutdown();
+  }
+
+  @Test
+  public void spawnProcessesCorrectness() throws Exception {
+    spawnProcesses();
+  }
+
+  @Macrobenchmark
+  public void spawnProcesses() throws Exception {
+    ImmutableList.Builder<ListenableFuture<ProcessExecutor.Result>> results =
+        ImmutableList.builder();
+    for (int i = 0; i < PROCESS_COUNT; i++) {
+      results.add(
+          executorService.submit(
+              new Callable<ProcessExecutor.Result>() {
+                @Override
+                public ProcessExecutor.Result call() throws Exception {
+                  return runProcess();
+                }
+              }));
+    }
+    for (ProcessExecutor.Result result : Futures.allAsList(results.build()).get()) {
+      Preconditions.checkState(result.getExitCode() == 0);
+      Preconditions.checkState(result.getStdout().get().startsWith("Hello"));
+    }
+  }
+
+  private ProcessExecutor.Result runProcess() throws Exception {
+    return executor.launchAndExecute(
+        params,
+        ImmutableSet.of(ProcessExecutor.Option.EXPECTING_STD_OUT),
+        /* stdin */ Optional.<String>absent(),
+        /* timeOutMs */ Optional.<Long>absent(),
+        /* timeOutHandler */ Optional.<Function<Process, Void>>absent());
+  }
+}
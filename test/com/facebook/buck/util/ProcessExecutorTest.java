@@ -19,7 +19,9 @@ package com.facebook.buck.util;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
+import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
@@ -144,4 +146,42 @@ public class ProcessExecutorTest {
         "process was reported as timed out",
         result.isTimedOut());
   }
+
+  @Test
+  public void testLaunchAndExecuteWritesStdinAndCapturesStdout()
+      throws IOException, InterruptedException {
+    assumeTrue(Platform.detect() != Platform.WINDOWS);
+    ProcessExecutor executor = new ProcessExecutor(new TestConsole());
+    for (int i = 0; i < 10; i++) {
+      ProcessExecutor.Result result = executor.launchAndExecute(
+          ProcessExecutorParams.ofCommand("cat"),
+          EnumSet.of(ProcessExecutor.Option.EXPECTING_STD_OUT),
+          /* stdin */ Optional.of("Hello " + i),
+          /* timeOutMs */ Optional.of((long) 10000),
+          /* timeOutHandler */ Optional.<Function<Process, Void>>absent());
+      assertEquals(0, result.getExitCode());
+      assertFalse(result.isTimedOut());
+      assertEquals("Hello " + i + "\n", result.getStdout().get());
+    }
+  }
+
+  @Test
+  public void testWaitForLaunchedProcessWithTimeoutReportsTimeout()
+      throws IOException, InterruptedException {
+    ProcessExecutor executor = new ProcessExecutor(new TestConsole());
+    ProcessExecutor.LaunchedProcess process = executor.launchProcess(
+        Platform.detect() == Platform.WINDOWS ?
+            ProcessExecutorParams.ofCommand("ping", "-n", "50", "0.0.0.0") :
+            ProcessExecutorParams.ofCommand("sleep", "50"));
+    try {
+      ProcessExecutor.Result result = executor.waitForLaunchedProcessWithTimeout(
+          process,
+          100,
+          /* timeOutHandler */ Optional.<Function<Process, Void>>absent());
+      assertTrue(result.isTimedOut());
+      assertEquals(1, result.getExitCode());
+    } finally {
+      executor.destroyLaunchedProcess(process);
+    }
+  }
 }
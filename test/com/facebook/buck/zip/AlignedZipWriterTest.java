@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class AlignedZipWriterTest {
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void storedEntriesAreAligned() throws IOException {
+    Path zip = tmp.getRoot().resolve("out.zip");
+    AlignedZipWriter writer =
+        new AlignedZipWriter(zip, 4, ZipCompressionLevel.MAX_COMPRESSION_LEVEL, false);
+    writer.putBytes("a", bytes("first", 7), false);
+    writer.putBytes("bb", bytes("second", 5), true);
+    writer.putBytes("ccc", bytes("third", 3), false);
+    writer.putBytes("dddd", bytes("fourth", 1), false);
+    writer.write();
+
+    try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ)) {
+      for (RawZipEntry entry : RawZipEntry.readAll(zip)) {
+        if (entry.getMethod() == ZipEntry.STORED) {
+          assertEquals(entry.getName(), 0, entry.getDataOffset(channel) % 4);
+        }
+      }
+    }
+    assertContents(
+        zip,
+        ImmutableMap.of(
+            "a", bytes("first", 7),
+            "bb", bytes("second", 5),
+            "ccc", bytes("third", 3),
+            "dddd", bytes("fourth", 1)));
+  }
+
+  @Test
+  public void entriesOfOtherZipsAreCopied() throws IOException {
+    Path source = tmp.getRoot().resolve("source.zip");
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(source))) {
+      out.putNextEntry(new ZipEntry("deflated"));
+      out.write(bytes("deflated", 100));
+      out.closeEntry();
+      byte[] stored = bytes("stored", 100);
+      ZipEntry entry = new ZipEntry("stored");
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(stored.length);
+      entry.setCrc(crc(stored));
+      out.putNextEntry(entry);
+      out.write(stored);
+      out.closeEntry();
+    }
+
+    Path zip = tmp.getRoot().resolve("out.zip");
+    AlignedZipWriter writer =
+        new AlignedZipWriter(zip, 4, ZipCompressionLevel.MAX_COMPRESSION_LEVEL, false);
+    for (RawZipEntry entry : RawZipEntry.readAll(source)) {
+      writer.putEntry(entry, /* compress */ true);
+    }
+    writer.write();
+
+    for (RawZipEntry entry : RawZipEntry.readAll(zip)) {
+      assertEquals(entry.getName(), ZipEntry.DEFLATED, entry.getMethod());
+    }
+    assertContents(
+        zip,
+        ImmutableMap.of("deflated", bytes("deflated", 100), "stored", bytes("stored", 100)));
+  }
+
+  @Test
+  public void unchangedEntriesAreLeftInPlace() throws IOException {
+    Path zip = tmp.getRoot().resolve("out.zip");
+    AlignedZipWriter writer =
+        new AlignedZipWriter(zip, 4, ZipCompressionLevel.MAX_COMPRESSION_LEVEL, false);
+    writer.putBytes("unchanged", bytes("unchanged", 1000), false);
+    writer.putBytes("changed", bytes("old", 10), true);
+    writer.putBytes("removed", bytes("removed", 10), true);
+    writer.putBytes("resized", bytes("resized", 10), false);
+    writer.write();
+    ImmutableMap<String, RawZipEntry> before = readEntries(zip);
+
+    writer = new AlignedZipWriter(zip, 4, ZipCompressionLevel.MAX_COMPRESSION_LEVEL, true);
+    writer.putBytes("changed", bytes("new", 10), true);
+    writer.putBytes("unchanged", bytes("unchanged", 1000), false);
+    writer.putBytes("added", bytes("added", 10), false);
+    writer.putBytes("resized", bytes("resized", 11), false);
+    writer.keepPreviousEntry("unchanged");
+    writer.keepPreviousEntry("resized");
+    assertTrue(writer.isUnchanged("unchanged"));
+    assertFalse(writer.isUnchanged("changed"));
+    assertFalse(writer.isUnchanged("added"));
+    assertFalse(writer.isUnchanged("resized"));
+    writer.write();
+
+    ImmutableMap<String, RawZipEntry> after = readEntries(zip);
+    assertEquals(
+        before.get("unchanged").getLocalHeaderOffset(),
+        after.get("unchanged").getLocalHeaderOffset());
+    assertTrue(
+        after.get("changed").getLocalHeaderOffset() >
+            before.get("removed").getLocalHeaderOffset());
+    assertEquals(
+        ImmutableList.of("changed", "unchanged", "added", "resized"),
+        after.keySet().asList());
+    assertContents(
+        zip,
+        ImmutableMap.of(
+            "changed", bytes("new", 10),
+            "unchanged", bytes("unchanged", 1000),
+            "added", bytes("added", 10),
+            "resized", bytes("resized", 11)));
+  }
+
+  @Test
+  public void zipIsRewrittenOnceReplacedEntriesOutweighUnchangedOnes() throws IOException {
+    Path zip = tmp.getRoot().resolve("out.zip");
+    AlignedZipWriter writer =
+        new AlignedZipWriter(zip, 4, ZipCompressionLevel.MAX_COMPRESSION_LEVEL, false);
+    writer.putBytes("small", bytes("small", 10), false);
+    writer.putBytes("large", bytes("old", 1000), false);
+    writer.write();
+    ImmutableMap<String, RawZipEntry> before = readEntries(zip);
+
+    writer = new AlignedZipWriter(zip, 4, ZipCompressionLevel.MAX_COMPRESSION_LEVEL, true);
+    writer.putBytes("small", bytes("small", 10), false);
+    writer.putBytes("large", bytes("new", 1000), false);
+    writer.keepPreviousEntry("small");
+    writer.write();
+
+    ImmutableMap<String, RawZipEntry> after = readEntries(zip);
+    assertEquals(0, after.get("small").getLocalHeaderOffset());
+    assertEquals(
+        before.get("large").getLocalHeaderOffset(),
+        after.get("large").getLocalHeaderOffset());
+    assertContents(
+        zip,
+        ImmutableMap.of("small", bytes("small", 10), "large", bytes("new", 1000)));
+  }
+
+  @Test
+  public void invalidZipIsRewritten() throws IOException {
+    Path zip = tmp.getRoot().resolve("out.zip");
+    Files.write(zip, bytes("garbage", 100));
+
+    AlignedZipWriter writer =
+        new AlignedZipWriter(zip, 4, ZipCompressionLevel.MAX_COMPRESSION_LEVEL, true);
+    writer.putBytes("entry", bytes("entry", 10), false);
+    writer.keepPreviousEntry("entry");
+    assertFalse(writer.isUnchanged("entry"));
+    writer.write();
+
+    assertContents(zip, ImmutableMap.of("entry", bytes("entry", 10)));
+  }
+
+  private static byte[] bytes(String word, int repetitions) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < repetitions; i++) {
+      builder.append(word).append(i);
+    }
+    return builder.toString().getBytes(UTF_8);
+  }
+
+  private static long crc(byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return crc.getValue();
+  }
+
+  private static ImmutableMap<String, RawZipEntry> readEntries(Path zip) throws IOException {
+    ImmutableMap.Builder<String, RawZipEntry> entries = ImmutableMap.builder();
+    for (RawZipEntry entry : RawZipEntry.readAll(zip)) {
+      entries.put(entry.getName(), entry);
+    }
+    return entries.build();
+  }
+
+  private static void assertContents(
+      Path zip,
+      ImmutableMap<String, byte[]> expected) throws IOException {
+    try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+      ImmutableList.Builder<String> names = ImmutableList.builder();
+      for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
+           entries.hasMoreElements();) {
+        ZipEntry entry = entries.nextElement();
+        names.add(entry.getName());
+        try (InputStream in = zipFile.getInputStream(entry)) {
+          assertArrayEquals(
+              entry.getName(),
+              expected.get(entry.getName()),
+              ByteStreams.toByteArray(in));
+        }
+      }
+      assertEquals(expected.keySet().asList(), names.build());
+    }
+  }
+}